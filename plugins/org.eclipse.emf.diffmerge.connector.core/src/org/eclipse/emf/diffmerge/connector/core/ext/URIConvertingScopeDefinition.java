@@ -12,6 +12,8 @@
  */
 package org.eclipse.emf.diffmerge.connector.core.ext;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.io.InputStream;
 
 import org.eclipse.emf.diffmerge.api.scopes.IEditableModelScope;
@@ -22,14 +24,16 @@ import org.eclipse.emf.diffmerge.ui.specification.ITimestampProvider;
 import org.eclipse.emf.ecore.resource.Resource;
 import org.eclipse.emf.ecore.resource.ResourceSet;
 import org.eclipse.emf.ecore.resource.URIConverter;
+import org.eclipse.emf.edit.provider.IDisposable;
 
 
 /**
  * A model scope definition that wraps a regular model scope definition and alters
  * its behavior through a given URI Converter.
+ * The URI Converter is closed when the definition is disposed if it is closeable.
  */
 public class URIConvertingScopeDefinition implements IModelScopeDefinition,
-ITimestampProvider {
+ITimestampProvider, IDisposable {
   
   /** The non-null wrapped model scope definition */
   protected final IModelScopeDefinition _wrapped;
@@ -82,6 +86,19 @@ ITimestampProvider {
     return result;
   }
   
+  /**
+   * @see org.eclipse.emf.edit.provider.IDisposable#dispose()
+   */
+  public void dispose() {
+    if (_uriConverter instanceof Closeable) {
+      try {
+        ((Closeable)_uriConverter).close();
+      } catch (IOException e) {
+        // Ignore: nothing more can be done
+      }
+    }
+  }
+  
   /**
    * @see org.eclipse.emf.diffmerge.ui.specification.IModelScopeDefinition#getEntrypoint()
    */
@@ -0,0 +1,160 @@
+/*********************************************************************
+ * Copyright (c) 2010-2019 Thales Global Services S.A.S.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    Thales Global Services S.A.S. - initial API and implementation
+ **********************************************************************/
+package org.eclipse.emf.diffmerge.connector.git.ext;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+
+/**
+ * A resolver of the files of a given Git commit.
+ * The tree of the commit is walked once, the first time a file is requested,
+ * and the ids of all its blobs are cached by path. Files are then read through
+ * a single object reader, so that loading many fragments of a model from the
+ * same commit costs one tree walk instead of one tree lookup per fragment.
+ */
+public class GitCommitBlobResolver {
+
+  /** The non-null Git repository */
+  private final Repository _repository;
+
+  /** The non-null commit */
+  private final RevCommit _commit;
+
+  /** The potentially null map from paths in the commit to blob ids, null until the tree has been walked */
+  private Map<String, ObjectId> _blobIds;
+
+  /** The potentially null shared object reader, null until needed or when closed */
+  private ObjectReader _reader;
+
+
+  /**
+   * Constructor
+   * @param commit_p a non-null commit
+   * @param repository_p a non-null Git repository that contains the commit
+   */
+  public GitCommitBlobResolver(RevCommit commit_p, Repository repository_p) {
+    _repository = repository_p;
+    _commit = commit_p;
+    _blobIds = null;
+    _reader = null;
+  }
+
+  /**
+   * Release the shared object reader. The resolver remains usable afterwards.
+   */
+  public synchronized void close() {
+    if (_reader != null) {
+      _reader.close();
+      _reader = null;
+    }
+  }
+
+  /**
+   * Return the id of the blob at the given path in the commit
+   * @param path_p a non-null path relative to the root of the repository, with '/' as separator
+   * @return a potentially null blob id, where null means that there is no such file
+   * @throws IOException if the tree of the commit could not be read
+   */
+  public synchronized ObjectId getBlobId(String path_p) throws IOException {
+    if (_blobIds == null)
+      _blobIds = walkTree();
+    return _blobIds.get(path_p);
+  }
+
+  /**
+   * Return the commit whose files are resolved
+   * @return a non-null commit
+   */
+  public RevCommit getCommit() {
+    return _commit;
+  }
+
+  /**
+   * Return the shared object reader, creating it if needed
+   * @return a non-null object reader
+   */
+  protected ObjectReader getReader() {
+    if (_reader == null)
+      _reader = _repository.newObjectReader();
+    return _reader;
+  }
+
+  /**
+   * Return the Git repository of the commit
+   * @return a non-null repository
+   */
+  public Repository getRepository() {
+    return _repository;
+  }
+
+  /**
+   * Open and return a stream on the contents of the file at the given path in the commit
+   * @param path_p a non-null path relative to the root of the repository, with '/' as separator
+   * @return a potentially null stream, where null means that there is no such file
+   * @throws IOException if the file could not be read
+   */
+  public synchronized InputStream open(String path_p) throws IOException {
+    ObjectId blobId = getBlobId(path_p);
+    if (blobId == null)
+      return null;
+    ObjectLoader loader = getReader().open(blobId, Constants.OBJ_BLOB);
+    // Small blobs are copied so that the stream does not depend on the shared reader
+    return loader.isLarge()? loader.openStream(): new ByteArrayInputStream(loader.getCachedBytes());
+  }
+
+  /**
+   * Walk the tree of the commit and return the ids of its blobs by path
+   * @return a non-null, potentially empty, modifiable map
+   * @throws IOException if the tree could not be read
+   */
+  protected Map<String, ObjectId> walkTree() throws IOException {
+    Map<String, ObjectId> result = new HashMap<String, ObjectId>();
+    ObjectReader reader = getReader();
+    RevTree tree = _commit.getTree();
+    if (tree == null) {
+      // Commit not parsed
+      RevWalk revWalk = new RevWalk(reader);
+      try {
+        tree = revWalk.parseCommit(_commit).getTree();
+      } finally {
+        revWalk.close();
+      }
+    }
+    TreeWalk treeWalk = new TreeWalk(reader);
+    try {
+      treeWalk.addTree(tree);
+      treeWalk.setRecursive(true);
+      while (treeWalk.next()) {
+        if (treeWalk.getFileMode(0).getObjectType() == Constants.OBJ_BLOB)
+          result.put(treeWalk.getPathString(), treeWalk.getObjectId(0));
+      }
+    } finally {
+      treeWalk.close();
+    }
+    return result;
+  }
+
+}
@@ -12,8 +12,13 @@
  *******************************************************************************/
 package org.eclipse.emf.diffmerge.connector.git.ext;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
+import java.util.Map;
 
+import org.eclipse.emf.common.util.URI;
 import org.eclipse.emf.ecore.resource.ContentHandler;
 import org.eclipse.emf.ecore.resource.URIHandler;
 import org.eclipse.jgit.lib.Repository;
@@ -23,12 +28,18 @@ import org.eclipse.team.core.history.IFileRevision;
 
 /**
  * A URI Converter for file revisions in a given Git commit.
+ * Files are read through a resolver which is shared by all the resources loaded
+ * via this converter, so that the tree of the commit is walked only once.
+ * The resources held by the resolver are released when the converter is closed.
  */
-public class GitCommitURIConverter extends AbstractGitURIConverter {
+public class GitCommitURIConverter extends AbstractGitURIConverter implements Closeable {
   
   /** The non-null commit ID */
   private final RevCommit _commitId;
   
+  /** The potentially null resolver of the files of the commit, null until needed */
+  private GitCommitBlobResolver _blobResolver;
+  
   
   /**
    * Constructor
@@ -52,6 +63,42 @@ public class GitCommitURIConverter extends AbstractGitURIConverter {
     _commitId = commitId_p;
   }
   
+  /**
+   * Release the resources held for reading the files of the commit.
+   * The converter remains usable afterwards.
+   * @see java.io.Closeable#close()
+   */
+  public synchronized void close() {
+    if (_blobResolver != null)
+      _blobResolver.close();
+  }
+  
+  /**
+   * @see org.eclipse.emf.diffmerge.connector.git.ext.AbstractGitURIConverter#createInputStream(org.eclipse.emf.common.util.URI, java.util.Map)
+   */
+  @Override
+  public InputStream createInputStream(URI uri_p, Map<?, ?> options_p) throws IOException {
+    InputStream result = null;
+    if (getRepository() != null && isSupportedURI(uri_p)) {
+      String pathRepresentation = getURIPathRepresentation(uri_p);
+      if (pathRepresentation != null && pathRepresentation.length() > 1)
+        result = getBlobResolver().open(pathRepresentation.substring(1));
+    }
+    if (result == null) // Not found in the commit: default behavior
+      result = super.createInputStream(uri_p, options_p);
+    return result;
+  }
+  
+  /**
+   * Return the resolver of the files of the commit
+   * @return a non-null object
+   */
+  protected synchronized GitCommitBlobResolver getBlobResolver() {
+    if (_blobResolver == null)
+      _blobResolver = new GitCommitBlobResolver(_commitId, getRepository());
+    return _blobResolver;
+  }
+  
   /**
    * Return the commit ID for this URI Converter
    * @return a non-null object
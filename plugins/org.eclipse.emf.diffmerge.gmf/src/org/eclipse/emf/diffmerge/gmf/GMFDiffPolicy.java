@@ -89,4 +89,14 @@ public class GMFDiffPolicy extends ConfigurableDiffPolicy {
     return true;
   }
   
+  /**
+   * The extra equalities of this policy only concern values which are not of plain
+   * data types, so equivalence keys remain consistent.
+   * @see org.eclipse.emf.diffmerge.impl.policies.DefaultDiffPolicy#useEquivalenceKeys()
+   */
+  @Override
+  protected boolean useEquivalenceKeys() {
+    return !isConsiderEqualRedefinedBelow(GMFDiffPolicy.class);
+  }
+  
 }
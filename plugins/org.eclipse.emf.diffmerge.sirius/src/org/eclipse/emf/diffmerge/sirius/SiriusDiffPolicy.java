@@ -90,6 +90,18 @@ public class SiriusDiffPolicy extends GMFDiffPolicy {
     return result;
   }
 
+  /**
+   * @see org.eclipse.emf.diffmerge.impl.policies.DefaultDiffPolicy#getEquivalenceKey(java.lang.Object, org.eclipse.emf.ecore.EAttribute)
+   */
+  @Override
+  public Object getEquivalenceKey(Object value_p, EAttribute attribute_p) {
+    Object result = null;
+    // Workspace paths are compared in a specific way
+    if (DiagramPackage.eINSTANCE.getWorkspaceImage_WorkspacePath() != attribute_p)
+      result = super.getEquivalenceKey(value_p, attribute_p);
+    return result;
+  }
+
   /**
    * @see org.eclipse.emf.diffmerge.impl.policies.DefaultDiffPolicy#coverFeature(org.eclipse.emf.ecore.EStructuralFeature)
    */
@@ -168,4 +180,14 @@ public class SiriusDiffPolicy extends GMFDiffPolicy {
     return result;
   }
   
+  /**
+   * Workspace paths are excluded from equivalence keys and the other extra
+   * equalities of this policy only concern values which are not of plain data types.
+   * @see org.eclipse.emf.diffmerge.gmf.GMFDiffPolicy#useEquivalenceKeys()
+   */
+  @Override
+  protected boolean useEquivalenceKeys() {
+    return !isConsiderEqualRedefinedBelow(SiriusDiffPolicy.class);
+  }
+  
 }
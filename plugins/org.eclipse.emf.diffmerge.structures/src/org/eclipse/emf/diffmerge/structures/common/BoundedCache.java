@@ -0,0 +1,312 @@
+/*********************************************************************
+ * Copyright (c) 2010-2019 Thales Global Services S.A.S.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    Thales Global Services S.A.S. - initial API and implementation
+ **********************************************************************/
+package org.eclipse.emf.diffmerge.structures.common;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * A thread-safe cache that holds at most a given number of entries.
+ * When the bound is exceeded, the least recently used entries are evicted.
+ * The cache is split into independently locked segments so that concurrent lookups
+ * on different keys rarely contend; as a consequence, the least recently used
+ * policy is only applied within each segment.
+ * Keys are compared via equals(Object), null keys and null values are not supported.
+ * Numbers of hits, misses and evictions are maintained for statistical purposes.
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ * @author Olivier Constant
+ */
+public class BoundedCache<K, V> {
+  
+  /** The maximal number of segments */
+  protected static final int MAX_SEGMENTS = 16;
+  
+  /** The non-null, non-empty segments, whose number is a power of 2 */
+  private final Segment<K, V>[] _segments;
+  
+  /** The positive maximal number of entries */
+  private volatile int _capacity;
+  
+  
+  /**
+   * Constructor
+   * @param capacity_p the positive maximal number of entries
+   */
+  @SuppressWarnings("unchecked")
+  public BoundedCache(int capacity_p) {
+    checkCapacity(capacity_p);
+    _capacity = capacity_p;
+    int nbSegments = 1;
+    while (nbSegments < MAX_SEGMENTS && 2 * nbSegments <= capacity_p)
+      nbSegments *= 2;
+    _segments = (Segment<K, V>[])new Segment<?, ?>[nbSegments];
+    for (int i = 0; i < nbSegments; i++) {
+      _segments[i] = new Segment<K, V>(getSegmentCapacity(capacity_p, i));
+    }
+  }
+  
+  /**
+   * Check that the given capacity is valid
+   * @param capacity_p an int
+   * @throws IllegalArgumentException if the capacity is not positive
+   */
+  private static void checkCapacity(int capacity_p) {
+    if (capacity_p <= 0)
+      throw new IllegalArgumentException("Capacity must be positive: " + capacity_p); //$NON-NLS-1$
+  }
+  
+  /**
+   * Remove all entries from this cache. Statistics are not reset.
+   * @see BoundedCache#resetStatistics()
+   */
+  public void clear() {
+    for (Segment<K, V> segment : _segments) {
+      synchronized (segment) {
+        segment.clear();
+      }
+    }
+  }
+  
+  /**
+   * Return the value associated to the given key, if any, and record the
+   * lookup as a hit or a miss
+   * @param key_p a non-null object
+   * @return a potentially null object
+   */
+  public V get(K key_p) {
+    Segment<K, V> segment = getSegment(key_p);
+    synchronized (segment) {
+      V result = segment.get(key_p);
+      if (result == null)
+        segment._misses++;
+      else
+        segment._hits++;
+      return result;
+    }
+  }
+  
+  /**
+   * Return the maximal number of entries of this cache
+   * @return a positive int
+   */
+  public int getCapacity() {
+    return _capacity;
+  }
+  
+  /**
+   * Return the number of entries that have been evicted since creation or
+   * the last reset of statistics
+   * @see BoundedCache#resetStatistics()
+   * @return a positive or null long
+   */
+  public long getEvictionCount() {
+    long result = 0;
+    for (Segment<K, V> segment : _segments) {
+      synchronized (segment) {
+        result += segment._evictions;
+      }
+    }
+    return result;
+  }
+  
+  /**
+   * Return the number of successful lookups since creation or the last
+   * reset of statistics
+   * @see BoundedCache#resetStatistics()
+   * @return a positive or null long
+   */
+  public long getHitCount() {
+    long result = 0;
+    for (Segment<K, V> segment : _segments) {
+      synchronized (segment) {
+        result += segment._hits;
+      }
+    }
+    return result;
+  }
+  
+  /**
+   * Return the number of unsuccessful lookups since creation or the last
+   * reset of statistics
+   * @see BoundedCache#resetStatistics()
+   * @return a positive or null long
+   */
+  public long getMissCount() {
+    long result = 0;
+    for (Segment<K, V> segment : _segments) {
+      synchronized (segment) {
+        result += segment._misses;
+      }
+    }
+    return result;
+  }
+  
+  /**
+   * Return the maximal number of entries of the segment at the given position for
+   * the given capacity of this cache, so that segment capacities add up to it
+   * @param capacity_p a positive int
+   * @param position_p a valid position in the segments
+   * @return a positive or null int
+   */
+  private int getSegmentCapacity(int capacity_p, int position_p) {
+    int nbSegments = _segments.length;
+    int result = capacity_p / nbSegments;
+    if (position_p < capacity_p % nbSegments)
+      result++;
+    return result;
+  }
+  
+  /**
+   * Return the segment which is responsible for the given key
+   * @param key_p a non-null object
+   * @return a non-null segment
+   */
+  private Segment<K, V> getSegment(Object key_p) {
+    int hash = key_p.hashCode();
+    hash ^= (hash >>> 16);
+    return _segments[hash & (_segments.length - 1)];
+  }
+  
+  /**
+   * Associate the given value to the given key, possibly evicting the least
+   * recently used entries
+   * @param key_p a non-null object
+   * @param value_p a non-null object
+   */
+  public void put(K key_p, V value_p) {
+    if (value_p == null)
+      throw new IllegalArgumentException("Null values are not supported"); //$NON-NLS-1$
+    Segment<K, V> segment = getSegment(key_p);
+    synchronized (segment) {
+      segment.put(key_p, value_p);
+    }
+  }
+  
+  /**
+   * Reset the numbers of hits, misses and evictions
+   */
+  public void resetStatistics() {
+    for (Segment<K, V> segment : _segments) {
+      synchronized (segment) {
+        segment._hits = 0;
+        segment._misses = 0;
+        segment._evictions = 0;
+      }
+    }
+  }
+  
+  /**
+   * Set the maximal number of entries of this cache, in place. If the current number
+   * of entries exceeds the new capacity, the least recently used entries are evicted.
+   * Since the number of segments does not change, a capacity lower than the number of
+   * segments leaves some segments unable to hold entries.
+   * This method may be called concurrently with lookups.
+   * @param capacity_p the positive maximal number of entries
+   */
+  public void setCapacity(int capacity_p) {
+    checkCapacity(capacity_p);
+    for (int i = 0; i < _segments.length; i++) {
+      Segment<K, V> segment = _segments[i];
+      synchronized (segment) {
+        segment.setMaxSize(getSegmentCapacity(capacity_p, i));
+      }
+    }
+    _capacity = capacity_p;
+  }
+  
+  /**
+   * Return the current number of entries of this cache
+   * @return a positive or null int
+   */
+  public int size() {
+    int result = 0;
+    for (Segment<K, V> segment : _segments) {
+      synchronized (segment) {
+        result += segment.size();
+      }
+    }
+    return result;
+  }
+  
+  /**
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString() {
+    return "BoundedCache[size=" + size() + ", capacity=" + getCapacity() + //$NON-NLS-1$ //$NON-NLS-2$
+        ", hits=" + getHitCount() + ", misses=" + getMissCount() + //$NON-NLS-1$ //$NON-NLS-2$
+        ", evictions=" + getEvictionCount() + "]"; //$NON-NLS-1$ //$NON-NLS-2$
+  }
+  
+  
+  /**
+   * A bounded map in access order which is guarded by its own monitor.
+   * @param <K> the type of the keys
+   * @param <V> the type of the values
+   */
+  private static class Segment<K, V> extends LinkedHashMap<K, V> {
+  
+    /** The serial version ID */
+    private static final long serialVersionUID = 1L;
+  
+    /** The positive or null maximal number of entries */
+    private int _maxSize;
+  
+    /** The number of successful lookups */
+    protected long _hits;
+  
+    /** The number of unsuccessful lookups */
+    protected long _misses;
+  
+    /** The number of evicted entries */
+    protected long _evictions;
+  
+    /**
+     * Constructor
+     * @param maxSize_p the positive or null maximal number of entries
+     */
+    public Segment(int maxSize_p) {
+      super(16, 0.75f, true);
+      _maxSize = maxSize_p;
+    }
+  
+    /**
+     * @see java.util.LinkedHashMap#removeEldestEntry(java.util.Map.Entry)
+     */
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K, V> eldest_p) {
+      boolean result = size() > _maxSize;
+      if (result)
+        _evictions++;
+      return result;
+    }
+  
+    /**
+     * Set the maximal number of entries, evicting the least recently used entries
+     * in excess
+     * @param maxSize_p the positive or null maximal number of entries
+     */
+    public void setMaxSize(int maxSize_p) {
+      _maxSize = maxSize_p;
+      Iterator<K> it = keySet().iterator();
+      while (size() > _maxSize && it.hasNext()) {
+        it.next();
+        it.remove();
+        _evictions++;
+      }
+    }
+  }
+  
+}
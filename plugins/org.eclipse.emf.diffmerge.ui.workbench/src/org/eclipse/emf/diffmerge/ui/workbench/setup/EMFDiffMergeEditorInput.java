@@ -46,6 +46,7 @@ import org.eclipse.emf.diffmerge.ui.viewers.SelectionBridge;
 import org.eclipse.emf.diffmerge.ui.workbench.specification.ext.IComparisonMethodE3;
 import org.eclipse.emf.diffmerge.ui.workbench.util.ExtendedUnloaderE3;
 import org.eclipse.emf.diffmerge.ui.workbench.viewers.EMFDiffNodeE3;
+import org.eclipse.emf.diffmerge.util.OperationMetrics;
 import org.eclipse.emf.ecore.EObject;
 import org.eclipse.emf.ecore.resource.Resource;
 import org.eclipse.emf.ecore.resource.ResourceSet;
@@ -635,17 +636,28 @@ implements IEditingDomainProvider {
     SubMonitor monitor = SubMonitor.convert(monitor_p, EMFDiffMergeUIPlugin.LABEL, 2);
     EMFDiffNode result = null;
     try {
-      if (!scopesReady)
+      long loadingDuration = 0L;
+      if (!scopesReady) {
+        long start = System.nanoTime();
         loadScopes(monitor.newChild(1));
+        loadingDuration = System.nanoTime() - start;
+      }
       EComparison comparison = initializeComparison();
       comparison.compute(_comparisonMethod.getMatchPolicy(), _comparisonMethod.getDiffPolicy(),
           _comparisonMethod.getMergePolicy(), monitor.newChild(scopesReady? 2: 1));
+      if (!scopesReady && comparison instanceof OperationMetrics.Provider)
+        ((OperationMetrics.Provider)comparison).getMetrics().addPhaseDuration(
+            OperationMetrics.PHASE_LOADING, loadingDuration);
       checkInconsistency(comparison);
       _foundDifferences = comparison.hasRemainingDifferences();
-      if (_foundDifferences)
+      if (_foundDifferences) {
+        // The comparison is kept as long as the editor is open
+        if (comparison instanceof IComparison.Compactable)
+          ((IComparison.Compactable)comparison).compact();
         result = initializeDiffNode(comparison);
-      else
+      } else {
         handleDispose();
+      }
     } catch (OperationCanceledException e) {
       // No user feedback is needed
       handleDispose();
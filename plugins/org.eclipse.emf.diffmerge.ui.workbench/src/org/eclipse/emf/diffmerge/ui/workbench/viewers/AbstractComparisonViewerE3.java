@@ -131,7 +131,7 @@ public abstract class AbstractComparisonViewerE3 extends AbstractComparisonViewe
 		if ( input_p instanceof EMFDiffNode ) {
 			EMFDiffNode node = (EMFDiffNode)input_p;
 			registerCategories( node );
-			node.updateDifferenceNumbers();
+			node.updateDifferenceNumbers( false );
 			node.getCategoryManager().setDefaultConfiguration();
 		}
 		if ( input_p instanceof ICompareInput ) {
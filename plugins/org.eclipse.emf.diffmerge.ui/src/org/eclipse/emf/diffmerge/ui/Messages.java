@@ -207,6 +207,7 @@ public class Messages extends NLS {
   public static String EMFDiffMergeLabelProvider_ValueAddition;
   public static String EMFDiffMergeLabelProvider_ValueDeletion;
   public static String EMFDiffMergeUIPlugin_Label;
+  public static String EMFDiffNode_DifferenceNumbersJob;
   public static String DefaultComparisonMethodFactory_Label;
   public static String EnhancedComparisonTreeViewer_DefaultHeader;
   public static String EnhancedFeaturesViewer_DetailsWithSelection;
@@ -15,11 +15,13 @@ import static org.eclipse.emf.diffmerge.ui.log.DiffMergeLogger.LINE_SEP;
 
 import java.util.Date;
 
+import org.eclipse.emf.diffmerge.api.IComparison;
 import org.eclipse.emf.diffmerge.api.Role;
 import org.eclipse.emf.diffmerge.api.scopes.IFeaturedModelScope;
 import org.eclipse.emf.diffmerge.ui.Messages;
 import org.eclipse.emf.diffmerge.ui.util.DiffMergeLabelProvider;
 import org.eclipse.emf.diffmerge.ui.viewers.EMFDiffNode;
+import org.eclipse.emf.diffmerge.util.OperationMetrics;
 import org.eclipse.emf.edit.domain.EditingDomain;
 
 
@@ -47,6 +49,18 @@ public class CompareLogEvent extends AbstractLogEvent {
     return getSideLabel(true);
   }
   
+  /**
+   * Return the performance metrics of the comparison, if any
+   * @return potentially null metrics
+   */
+  public OperationMetrics getMetrics() {
+    OperationMetrics result = null;
+    IComparison comparison = getDiffNode().getActualComparison();
+    if (comparison instanceof OperationMetrics.Provider)
+      result = ((OperationMetrics.Provider)comparison).getMetrics();
+    return result;
+  }
+  
   /**
    * Return the label describing the right-hand side
    * @return a non-null string
@@ -75,6 +89,15 @@ public class CompareLogEvent extends AbstractLogEvent {
     builder.append(Messages.ComparisonSetupWizardPage_RoleRight);
     builder.append(getRightLabel());
     builder.append(LINE_SEP);
+    // Performance metrics
+    OperationMetrics metrics = getMetrics();
+    if (metrics != null && !metrics.isEmpty()) {
+      builder.append("Metrics:");
+      builder.append(LINE_SEP);
+      for (String line : metrics.toString().split("\n")) {
+        DiffMergeLogger.appendAtLevel(builder, 1, line);
+      }
+    }
     return builder.toString();
   }
   
@@ -24,6 +24,7 @@ import org.eclipse.emf.diffmerge.diffdata.impl.EComparisonImpl;
 import org.eclipse.emf.diffmerge.ui.setup.AbstractComparisonSetup;
 import org.eclipse.emf.diffmerge.ui.specification.IComparisonMethod;
 import org.eclipse.emf.diffmerge.ui.specification.IComparisonMethodFactory;
+import org.eclipse.emf.diffmerge.ui.specification.IModelScopeDefinition;
 import org.eclipse.emf.diffmerge.ui.util.IDiffLabelDecorator;
 import org.eclipse.emf.diffmerge.ui.util.MiscUtil;
 import org.eclipse.emf.diffmerge.ui.viewers.AbstractComparisonViewer;
@@ -161,7 +162,7 @@ implements IComparisonMethod {
   }
   
   /**
-   * Dispose this comparison method.
+   * Dispose this comparison method, including its disposable model scope definitions.
    * This excludes scopes, comparison and Eclipse operation history.
    * @see org.eclipse.emf.edit.provider.IDisposable#dispose()
    */
@@ -191,7 +192,12 @@ implements IComparisonMethod {
     // Dedicated transactional editing domain: dispose it
     if (domain instanceof TransactionalEditingDomain && _isDedicatedEditingDomain)
       ((TransactionalEditingDomain)domain).dispose();
-
+    // Scope definitions may hold resources, e.g., for reading revisions
+    for (Role role : Role.values()) {
+      IModelScopeDefinition scopeDefinition = getModelScopeDefinition(role);
+      if (scopeDefinition instanceof IDisposable)
+        ((IDisposable)scopeDefinition).dispose();
+    }
   }
   
   /**
@@ -30,6 +30,7 @@ import org.eclipse.emf.diffmerge.api.Role;
 import org.eclipse.emf.diffmerge.api.scopes.IModelScope;
 import org.eclipse.emf.diffmerge.api.scopes.IPersistentModelScope;
 import org.eclipse.emf.diffmerge.diffdata.EComparison;
+import org.eclipse.emf.diffmerge.impl.helpers.MatchTree;
 import org.eclipse.emf.diffmerge.ui.EMFDiffMergeUIPlugin;
 import org.eclipse.emf.diffmerge.ui.EMFDiffMergeUIPlugin.ImageID;
 import org.eclipse.emf.diffmerge.ui.Messages;
@@ -168,6 +169,8 @@ implements IFlushable, IPropertyChangeNotifier, ICompareInputChangeListener, IAd
    */
   protected void executeOnComparison(final Runnable runnable_p) {
     EMFDiffNode input = getInput();
+    if (input != null)
+      input.stopDifferenceNumbersUpdate();
     final boolean recordChanges = input != null && input.isUndoRedoSupported();
     final EditingDomain domain = getEditingDomain();
     try {
@@ -185,6 +188,8 @@ implements IFlushable, IPropertyChangeNotifier, ICompareInputChangeListener, IAd
    */
   protected void executeOnModel(final Runnable runnable_p, boolean onLeft_p) {
     EMFDiffNode input = getInput();
+    if (input != null)
+      input.stopDifferenceNumbersUpdate();
     final boolean recordChanges = input != null && input.isUndoRedoSupported();
     final EditingDomain domain = getEditingDomain(onLeft_p);
     try {
@@ -213,6 +218,8 @@ implements IFlushable, IPropertyChangeNotifier, ICompareInputChangeListener, IAd
    */
   protected void executeOnModel(final IRunnableWithProgress behavior_p, boolean onLeft_p) {
     EMFDiffNode input = getInput();
+    if (input != null)
+      input.stopDifferenceNumbersUpdate();
     final boolean recordChanges = input != null && input.isUndoRedoSupported();
     final EditingDomain domain = getEditingDomain(onLeft_p);
     try {
@@ -560,7 +567,7 @@ implements IFlushable, IPropertyChangeNotifier, ICompareInputChangeListener, IAd
       EMFDiffNode node = (EMFDiffNode)input_p;
       registerUserProperties(node);
       registerCategories(node);
-      node.updateDifferenceNumbers();
+      node.updateDifferenceNumbers(false);
       node.getCategoryManager().setDefaultConfiguration();
     }
     if (input_p instanceof ICompareInput) {
@@ -720,12 +727,16 @@ implements IFlushable, IPropertyChangeNotifier, ICompareInputChangeListener, IAd
         public void run() {
           final CommandStack stack = editingDomain.getCommandStack();
           final ComparisonSelection lastActionSelection = getUIComparison().getLastActionSelection();
+          EMFDiffNode input = getInput();
+          if (input != null)
+            input.stopDifferenceNumbersUpdate();
           if (undo_p && stack.canUndo()) {
             stack.undo();
           } else if (!undo_p && stack.canRedo()) {
             stack.redo();
           }
-          EMFDiffNode input = getInput();
+          // The scopes have changed behind the comparison
+          MatchTree.discardMaintainedTree(getComparison());
           if (input != null && !input.isReactive()) {
             input.updateDifferenceNumbers();
           }
@@ -14,6 +14,7 @@ package org.eclipse.emf.diffmerge.ui.viewers;
 import static org.eclipse.emf.diffmerge.ui.viewers.DefaultUserProperties.P_SHOW_DIFFERENCE_NUMBERS;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -25,6 +26,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.emf.common.util.EMap;
 import org.eclipse.emf.diffmerge.api.IComparison;
 import org.eclipse.emf.diffmerge.api.IMatch;
@@ -56,6 +59,15 @@ import org.eclipse.jface.viewers.TreePath;
  */
 public class CategoryManager {
   
+  /** The bit of a memoized verdict which tells whether the difference is filtered out */
+  private static final int VERDICT_FILTERED = 1;
+  
+  /** The bit of a memoized verdict which tells whether the difference was merged */
+  private static final int VERDICT_MERGED = 2;
+  
+  /** The bit of a memoized verdict which tells whether the difference was ignored */
+  private static final int VERDICT_IGNORED = 4;
+  
   /** The non-null diff node that is the context of this manager */
   protected final EMFDiffNode _node;
   
@@ -74,8 +86,24 @@ public class CategoryManager {
   /** The modifiable (parent, children) map of category items that should be visible in the UI */
   protected final Map<IDifferenceCategorySet, Collection<IDifferenceCategoryItem>> _uiChildrenItems;
   
-  /** The map from matches to difference numbers */
-  private final EMap<EMatch, Integer> _matchToNb;
+  /** The non-null, immutable list of the active categories in the order of registration,
+   * which may be read from any thread */
+  private volatile List<IDifferenceCategory> _activeCategoryList;
+  
+  /** The non-null, latest complete difference numbers, which may be read from any thread */
+  private volatile DifferenceNumbers _differenceNumbers;
+  
+  /** The non-null map from differences to their memoized verdicts as combinations of
+   * VERDICT_* bits, which are valid as long as the merged and ignored bits hold */
+  private final Map<IDifference, Integer> _filterVerdicts;
+  
+  /** The potentially null description of the configuration under which verdicts have
+   * been memoized, apart from the active categories in filtering mode */
+  private List<Object> _filterConfiguration;
+  
+  /** The non-null set of the active categories in filtering mode under which verdicts
+   * have been memoized */
+  private final Set<IDifferenceCategory> _filteringCategories;
   
   
   /**
@@ -89,7 +117,12 @@ public class CategoryManager {
     _defaultConfiguration = new HashSet<IDifferenceCategory>();
     _uiRootItems = new ArrayList<IDifferenceCategoryItem>();
     _uiChildrenItems = new HashMap<IDifferenceCategorySet, Collection<IDifferenceCategoryItem>>();
-    _matchToNb = new FHashMap<EMatch, Integer>();
+    _activeCategoryList = Collections.emptyList();
+    _differenceNumbers = new DifferenceNumbers(
+        new HashMap<IMatch, Integer>(), new int[0], new int[0]);
+    _filterVerdicts = new HashMap<IDifference, Integer>();
+    _filterConfiguration = null;
+    _filteringCategories = new HashSet<IDifferenceCategory>();
   }
   
   /**
@@ -191,6 +224,63 @@ public class CategoryManager {
     return result;
   }
   
+  /**
+   * Compute the numbers of differences of all matches in one bottom-up pass over the
+   * tree of matches as represented in the UI
+   * @param monitor_p a non-null progress monitor which is checked for cancellation
+   * @return the new numbers, or null if the computation has been cancelled
+   */
+  protected DifferenceNumbers computeDifferenceNumbers(IProgressMonitor monitor_p) {
+    Map<IMatch, Integer> positions = new HashMap<IMatch, Integer>();
+    IComparison comparison = _node.getActualComparison();
+    if (comparison == null)
+      return new DifferenceNumbers(positions, new int[0], new int[0]);
+    Collection<IMatch> matches = comparison.getMapping().getContents();
+    // Order matches so that containers come before their contents
+    Map<IMatch, List<IMatch>> contents = new HashMap<IMatch, List<IMatch>>();
+    List<IMatch> toVisit = new ArrayList<IMatch>();
+    for (IMatch match : matches) {
+      IMatch container = _node.getContainerOf((EMatch)match);
+      if (container == null) {
+        toVisit.add(match);
+      } else {
+        List<IMatch> siblings = contents.get(container);
+        if (siblings == null) {
+          siblings = new ArrayList<IMatch>();
+          contents.put(container, siblings);
+        }
+        siblings.add(match);
+      }
+    }
+    if (monitor_p.isCanceled())
+      return null;
+    int[] containers = new int[matches.size()];
+    int[] totals = new int[matches.size()];
+    int[] owns = new int[matches.size()];
+    int position = 0;
+    while (!toVisit.isEmpty()) {
+      IMatch current = toVisit.remove(toVisit.size() - 1);
+      IMatch container = _node.getContainerOf((EMatch)current);
+      Integer containerPosition = (container == null)? null: positions.get(container);
+      containers[position] = (containerPosition == null)? -1: containerPosition.intValue();
+      owns[position] = countDifferences(current, true);
+      totals[position] = owns[position];
+      positions.put(current, Integer.valueOf(position));
+      position++;
+      List<IMatch> currentContents = contents.get(current);
+      if (currentContents != null)
+        toVisit.addAll(currentContents);
+      if (monitor_p.isCanceled())
+        return null;
+    }
+    // Sum up contents into their containers, bottom-up
+    for (int i = position - 1; i >= 0; i--) {
+      if (containers[i] >= 0)
+        totals[containers[i]] += totals[i];
+    }
+    return new DifferenceNumbers(positions, totals, owns);
+  }
+  
   /**
    * Return the set of registered difference categories
    * @return a non-null, non-modifiable collection
@@ -374,18 +464,26 @@ public class CategoryManager {
    * @return a positive int or 0
    */
   public int getDifferenceNumber(IMatch match_p) {
-    Integer currentNb = getMatchToNb().get(match_p);
-    if (currentNb == null)
-      currentNb = Integer.valueOf(0);
-    return currentNb.intValue();
+    return _differenceNumbers.getDifferenceNumber(match_p);
   }
   
   /**
-   * Return the map from matches to differences numbers
+   * Return a map from matches to differences numbers
+   * @deprecated Difference numbers are now held in an immutable snapshot which is
+   *  replaced as a whole: the returned map is a copy and modifying it has no effect.
+   *  Use getDifferenceNumber(IMatch) instead.
    * @return a non-null, modifiable map
    */
+  @Deprecated
   protected EMap<EMatch, Integer> getMatchToNb() {
-    return _matchToNb;
+    DifferenceNumbers numbers = _differenceNumbers;
+    EMap<EMatch, Integer> result = new FHashMap<EMatch, Integer>();
+    for (Map.Entry<IMatch, Integer> entry : numbers._positions.entrySet()) {
+      if (entry.getKey() instanceof EMatch)
+        result.put((EMatch)entry.getKey(),
+            Integer.valueOf(numbers._totals[entry.getValue().intValue()]));
+    }
+    return result;
   }
   
   /**
@@ -411,6 +509,17 @@ public class CategoryManager {
     return result;
   }
   
+  /**
+   * Return the number of differences on the given match itself, excluding differences
+   * on children, without recounting.
+   * Class invariant: getOwnDifferenceNumber(match) <= getDifferenceNumber(match)
+   * @param match_p a non-null match
+   * @return a positive int or 0
+   */
+  public int getOwnDifferenceNumber(IMatch match_p) {
+    return _differenceNumbers.getOwnDifferenceNumber(match_p);
+  }
+  
   /**
    * Return the difference kind for the ownership of the given match
    * @param match_p a non-null match
@@ -526,22 +635,28 @@ public class CategoryManager {
   }
   
   /**
-   * Increment the number of differences by the given increment for the given match
+   * Increment the number of differences by the given increment for the given match.
+   * This method must be called from the UI thread.
+   * @deprecated Difference numbers are now computed at once by
+   *  updateDifferenceNumbers(IProgressMonitor), which no longer calls this method.
    * @param match_p a non-null match
    * @param increment_p a positive int
    */
+  @Deprecated
   protected void incrementDifferenceNumbers(EMatch match_p, int increment_p) {
-    int currentNb = getDifferenceNumber(match_p);
-    Integer newNb = Integer.valueOf(increment_p + currentNb);
-    getMatchToNb().put(match_p, newNb);
+    _differenceNumbers = _differenceNumbers.withIncrement(match_p, increment_p);
   }
   
   /**
    * Increment the number of differences by the given increment for the given match
-   * and its parents according to the driving role
+   * and its parents according to the driving role.
+   * This method must be called from the UI thread.
+   * @deprecated Difference numbers are now computed at once by
+   *  updateDifferenceNumbers(IProgressMonitor), which no longer calls this method.
    * @param match_p a non-null match
    * @param increment_p a positive int
    */
+  @Deprecated
   protected void incrementDifferenceNumbersInHierarchy(EMatch match_p, int increment_p) {
     if (increment_p > 0) {
       incrementDifferenceNumbers(match_p, increment_p);
@@ -610,13 +725,99 @@ public class CategoryManager {
   }
   
   /**
-   * Return whether the given difference is filtered out by categories
+   * Return whether any of the given categories covers the given difference
+   * @param categories_p a non-null collection of categories
+   * @param difference_p a non-null difference
+   */
+  protected boolean coversAny(Collection<IDifferenceCategory> categories_p,
+      IDifference difference_p) {
+    for (IDifferenceCategory category : categories_p) {
+      if (category.covers(difference_p, _node))
+        return true;
+    }
+    return false;
+  }
+  
+  /**
+   * Return the configuration which filtering verdicts depend on, apart from the
+   * active categories in filtering mode: a change in this configuration invalidates
+   * all verdicts, while activating or deactivating a category in filtering mode only
+   * invalidates the verdicts of the differences it covers
+   * @return a non-null list
+   */
+  protected List<Object> getFilterConfiguration() {
+    List<Object> result = new ArrayList<Object>();
+    result.add(_node.getActualComparison());
+    result.add(_node.getRoleForSide(true));
+    for (IDifferenceCategory category : getCategories()) {
+      if (_activeCategories.contains(category) && category.isInFocusMode())
+        result.add(category);
+    }
+    return result;
+  }
+  
+  /**
+   * Return the bits of a verdict which correspond to the merge state of the given difference
+   * @param difference_p a non-null difference
+   */
+  private int getVerdictState(IDifference difference_p) {
+    int result = 0;
+    if (difference_p.isMerged())
+      result |= VERDICT_MERGED;
+    if (difference_p.isIgnored())
+      result |= VERDICT_IGNORED;
+    return result;
+  }
+  
+  /**
+   * Forget all memoized filtering verdicts.
+   * This is only needed if categories depend on a state that is not taken into
+   * account by getFilterConfiguration() and that has changed.
+   * @see CategoryManager#getFilterConfiguration()
+   */
+  public void invalidateFilterVerdicts() {
+    synchronized (_filterVerdicts) {
+      _filterVerdicts.clear();
+      _filterConfiguration = null;
+    }
+  }
+  
+  /**
+   * Return whether the given difference is filtered out by categories.
+   * Verdicts are memoized until the configuration of categories changes or until
+   * the difference is merged or ignored.
    * @param difference_p a non-null difference
    */
   public boolean isFiltered(IDifference difference_p) {
+    int state = getVerdictState(difference_p);
+    Integer verdict;
+    List<Object> configuration;
+    synchronized (_filterVerdicts) {
+      verdict = _filterVerdicts.get(difference_p);
+      configuration = _filterConfiguration;
+    }
+    if (verdict != null && (verdict.intValue() & ~VERDICT_FILTERED) == state)
+      return (verdict.intValue() & VERDICT_FILTERED) != 0;
+    boolean result = isFilteredByActiveCategories(difference_p);
+    if (result)
+      state |= VERDICT_FILTERED;
+    synchronized (_filterVerdicts) {
+      // Do not record a verdict which may be outdated by a concurrent update
+      if (_filterConfiguration == configuration)
+        _filterVerdicts.put(difference_p, Integer.valueOf(state));
+    }
+    return result;
+  }
+  
+  /**
+   * Return whether the given difference is filtered out by the active categories,
+   * without memoization
+   * @param difference_p a non-null difference
+   */
+  protected boolean isFilteredByActiveCategories(IDifference difference_p) {
     boolean globalFocus = false; // At least one category is in focus mode
     boolean diffFocus = false; // At least one covering category is in focus mode
-    for (IDifferenceCategory category : _activeCategories) {
+    for (IDifferenceCategory category : _activeCategoryList) {
       boolean catFocus = category.isInFocusMode();
       globalFocus = globalFocus || catFocus;
       boolean covered = category.covers(difference_p, _node);
@@ -950,8 +1151,7 @@ public class CategoryManager {
    * Re-compute filtering and differences numbers
    */
   public void update() {
-    updateActiveCategories();
-    updateUIItems();
+    updateFiltering();
     updateDifferenceNumbers();
   }
   
@@ -960,26 +1160,110 @@ public class CategoryManager {
    */
   protected void updateActiveCategories() {
     _activeCategories.clear();
+    List<IDifferenceCategory> activeCategoryList = new ArrayList<IDifferenceCategory>();
     for (IDifferenceCategory category : getCategories()) {
-      if (category.isApplicable(_node) && category.isActive())
+      if (category.isApplicable(_node) && category.isActive()) {
         _activeCategories.add(category);
+        activeCategoryList.add(category);
+      }
     }
+    _activeCategoryList = Collections.unmodifiableList(activeCategoryList);
   }
   
   /**
    * Re-compute difference numbers
    */
   protected void updateDifferenceNumbers() {
-    getMatchToNb().clear();
-    IComparison comparison = _node.getActualComparison();
-    if (comparison != null) {
-      for (IMatch match : comparison.getMapping().getContents()) {
-        int nb = countDifferences(match, true);
-        incrementDifferenceNumbersInHierarchy((EMatch)match, nb);
+    updateDifferenceNumbers(new NullProgressMonitor());
+  }
+  
+  /**
+   * Re-compute difference numbers according to the current filtering, unless the
+   * computation is cancelled. This method may be called from any thread; the new
+   * numbers replace the former ones at once.
+   * @see CategoryManager#updateFiltering()
+   * @param monitor_p a non-null progress monitor which is checked for cancellation
+   * @return whether the difference numbers have been updated
+   */
+  public boolean updateDifferenceNumbers(IProgressMonitor monitor_p) {
+    DifferenceNumbers numbers = computeDifferenceNumbers(monitor_p);
+    boolean result = numbers != null && !monitor_p.isCanceled();
+    if (result)
+      _differenceNumbers = numbers;
+    return result;
+  }
+  
+  /**
+   * Forget the memoized filtering verdicts which may have changed along with the
+   * configuration of categories
+   * @see CategoryManager#getFilterConfiguration()
+   */
+  protected void updateFilterVerdicts() {
+    List<Object> configuration = getFilterConfiguration();
+    Set<IDifferenceCategory> filteringCategories = new HashSet<IDifferenceCategory>();
+    for (IDifferenceCategory category : _activeCategoryList) {
+      if (!category.isInFocusMode())
+        filteringCategories.add(category);
+    }
+    synchronized (_filterVerdicts) {
+      if (!configuration.equals(_filterConfiguration)) {
+        _filterVerdicts.clear();
+        _filterConfiguration = configuration;
+      } else {
+        List<IDifferenceCategory> activated = new ArrayList<IDifferenceCategory>();
+        for (IDifferenceCategory category : filteringCategories) {
+          if (!_filteringCategories.contains(category))
+            activated.add(category);
+        }
+        List<IDifferenceCategory> deactivated = new ArrayList<IDifferenceCategory>();
+        for (IDifferenceCategory category : _filteringCategories) {
+          if (!filteringCategories.contains(category))
+            deactivated.add(category);
+        }
+        if (!activated.isEmpty() || !deactivated.isEmpty())
+          updateFilterVerdicts(activated, deactivated);
       }
+      _filteringCategories.clear();
+      _filteringCategories.addAll(filteringCategories);
     }
   }
   
+  /**
+   * Update the memoized filtering verdicts after the given categories in filtering
+   * mode have been activated and deactivated, the rest of the configuration being
+   * unchanged. Activating such a category can only filter out the differences it
+   * covers, and deactivating it can only make visible the differences it covers.
+   * @param activated_p a non-null collection of newly active categories in filtering mode
+   * @param deactivated_p a non-null collection of formerly active categories in filtering mode
+   */
+  protected void updateFilterVerdicts(Collection<IDifferenceCategory> activated_p,
+      Collection<IDifferenceCategory> deactivated_p) {
+    Iterator<Map.Entry<IDifference, Integer>> it = _filterVerdicts.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<IDifference, Integer> entry = it.next();
+      IDifference difference = entry.getKey();
+      int verdict = entry.getValue().intValue();
+      if ((verdict & VERDICT_FILTERED) != 0) {
+        // Another active category may still filter the difference out
+        if (coversAny(deactivated_p, difference))
+          it.remove();
+      } else if (coversAny(activated_p, difference)) {
+        entry.setValue(Integer.valueOf(verdict | VERDICT_FILTERED));
+      }
+    }
+  }
+  
+  /**
+   * Re-compute filtering according to the current state of categories, without
+   * re-computing difference numbers. This method must be called from the UI thread.
+   * @see CategoryManager#updateDifferenceNumbers(IProgressMonitor)
+   */
+  public void updateFiltering() {
+    updateActiveCategories();
+    updateFilterVerdicts();
+    updateUIItems();
+  }
+  
   /**
    * Re-compute the forest of category items that should be visible in the UI
    */
@@ -1014,4 +1298,78 @@ public class CategoryManager {
     }
   }
   
+  
+  /**
+   * An immutable snapshot of the numbers of differences of matches, stored in arrays
+   * indexed by the positions of matches in the tree of matches.
+   */
+  protected static class DifferenceNumbers {
+    
+    /** The non-null map from matches to their positions in the arrays */
+    private final Map<IMatch, Integer> _positions;
+    
+    /** The non-null array of the numbers of differences of matches including their children */
+    private final int[] _totals;
+    
+    /** The non-null array of the numbers of differences of matches excluding their children */
+    private final int[] _owns;
+    
+    /**
+     * Constructor
+     * @param positions_p the non-null map from matches to their positions, which must not be modified afterwards
+     * @param totals_p the non-null numbers of differences including children
+     * @param owns_p the non-null numbers of differences excluding children
+     */
+    protected DifferenceNumbers(Map<IMatch, Integer> positions_p, int[] totals_p,
+        int[] owns_p) {
+      _positions = positions_p;
+      _totals = totals_p;
+      _owns = owns_p;
+    }
+    
+    /**
+     * Return the number of differences of the given match, including its children
+     * @param match_p a non-null match
+     * @return a positive int or 0
+     */
+    public int getDifferenceNumber(IMatch match_p) {
+      Integer position = _positions.get(match_p);
+      return position == null? 0: _totals[position.intValue()];
+    }
+    
+    /**
+     * Return the number of differences of the given match, excluding its children
+     * @param match_p a non-null match
+     * @return a positive int or 0
+     */
+    public int getOwnDifferenceNumber(IMatch match_p) {
+      Integer position = _positions.get(match_p);
+      return position == null? 0: _owns[position.intValue()];
+    }
+    
+    /**
+     * Return a copy of these numbers where the number of differences of the given
+     * match, including its children, is incremented by the given increment
+     * @param match_p a non-null match
+     * @param increment_p an int
+     * @return a non-null object
+     */
+    protected DifferenceNumbers withIncrement(IMatch match_p, int increment_p) {
+      Map<IMatch, Integer> positions = _positions;
+      Integer position = positions.get(match_p);
+      int size = _totals.length;
+      if (position == null) {
+        positions = new HashMap<IMatch, Integer>(_positions);
+        position = Integer.valueOf(size);
+        positions.put(match_p, position);
+        size++;
+      }
+      int[] totals = Arrays.copyOf(_totals, size);
+      int[] owns = Arrays.copyOf(_owns, size);
+      totals[position.intValue()] += increment_p;
+      return new DifferenceNumbers(positions, totals, owns);
+    }
+    
+  }
+  
 }
@@ -14,7 +14,9 @@ package org.eclipse.emf.diffmerge.ui.viewers;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.eclipse.emf.diffmerge.api.IComparison;
 import org.eclipse.emf.diffmerge.api.IMatch;
@@ -22,11 +24,15 @@ import org.eclipse.emf.diffmerge.api.Role;
 import org.eclipse.emf.diffmerge.ui.util.DiffDecoratingLabelProvider;
 import org.eclipse.emf.diffmerge.ui.util.UIUtil;
 import org.eclipse.jface.viewers.ColumnViewerToolTipSupport;
+import org.eclipse.jface.viewers.ILazyTreePathContentProvider;
 import org.eclipse.jface.viewers.ITreePathContentProvider;
 import org.eclipse.jface.viewers.ITreeSelection;
 import org.eclipse.jface.viewers.TreePath;
+import org.eclipse.jface.viewers.TreePathViewerSorter;
 import org.eclipse.jface.viewers.TreeViewer;
 import org.eclipse.jface.viewers.Viewer;
+import org.eclipse.jface.viewers.ViewerComparator;
+import org.eclipse.jface.viewers.ViewerFilter;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.layout.GridData;
 import org.eclipse.swt.widgets.Composite;
@@ -35,10 +41,21 @@ import org.eclipse.swt.widgets.Composite;
 /**
  * A viewer which provides a representation of the model tree of a given comparison.
  * Input: EMFDiffNode ; Elements: IMatch.
+ * If the tree has the SWT.VIRTUAL style, then items are only created when they become
+ * visible and the children of a path are only filtered and sorted when the path is
+ * expanded: this is recommended for very large comparisons.
  * @author Olivier Constant
  */
 public class ComparisonTreeViewer extends TreeViewer {
   
+  /** Whether items are created lazily, i.e., the tree has the SWT.VIRTUAL style */
+  private final boolean _isVirtual;
+  
+  /** The non-null map from paths to their filtered and sorted children, which is only
+   * filled in virtual mode and cleared whenever the viewer is refreshed */
+  private final Map<TreePath, Object[]> _virtualChildren;
+  
+  
   /**
    * Constructor
    * @param parent_p a non-null composite
@@ -50,11 +67,18 @@ public class ComparisonTreeViewer extends TreeViewer {
   /**
    * Constructor
    * @param parent_p a non-null composite
-   * @param style_p a style for the tree
+   * @param style_p a style for the tree, which may include SWT.VIRTUAL
    */
   public ComparisonTreeViewer(Composite parent_p, int style_p) {
     super(parent_p, style_p);
-    setContentProvider(new ContentProvider());
+    _isVirtual = (style_p & SWT.VIRTUAL) != 0;
+    _virtualChildren = new HashMap<TreePath, Object[]>();
+    if (_isVirtual) {
+      setUseHashlookup(true);
+      setContentProvider(new LazyContentProvider());
+    } else {
+      setContentProvider(new ContentProvider());
+    }
     setLabelProvider(new LabelProvider());
     ColumnViewerToolTipSupport.enableFor(this);
     getControl().setLayoutData(new GridData(SWT.FILL, SWT.FILL, true, true));
@@ -311,7 +335,8 @@ public class ComparisonTreeViewer extends TreeViewer {
   @Override
   protected Object[] getRawChildren(Object parent_p) {
     Object[] result;
-    if (parent_p instanceof TreePath && ((TreePath)parent_p).getSegmentCount() == 0) {
+    if (!_isVirtual && parent_p instanceof TreePath &&
+        ((TreePath)parent_p).getSegmentCount() == 0) {
       result = getContentProvider().getElements(getInput());
     } else {
       result = super.getRawChildren(parent_p);
@@ -332,8 +357,137 @@ public class ComparisonTreeViewer extends TreeViewer {
    */
   @Override
   public Object[] getSortedChildren(Object parentElementOrTreePath_p) {
-    // Increase visibility of this method
-    return super.getSortedChildren(parentElementOrTreePath_p);
+    Object[] result;
+    if (_isVirtual) {
+      // Items do not reflect all children in virtual mode
+      TreePath path;
+      if (parentElementOrTreePath_p instanceof TreePath)
+        path = (TreePath)parentElementOrTreePath_p;
+      else if (parentElementOrTreePath_p == null || parentElementOrTreePath_p == getInput())
+        path = TreePath.EMPTY;
+      else if (parentElementOrTreePath_p instanceof IMatch) {
+        // Use the driving side, as for the items of the element
+        List<List<IMatch>> paths = getPathsFor((IMatch)parentElementOrTreePath_p, false, false);
+        path = paths.isEmpty()? null: UIUtil.toTreePath(paths.get(0));
+      } else
+        path = null;
+      result = (path == null)? new Object[0]: getVirtualChildren(path);
+    } else {
+      // Increase visibility of this method
+      result = super.getSortedChildren(parentElementOrTreePath_p);
+    }
+    return result;
+  }
+  
+  /**
+   * Return the children of the given path before filtering and sorting
+   * @param path_p a non-null path
+   * @return a non-null, potentially empty, unmodifiable list
+   */
+  protected List<IMatch> getUnfilteredChildren(TreePath path_p) {
+    List<IMatch> result;
+    EMFDiffNode input = getInput();
+    IMatch end = (IMatch)path_p.getLastSegment();
+    if (input == null || input.getActualComparison() == null)
+      result = Collections.emptyList();
+    else if (end == null)
+      result = input.getActualComparison().getContents();
+    else if (input.getCategoryManager().representAsMoveOrigin(path_p))
+      result = Collections.emptyList();
+    else
+      result = input.getActualComparison().getContentsOf(end);
+    return result;
+  }
+  
+  /**
+   * Return the filtered and sorted children of the given path in virtual mode.
+   * They are computed when first needed, typically when the path is expanded, then
+   * remembered until the next refresh.
+   * @param path_p a non-null path
+   * @return a non-null, potentially empty array which must not be modified
+   */
+  protected Object[] getVirtualChildren(TreePath path_p) {
+    Object[] result = _virtualChildren.get(path_p);
+    if (result == null) {
+      result = getUnfilteredChildren(path_p).toArray();
+      for (ViewerFilter filter : getFilters()) {
+        result = filter.filter(this, path_p, result);
+      }
+      ViewerComparator comparator = getComparator();
+      if (comparator instanceof TreePathViewerSorter)
+        ((TreePathViewerSorter)comparator).sort(this, path_p, result);
+      else if (comparator != null)
+        comparator.sort(this, result);
+      _virtualChildren.put(path_p, result);
+    }
+    return result;
+  }
+  
+  /**
+   * Return whether the given path has children after filtering, without sorting them.
+   * The answer may be optimistic: it is positive as soon as the path has children with
+   * differences according to the category manager, even if filters other than those
+   * on differences would exclude them.
+   * @param path_p a non-null path
+   */
+  protected boolean hasVisibleChildren(TreePath path_p) {
+    EMFDiffNode input = getInput();
+    IMatch end = (IMatch)path_p.getLastSegment();
+    if (input == null || end != null &&
+        input.getCategoryManager().representAsMoveOrigin(path_p))
+      return false;
+    if (end != null) {
+      // Shortcut: children with differences are always represented
+      CategoryManager categoryManager = input.getCategoryManager();
+      if (categoryManager.getDifferenceNumber(end) >
+          categoryManager.getOwnDifferenceNumber(end))
+        return true;
+    }
+    ViewerFilter[] filters = getFilters();
+    for (IMatch child : getUnfilteredChildren(path_p)) {
+      if (isSelected(path_p, child, filters))
+        return true;
+    }
+    return false;
+  }
+  
+  /**
+   * @see org.eclipse.jface.viewers.AbstractTreeViewer#inputChanged(java.lang.Object, java.lang.Object)
+   */
+  @Override
+  protected void inputChanged(Object input_p, Object oldInput_p) {
+    _virtualChildren.clear();
+    super.inputChanged(input_p, oldInput_p);
+  }
+  
+  /**
+   * @see org.eclipse.jface.viewers.AbstractTreeViewer#internalRefresh(java.lang.Object, boolean)
+   */
+  @Override
+  protected void internalRefresh(Object element_p, boolean updateLabels_p) {
+    _virtualChildren.clear();
+    super.internalRefresh(element_p, updateLabels_p);
+  }
+  
+  /**
+   * Return whether the given child of the given path is accepted by the given filters
+   * @param parentPath_p a non-null path
+   * @param child_p a non-null child of the path
+   * @param filters_p a non-null array of filters
+   */
+  protected boolean isSelected(TreePath parentPath_p, Object child_p, ViewerFilter[] filters_p) {
+    for (ViewerFilter filter : filters_p) {
+      if (!filter.select(this, parentPath_p, child_p))
+        return false;
+    }
+    return true;
+  }
+  
+  /**
+   * Return whether items are created lazily, i.e., the tree has the SWT.VIRTUAL style
+   */
+  public boolean isVirtual() {
+    return _isVirtual;
   }
   
   
@@ -353,15 +507,7 @@ public class ComparisonTreeViewer extends TreeViewer {
      * @see org.eclipse.jface.viewers.ITreePathContentProvider#getChildren(org.eclipse.jface.viewers.TreePath)
      */
     public Object[] getChildren(TreePath parentPath_p) {
-      IMatch end = (IMatch)parentPath_p.getLastSegment();
-      List<IMatch> result;
-      if (end == null)
-        result = getInput().getActualComparison().getContents();
-      else if (getInput().getCategoryManager().representAsMoveOrigin(parentPath_p))
-        result = Collections.emptyList();
-      else
-        result = getInput().getActualComparison().getContentsOf(end);
-      return result.toArray();
+      return getUnfilteredChildren(parentPath_p).toArray();
     }
     
     /**
@@ -388,7 +534,7 @@ public class ComparisonTreeViewer extends TreeViewer {
      * @see org.eclipse.jface.viewers.ITreePathContentProvider#hasChildren(org.eclipse.jface.viewers.TreePath)
      */
     public boolean hasChildren(TreePath path_p) {
-      return getSortedChildren(path_p).length > 0;
+      return hasVisibleChildren(path_p);
     }
     
     /**
@@ -400,6 +546,44 @@ public class ComparisonTreeViewer extends TreeViewer {
   }
   
   
+  /**
+   * The content provider for this viewer in virtual mode, which provides
+   * filtered and sorted children one at a time.
+   */
+  protected class LazyContentProvider extends ContentProvider
+  implements ILazyTreePathContentProvider {
+    
+    /**
+     * @see org.eclipse.jface.viewers.ILazyTreePathContentProvider#updateChildCount(org.eclipse.jface.viewers.TreePath, int)
+     */
+    public void updateChildCount(TreePath treePath_p, int currentChildCount_p) {
+      int count = getVirtualChildren(treePath_p).length;
+      if (count != currentChildCount_p)
+        setChildCount(treePath_p, count);
+    }
+    
+    /**
+     * @see org.eclipse.jface.viewers.ILazyTreePathContentProvider#updateElement(org.eclipse.jface.viewers.TreePath, int)
+     */
+    public void updateElement(TreePath parentPath_p, int index_p) {
+      Object[] children = getVirtualChildren(parentPath_p);
+      if (index_p < children.length) {
+        Object child = children[index_p];
+        replace(parentPath_p, index_p, child);
+        TreePath childPath = parentPath_p.createChildPath(child);
+        setHasChildren(childPath, hasVisibleChildren(childPath));
+      }
+    }
+    
+    /**
+     * @see org.eclipse.jface.viewers.ILazyTreePathContentProvider#updateHasChildren(org.eclipse.jface.viewers.TreePath)
+     */
+    public void updateHasChildren(TreePath path_p) {
+      setHasChildren(path_p, hasVisibleChildren(path_p));
+    }
+  }
+  
+  
   /**
    * The label provider for this viewer.
    */
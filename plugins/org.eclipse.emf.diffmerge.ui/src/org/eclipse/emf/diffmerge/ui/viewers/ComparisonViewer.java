@@ -1909,12 +1909,15 @@ public class ComparisonViewer extends AbstractComparisonViewer {
   }
   
   /**
-   * Create and return the main viewer of the synthesis row
+   * Create and return the main viewer of the synthesis row.
+   * Its tree is virtual so that large comparisons are shown without creating
+   * the items of all matches.
    * @param parent_p a non-null composite
    * @return a non-null viewer
    */
   protected EnhancedComparisonTreeViewer doCreateViewerSynthesis(Composite parent_p) {
-    return new EnhancedComparisonTreeViewer(parent_p);
+    return new EnhancedComparisonTreeViewer(parent_p,
+        SWT.MULTI | SWT.H_SCROLL | SWT.V_SCROLL | SWT.VIRTUAL);
   }
   
   /**
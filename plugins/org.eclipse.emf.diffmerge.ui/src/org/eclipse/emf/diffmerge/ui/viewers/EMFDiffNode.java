@@ -23,6 +23,10 @@ import org.eclipse.core.commands.operations.IOperationHistory;
 import org.eclipse.core.commands.operations.IOperationHistoryListener;
 import org.eclipse.core.commands.operations.IUndoContext;
 import org.eclipse.core.commands.operations.OperationHistoryEvent;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.emf.diffmerge.api.IComparison;
 import org.eclipse.emf.diffmerge.api.Role;
 import org.eclipse.emf.diffmerge.api.diff.IDifference;
@@ -32,7 +36,9 @@ import org.eclipse.emf.diffmerge.api.scopes.IEditableModelScope;
 import org.eclipse.emf.diffmerge.api.scopes.IFeaturedModelScope;
 import org.eclipse.emf.diffmerge.diffdata.EComparison;
 import org.eclipse.emf.diffmerge.diffdata.EMatch;
+import org.eclipse.emf.diffmerge.impl.helpers.MatchTree;
 import org.eclipse.emf.diffmerge.ui.EMFDiffMergeUIPlugin;
+import org.eclipse.emf.diffmerge.ui.Messages;
 import org.eclipse.emf.diffmerge.ui.diffuidata.UIComparison;
 import org.eclipse.emf.diffmerge.ui.diffuidata.impl.UIComparisonImpl;
 import org.eclipse.emf.diffmerge.ui.setup.ModelScopeTypedElement;
@@ -50,6 +56,8 @@ import org.eclipse.emf.transaction.TransactionalEditingDomain;
 import org.eclipse.emf.workspace.IWorkspaceCommandStack;
 import org.eclipse.emf.workspace.ResourceUndoContext;
 import org.eclipse.jface.util.IPropertyChangeListener;
+import org.eclipse.swt.SWTException;
+import org.eclipse.swt.widgets.Display;
 
 
 /**
@@ -83,6 +91,16 @@ IUserPropertyOwner {
   /** The non-null difference category manager */
   private final CategoryManager _categoryManager;
   
+  /** The non-null job which re-computes difference numbers in the background */
+  private final Job _differenceNumbersJob;
+  
+  /** The potentially null display from which difference numbers have last been
+   * scheduled for re-computation, and whose UI thread notifies listeners */
+  private volatile Display _differenceNumbersDisplay;
+  
+  /** Whether this node has been disposed */
+  private volatile boolean _isDisposed;
+  
   /** Whether the left model is editable */
   private boolean _isTargetEditable;
   
@@ -158,6 +176,9 @@ IUserPropertyOwner {
     _leftRole = leftRole_p;
     _twoWayReferenceRole = null;
     _categoryManager = new CategoryManager(this);
+    _differenceNumbersJob = createDifferenceNumbersJob();
+    _differenceNumbersDisplay = null;
+    _isDisposed = false;
     _isTargetEditionPossible = (leftRole_p == Role.TARGET)? isLeftEditionPossible_p:
       isRightEditionPossible_p;
     _isReferenceEditionPossible = (leftRole_p == Role.TARGET)? isRightEditionPossible_p:
@@ -214,9 +235,18 @@ IUserPropertyOwner {
           IUndoContext undoContext = getUndoContext();
           if (undoContext != null && event_p.getOperation().hasContext(undoContext)) {
             switch (event_p.getEventType()) {
-            case OperationHistoryEvent.OPERATION_ADDED:
+            case OperationHistoryEvent.ABOUT_TO_EXECUTE:
+            case OperationHistoryEvent.ABOUT_TO_REDO:
+            case OperationHistoryEvent.ABOUT_TO_UNDO:
+              // The scopes are about to change behind the comparison
+              stopDifferenceNumbersUpdate();
+              break;
             case OperationHistoryEvent.REDONE:
             case OperationHistoryEvent.UNDONE:
+              // The scopes have changed behind the comparison
+              MatchTree.discardMaintainedTree(getActualComparison());
+              //$FALL-THROUGH$
+            case OperationHistoryEvent.OPERATION_ADDED:
               updateDifferenceNumbers();
               break;
             default: // Ignore
@@ -229,10 +259,38 @@ IUserPropertyOwner {
     return result;
   }
   
+  /**
+   * Create and return the job which re-computes difference numbers in the background,
+   * then notifies the listeners of this node from the UI thread
+   * @return a non-null job
+   */
+  protected Job createDifferenceNumbersJob() {
+    Job result = new Job(Messages.EMFDiffNode_DifferenceNumbersJob) {
+      /**
+       * @see org.eclipse.core.runtime.jobs.Job#run(org.eclipse.core.runtime.IProgressMonitor)
+       */
+      @Override
+      protected IStatus run(IProgressMonitor monitor_p) {
+        if (!getCategoryManager().updateDifferenceNumbers(monitor_p))
+          return Status.CANCEL_STATUS;
+        Display display = _differenceNumbersDisplay;
+        if (display != null)
+          fireChangeAsync(display);
+        return Status.OK_STATUS;
+      }
+    };
+    result.setSystem(true);
+    return result;
+  }
+  
   /**
    * @see org.eclipse.emf.edit.provider.IDisposable#dispose()
    */
   public void dispose() {
+    _isDisposed = true;
+    // Difference numbers
+    stopDifferenceNumbersUpdate();
+    _differenceNumbersDisplay = null;
     // Resource manager
     _resourceManager.dispose();
     // User properties
@@ -248,6 +306,29 @@ IUserPropertyOwner {
     // Input
   }
   
+  /**
+   * Notify the listeners of this node from the UI thread of the given display,
+   * unless the display or this node is disposed in the meantime
+   * @param display_p a non-null display
+   */
+  protected void fireChangeAsync(Display display_p) {
+    if (display_p.isDisposed())
+      return;
+    try {
+      display_p.asyncExec(new Runnable() {
+        /**
+         * @see java.lang.Runnable#run()
+         */
+        public void run() {
+          if (!isDisposed())
+            fireChange();
+        }
+      });
+    } catch (SWTException e) {
+      // Display disposed concurrently: Proceed
+    }
+  }
+  
   /**
    * Return the model comparison of this node
    * @return a non-null comparison, unless the UI comparison has been disposed
@@ -491,6 +572,13 @@ IUserPropertyOwner {
     return result;
   }
   
+  /**
+   * Return whether this node has been disposed
+   */
+  public boolean isDisposed() {
+    return _isDisposed;
+  }
+  
   /**
    * Return whether edition of the given side is enabled
    * @param left_p whether the side is left or right
@@ -669,11 +757,49 @@ IUserPropertyOwner {
   }
   
   /**
-   * Re-compute filtering and differences numbers
+   * Cancel the re-computation of difference numbers in the background if any and
+   * wait for its termination, so that the comparison can be safely modified.
+   * Difference numbers are expected to be re-computed after the modification.
+   */
+  public void stopDifferenceNumbersUpdate() {
+    _differenceNumbersJob.cancel();
+    try {
+      _differenceNumbersJob.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+  
+  /**
+   * Re-compute filtering, then re-compute differences numbers in the background.
+   * Listeners are notified when the new numbers are available. A computation which
+   * is still in progress is superseded.
    */
   public void updateDifferenceNumbers() {
-    getCategoryManager().update();
-    fireChange();
+    updateDifferenceNumbers(true);
+  }
+  
+  /**
+   * Re-compute filtering and differences numbers.
+   * This method must be called from the UI thread, otherwise difference numbers are
+   * re-computed before this method returns.
+   * @param inBackground_p whether difference numbers must be re-computed in the background,
+   *          otherwise they are re-computed before this method returns
+   */
+  public void updateDifferenceNumbers(boolean inBackground_p) {
+    if (isDisposed())
+      return;
+    _differenceNumbersJob.cancel();
+    Display display = Display.getCurrent();
+    if (inBackground_p && display != null) {
+      _differenceNumbersDisplay = display;
+      getCategoryManager().updateFiltering();
+      _differenceNumbersJob.schedule();
+    } else {
+      stopDifferenceNumbersUpdate();
+      getCategoryManager().update();
+      fireChange();
+    }
   }
   
 }
\ No newline at end of file
@@ -14,6 +14,7 @@ package org.eclipse.emf.diffmerge.ui.viewers;
 import org.eclipse.emf.diffmerge.ui.Messages;
 import org.eclipse.emf.diffmerge.ui.util.UIUtil;
 import org.eclipse.jface.viewers.ITreeSelection;
+import org.eclipse.swt.SWT;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Label;
 
@@ -26,12 +27,27 @@ import org.eclipse.swt.widgets.Label;
  */
 public class EnhancedComparisonTreeViewer extends HeaderViewer<ComparisonTreeViewer> {
   
+  /** The style of the tree of the inner viewer */
+  private final int _treeStyle;
+  
+  
   /**
    * Constructor
    * @param parent_p a non-null composite
    */
   public EnhancedComparisonTreeViewer(Composite parent_p) {
+    this(parent_p, SWT.MULTI | SWT.H_SCROLL | SWT.V_SCROLL);
+  }
+  
+  /**
+   * Constructor
+   * @param parent_p a non-null composite
+   * @param treeStyle_p the style of the tree of the inner viewer, which may include SWT.VIRTUAL
+   * @see ComparisonTreeViewer#ComparisonTreeViewer(Composite, int)
+   */
+  public EnhancedComparisonTreeViewer(Composite parent_p, int treeStyle_p) {
     super();
+    _treeStyle = treeStyle_p;
     createControls(parent_p); 
   }
   
@@ -57,7 +73,7 @@ public class EnhancedComparisonTreeViewer extends HeaderViewer<ComparisonTreeVie
    */
   @Override
   protected ComparisonTreeViewer createInnerViewer(Composite parent_p) {
-    return new ComparisonTreeViewer(parent_p);
+    return new ComparisonTreeViewer(parent_p, _treeStyle);
   }
   
   /**
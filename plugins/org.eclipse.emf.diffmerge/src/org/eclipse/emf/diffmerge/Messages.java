@@ -22,6 +22,10 @@ import org.eclipse.osgi.util.NLS;
 public class Messages extends NLS {
   private static final String BUNDLE_NAME = "org.eclipse.emf.diffmerge.messages"; //$NON-NLS-1$
   public static String AbstractDifference_UnableToMerge;
+  public static String BatchComparisonOperation_Failed;
+  public static String BatchComparisonOperation_Inconsistent;
+  public static String BatchComparisonOperation_LoadingFailed;
+  public static String BatchComparisonOperation_Name;
   public static String DiffBuilder_NoMatch;
   public static String DiffBuilder_Task_Main;
   public static String Comparison_Task_Main;
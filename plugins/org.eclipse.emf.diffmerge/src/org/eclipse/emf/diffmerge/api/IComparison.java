@@ -308,4 +308,18 @@ public interface IComparison {
     boolean swapScopes();
   }
   
+  
+  /**
+   * An editable comparison whose memory footprint can be reduced once computed.
+   */
+  interface Compactable extends Editable {
+    /**
+     * Reduce the memory footprint of this comparison to the minimum for its
+     * current contents. This is typically worth calling once the comparison
+     * has been computed, if it is meant to be kept in memory.
+     * @return the estimated number of bytes reclaimed
+     */
+    long compact();
+  }
+  
 }
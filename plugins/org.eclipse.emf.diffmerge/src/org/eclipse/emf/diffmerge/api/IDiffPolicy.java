@@ -89,4 +89,58 @@ public interface IDiffPolicy {
    */
   boolean coverValue(Object value_p, EAttribute attribute_p);
   
+  
+  /**
+   * A diff policy which provides hashable keys for attribute values, so that
+   * the values of many-valued attributes can be aligned without comparing every
+   * pair of values.
+   */
+  interface AttributeValueKeys extends IDiffPolicy {
+    /**
+     * Return a key for the given value of the given attribute which is consistent with
+     * considerEqual(Object, Object, EAttribute): values which must be considered equal
+     * must have equal keys. Values with equal keys may still be considered different.
+     * Null may be returned if no such key can be provided for the value, in which case
+     * the value is compared to every other value of the attribute.
+     * @see IDiffPolicy#considerEqual(Object, Object, EAttribute)
+     * @param value_p a non-null attribute value
+     * @param attribute_p a non-null attribute
+     * @return a potentially null object which properly implements equals and hashCode
+     */
+    Object getEquivalenceKey(Object value_p, EAttribute attribute_p);
+  }
+  
+  
+  /**
+   * A diff policy which may allow the subtrees of the elements of a match to be skipped
+   * by the diff phase when digests of their contents are equal.
+   * Digests identify attribute values through Object#equals(Object), in-scope reference
+   * values through their match and out-of-scope reference values through their URI.
+   * If isDigestible() returns true, then considerEqual(Object, Object, EAttribute) must be
+   * equivalent to Object#equals(Object), coverValue(Object, EAttribute) must return the same
+   * result for equal values, and considerEqualOutOfScope(EObject, EObject, EReference) must
+   * be equivalent to the equality of URIs.
+   */
+  interface Digestible extends IDiffPolicy {
+    /**
+     * Return whether identical subtrees may be skipped by comparing digests
+     */
+    boolean isDigestible();
+  }
+  
+  
+  /**
+   * A diff policy which may allow differences to be detected concurrently.
+   * If isThreadSafe() returns true, then the diff phase is free to call the operations
+   * of this policy from several threads at the same time. The compared scopes and
+   * the mapping are not modified in the meantime.
+   */
+  interface Parallelizable extends IDiffPolicy {
+    /**
+     * Return whether the operations of this policy can safely be called
+     * concurrently on unmodified scopes and mapping
+     */
+    boolean isThreadSafe();
+  }
+  
 }
@@ -235,4 +235,19 @@ public interface IMapping {
         EObject element2_p, Role role2_p);
   }
   
+  
+  /**
+   * An editable mapping whose references can be completed for some of
+   * the completed matches only, e.g., for the ones completed by a merge.
+   * @see IMapping.Editable#completeReferences(Role)
+   */
+  interface Selective extends Editable {
+    /**
+     * Complete the references of the given completed elements in the given role
+     * @param role_p a role which is TARGET or REFERENCE
+     * @param matches_p a non-null collection of matches which have been completed in role_p
+     */
+    void completeReferences(Role role_p, Collection<IMatch> matches_p);
+  }
+  
 }
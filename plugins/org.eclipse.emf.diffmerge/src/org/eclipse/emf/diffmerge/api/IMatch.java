@@ -162,4 +162,28 @@ public interface IMatch extends IPureMatch {
     void addOwnershipDifference(IReferenceValuePresence presence_p);
   }
   
+  
+  /**
+   * A match whose related differences can be accessed by position without
+   * allocating any collection, typically for going through the differences
+   * of all matches.
+   * @see IMatch#getRelatedDifferences()
+   */
+  interface Indexed extends IMatch {
+    /**
+     * Return the number of differences whose origin is this match.
+     * Class invariant: getNbRelatedDifferences() == getRelatedDifferences().size()
+     */
+    int getNbRelatedDifferences();
+    
+    /**
+     * Return the difference whose origin is this match at the given position.
+     * Class invariant: getRelatedDifference(i) == getRelatedDifferences().get(i)
+     * @see IMatch.Indexed#getNbRelatedDifferences()
+     * @param index_p a positive or zero index which is lower than getNbRelatedDifferences()
+     * @return a non-null difference
+     */
+    IDifference getRelatedDifference(int index_p);
+  }
+  
 }
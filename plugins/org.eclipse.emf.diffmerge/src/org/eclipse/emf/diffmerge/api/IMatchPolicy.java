@@ -66,6 +66,84 @@ public interface IMatchPolicy {
   boolean keepMatchIDs();
   
   
+  /**
+   * A match policy which may provide hierarchical match IDs, i.e., match IDs which
+   * share the match IDs of the containers of elements instead of copying them.
+   * If hasHierarchicalMatchIDs() returns true, then the match phase is free to use
+   * getHierarchicalMatchID(EObject, IModelScope) instead of getMatchID(EObject, IModelScope).
+   * Both operations must then match the same elements, and the comparator returned by
+   * getMatchIDComparator() must apply to hierarchical match IDs. Since hierarchical
+   * match IDs are transient, their string forms are kept if keepMatchIDs() holds.
+   */
+  interface Hierarchical extends IMatchPolicy {
+    /**
+     * Return a hierarchical match ID for the given element from the given scope,
+     * whose string form is getMatchID(element_p, scope_p)
+     * @see IMatchPolicy#getMatchID(EObject, IModelScope)
+     * @param element_p a non-null element
+     * @param scope_p a non-null scope that covers element_p
+     * @return a potentially null object
+     */
+    Object getHierarchicalMatchID(EObject element_p, IModelScope scope_p);
+    /**
+     * Return whether getHierarchicalMatchID(EObject, IModelScope) may be used
+     * instead of getMatchID(EObject, IModelScope)
+     */
+    boolean hasHierarchicalMatchIDs();
+  }
+
+
+  /**
+   * A match policy which may allow match IDs to be reused across successive
+   * computations of a comparison. If hasAncestorBasedMatchIDs() returns true,
+   * then an incremental re-computation is free to reuse the match ID of an element
+   * as long as neither the element nor its ancestors in the scope have changed.
+   * @see org.eclipse.emf.diffmerge.impl.helpers.IncrementalComparisonUpdater
+   */
+  interface Incremental extends IMatchPolicy {
+    /**
+     * Return whether the match ID of every element only depends on the element
+     * and on its ancestors in the scope, as opposed to, e.g., its siblings or
+     * the elements it references
+     * @see IMatchPolicy#getMatchID(EObject, IModelScope)
+     */
+    boolean hasAncestorBasedMatchIDs();
+  }
+
+
+  /**
+   * A match policy which may allow match IDs to be computed concurrently.
+   * If isThreadSafe() returns true, then the match phase is free to call
+   * getMatchID(EObject, IModelScope) from several threads at the same time
+   * on elements of the same scope. The scope is not modified in the meantime.
+   */
+  interface Parallelizable extends IMatchPolicy {
+    /**
+     * Return whether getMatchID(EObject, IModelScope) can safely be called
+     * concurrently on the elements of an unmodified scope
+     * @see IMatchPolicy#getMatchID(EObject, IModelScope)
+     */
+    boolean isThreadSafe();
+  }
+
+
+  /**
+   * A match policy which holds state, such as cached match IDs, that is only
+   * relevant during the match phase of a comparison. The match phase notifies
+   * it when it starts and when it ends so that no memory is held afterwards.
+   */
+  interface Stateful extends IMatchPolicy {
+    /**
+     * Notify this policy that a match phase ends, whether normally or not
+     */
+    void endMatching();
+    /**
+     * Notify this policy that a match phase starts
+     */
+    void startMatching();
+  }
+
+  
   /**
    * A simple comparator that is solely based on the natural order of objects
    * that implement Comparable, such as Strings.
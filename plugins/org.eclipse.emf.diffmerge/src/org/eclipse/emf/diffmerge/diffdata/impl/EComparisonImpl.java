@@ -13,6 +13,7 @@ package org.eclipse.emf.diffmerge.diffdata.impl;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -49,17 +50,20 @@ import org.eclipse.emf.diffmerge.diffdata.EComparison;
 import org.eclipse.emf.diffmerge.diffdata.EMapping;
 import org.eclipse.emf.diffmerge.diffdata.EMatch;
 import org.eclipse.emf.diffmerge.diffdata.EReferenceValuePresence;
+import org.eclipse.emf.diffmerge.impl.helpers.AbstractExpensiveOperation;
 import org.eclipse.emf.diffmerge.impl.helpers.DiffOperation;
+import org.eclipse.emf.diffmerge.impl.helpers.DifferenceDependencyGraph;
+import org.eclipse.emf.diffmerge.impl.helpers.DifferenceIndex;
+import org.eclipse.emf.diffmerge.impl.helpers.IncrementalComparisonUpdater;
 import org.eclipse.emf.diffmerge.impl.helpers.MatchOperation;
+import org.eclipse.emf.diffmerge.impl.helpers.MatchTree;
 import org.eclipse.emf.diffmerge.impl.helpers.MergeOperation;
 import org.eclipse.emf.diffmerge.impl.policies.DefaultDiffPolicy;
 import org.eclipse.emf.diffmerge.impl.policies.DefaultMatchPolicy;
 import org.eclipse.emf.diffmerge.impl.policies.DefaultMergePolicy;
-import org.eclipse.emf.diffmerge.structures.IEqualityTester;
 import org.eclipse.emf.diffmerge.structures.common.FArrayList;
-import org.eclipse.emf.diffmerge.structures.common.FHashSet;
-import org.eclipse.emf.diffmerge.structures.common.FOrderedSet;
 import org.eclipse.emf.diffmerge.util.IExpensiveOperation;
+import org.eclipse.emf.diffmerge.util.OperationMetrics;
 import org.eclipse.emf.ecore.EAttribute;
 import org.eclipse.emf.ecore.EClass;
 import org.eclipse.emf.ecore.EObject;
@@ -86,7 +90,9 @@ import org.eclipse.emf.ecore.impl.ENotificationImpl;
  *
  * @generated
  */
-public class EComparisonImpl extends EIdentifiedImpl implements EComparison {
+public class EComparisonImpl extends EIdentifiedImpl implements EComparison,
+    IComparison.Compactable, DifferenceDependencyGraph.Provider, DifferenceIndex.Provider,
+    MatchTree.Provider, OperationMetrics.Provider {
   /**
    * The default value of the '{@link #getAncestorScope() <em>Ancestor Scope</em>}' attribute.
    * <!-- begin-user-doc -->
@@ -223,6 +229,42 @@ public class EComparisonImpl extends EIdentifiedImpl implements EComparison {
    */
   private final Map<Role, Set<Object>> _duplicateIDs;
 
+  /**
+   * The optional helper which makes computations incremental, null if disabled
+   * @generated NOT
+   */
+  private IncrementalComparisonUpdater _incrementalUpdater;
+
+  /**
+   * The non-null map from roles to graphs of explicit dependencies, which are built on demand
+   * @generated NOT
+   */
+  private final Map<Role, DifferenceDependencyGraph> _requiresGraphs;
+
+  /**
+   * The non-null map from roles to graphs of implicit dependencies, which are built on demand
+   * @generated NOT
+   */
+  private final Map<Role, DifferenceDependencyGraph> _impliesGraphs;
+
+  /**
+   * The non-null metrics of the last computation and of the subsequent merges
+   * @generated NOT
+   */
+  private final OperationMetrics _metrics;
+
+  /**
+   * The potentially null containment tree of matches, which is built on demand
+   * @generated NOT
+   */
+  private volatile MatchTree _matchTree;
+
+  /**
+   * The potentially null index of the differences, which is maintained once built
+   * @generated NOT
+   */
+  private volatile DifferenceIndex _differenceIndex;
+
   /**
    * <!-- begin-user-doc -->
    * <!-- end-user-doc -->
@@ -235,6 +277,11 @@ public class EComparisonImpl extends EIdentifiedImpl implements EComparison {
       duplicateIDs.put(role, new HashSet<Object>(0));
     }
     _duplicateIDs = Collections.unmodifiableMap(duplicateIDs);
+    _requiresGraphs = new EnumMap<Role, DifferenceDependencyGraph>(Role.class);
+    _impliesGraphs = new EnumMap<Role, DifferenceDependencyGraph>(Role.class);
+    _metrics = new OperationMetrics();
+    _matchTree = null;
+    _differenceIndex = null;
   }
 
   /**
@@ -646,6 +693,22 @@ public class EComparisonImpl extends EIdentifiedImpl implements EComparison {
     for (Role role : Role.values()) {
       _duplicateIDs.get(role).clear();
     }
+    discardDependencyGraphs();
+    discardMatchTree();
+    _differenceIndex = null;
+    _metrics.clear();
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IComparison.Compactable#compact()
+   * @generated NOT
+   */
+  public long compact() {
+    long result = 0L;
+    if (mapping instanceof EMappingImpl)
+      result = ((EMappingImpl) mapping).compact();
+    _metrics.addToCounter(OperationMetrics.COUNTER_RECLAIMED_BYTES, result);
+    return result;
   }
 
   /**
@@ -667,8 +730,14 @@ public class EComparisonImpl extends EIdentifiedImpl implements EComparison {
     setLastMergePolicy(
         mergePolicy_p != null ? mergePolicy_p : new DefaultMergePolicy());
     // Behavior
+    discardDependencyGraphs();
+    discardMatchTree();
+    _differenceIndex = null;
+    _metrics.clear();
     IStatus result = computeMatch(getLastMatchPolicy(), subMonitor.newChild(1));
     if (result.isOK()) {
+      // All differences are new so the index is maintained from the start
+      _differenceIndex = new DifferenceIndex();
       result = computeDiff(getLastDiffPolicy(), getLastMergePolicy(),
           subMonitor.newChild(1));
     }
@@ -686,6 +755,7 @@ public class EComparisonImpl extends EIdentifiedImpl implements EComparison {
       IProgressMonitor monitor_p) {
     IExpensiveOperation matchOperation = getMatchOperation(matchPolicy_p,
         _duplicateIDs);
+    recordMetricsOf(matchOperation);
     IStatus result = matchOperation.run(monitor_p);
     return result;
   }
@@ -702,6 +772,7 @@ public class EComparisonImpl extends EIdentifiedImpl implements EComparison {
       IMergePolicy mergePolicy_p, IProgressMonitor monitor_p) {
     IExpensiveOperation diffOperation = getDiffOperation(diffPolicy_p,
         mergePolicy_p);
+    recordMetricsOf(diffOperation);
     IStatus result = diffOperation.run(monitor_p);
     return result;
   }
@@ -733,6 +804,10 @@ public class EComparisonImpl extends EIdentifiedImpl implements EComparison {
    * @generated NOT
    */
   public IMatch getContainerOf(IMatch match_p, Role role_p) {
+    // The tree is used if available but not built since direct access is as cheap
+    MatchTree tree = _matchTree;
+    if (tree != null && tree.covers(match_p, role_p))
+      return tree.getContainerOf(match_p, role_p);
     IMatch result = null;
     EObject child = match_p.get(role_p);
     if (child != null) {
@@ -750,14 +825,7 @@ public class EComparisonImpl extends EIdentifiedImpl implements EComparison {
    * @generated NOT
    */
   public List<IMatch> getContents() {
-    List<IMatch> targetMatches = getContents(Role.TARGET);
-    List<IMatch> referenceMatches = getContents(Role.REFERENCE);
-    List<IMatch> result = new FArrayList<IMatch>(referenceMatches, null);
-    for (IMatch targetMatch : targetMatches) {
-      if (!result.contains(targetMatch))
-        result.add(targetMatch);
-    }
-    return Collections.unmodifiableList(result);
+    return getMatchTree().getContents();
   }
 
   /**
@@ -765,16 +833,7 @@ public class EComparisonImpl extends EIdentifiedImpl implements EComparison {
    * @generated NOT
    */
   public List<IMatch> getContents(Role role_p) {
-    List<IMatch> result = new FArrayList<IMatch>();
-    // Defining 'contents': list of elements whose matches must be retrieved
-    List<EObject> contents = getScope(role_p).getContents();
-    // Retrieving matches
-    for (EObject child : contents) {
-      IMatch childMatch = getMapping().getMatchFor(child, role_p);
-      if (childMatch != null)
-        result.add(childMatch);
-    }
-    return Collections.unmodifiableList(result);
+    return getMatchTree().getContents(role_p);
   }
 
   /**
@@ -782,13 +841,7 @@ public class EComparisonImpl extends EIdentifiedImpl implements EComparison {
    * @generated NOT
    */
   public List<IMatch> getContentsOf(IMatch match_p) {
-    List<IMatch> targetMatches = getContentsOf(match_p, Role.TARGET);
-    List<IMatch> referenceMatches = getContentsOf(match_p, Role.REFERENCE);
-    List<IMatch> result = new FOrderedSet<IMatch>(referenceMatches, null);
-    for (IMatch targetMatch : targetMatches) {
-      result.add(targetMatch);
-    }
-    return Collections.unmodifiableList(result);
+    return getMatchTree().getContentsOf(match_p);
   }
 
   /**
@@ -796,23 +849,25 @@ public class EComparisonImpl extends EIdentifiedImpl implements EComparison {
    * @generated NOT
    */
   public List<IMatch> getContentsOf(IMatch match_p, Role role_p) {
-    List<IMatch> result = new FArrayList<IMatch>();
-    // Defining 'contents': list of elements whose matches must be retrieved
-    List<EObject> contents = null;
-    EObject container = match_p.get(role_p);
-    if (container != null) {
-      IModelScope scope = getScope(role_p);
-      contents = scope.getContents(container);
-    }
-    // Retrieving matches
-    if (contents != null) {
-      for (EObject child : contents) {
-        IMatch childMatch = getMapping().getMatchFor(child, role_p);
-        if (childMatch != null)
-          result.add(childMatch);
+    return getMatchTree().getContentsOf(match_p, role_p);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.impl.helpers.DifferenceIndex.Provider#getDifferenceIndex(boolean)
+   * @generated NOT
+   */
+  public DifferenceIndex getDifferenceIndex(boolean create_p) {
+    DifferenceIndex result = _differenceIndex;
+    if (result == null && create_p) {
+      synchronized (this) {
+        result = _differenceIndex;
+        if (result == null) {
+          result = new DifferenceIndex(this);
+          _differenceIndex = result;
+        }
       }
     }
-    return Collections.unmodifiableList(result);
+    return result;
   }
 
   /**
@@ -838,6 +893,8 @@ public class EComparisonImpl extends EIdentifiedImpl implements EComparison {
    */
   protected IExpensiveOperation getDiffOperation(IDiffPolicy diffPolicy_p,
       IMergePolicy mergePolicy_p) {
+    if (_incrementalUpdater != null)
+      return _incrementalUpdater.newDiffOperation(diffPolicy_p, mergePolicy_p);
     return new DiffOperation(this, diffPolicy_p, mergePolicy_p);
   }
 
@@ -858,18 +915,105 @@ public class EComparisonImpl extends EIdentifiedImpl implements EComparison {
    */
   protected IExpensiveOperation getMatchOperation(IMatchPolicy policy_p,
       Map<Role, Set<Object>> duplicateIDs_p) {
+    if (_incrementalUpdater != null)
+      return _incrementalUpdater.newMatchOperation(policy_p, duplicateIDs_p);
     return new MatchOperation(this, policy_p, duplicateIDs_p);
   }
 
+  /**
+   * Return the containment tree of matches, building it if needed
+   * @return a non-null object
+   * @generated NOT
+   */
+  protected MatchTree getMatchTree() {
+    MatchTree result = _matchTree;
+    if (result == null) {
+      synchronized (this) {
+        result = _matchTree;
+        if (result == null) {
+          result = new MatchTree(this);
+          _matchTree = result;
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.util.OperationMetrics.Provider#getMetrics()
+   * @generated NOT
+   */
+  public OperationMetrics getMetrics() {
+    return _metrics;
+  }
+
+  /**
+   * Discard the graphs of inter-difference dependencies, if any, so that they are
+   * rebuilt from the current differences the next time they are needed
+   * This is only needed when differences are computed again: merges do not change
+   * inter-difference dependencies, so graphs are kept across merges.
+   * @generated NOT
+   */
+  protected void discardDependencyGraphs() {
+    _requiresGraphs.clear();
+    _impliesGraphs.clear();
+  }
+
+  /**
+   * Discard the data which is derived from the matches and differences: the graphs
+   * of inter-difference dependencies, the match tree and the index of differences,
+   * so that they are rebuilt the next time they are needed.
+   * This is needed when matches or differences have changed other than by merges.
+   * @see IncrementalComparisonUpdater#update(IProgressMonitor)
+   * @generated NOT
+   */
+  public void discardDerivedData() {
+    discardDependencyGraphs();
+    discardMatchTree();
+    _differenceIndex = null;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.impl.helpers.MatchTree.Provider#discardMatchTree()
+   * @generated NOT
+   */
+  public void discardMatchTree() {
+    _matchTree = null;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.impl.helpers.DifferenceDependencyGraph.Provider#getDependencyGraph(org.eclipse.emf.diffmerge.api.Role, boolean)
+   * @generated NOT
+   */
+  public DifferenceDependencyGraph getDependencyGraph(Role role_p,
+      boolean isExplicit_p) {
+    Map<Role, DifferenceDependencyGraph> graphs = isExplicit_p
+        ? _requiresGraphs
+        : _impliesGraphs;
+    DifferenceDependencyGraph result = graphs.get(role_p);
+    if (result == null) {
+      result = new DifferenceDependencyGraph(this, role_p, isExplicit_p);
+      graphs.put(role_p, result);
+    }
+    return result;
+  }
+
+  /**
+   * Return the helper which makes computations incremental, if any
+   * @see EComparisonImpl#setIncremental(boolean)
+   * @return a potentially null object, non-null iff this comparison is incremental
+   * @generated NOT
+   */
+  public IncrementalComparisonUpdater getIncrementalUpdater() {
+    return _incrementalUpdater;
+  }
+
   /**
    * @see org.eclipse.emf.diffmerge.api.IComparison#getNbDifferences()
    * @generated NOT
    */
   public int getNbDifferences() {
-    int result = 0;
-    for (IMatch match : getMapping().getContents())
-      result += match.getRelatedDifferences().size();
-    return result;
+    return getDifferenceIndex(true).getNbDifferences();
   }
 
   /**
@@ -877,10 +1021,7 @@ public class EComparisonImpl extends EIdentifiedImpl implements EComparison {
    * @generated NOT
    */
   public int getNbNoContainmentDifferences() {
-    int result = 0;
-    for (IMatch match : getMapping().getContents())
-      result += match.getNbNoContainmentDifferences();
-    return result;
+    return getDifferenceIndex(true).getNbNoContainmentDifferences();
   }
 
   /**
@@ -888,15 +1029,7 @@ public class EComparisonImpl extends EIdentifiedImpl implements EComparison {
    * @generated NOT
    */
   public Collection<IDifference> getRemainingDifferences() {
-    Collection<IDifference> result = new FHashSet<IDifference>(
-        IEqualityTester.BY_EQUALS);
-    for (IMatch match : getMapping().getContents()) {
-      for (IDifference difference : match.getAllDifferences()) {
-        if (!difference.isMerged())
-          result.add(difference);
-      }
-    }
-    return Collections.unmodifiableCollection(result);
+    return getDifferenceIndex(true).getRemainingDifferences();
   }
 
   /**
@@ -923,13 +1056,7 @@ public class EComparisonImpl extends EIdentifiedImpl implements EComparison {
    * @generated NOT
    */
   public boolean hasRemainingDifferences() {
-    for (IMatch match : getMapping().getContents()) {
-      for (IDifference difference : match.getAllDifferences()) {
-        if (!difference.isMerged())
-          return true;
-      }
-    }
-    return false;
+    return getDifferenceIndex(true).hasRemainingDifferences();
   }
 
   /**
@@ -944,6 +1071,15 @@ public class EComparisonImpl extends EIdentifiedImpl implements EComparison {
     return true;
   }
 
+  /**
+   * Return whether successive computations of this comparison are incremental
+   * @see EComparisonImpl#setIncremental(boolean)
+   * @generated NOT
+   */
+  public boolean isIncremental() {
+    return _incrementalUpdater != null;
+  }
+
   /**
    * @see org.eclipse.emf.diffmerge.api.IComparison#isThreeWay()
    * @generated NOT
@@ -978,7 +1114,12 @@ public class EComparisonImpl extends EIdentifiedImpl implements EComparison {
       boolean updateReferences_p, IProgressMonitor monitor_p) {
     MergeOperation operation = new MergeOperation(this, differences_p,
         destination_p, updateReferences_p);
-    operation.run(monitor_p);
+    recordMetricsOf(operation);
+    try {
+      operation.run(monitor_p);
+    } finally {
+      discardMatchTree();
+    }
     return operation.getOutput();
   }
 
@@ -990,7 +1131,12 @@ public class EComparisonImpl extends EIdentifiedImpl implements EComparison {
       boolean updateReferences_p, IProgressMonitor monitor_p) {
     MergeOperation operation = new MergeOperation(this, merger_p,
         updateReferences_p);
-    operation.run(monitor_p);
+    recordMetricsOf(operation);
+    try {
+      operation.run(monitor_p);
+    } finally {
+      discardMatchTree();
+    }
     return operation.getOutput();
   }
 
@@ -1040,6 +1186,34 @@ public class EComparisonImpl extends EIdentifiedImpl implements EComparison {
     return result;
   }
 
+  /**
+   * Make the given operation record its performance in the metrics of this comparison
+   * @param operation_p a non-null operation
+   * @generated NOT
+   */
+  protected void recordMetricsOf(IExpensiveOperation operation_p) {
+    if (operation_p instanceof AbstractExpensiveOperation)
+      ((AbstractExpensiveOperation) operation_p).setMetrics(_metrics);
+  }
+
+  /**
+   * Set whether successive computations of this comparison must be incremental.
+   * If so, changes in the scopes are recorded after every computation so that
+   * IncrementalComparisonUpdater#update(IProgressMonitor) on getIncrementalUpdater()
+   * only matches and detects again what the changes may impact.
+   * @see IncrementalComparisonUpdater
+   * @param incremental_p whether computations must be incremental
+   * @generated NOT
+   */
+  public void setIncremental(boolean incremental_p) {
+    if (incremental_p && _incrementalUpdater == null) {
+      _incrementalUpdater = new IncrementalComparisonUpdater(this);
+    } else if (!incremental_p && _incrementalUpdater != null) {
+      _incrementalUpdater.dispose();
+      _incrementalUpdater = null;
+    }
+  }
+
   /**
    * @see org.eclipse.emf.diffmerge.api.IComparison.Editable#swapScopes()
    * @generated NOT
@@ -1050,6 +1224,7 @@ public class EComparisonImpl extends EIdentifiedImpl implements EComparison {
       IEditableModelScope formerTarget = targetScope;
       targetScope = referenceScope;
       referenceScope = formerTarget;
+      discardMatchTree();
     }
     return isEmpty;
   }
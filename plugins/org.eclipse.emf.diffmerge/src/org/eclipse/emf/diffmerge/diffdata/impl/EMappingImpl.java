@@ -14,15 +14,15 @@ package org.eclipse.emf.diffmerge.diffdata.impl;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.Map;
 
 import org.eclipse.emf.common.notify.NotificationChain;
-import org.eclipse.emf.common.notify.Notifier;
 import org.eclipse.emf.common.util.ECollections;
 import org.eclipse.emf.common.util.EList;
 import org.eclipse.emf.common.util.EMap;
-import org.eclipse.emf.common.util.TreeIterator;
+import org.eclipse.emf.diffmerge.api.IMapping;
 import org.eclipse.emf.diffmerge.api.IMatch;
 import org.eclipse.emf.diffmerge.api.Role;
 import org.eclipse.emf.diffmerge.api.scopes.IModelScope;
@@ -31,20 +31,15 @@ import org.eclipse.emf.diffmerge.diffdata.EComparison;
 import org.eclipse.emf.diffmerge.diffdata.EMapping;
 import org.eclipse.emf.diffmerge.diffdata.EMatch;
 import org.eclipse.emf.diffmerge.impl.helpers.BidirectionalComparisonCopier;
-import org.eclipse.emf.diffmerge.structures.common.FArrayList;
+import org.eclipse.emf.diffmerge.impl.helpers.CrossReferenceIndex;
 import org.eclipse.emf.diffmerge.structures.common.FHashMap;
+import org.eclipse.emf.diffmerge.util.ModelImplUtil;
 import org.eclipse.emf.ecore.EClass;
 import org.eclipse.emf.ecore.EObject;
-import org.eclipse.emf.ecore.EReference;
-import org.eclipse.emf.ecore.EStructuralFeature;
 import org.eclipse.emf.ecore.EStructuralFeature.Setting;
 import org.eclipse.emf.ecore.InternalEObject;
-import org.eclipse.emf.ecore.util.EContentsEList;
-import org.eclipse.emf.ecore.util.ECrossReferenceAdapter;
-import org.eclipse.emf.ecore.util.ECrossReferenceEList;
 import org.eclipse.emf.ecore.util.EObjectContainmentEList;
 import org.eclipse.emf.ecore.util.EObjectEList;
-import org.eclipse.emf.ecore.util.EcoreUtil;
 import org.eclipse.emf.ecore.util.InternalEList;
 
 /**
@@ -62,7 +57,8 @@ import org.eclipse.emf.ecore.util.InternalEList;
  *
  * @generated
  */
-public class EMappingImpl extends EIdentifiedImpl implements EMapping {
+public class EMappingImpl extends EIdentifiedImpl implements EMapping,
+    IMapping.Selective {
   /**
    * The cached value of the '{@link #getModifiableContents() <em>Modifiable Contents</em>}' containment reference list.
    * <!-- begin-user-doc -->
@@ -100,22 +96,42 @@ public class EMappingImpl extends EIdentifiedImpl implements EMapping {
   private final BidirectionalComparisonCopier _copier;
 
   /**
-   * A non-null, stateful but frozen cross-referencer for the TARGET scope
+   * A non-null, stateful but frozen cross-reference index for the TARGET scope
    * @generated NOT
    */
-  private final ScopeCrossReferencer _targetCrossReferencer;
+  private final CrossReferenceIndex _targetCrossReferences;
 
   /**
-   * A non-null, stateful but frozen cross-referencer for the REFERENCE scope
+   * A non-null, stateful but frozen cross-reference index for the REFERENCE scope
    * @generated NOT
    */
-  private final ScopeCrossReferencer _referenceCrossReferencer;
+  private final CrossReferenceIndex _referenceCrossReferences;
 
   /**
-   * A non-null cross reference adapter on this mapping for retrieving matches from model elements
+   * A non-null, modifiable index of the matches of this mapping per element in the TARGET role
    * @generated NOT
    */
-  private MatchCrossReferenceAdapter _matchAdapter;
+  private final Map<EObject, EMatch> _targetMatchIndex;
+
+  /**
+   * A non-null, modifiable index of the matches of this mapping per element in the REFERENCE role
+   * @generated NOT
+   */
+  private final Map<EObject, EMatch> _referenceMatchIndex;
+
+  /**
+   * A non-null, modifiable index of the matches of this mapping per element in the ANCESTOR role
+   * @generated NOT
+   */
+  private final Map<EObject, EMatch> _ancestorMatchIndex;
+
+  /**
+   * Whether the match indexes may not reflect the contents of this mapping,
+   * typically because matches have been added before their elements were set
+   * (e.g., during deserialization). Volatile since lookups may happen concurrently.
+   * @generated NOT
+   */
+  private volatile boolean _isMatchIndexStale;
 
   /**
    * <!-- begin-user-doc -->
@@ -125,10 +141,12 @@ public class EMappingImpl extends EIdentifiedImpl implements EMapping {
   protected EMappingImpl() {
     super();
     _copier = new BidirectionalComparisonCopier();
-    _targetCrossReferencer = new ScopeCrossReferencer(Role.TARGET);
-    _referenceCrossReferencer = new ScopeCrossReferencer(Role.REFERENCE);
-    _matchAdapter = new MatchCrossReferenceAdapter();
-    eAdapters().add(_matchAdapter);
+    _targetCrossReferences = new CrossReferenceIndex(Role.TARGET);
+    _referenceCrossReferences = new CrossReferenceIndex(Role.REFERENCE);
+    _targetMatchIndex = new IdentityHashMap<EObject, EMatch>();
+    _referenceMatchIndex = new IdentityHashMap<EObject, EMatch>();
+    _ancestorMatchIndex = new IdentityHashMap<EObject, EMatch>();
+    _isMatchIndexStale = false;
   }
 
   /**
@@ -144,12 +162,32 @@ public class EMappingImpl extends EIdentifiedImpl implements EMapping {
   /**
    * <!-- begin-user-doc -->
    * <!-- end-user-doc -->
-   * @generated
+   * @generated NOT
    */
   public EList<EMatch> getModifiableContents() {
     if (modifiableContents == null) {
       modifiableContents = new EObjectContainmentEList<EMatch>(EMatch.class,
-          this, DiffdataPackage.EMAPPING__MODIFIABLE_CONTENTS);
+          this, DiffdataPackage.EMAPPING__MODIFIABLE_CONTENTS) {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * @see org.eclipse.emf.common.util.AbstractEList#didAdd(int, java.lang.Object)
+         */
+        @Override
+        protected void didAdd(int index_p, EMatch match_p) {
+          super.didAdd(index_p, match_p);
+          registerMatch(match_p);
+        }
+
+        /**
+         * @see org.eclipse.emf.common.util.AbstractEList#didRemove(int, java.lang.Object)
+         */
+        @Override
+        protected void didRemove(int index_p, EMatch match_p) {
+          super.didRemove(index_p, match_p);
+          unregisterMatch(match_p);
+        }
+      };
     }
     return modifiableContents;
   }
@@ -157,10 +195,11 @@ public class EMappingImpl extends EIdentifiedImpl implements EMapping {
   /**
    * <!-- begin-user-doc -->
    * <!-- end-user-doc -->
-   * @generated
+   * @generated NOT
    */
   public EList<IMatch> getReferenceCompletedMatches() {
-    if (referenceCompletedMatches == null) {
+    if (referenceCompletedMatches == null ||
+        ModelImplUtil.isSharedEmpty(referenceCompletedMatches)) {
       referenceCompletedMatches = new EObjectEList<IMatch>(IMatch.class, this,
           DiffdataPackage.EMAPPING__REFERENCE_COMPLETED_MATCHES);
     }
@@ -170,10 +209,11 @@ public class EMappingImpl extends EIdentifiedImpl implements EMapping {
   /**
    * <!-- begin-user-doc -->
    * <!-- end-user-doc -->
-   * @generated
+   * @generated NOT
    */
   public EList<IMatch> getTargetCompletedMatches() {
-    if (targetCompletedMatches == null) {
+    if (targetCompletedMatches == null ||
+        ModelImplUtil.isSharedEmpty(targetCompletedMatches)) {
       targetCompletedMatches = new EObjectEList<IMatch>(IMatch.class, this,
           DiffdataPackage.EMAPPING__TARGET_COMPLETED_MATCHES);
     }
@@ -290,11 +330,50 @@ public class EMappingImpl extends EIdentifiedImpl implements EMapping {
     getModifiableContents().clear();
     getTargetCompletedMatches().clear();
     getReferenceCompletedMatches().clear();
-    _targetCrossReferencer.clear();
-    _referenceCrossReferencer.clear();
-    eAdapters().remove(_matchAdapter);
-    _matchAdapter = new MatchCrossReferenceAdapter();
-    eAdapters().add(_matchAdapter);
+    _targetCrossReferences.clear();
+    _referenceCrossReferences.clear();
+    _targetMatchIndex.clear();
+    _referenceMatchIndex.clear();
+    _ancestorMatchIndex.clear();
+    _isMatchIndexStale = false;
+  }
+
+  /**
+   * Reduce the memory footprint of this mapping and of its matches to the minimum
+   * for their current contents
+   * @return the estimated number of bytes reclaimed
+   * @generated NOT
+   */
+  public long compact() {
+    long result = 0L;
+    if (modifiableContents != null) {
+      for (EMatch match : modifiableContents) {
+        if (match instanceof EMatchImpl)
+          result += ((EMatchImpl) match).compact();
+      }
+      result += ModelImplUtil.trim(modifiableContents);
+    }
+    if (targetCompletedMatches != null) {
+      if (targetCompletedMatches.isEmpty()) {
+        if (!ModelImplUtil.isSharedEmpty(targetCompletedMatches)) {
+          targetCompletedMatches = ECollections.emptyEList();
+          result += ModelImplUtil.ESTIMATED_LIST_SIZE;
+        }
+      } else {
+        result += ModelImplUtil.trim(targetCompletedMatches);
+      }
+    }
+    if (referenceCompletedMatches != null) {
+      if (referenceCompletedMatches.isEmpty()) {
+        if (!ModelImplUtil.isSharedEmpty(referenceCompletedMatches)) {
+          referenceCompletedMatches = ECollections.emptyEList();
+          result += ModelImplUtil.ESTIMATED_LIST_SIZE;
+        }
+      } else {
+        result += ModelImplUtil.trim(referenceCompletedMatches);
+      }
+    }
+    return result;
   }
 
   /**
@@ -313,6 +392,14 @@ public class EMappingImpl extends EIdentifiedImpl implements EMapping {
     _copier.completeReferences(this, role_p);
   }
 
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMapping.Selective#completeReferences(org.eclipse.emf.diffmerge.api.Role, java.util.Collection)
+   * @generated NOT
+   */
+  public void completeReferences(Role role_p, Collection<IMatch> matches_p) {
+    _copier.completeReferences(this, role_p, matches_p);
+  }
+
   /**
    * @see org.eclipse.emf.diffmerge.api.IMapping#covers(org.eclipse.emf.ecore.EObject, org.eclipse.emf.diffmerge.api.Role)
    * @generated NOT
@@ -326,13 +413,9 @@ public class EMappingImpl extends EIdentifiedImpl implements EMapping {
    * @generated NOT
    */
   public void crossReference(Role role_p) {
-    ScopeCrossReferencer referencer = null;
-    if (role_p == Role.TARGET)
-      referencer = _targetCrossReferencer;
-    else if (role_p == Role.REFERENCE)
-      referencer = _referenceCrossReferencer;
-    if (referencer != null)
-      referencer.crossReference();
+    CrossReferenceIndex index = getCrossReferenceIndex(role_p);
+    if (index != null)
+      index.build(this);
   }
 
   /**
@@ -364,6 +447,21 @@ public class EMappingImpl extends EIdentifiedImpl implements EMapping {
     return Collections.<IMatch> unmodifiableCollection(getModifiableContents());
   }
 
+  /**
+   * Return the cross-reference index for the given role, if any
+   * @param role_p a non-null role
+   * @return a potentially null index
+   * @generated NOT
+   */
+  protected CrossReferenceIndex getCrossReferenceIndex(Role role_p) {
+    CrossReferenceIndex result = null;
+    if (role_p == Role.TARGET)
+      result = _targetCrossReferences;
+    else if (role_p == Role.REFERENCE)
+      result = _referenceCrossReferences;
+    return result;
+  }
+
   /**
    * @see org.eclipse.emf.diffmerge.api.IMapping#getCrossReferences(org.eclipse.emf.ecore.EObject, org.eclipse.emf.diffmerge.api.Role)
    * @generated NOT
@@ -371,14 +469,10 @@ public class EMappingImpl extends EIdentifiedImpl implements EMapping {
   public Collection<Setting> getCrossReferences(EObject element_p,
       Role role_p) {
     Collection<Setting> result = null;
-    ScopeCrossReferencer referencer = null;
-    if (role_p == Role.TARGET)
-      referencer = _targetCrossReferencer;
-    else if (role_p == Role.REFERENCE)
-      referencer = _referenceCrossReferencer;
-    if (referencer != null)
-      result = referencer.get(element_p);
-    if (result == null)
+    CrossReferenceIndex index = getCrossReferenceIndex(role_p);
+    if (index != null)
+      result = index.get(element_p);
+    else
       result = Collections.emptyList();
     return result;
   }
@@ -389,28 +483,35 @@ public class EMappingImpl extends EIdentifiedImpl implements EMapping {
    */
   public IMatch getMatchFor(EObject element_p, Role role_p) {
     IMatch result = null;
-    if (role_p != null) {
-      EReference matchReference;
-      switch (role_p) {
-      case ANCESTOR:
-        matchReference = DiffdataPackage.eINSTANCE.getEMatch_Ancestor();
-        break;
-      case REFERENCE:
-        matchReference = DiffdataPackage.eINSTANCE.getEMatch_Reference();
-        break;
-      default:
-        matchReference = DiffdataPackage.eINSTANCE.getEMatch_Target();
-      }
-      if (element_p != null) {
-        Collection<Setting> settings = _matchAdapter
-            .getNonNavigableInverseReferences(element_p);
-        for (Setting setting : settings) {
-          if (setting.getEStructuralFeature() == matchReference) {
-            result = (EMatch) setting.getEObject();
-            break;
-          }
+    if (element_p != null && role_p != null) {
+      if (_isMatchIndexStale) {
+        synchronized (this) {
+          if (_isMatchIndexStale)
+            reindexMatches();
         }
       }
+      result = getMatchIndex(role_p).get(element_p);
+    }
+    return result;
+  }
+
+  /**
+   * Return the index of matches per element for the given role
+   * @param role_p a non-null role
+   * @return a non-null, modifiable map
+   * @generated NOT
+   */
+  protected Map<EObject, EMatch> getMatchIndex(Role role_p) {
+    Map<EObject, EMatch> result;
+    switch (role_p) {
+    case TARGET:
+      result = _targetMatchIndex;
+      break;
+    case REFERENCE:
+      result = _referenceMatchIndex;
+      break;
+    default:
+      result = _ancestorMatchIndex;
     }
     return result;
   }
@@ -544,6 +645,7 @@ public class EMappingImpl extends EIdentifiedImpl implements EMapping {
       // We assume the type of the match is compatible with the mapping
       getModifiableContents().add((EMatch) newMatch);
     } else {
+      // The match indexes are updated by the match itself
       ((IMatch.Editable) newMatch).reset(elements.get(Role.TARGET),
           elements.get(Role.REFERENCE), elements.get(Role.ANCESTOR));
     }
@@ -586,6 +688,41 @@ public class EMappingImpl extends EIdentifiedImpl implements EMapping {
     return result;
   }
 
+  /**
+   * Register the given match in the match indexes according to its current elements
+   * @param match_p a non-null match
+   * @generated NOT
+   */
+  protected void registerMatch(EMatch match_p) {
+    boolean coversARole = false;
+    for (Role role : Role.values()) {
+      EObject element = match_p.get(role);
+      if (element != null) {
+        getMatchIndex(role).put(element, match_p);
+        coversARole = true;
+      }
+    }
+    if (!coversARole) {
+      // Elements are expected to be set later on, e.g., by deserialization
+      _isMatchIndexStale = true;
+    }
+  }
+
+  /**
+   * Rebuild the match indexes from the contents of this mapping
+   * @generated NOT
+   */
+  protected void reindexMatches() {
+    _targetMatchIndex.clear();
+    _referenceMatchIndex.clear();
+    _ancestorMatchIndex.clear();
+    for (EMatch match : getModifiableContents()) {
+      registerMatch(match);
+    }
+    // Only reset once the indexes are complete, for concurrent lookups
+    _isMatchIndexStale = false;
+  }
+
   /**
    * @see org.eclipse.emf.diffmerge.api.IMapping#size()
    * @generated NOT
@@ -622,131 +759,36 @@ public class EMappingImpl extends EIdentifiedImpl implements EMapping {
   }
 
   /**
-   * A cross reference adapter for retrieving matches from model elements.
+   * Update the match indexes after the element of the given match in the given role
+   * has changed
+   * @param match_p a non-null match which belongs to this mapping
+   * @param role_p a non-null role
+   * @param oldElement_p the potentially null previous element
+   * @param newElement_p the potentially null new element
    * @generated NOT
    */
-  protected static class MatchCrossReferenceAdapter
-      extends ECrossReferenceAdapter {
-    /**
-     * @see org.eclipse.emf.ecore.util.ECrossReferenceAdapter#isIncluded(org.eclipse.emf.ecore.EReference)
-     */
-    @Override
-    protected boolean isIncluded(EReference reference_p) {
-      return reference_p == DiffdataPackage.eINSTANCE.getEMatch_Ancestor()
-          || reference_p == DiffdataPackage.eINSTANCE.getEMatch_Reference()
-          || reference_p == DiffdataPackage.eINSTANCE.getEMatch_Target();
-    }
+  protected void updateMatchIndex(EMatch match_p, Role role_p,
+      EObject oldElement_p, EObject newElement_p) {
+    Map<EObject, EMatch> index = getMatchIndex(role_p);
+    if (oldElement_p != null && index.get(oldElement_p) == match_p)
+      index.remove(oldElement_p);
+    if (newElement_p != null)
+      index.put(newElement_p, match_p);
   }
 
   /**
-   * A cross-referencer for handling cross-references that are not covered by differences.
+   * Remove the given match from the match indexes according to its current elements
+   * @param match_p a non-null match
    * @generated NOT
    */
-  protected class ScopeCrossReferencer extends EcoreUtil.CrossReferencer {
-    /** The serial version */
-    private static final long serialVersionUID = 1L;
-
-    /** The non-null role played by the scope to cross-reference */
-    protected final Role _role;
-
-    /**
-     * Constructor
-     * @param role_p a role which is TARGET or REFERENCE
-     */
-    public ScopeCrossReferencer(Role role_p) {
-      super(Collections.emptyList());
-      _role = role_p;
-    }
-
-    /**
-     * @see org.eclipse.emf.ecore.util.EcoreUtil.CrossReferencer#crossReference()
-     */
-    @Override
-    public void crossReference() { // Increases visibility
-      super.crossReference();
-    }
-
-    /**
-     * @see org.eclipse.emf.ecore.util.EcoreUtil.CrossReferencer#crossReference(org.eclipse.emf.ecore.EObject, org.eclipse.emf.ecore.EReference, org.eclipse.emf.ecore.EObject)
-     */
-    @Override
-    protected boolean crossReference(EObject element_p, EReference reference_p,
-        EObject crossReferenced_p) {
-      boolean result = false;
-      IMatch referencingMatch = getMatchFor(element_p, _role);
-      IMatch referencedMatch = getMatchFor(crossReferenced_p, _role);
-      // Unidirectional, modifiable cross-references between unmatched elements
-      if (referencingMatch != null && referencedMatch != null)
-        result = referencingMatch.isPartial() && referencedMatch.isPartial();
-      return result;
-    }
-
-    /**
-     * @see org.eclipse.emf.ecore.util.EcoreUtil.CrossReferencer#getCrossReferences(org.eclipse.emf.ecore.EObject)
-     */
-    @Override
-    protected EContentsEList.FeatureIterator<EObject> getCrossReferences(
-        EObject eObject) {
-      return new ECrossReferenceEList.FeatureIteratorImpl<EObject>(eObject) {
-        /**
-         * @see org.eclipse.emf.ecore.util.EContentsEList.FeatureIteratorImpl#isIncluded(org.eclipse.emf.ecore.EStructuralFeature)
-         */
-        @Override
-        protected boolean isIncluded(EStructuralFeature feature_p) {
-          return super.isIncludedEntry(feature_p)
-              && ScopeCrossReferencer.this.isIncluded((EReference) feature_p);
-        }
-
-        /**
-         * @see org.eclipse.emf.ecore.util.EContentsEList.FeatureIteratorImpl#resolve()
-         */
-        @Override
-        protected boolean resolve() {
-          return ScopeCrossReferencer.this.resolve();
-        }
-      };
-    }
-
-    /**
-     * Return the role covered by this cross-referencer
-     * @return TARGET or REFERENCE
-     */
-    public Role getRole() {
-      return _role;
-    }
-
-    /**
-     * Return whether the given cross-reference should be covered by this cross-referencer
-     * @param reference_p a non-null cross-reference
-     */
-    protected boolean isIncluded(EReference reference_p) {
-      // Modifiable cross-references only
-      return reference_p.isChangeable() && !reference_p.isDerived();
-    }
-
-    /**
-     * @see org.eclipse.emf.ecore.util.EcoreUtil.CrossReferencer#newCollection()
-     */
-    @Override
-    protected Collection<EStructuralFeature.Setting> newCollection() {
-      return new FArrayList<EStructuralFeature.Setting>();
-    }
-
-    /**
-     * @see org.eclipse.emf.ecore.util.EcoreUtil.CrossReferencer#newContentsIterator()
-     */
-    @Override
-    @SuppressWarnings({ "unchecked", "rawtypes" })
-    protected TreeIterator<Notifier> newContentsIterator() {
-      return (TreeIterator) getComparison().getScope(_role).getAllContents();
-    }
-
-    /**
-     * @see org.eclipse.emf.ecore.util.EcoreUtil.CrossReferencer#resolve()
-     */
-    @Override
-    protected boolean resolve() {
-      return false;
+  protected void unregisterMatch(EMatch match_p) {
+    for (Role role : Role.values()) {
+      EObject element = match_p.get(role);
+      if (element != null) {
+        Map<EObject, EMatch> index = getMatchIndex(role);
+        if (index.get(element) == match_p)
+          index.remove(element);
+      }
     }
   }
 
@@ -23,6 +23,7 @@ import java.util.Set;
 
 import org.eclipse.emf.common.notify.Notification;
 import org.eclipse.emf.common.notify.NotificationChain;
+import org.eclipse.emf.common.util.ECollections;
 import org.eclipse.emf.common.util.EList;
 import org.eclipse.emf.common.util.EMap;
 import org.eclipse.emf.diffmerge.api.IMatch;
@@ -39,7 +40,9 @@ import org.eclipse.emf.diffmerge.diffdata.DiffdataPackage;
 import org.eclipse.emf.diffmerge.diffdata.EMapping;
 import org.eclipse.emf.diffmerge.diffdata.EMatch;
 import org.eclipse.emf.diffmerge.diffdata.EMergeableDifference;
+import org.eclipse.emf.diffmerge.impl.helpers.DifferenceIndex;
 import org.eclipse.emf.diffmerge.structures.common.FArrayList;
+import org.eclipse.emf.diffmerge.util.ModelImplUtil;
 import org.eclipse.emf.ecore.EAttribute;
 import org.eclipse.emf.ecore.EClass;
 import org.eclipse.emf.ecore.EObject;
@@ -75,7 +78,8 @@ import org.eclipse.emf.ecore.util.InternalEList;
  *
  * @generated
  */
-public class EMatchImpl extends EIdentifiedImpl implements EMatch {
+public class EMatchImpl extends EIdentifiedImpl implements EMatch,
+    IMatch.Indexed {
 
   /**
    * The default value of the '{@link #getMatchID() <em>Match ID</em>}' attribute.
@@ -299,11 +303,12 @@ public class EMatchImpl extends EIdentifiedImpl implements EMatch {
   /**
    * <!-- begin-user-doc -->
    * <!-- end-user-doc -->
-   * @generated
+   * @generated NOT
    */
   public void setAncestor(EObject newAncestor) {
     EObject oldAncestor = ancestor;
     ancestor = newAncestor;
+    updateMatchIndex(ANCESTOR, oldAncestor, ancestor);
     if (eNotificationRequired())
       eNotify(new ENotificationImpl(this, Notification.SET,
           DiffdataPackage.EMATCH__ANCESTOR, oldAncestor, ancestor));
@@ -339,11 +344,12 @@ public class EMatchImpl extends EIdentifiedImpl implements EMatch {
   /**
    * <!-- begin-user-doc -->
    * <!-- end-user-doc -->
-   * @generated
+   * @generated NOT
    */
   public void setReference(EObject newReference) {
     EObject oldReference = reference;
     reference = newReference;
+    updateMatchIndex(REFERENCE, oldReference, reference);
     if (eNotificationRequired())
       eNotify(new ENotificationImpl(this, Notification.SET,
           DiffdataPackage.EMATCH__REFERENCE, oldReference, reference));
@@ -379,11 +385,12 @@ public class EMatchImpl extends EIdentifiedImpl implements EMatch {
   /**
    * <!-- begin-user-doc -->
    * <!-- end-user-doc -->
-   * @generated
+   * @generated NOT
    */
   public void setTarget(EObject newTarget) {
     EObject oldTarget = target;
     target = newTarget;
+    updateMatchIndex(TARGET, oldTarget, target);
     if (eNotificationRequired())
       eNotify(new ENotificationImpl(this, Notification.SET,
           DiffdataPackage.EMATCH__TARGET, oldTarget, target));
@@ -392,10 +399,11 @@ public class EMatchImpl extends EIdentifiedImpl implements EMatch {
   /**
    * <!-- begin-user-doc -->
    * <!-- end-user-doc -->
-   * @generated
+   * @generated NOT
    */
   public EList<EMergeableDifference> getModifiableRelatedDifferences() {
-    if (modifiableRelatedDifferences == null) {
+    if (modifiableRelatedDifferences == null ||
+        ModelImplUtil.isSharedEmpty(modifiableRelatedDifferences)) {
       modifiableRelatedDifferences = new EObjectContainmentEList<EMergeableDifference>(
           EMergeableDifference.class, this,
           DiffdataPackage.EMATCH__MODIFIABLE_RELATED_DIFFERENCES);
@@ -418,10 +426,11 @@ public class EMatchImpl extends EIdentifiedImpl implements EMatch {
   /**
    * <!-- begin-user-doc -->
    * <!-- end-user-doc -->
-   * @generated
+   * @generated NOT
    */
   public EMap<EAttribute, EMap<Object, IAttributeValuePresence>> getModifiableAttributeMap() {
-    if (modifiableAttributeMap == null) {
+    if (modifiableAttributeMap == null ||
+        ModelImplUtil.isSharedEmpty(modifiableAttributeMap)) {
       modifiableAttributeMap = new EcoreEMap<EAttribute, EMap<Object, IAttributeValuePresence>>(
           DiffdataPackage.Literals.ATTRIBUTE_TO_VALUE_TO_DIFFERENCE_ENTRY,
           AttributeToValueToDifferenceEntryImpl.class, this,
@@ -436,7 +445,8 @@ public class EMatchImpl extends EIdentifiedImpl implements EMatch {
    * @generated NOT
    */
   public EMap<EReference, EMap<EObject, IReferenceValuePresence>> getModifiableReferenceMap() {
-    if (modifiableReferenceMap == null) {
+    if (modifiableReferenceMap == null ||
+        ModelImplUtil.isSharedEmpty(modifiableReferenceMap)) {
       modifiableReferenceMap = new EcoreEMap<EReference, EMap<EObject, IReferenceValuePresence>>(
           DiffdataPackage.Literals.REFERENCE_TO_ELEMENT_TO_DIFFERENCE_ENTRY,
           ReferenceToElementToDifferenceEntryImpl.class, this,
@@ -893,9 +903,133 @@ public class EMatchImpl extends EIdentifiedImpl implements EMatch {
       } else if (difference_p instanceof IAttributeValuePresence) {
         addAttributeValuePresence((IAttributeValuePresence) difference_p);
       }
+      EMapping mapping = getMapping();
+      if (mapping != null) {
+        DifferenceIndex differenceIndex = DifferenceIndex
+            .getMaintainedIndex(mapping.getComparison());
+        if (differenceIndex != null)
+          differenceIndex.differenceAdded(difference_p);
+      }
+    }
+  }
+
+  /**
+   * Remove the given difference from the differences related to this match, which is
+   * the inverse of addRelatedDifference(IDifference). Dependencies on the difference
+   * and the derived data of the comparison are not updated.
+   * @param difference_p a non-null difference
+   * @generated NOT
+   */
+  public void removeRelatedDifference(IDifference difference_p) {
+    if (modifiableRelatedDifferences == null ||
+        modifiableRelatedDifferences.isEmpty() ||
+        !modifiableRelatedDifferences.remove(difference_p))
+      return;
+    if (difference_p instanceof IElementPresence) {
+      if (getElementPresenceDifference() == difference_p)
+        setElementPresenceDifference(null);
+    } else if (difference_p instanceof IReferenceValuePresence) {
+      IReferenceValuePresence presence = (IReferenceValuePresence) difference_p;
+      if (modifiableReferenceMap != null) {
+        EMap<EObject, IReferenceValuePresence> forReference = modifiableReferenceMap
+            .get(presence.getFeature());
+        if (forReference != null) {
+          EObject key;
+          if (presence.isOrder())
+            key = presence.getPresenceRole() == Role.TARGET
+                ? REFERENCE_ORDER_KEY_TARGET
+                : REFERENCE_ORDER_KEY_REFERENCE;
+          else
+            key = presence.getValue();
+          if (forReference.get(key) == presence)
+            forReference.removeKey(key);
+          if (forReference.isEmpty())
+            modifiableReferenceMap.removeKey(presence.getFeature());
+        }
+      }
+      IMatch valueMatch = presence.getValueMatch();
+      if (presence.isOwnership() && valueMatch instanceof EMatch) {
+        EMatch editableValueMatch = (EMatch) valueMatch;
+        if (Role.TARGET == presence.getPresenceRole()) {
+          if (editableValueMatch.getTargetOwnershipDifference() == presence)
+            editableValueMatch.setTargetOwnershipDifference(null);
+        } else if (editableValueMatch.getReferenceOwnershipDifference() == presence) {
+          editableValueMatch.setReferenceOwnershipDifference(null);
+        }
+      }
+    } else if (difference_p instanceof IAttributeValuePresence) {
+      IAttributeValuePresence presence = (IAttributeValuePresence) difference_p;
+      if (modifiableAttributeMap != null) {
+        EMap<Object, IAttributeValuePresence> forAttribute = modifiableAttributeMap
+            .get(presence.getFeature());
+        if (forAttribute != null) {
+          Object key;
+          if (presence.isOrder())
+            key = presence.getPresenceRole() == Role.TARGET
+                ? ATTRIBUTE_ORDER_KEY_TARGET
+                : ATTRIBUTE_ORDER_KEY_REFERENCE;
+          else
+            key = presence.getValue();
+          if (forAttribute.get(key) == presence)
+            forAttribute.removeKey(key);
+          if (forAttribute.isEmpty())
+            modifiableAttributeMap.removeKey(presence.getFeature());
+        }
+      }
     }
   }
 
+  /**
+   * Reduce the memory footprint of this match and of its differences to the minimum
+   * for their current state: empty lists and maps are replaced by shared empty
+   * instances, since they are lazily re-created if needed, other lists are trimmed,
+   * and a string match ID is replaced by the equal ID of a matched element
+   * @return the estimated number of bytes reclaimed
+   * @generated NOT
+   */
+  public long compact() {
+    long result = 0L;
+    if (matchID instanceof String) {
+      String id = (String) matchID;
+      // Match IDs are unique in the mapping, so only the IDs of elements can be shared
+      for (Role role : Role.values()) {
+        String elementID = ModelImplUtil.getIntrinsicID(get(role));
+        if (id.equals(elementID)) {
+          if (elementID != id) {
+            matchID = elementID;
+            result += ModelImplUtil.ESTIMATED_STRING_SIZE + id.length();
+          }
+          break;
+        }
+      }
+    }
+    if (modifiableRelatedDifferences != null) {
+      if (modifiableRelatedDifferences.isEmpty()) {
+        if (!ModelImplUtil.isSharedEmpty(modifiableRelatedDifferences)) {
+          modifiableRelatedDifferences = ECollections.emptyEList();
+          result += ModelImplUtil.ESTIMATED_LIST_SIZE;
+        }
+      } else {
+        for (EMergeableDifference difference : modifiableRelatedDifferences) {
+          if (difference instanceof EMergeableDifferenceImpl)
+            result += ((EMergeableDifferenceImpl) difference).compact();
+        }
+        result += ModelImplUtil.trim(modifiableRelatedDifferences);
+      }
+    }
+    if (modifiableAttributeMap != null && modifiableAttributeMap.isEmpty() &&
+        !ModelImplUtil.isSharedEmpty(modifiableAttributeMap)) {
+      modifiableAttributeMap = ECollections.emptyEMap();
+      result += ModelImplUtil.ESTIMATED_MAP_SIZE;
+    }
+    if (modifiableReferenceMap != null && modifiableReferenceMap.isEmpty() &&
+        !ModelImplUtil.isSharedEmpty(modifiableReferenceMap)) {
+      modifiableReferenceMap = ECollections.emptyEMap();
+      result += ModelImplUtil.ESTIMATED_MAP_SIZE;
+    }
+    return result;
+  }
+
   /**
    * @see org.eclipse.emf.diffmerge.api.IPureMatch#coversRole(org.eclipse.emf.diffmerge.api.Role)
    * @generated NOT
@@ -1054,6 +1188,16 @@ public class EMatchImpl extends EIdentifiedImpl implements EMatch {
     return result;
   }
 
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMatch.Indexed#getNbRelatedDifferences()
+   * @generated NOT
+   */
+  public int getNbRelatedDifferences() {
+    List<EMergeableDifference> modifiable = getModifiableRelatedDifferences(
+        false);
+    return modifiable == null ? 0 : modifiable.size();
+  }
+
   /**
    * @see org.eclipse.emf.diffmerge.api.IMatch#getOrderDifference(org.eclipse.emf.ecore.EStructuralFeature, org.eclipse.emf.diffmerge.api.Role)
    * @generated NOT
@@ -1158,6 +1302,18 @@ public class EMatchImpl extends EIdentifiedImpl implements EMatch {
     return result;
   }
 
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMatch.Indexed#getRelatedDifference(int)
+   * @generated NOT
+   */
+  public IDifference getRelatedDifference(int index_p) {
+    List<EMergeableDifference> modifiable = getModifiableRelatedDifferences(
+        false);
+    if (modifiable == null)
+      throw new IndexOutOfBoundsException(String.valueOf(index_p));
+    return modifiable.get(index_p);
+  }
+
   /**
    * @see org.eclipse.emf.diffmerge.api.IMatch#getRelatedDifferences()
    * @generated NOT
@@ -1316,4 +1472,20 @@ public class EMatchImpl extends EIdentifiedImpl implements EMatch {
     }
   }
 
+  /**
+   * Notify the mapping which owns this match, if any, that the element of this match
+   * in the given role has changed so that its index of matches remains consistent
+   * @param role_p a non-null role
+   * @param oldElement_p the potentially null previous element
+   * @param newElement_p the potentially null new element
+   * @generated NOT
+   */
+  protected void updateMatchIndex(Role role_p, EObject oldElement_p,
+      EObject newElement_p) {
+    if (oldElement_p != newElement_p
+        && eInternalContainer() instanceof EMappingImpl)
+      ((EMappingImpl) eInternalContainer()).updateMatchIndex(this, role_p,
+          oldElement_p, newElement_p);
+  }
+
 } //EMatchImpl
@@ -16,6 +16,7 @@ import java.util.Collections;
 import java.util.HashSet;
 
 import org.eclipse.emf.common.notify.Notification;
+import org.eclipse.emf.common.util.ECollections;
 import org.eclipse.emf.common.util.EList;
 import org.eclipse.emf.diffmerge.Messages;
 import org.eclipse.emf.diffmerge.api.Role;
@@ -24,10 +25,13 @@ import org.eclipse.emf.diffmerge.api.diff.IMergeableDifference;
 import org.eclipse.emf.diffmerge.diffdata.DiffdataPackage;
 import org.eclipse.emf.diffmerge.diffdata.EComparison;
 import org.eclipse.emf.diffmerge.diffdata.EMergeableDifference;
+import org.eclipse.emf.diffmerge.impl.helpers.DifferenceDependencyGraph;
+import org.eclipse.emf.diffmerge.impl.helpers.DifferenceIndex;
 import org.eclipse.emf.diffmerge.structures.IEqualityTester;
 import org.eclipse.emf.diffmerge.structures.common.FArrayList;
 import org.eclipse.emf.diffmerge.structures.common.FHashSet;
 import org.eclipse.emf.diffmerge.structures.endo.AbstractEndorelation;
+import org.eclipse.emf.diffmerge.util.ModelImplUtil;
 import org.eclipse.emf.ecore.EClass;
 import org.eclipse.emf.ecore.InternalEObject;
 import org.eclipse.emf.ecore.impl.ENotificationImpl;
@@ -381,12 +385,20 @@ public abstract class EMergeableDifferenceImpl extends EIdentifiedImpl
 
   /**
    * <!-- begin-user-doc -->
+   * The index of the differences of the comparison, if any, is kept up to date,
+   * including when merges are undone.
    * <!-- end-user-doc -->
-   * @generated
+   * @generated NOT
    */
   public void setMergeDestination(Role newMergeDestination) {
     Role oldMergeDestination = mergeDestination;
     mergeDestination = newMergeDestination;
+    if ((oldMergeDestination == null) != (newMergeDestination == null)) {
+      DifferenceIndex differenceIndex = DifferenceIndex
+          .getMaintainedIndex(basicGetComparison());
+      if (differenceIndex != null)
+        differenceIndex.mergeStateChanged(this);
+    }
     if (eNotificationRequired())
       eNotify(new ENotificationImpl(this, Notification.SET,
           DiffdataPackage.EMERGEABLE_DIFFERENCE__MERGE_DESTINATION,
@@ -396,10 +408,11 @@ public abstract class EMergeableDifferenceImpl extends EIdentifiedImpl
   /**
    * <!-- begin-user-doc -->
    * <!-- end-user-doc -->
-   * @generated
+   * @generated NOT
    */
   public EList<Role> getPossibleMergeDestinations() {
-    if (possibleMergeDestinations == null) {
+    if (possibleMergeDestinations == null ||
+        ModelImplUtil.isSharedEmpty(possibleMergeDestinations)) {
       possibleMergeDestinations = new EDataTypeUniqueEList<Role>(Role.class,
           this,
           DiffdataPackage.EMERGEABLE_DIFFERENCE__POSSIBLE_MERGE_DESTINATIONS);
@@ -410,10 +423,11 @@ public abstract class EMergeableDifferenceImpl extends EIdentifiedImpl
   /**
    * <!-- begin-user-doc -->
    * <!-- end-user-doc -->
-   * @generated
+   * @generated NOT
    */
   public EList<IMergeableDifference> getExplicitDependenciesForTarget() {
-    if (explicitDependenciesForTarget == null) {
+    if (explicitDependenciesForTarget == null ||
+        ModelImplUtil.isSharedEmpty(explicitDependenciesForTarget)) {
       explicitDependenciesForTarget = new EObjectResolvingEList<IMergeableDifference>(
           IMergeableDifference.class, this,
           DiffdataPackage.EMERGEABLE_DIFFERENCE__EXPLICIT_DEPENDENCIES_FOR_TARGET);
@@ -424,10 +438,11 @@ public abstract class EMergeableDifferenceImpl extends EIdentifiedImpl
   /**
    * <!-- begin-user-doc -->
    * <!-- end-user-doc -->
-   * @generated
+   * @generated NOT
    */
   public EList<IMergeableDifference> getExplicitDependenciesForReference() {
-    if (explicitDependenciesForReference == null) {
+    if (explicitDependenciesForReference == null ||
+        ModelImplUtil.isSharedEmpty(explicitDependenciesForReference)) {
       explicitDependenciesForReference = new EObjectResolvingEList<IMergeableDifference>(
           IMergeableDifference.class, this,
           DiffdataPackage.EMERGEABLE_DIFFERENCE__EXPLICIT_DEPENDENCIES_FOR_REFERENCE);
@@ -438,10 +453,11 @@ public abstract class EMergeableDifferenceImpl extends EIdentifiedImpl
   /**
    * <!-- begin-user-doc -->
    * <!-- end-user-doc -->
-   * @generated
+   * @generated NOT
    */
   public EList<IMergeableDifference> getImplicitDependenciesForTarget() {
-    if (implicitDependenciesForTarget == null) {
+    if (implicitDependenciesForTarget == null ||
+        ModelImplUtil.isSharedEmpty(implicitDependenciesForTarget)) {
       implicitDependenciesForTarget = new EObjectResolvingEList<IMergeableDifference>(
           IMergeableDifference.class, this,
           DiffdataPackage.EMERGEABLE_DIFFERENCE__IMPLICIT_DEPENDENCIES_FOR_TARGET);
@@ -452,10 +468,11 @@ public abstract class EMergeableDifferenceImpl extends EIdentifiedImpl
   /**
    * <!-- begin-user-doc -->
    * <!-- end-user-doc -->
-   * @generated
+   * @generated NOT
    */
   public EList<IMergeableDifference> getImplicitDependenciesForReference() {
-    if (implicitDependenciesForReference == null) {
+    if (implicitDependenciesForReference == null ||
+        ModelImplUtil.isSharedEmpty(implicitDependenciesForReference)) {
       implicitDependenciesForReference = new EObjectResolvingEList<IMergeableDifference>(
           IMergeableDifference.class, this,
           DiffdataPackage.EMERGEABLE_DIFFERENCE__IMPLICIT_DEPENDENCIES_FOR_REFERENCE);
@@ -677,6 +694,60 @@ public abstract class EMergeableDifferenceImpl extends EIdentifiedImpl
           Messages.AbstractDifference_UnableToMerge + ": " + toString()); //$NON-NLS-1$
   }
 
+  /**
+   * Reduce the memory footprint of this difference to the minimum for its current
+   * state: empty dependency lists are replaced by shared empty instances, since they
+   * are lazily re-created if needed, and other lists are trimmed
+   * @return the estimated number of bytes reclaimed
+   * @generated NOT
+   */
+  public long compact() {
+    long result = 0L;
+    if (possibleMergeDestinations != null)
+      result += ModelImplUtil.trim(possibleMergeDestinations);
+    if (explicitDependenciesForTarget != null) {
+      if (explicitDependenciesForTarget.isEmpty()) {
+        if (!ModelImplUtil.isSharedEmpty(explicitDependenciesForTarget)) {
+          explicitDependenciesForTarget = ECollections.emptyEList();
+          result += ModelImplUtil.ESTIMATED_LIST_SIZE;
+        }
+      } else {
+        result += ModelImplUtil.trim(explicitDependenciesForTarget);
+      }
+    }
+    if (explicitDependenciesForReference != null) {
+      if (explicitDependenciesForReference.isEmpty()) {
+        if (!ModelImplUtil.isSharedEmpty(explicitDependenciesForReference)) {
+          explicitDependenciesForReference = ECollections.emptyEList();
+          result += ModelImplUtil.ESTIMATED_LIST_SIZE;
+        }
+      } else {
+        result += ModelImplUtil.trim(explicitDependenciesForReference);
+      }
+    }
+    if (implicitDependenciesForTarget != null) {
+      if (implicitDependenciesForTarget.isEmpty()) {
+        if (!ModelImplUtil.isSharedEmpty(implicitDependenciesForTarget)) {
+          implicitDependenciesForTarget = ECollections.emptyEList();
+          result += ModelImplUtil.ESTIMATED_LIST_SIZE;
+        }
+      } else {
+        result += ModelImplUtil.trim(implicitDependenciesForTarget);
+      }
+    }
+    if (implicitDependenciesForReference != null) {
+      if (implicitDependenciesForReference.isEmpty()) {
+        if (!ModelImplUtil.isSharedEmpty(implicitDependenciesForReference)) {
+          implicitDependenciesForReference = ECollections.emptyEList();
+          result += ModelImplUtil.ESTIMATED_LIST_SIZE;
+        }
+      } else {
+        result += ModelImplUtil.trim(implicitDependenciesForReference);
+      }
+    }
+    return result;
+  }
+
   /**
    * @see org.eclipse.emf.diffmerge.api.diff.IMergeableDifference.Editable#doMergeIn(org.eclipse.emf.diffmerge.api.Role)
    * @generated NOT
@@ -790,6 +861,23 @@ public abstract class EMergeableDifferenceImpl extends EIdentifiedImpl
         : implicitDependenciesForTarget;
   }
 
+  /**
+   * Return the comparison-level graph of inter-difference dependencies, if available
+   * @param role_p the role to which dependencies are relative (TARGET or REFERENCE)
+   * @param isExplicit_p whether explicit or implicit dependencies are considered
+   * @return a potentially null graph
+   * @generated NOT
+   */
+  protected DifferenceDependencyGraph getDependencyGraph(Role role_p,
+      boolean isExplicit_p) {
+    DifferenceDependencyGraph result = null;
+    EComparison comparison = getComparison();
+    if (comparison instanceof DifferenceDependencyGraph.Provider)
+      result = ((DifferenceDependencyGraph.Provider) comparison)
+          .getDependencyGraph(role_p, isExplicit_p);
+    return result;
+  }
+
   /**
    * @see org.eclipse.emf.diffmerge.api.diff.IMergeableDifference#getImpliesDependencies(org.eclipse.emf.diffmerge.api.Role)
    * @generated NOT
@@ -806,8 +894,12 @@ public abstract class EMergeableDifferenceImpl extends EIdentifiedImpl
           required.size() + 1, null);
       allRequired.add(this);
       allRequired.addAll(required);
-      result = new DifferenceDependencyRelation(role_p, false)
-          .getTransitiveClosure(allRequired);
+      DifferenceDependencyGraph graph = getDependencyGraph(role_p, false);
+      if (graph != null && graph.containsAll(allRequired))
+        result = graph.getClosure(allRequired);
+      else
+        result = new DifferenceDependencyRelation(role_p, false)
+            .getTransitiveClosure(allRequired);
       if (role_p == Role.TARGET)
         _allImplicitDependenciesTarget = result;
       else
@@ -826,8 +918,12 @@ public abstract class EMergeableDifferenceImpl extends EIdentifiedImpl
         ? _allExplicitDependenciesTarget
         : _allExplicitDependenciesReference;
     if (result == null) {
-      result = new DifferenceDependencyRelation(role_p, true)
-          .getTransitiveClosure(this);
+      DifferenceDependencyGraph graph = getDependencyGraph(role_p, true);
+      if (graph != null && graph.contains(this))
+        result = graph.getClosure(this);
+      else
+        result = new DifferenceDependencyRelation(role_p, true)
+            .getTransitiveClosure(this);
       if (role_p == Role.TARGET)
         _allExplicitDependenciesTarget = result;
       else
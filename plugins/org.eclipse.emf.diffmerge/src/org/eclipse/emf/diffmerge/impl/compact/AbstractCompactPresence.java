@@ -0,0 +1,549 @@
+/*********************************************************************
+ * Copyright (c) 2010-2019 Thales Global Services S.A.S.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    Thales Global Services S.A.S. - initial API and implementation
+ **********************************************************************/
+package org.eclipse.emf.diffmerge.impl.compact;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.eclipse.emf.diffmerge.Messages;
+import org.eclipse.emf.diffmerge.api.IMatch;
+import org.eclipse.emf.diffmerge.api.Role;
+import org.eclipse.emf.diffmerge.api.diff.IDifference;
+import org.eclipse.emf.diffmerge.api.diff.IElementRelativePresence;
+import org.eclipse.emf.diffmerge.api.diff.IMergeableDifference;
+import org.eclipse.emf.diffmerge.api.scopes.IEditableModelScope;
+import org.eclipse.emf.diffmerge.impl.helpers.DifferenceDependencyGraph;
+import org.eclipse.emf.diffmerge.impl.helpers.DifferenceIndex;
+import org.eclipse.emf.diffmerge.structures.IEqualityTester;
+import org.eclipse.emf.diffmerge.structures.common.FArrayList;
+import org.eclipse.emf.diffmerge.structures.common.FHashSet;
+import org.eclipse.emf.diffmerge.structures.endo.AbstractEndorelation;
+
+
+/**
+ * A base memory-lean implementation of mergeable, element-relative presences
+ * which are not EMF objects. The boolean and role-valued properties are packed
+ * into a single bit field and dependency collections are only allocated when
+ * dependencies are actually registered.
+ * @see CompactComparison
+ * @author Olivier Constant
+ */
+public abstract class AbstractCompactPresence
+implements IElementRelativePresence, IMergeableDifference.Editable {
+
+  /** The bit for the complement of the "aligned with ancestor" property */
+  private static final int DIFFERENT_FROM_ANCESTOR = 1;
+
+  /** The bit for the "conflicting" property */
+  private static final int CONFLICTING = 1 << 1;
+
+  /** The bit for the "ignored" property */
+  private static final int IGNORED = 1 << 2;
+
+  /** The bit for the complement of the ability to merge to TARGET */
+  private static final int NOT_MERGEABLE_TO_TARGET = 1 << 3;
+
+  /** The bit for the complement of the ability to merge to REFERENCE */
+  private static final int NOT_MERGEABLE_TO_REFERENCE = 1 << 4;
+
+  /** The bit for having been merged to TARGET */
+  private static final int MERGED_TO_TARGET = 1 << 5;
+
+  /** The bit for having been merged to REFERENCE */
+  private static final int MERGED_TO_REFERENCE = 1 << 6;
+
+  /** The non-null comparison that owns this difference */
+  private final CompactComparison _comparison;
+
+  /** The non-null match of the element to which this difference is relative */
+  private final IMatch _elementMatch;
+
+  /** The non-null role in which the element or value is present: TARGET or REFERENCE */
+  private final Role _presenceRole;
+
+  /** The bit field for the boolean properties of this difference */
+  private byte _flags;
+
+  /** The explicit dependencies on the TARGET side (initially null) */
+  private List<IMergeableDifference> _explicitDependenciesForTarget;
+
+  /** The explicit dependencies on the REFERENCE side (initially null) */
+  private List<IMergeableDifference> _explicitDependenciesForReference;
+
+  /** The implicit dependencies on the TARGET side (initially null) */
+  private List<IMergeableDifference> _implicitDependenciesForTarget;
+
+  /** The implicit dependencies on the REFERENCE side (initially null) */
+  private List<IMergeableDifference> _implicitDependenciesForReference;
+
+  /** The set of all implicit dependencies on the TARGET side (initially null, assigned once) */
+  private Collection<IMergeableDifference> _allImplicitDependenciesTarget;
+
+  /** The set of all implicit dependencies on the REFERENCE side (initially null, assigned once) */
+  private Collection<IMergeableDifference> _allImplicitDependenciesReference;
+
+  /** The set of all explicit dependencies on the TARGET side (initially null, assigned once) */
+  private Collection<IMergeableDifference> _allExplicitDependenciesTarget;
+
+  /** The set of all explicit dependencies on the REFERENCE side (initially null, assigned once) */
+  private Collection<IMergeableDifference> _allExplicitDependenciesReference;
+
+
+  /**
+   * Constructor
+   * @param comparison_p the non-null comparison to which this difference belongs
+   * @param elementMatch_p the non-null match to which this difference is relative
+   * @param presenceRole_p the non-null role in which the element or value is present: TARGET or REFERENCE
+   */
+  protected AbstractCompactPresence(CompactComparison comparison_p,
+      IMatch elementMatch_p, Role presenceRole_p) {
+    _comparison = comparison_p;
+    _elementMatch = elementMatch_p;
+    _presenceRole = presenceRole_p;
+    _flags = 0;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.diff.IDifference#canMergeTo(org.eclipse.emf.diffmerge.api.Role)
+   */
+  public boolean canMergeTo(Role destination_p) {
+    boolean result = false;
+    if (!isMerged()) {
+      if (destination_p == Role.TARGET)
+        result = !hasFlag(NOT_MERGEABLE_TO_TARGET);
+      else if (destination_p == Role.REFERENCE)
+        result = !hasFlag(NOT_MERGEABLE_TO_REFERENCE);
+    }
+    return result;
+  }
+
+  /**
+   * Check that the given difference can merge in the given role independently of
+   * its dependencies, by throwing an UnsupportedOperationException otherwise
+   * @param difference_p a non-null difference
+   * @param destination_p a non-null role which represents the destination of the merge
+   */
+  protected void checkMerge(IMergeableDifference difference_p, Role destination_p) {
+    if (difference_p.getMergeDestination() != destination_p &&
+        !difference_p.canMergeTo(destination_p))
+      throw new UnsupportedOperationException(
+          Messages.AbstractDifference_UnableToMerge + ": " + difference_p.toString()); //$NON-NLS-1$
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.diff.IMergeableDifference.Editable#doMergeIn(org.eclipse.emf.diffmerge.api.Role)
+   */
+  public final void doMergeIn(Role destination_p) {
+    if (destination_p == getPresenceRole())
+      mergeRemoval();
+    else
+      mergeAddition();
+  }
+
+  /**
+   * Forbid this difference from being merged in the given direction
+   * Postcondition: !canMergeTo(destination_p)
+   * @param destination_p a non-null role
+   */
+  protected final void forbidMergeTo(Role destination_p) {
+    if (destination_p == Role.TARGET)
+      setFlag(NOT_MERGEABLE_TO_TARGET, true);
+    else if (destination_p == Role.REFERENCE)
+      setFlag(NOT_MERGEABLE_TO_REFERENCE, true);
+  }
+
+  /**
+   * Return the role which is opposite to the presence role
+   * @return a non-null role which is TARGET or REFERENCE
+   */
+  protected final Role getAbsenceRole() {
+    return getPresenceRole().opposite();
+  }
+
+  /**
+   * Return the scope of the role opposite to the presence role
+   * @return a non-null scope
+   */
+  protected final IEditableModelScope getAbsenceScope() {
+    IEditableModelScope result = getComparison().getScope(getAbsenceRole());
+    assert result != null;
+    return result;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.diff.IDifference#getComparison()
+   */
+  public CompactComparison getComparison() {
+    return _comparison;
+  }
+
+  /**
+   * Return the given dependencies as an unmodifiable collection
+   * @param dependencies_p a potentially null list
+   * @return a non-null, unmodifiable collection
+   */
+  private static Collection<IMergeableDifference> getDependencyView(
+      List<IMergeableDifference> dependencies_p) {
+    Collection<IMergeableDifference> result;
+    if (dependencies_p == null)
+      result = Collections.emptyList();
+    else
+      result = Collections.unmodifiableCollection(dependencies_p);
+    return result;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.diff.IMergeableDifference#getDirectImpliesDependencies(org.eclipse.emf.diffmerge.api.Role)
+   */
+  public final Collection<IMergeableDifference> getDirectImpliesDependencies(Role role_p) {
+    return getDependencyView(role_p == Role.TARGET? _implicitDependenciesForTarget:
+      _implicitDependenciesForReference);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.diff.IMergeableDifference#getDirectRequiresDependencies(org.eclipse.emf.diffmerge.api.Role)
+   */
+  public final Collection<IMergeableDifference> getDirectRequiresDependencies(Role role_p) {
+    return getDependencyView(role_p == Role.TARGET? _explicitDependenciesForTarget:
+      _explicitDependenciesForReference);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.diff.IElementRelativeDifference#getElementMatch()
+   */
+  public IMatch getElementMatch() {
+    return _elementMatch;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.diff.IMergeableDifference#getImpliesDependencies(org.eclipse.emf.diffmerge.api.Role)
+   */
+  public final Collection<IMergeableDifference> getImpliesDependencies(Role role_p) {
+    Collection<IMergeableDifference> result = (role_p == Role.TARGET)?
+        _allImplicitDependenciesTarget: _allImplicitDependenciesReference;
+    if (result == null) {
+      Collection<IMergeableDifference> required = getRequiresDependencies(role_p);
+      Collection<IMergeableDifference> allRequired =
+        new FArrayList<IMergeableDifference>(required.size() + 1, null);
+      allRequired.add(this);
+      allRequired.addAll(required);
+      DifferenceDependencyGraph graph = getComparison().getDependencyGraph(role_p, false);
+      if (graph.containsAll(allRequired))
+        result = graph.getClosure(allRequired);
+      else
+        result = new DifferenceDependencyRelation(role_p, false).getTransitiveClosure(
+            allRequired);
+      if (role_p == Role.TARGET)
+        _allImplicitDependenciesTarget = result;
+      else
+        _allImplicitDependenciesReference = result;
+    }
+    return result;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.diff.IDifference#getMergeDestination()
+   */
+  public Role getMergeDestination() {
+    Role result = null;
+    if (hasFlag(MERGED_TO_TARGET))
+      result = Role.TARGET;
+    else if (hasFlag(MERGED_TO_REFERENCE))
+      result = Role.REFERENCE;
+    return result;
+  }
+
+  /**
+   * Return the modifiable dependencies of the given kind in the given role,
+   * creating them if needed
+   * @param role_p a non-null role
+   * @param isExplicit_p whether explicit or implicit dependencies are concerned
+   * @return a non-null, modifiable list
+   */
+  private List<IMergeableDifference> getModifiableDependencies(Role role_p,
+      boolean isExplicit_p) {
+    List<IMergeableDifference> result;
+    if (role_p == Role.TARGET) {
+      if (isExplicit_p) {
+        if (_explicitDependenciesForTarget == null)
+          _explicitDependenciesForTarget = new ArrayList<IMergeableDifference>(2);
+        result = _explicitDependenciesForTarget;
+      } else {
+        if (_implicitDependenciesForTarget == null)
+          _implicitDependenciesForTarget = new ArrayList<IMergeableDifference>(2);
+        result = _implicitDependenciesForTarget;
+      }
+    } else {
+      if (isExplicit_p) {
+        if (_explicitDependenciesForReference == null)
+          _explicitDependenciesForReference = new ArrayList<IMergeableDifference>(2);
+        result = _explicitDependenciesForReference;
+      } else {
+        if (_implicitDependenciesForReference == null)
+          _implicitDependenciesForReference = new ArrayList<IMergeableDifference>(2);
+        result = _implicitDependenciesForReference;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.diff.IPresenceDifference#getPresenceRole()
+   */
+  public Role getPresenceRole() {
+    return _presenceRole;
+  }
+
+  /**
+   * Return the scope of the presence role
+   * @return a non-null scope
+   */
+  protected final IEditableModelScope getPresenceScope() {
+    IEditableModelScope result = getComparison().getScope(getPresenceRole());
+    assert result != null;
+    return result;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.diff.IMergeableDifference#getRequiresDependencies(org.eclipse.emf.diffmerge.api.Role)
+   */
+  public final Collection<IMergeableDifference> getRequiresDependencies(Role role_p) {
+    Collection<IMergeableDifference> result = (role_p == Role.TARGET)?
+        _allExplicitDependenciesTarget: _allExplicitDependenciesReference;
+    if (result == null) {
+      DifferenceDependencyGraph graph = getComparison().getDependencyGraph(role_p, true);
+      if (graph.contains(this))
+        result = graph.getClosure(this);
+      else
+        result = new DifferenceDependencyRelation(role_p, true).getTransitiveClosure(this);
+      if (role_p == Role.TARGET)
+        _allExplicitDependenciesTarget = result;
+      else
+        _allExplicitDependenciesReference = result;
+    }
+    return result;
+  }
+
+  /**
+   * Return whether the given bit is set
+   * @param flag_p a bit of the bit field
+   */
+  private boolean hasFlag(int flag_p) {
+    return (_flags & flag_p) != 0;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.diff.IDifference#isAlignedWithAncestor()
+   */
+  public boolean isAlignedWithAncestor() {
+    return !hasFlag(DIFFERENT_FROM_ANCESTOR);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.diff.IDifference#isConflicting()
+   */
+  public boolean isConflicting() {
+    return hasFlag(CONFLICTING);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.diff.IDifference#isIgnored()
+   */
+  public boolean isIgnored() {
+    return hasFlag(IGNORED);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.diff.IDifference#isMerged()
+   */
+  public final boolean isMerged() {
+    return hasFlag(MERGED_TO_TARGET | MERGED_TO_REFERENCE);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.diff.IDifference.Editable#markAsConflicting()
+   */
+  public void markAsConflicting() {
+    markAsDifferentFromAncestor();
+    setFlag(CONFLICTING, true);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.diff.IDifference.Editable#markAsDifferentFromAncestor()
+   */
+  public void markAsDifferentFromAncestor() {
+    setFlag(DIFFERENT_FROM_ANCESTOR, true);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.diff.IMergeableDifference.Editable#markAsMergedIn(org.eclipse.emf.diffmerge.api.Role)
+   */
+  public void markAsMergedIn(Role destination_p) {
+    if (!isMerged()) {
+      if (destination_p == Role.TARGET)
+        setFlag(MERGED_TO_TARGET, true);
+      else if (destination_p == Role.REFERENCE)
+        setFlag(MERGED_TO_REFERENCE, true);
+      DifferenceIndex differenceIndex = getComparison().getDifferenceIndex(false);
+      if (differenceIndex != null)
+        differenceIndex.mergeStateChanged(this);
+    }
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.diff.IMergeableDifference.Editable#markImplies(org.eclipse.emf.diffmerge.api.diff.IMergeableDifference, org.eclipse.emf.diffmerge.api.Role)
+   */
+  public final void markImplies(IMergeableDifference difference_p, Role role_p) {
+    List<IMergeableDifference> toChange = getModifiableDependencies(role_p, false);
+    if (!toChange.contains(difference_p))
+      toChange.add(difference_p);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.diff.IMergeableDifference.Editable#markRequires(org.eclipse.emf.diffmerge.api.diff.IMergeableDifference, org.eclipse.emf.diffmerge.api.Role)
+   */
+  public final void markRequires(IMergeableDifference difference_p, Role role_p) {
+    List<IMergeableDifference> toChange = getModifiableDependencies(role_p, true);
+    if (!toChange.contains(difference_p))
+      toChange.add(difference_p);
+  }
+
+  /**
+   * Add the element or value in the opposite role
+   */
+  protected abstract void mergeAddition();
+
+  /**
+   * Remove the element or value from the presence role
+   */
+  protected abstract void mergeRemoval();
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.diff.IMergeableDifference#mergeTo(org.eclipse.emf.diffmerge.api.Role)
+   */
+  public Collection<IDifference> mergeTo(Role destination_p) {
+    // Checking ability to merge
+    checkMerge(this, destination_p);
+    if (isMerged())
+      return Collections.emptyList();
+    Collection<IMergeableDifference> allRequired = getRequiresDependencies(destination_p);
+    for (IMergeableDifference required : allRequired)
+      checkMerge(required, destination_p);
+    // Core behavior
+    markAsMergedIn(destination_p);
+    Collection<IDifference> result = new HashSet<IDifference>();
+    for (IMergeableDifference required : allRequired) {
+      if (!required.isMerged()) {
+        ((IMergeableDifference.Editable)required).markAsMergedIn(destination_p);
+        ((IMergeableDifference.Editable)required).doMergeIn(destination_p);
+        result.add(required);
+      }
+    }
+    doMergeIn(destination_p);
+    result.add(this);
+    // Mark implicit dependencies as merged
+    for (IMergeableDifference implicit : getImpliesDependencies(destination_p)) {
+      if (!implicit.isMerged()) {
+        ((IMergeableDifference.Editable)implicit).markAsMergedIn(destination_p);
+        result.add(implicit);
+      }
+    }
+    return Collections.unmodifiableCollection(result);
+  }
+
+  /**
+   * Set or unset the given bit
+   * @param flag_p a bit of the bit field
+   * @param value_p whether the bit must be set
+   */
+  private void setFlag(int flag_p, boolean value_p) {
+    if (value_p)
+      _flags |= flag_p;
+    else
+      _flags &= ~flag_p;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.diff.IDifference.Editable#setIgnored(boolean)
+   */
+  public void setIgnored(boolean ignored_p) {
+    setFlag(IGNORED, ignored_p);
+  }
+
+  /**
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString() {
+    StringBuilder result = new StringBuilder(getClass().getSimpleName());
+    result.append(" (presenceRole: "); //$NON-NLS-1$
+    result.append(getPresenceRole());
+    result.append(", alignedWithAncestor: "); //$NON-NLS-1$
+    result.append(isAlignedWithAncestor());
+    result.append(", conflicting: "); //$NON-NLS-1$
+    result.append(isConflicting());
+    result.append(", ignored: "); //$NON-NLS-1$
+    result.append(isIgnored());
+    result.append(", mergeDestination: "); //$NON-NLS-1$
+    result.append(getMergeDestination());
+    result.append(')');
+    return result.toString();
+  }
+
+
+  /**
+   * A definition of inter-difference dependencies as a mathematical binary relation
+   * over differences.
+   * This class can be used to compute the transitive closure of inter-difference dependencies.
+   */
+  protected static class DifferenceDependencyRelation
+  extends AbstractEndorelation<IMergeableDifference> {
+
+    /** The non-null role for dependency computation */
+    private final Role _role;
+
+    /** Whether to use explicit or implicit inter-difference dependencies */
+    private final boolean _isExplicit;
+
+    /**
+     * Constructor
+     * @param role_p the role to which this dependency is relative (TARGET or REFERENCE)
+     * @param isExplicit_p whether to use explicit or implicit inter-difference dependencies
+     */
+    protected DifferenceDependencyRelation(Role role_p, boolean isExplicit_p) {
+      super(IEqualityTester.BY_REFERENCE);
+      _role = role_p;
+      _isExplicit = isExplicit_p;
+    }
+
+    /**
+     * @see org.eclipse.emf.diffmerge.structures.binary.IBinaryRelation#get(java.lang.Object)
+     */
+    public Collection<IMergeableDifference> get(IMergeableDifference element_p) {
+      Collection<IMergeableDifference> result;
+      if (_isExplicit) {
+        result = new FHashSet<IMergeableDifference>(
+            element_p.getDirectRequiresDependencies(_role), IEqualityTester.BY_REFERENCE);
+        for (IMergeableDifference implicit : element_p.getDirectImpliesDependencies(_role)) {
+          result.addAll(implicit.getDirectRequiresDependencies(_role));
+        }
+      } else {
+        result = element_p.getDirectImpliesDependencies(_role);
+      }
+      return result;
+    }
+  }
+
+}
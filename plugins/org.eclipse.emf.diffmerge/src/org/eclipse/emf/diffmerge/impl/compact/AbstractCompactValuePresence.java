@@ -0,0 +1,151 @@
+/*********************************************************************
+ * Copyright (c) 2010-2019 Thales Global Services S.A.S.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    Thales Global Services S.A.S. - initial API and implementation
+ **********************************************************************/
+package org.eclipse.emf.diffmerge.impl.compact;
+
+import org.eclipse.emf.diffmerge.api.IMatch;
+import org.eclipse.emf.diffmerge.api.Role;
+import org.eclipse.emf.diffmerge.api.diff.IValuePresence;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EStructuralFeature;
+
+
+/**
+ * A base memory-lean implementation of IValuePresence which is not an EMF object.
+ * @see CompactComparison
+ * @author Olivier Constant
+ */
+public abstract class AbstractCompactValuePresence extends AbstractCompactPresence
+implements IValuePresence {
+
+  /** The non-null feature holding the value */
+  private final EStructuralFeature _feature;
+
+  /** Whether the value presence is solely due to ordering */
+  private final boolean _isOrder;
+
+
+  /**
+   * Constructor
+   * @param comparison_p the non-null comparison to which this difference belongs
+   * @param elementMatch_p the non-null match for the element holding the value
+   * @param feature_p the non-null feature holding the value
+   * @param presenceRole_p the role in which the value is held: TARGET or REFERENCE
+   * @param isOrder_p whether the value presence is solely due to ordering
+   */
+  protected AbstractCompactValuePresence(CompactComparison comparison_p,
+      IMatch elementMatch_p, EStructuralFeature feature_p, Role presenceRole_p,
+      boolean isOrder_p) {
+    super(comparison_p, elementMatch_p, presenceRole_p);
+    _feature = feature_p;
+    _isOrder = isOrder_p;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.impl.compact.AbstractCompactPresence#canMergeTo(org.eclipse.emf.diffmerge.api.Role)
+   */
+  @Override
+  public boolean canMergeTo(Role destination_p) {
+    return super.canMergeTo(destination_p) && getFeature().isChangeable();
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.diff.IValuePresence#getFeature()
+   */
+  public EStructuralFeature getFeature() {
+    return _feature;
+  }
+
+  /**
+   * Return the non-null element holding the value in the presence role
+   */
+  public final EObject getHolder() {
+    return getElementMatch().get(getPresenceRole());
+  }
+
+  /**
+   * Return the element, in the opposite of the presence role, which matches the element
+   * holding the value
+   * @return a potentially null element in the getAbsenceRole() role
+   */
+  public final EObject getMatchOfHolder() {
+    return getElementMatch().get(getAbsenceRole());
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.diff.IValuePresence#isOrder()
+   */
+  public boolean isOrder() {
+    return _isOrder;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.diff.IValuePresence#isSymmetricalTo(org.eclipse.emf.diffmerge.api.diff.IValuePresence)
+   */
+  public boolean isSymmetricalTo(IValuePresence peer_p) {
+    return getAbsenceRole() == peer_p.getPresenceRole() &&
+      getFeature() == peer_p.getFeature() &&
+      (getFeature().getUpperBound() == 1 || isOrder() && peer_p.isOrder()) &&
+      getElementMatch() == peer_p.getElementMatch();
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.impl.compact.AbstractCompactPresence#mergeAddition()
+   */
+  @Override
+  protected final void mergeAddition() {
+    if (isOrder())
+      mergeOrder();
+    else
+      mergeValueAddition();
+  }
+
+  /**
+   * Copy the order to the opposite scope
+   */
+  protected abstract void mergeOrder();
+
+  /**
+   * @see org.eclipse.emf.diffmerge.impl.compact.AbstractCompactPresence#mergeRemoval()
+   */
+  @Override
+  protected final void mergeRemoval() {
+    if (!isOrder())
+      mergeValueRemoval();
+  }
+
+  /**
+   * Add the value to the absence scope
+   */
+  protected abstract void mergeValueAddition();
+
+  /**
+   * Remove the value from the presence scope
+   */
+  protected abstract void mergeValueRemoval();
+
+  /**
+   * @see org.eclipse.emf.diffmerge.impl.compact.AbstractCompactPresence#toString()
+   */
+  @Override
+  public String toString() {
+    StringBuilder result = new StringBuilder(super.toString());
+    result.append(" (feature: "); //$NON-NLS-1$
+    result.append(getFeature().getName());
+    result.append(", order: "); //$NON-NLS-1$
+    result.append(isOrder());
+    result.append(", value: "); //$NON-NLS-1$
+    result.append(getValue());
+    result.append(')');
+    return result.toString();
+  }
+
+}
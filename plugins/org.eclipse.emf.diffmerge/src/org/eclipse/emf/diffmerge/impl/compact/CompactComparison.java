@@ -0,0 +1,693 @@
+/*********************************************************************
+ * Copyright (c) 2010-2019 Thales Global Services S.A.S.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    Thales Global Services S.A.S. - initial API and implementation
+ **********************************************************************/
+package org.eclipse.emf.diffmerge.impl.compact;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.SubMonitor;
+import org.eclipse.emf.common.util.AbstractTreeIterator;
+import org.eclipse.emf.common.util.TreeIterator;
+import org.eclipse.emf.diffmerge.Messages;
+import org.eclipse.emf.diffmerge.api.IComparison;
+import org.eclipse.emf.diffmerge.api.IDiffPolicy;
+import org.eclipse.emf.diffmerge.api.IMatch;
+import org.eclipse.emf.diffmerge.api.IMatchPolicy;
+import org.eclipse.emf.diffmerge.api.IMergePolicy;
+import org.eclipse.emf.diffmerge.api.IMergeSelector;
+import org.eclipse.emf.diffmerge.api.Role;
+import org.eclipse.emf.diffmerge.api.diff.IAttributeValuePresence;
+import org.eclipse.emf.diffmerge.api.diff.IDifference;
+import org.eclipse.emf.diffmerge.api.diff.IElementPresence;
+import org.eclipse.emf.diffmerge.api.diff.IMergeableDifference;
+import org.eclipse.emf.diffmerge.api.diff.IReferenceValuePresence;
+import org.eclipse.emf.diffmerge.api.scopes.IEditableModelScope;
+import org.eclipse.emf.diffmerge.diffdata.EComparison;
+import org.eclipse.emf.diffmerge.diffdata.EMapping;
+import org.eclipse.emf.diffmerge.diffdata.EMatch;
+import org.eclipse.emf.diffmerge.diffdata.EMergeableDifference;
+import org.eclipse.emf.diffmerge.diffdata.impl.EComparisonImpl;
+import org.eclipse.emf.diffmerge.impl.helpers.AbstractExpensiveOperation;
+import org.eclipse.emf.diffmerge.impl.helpers.DiffOperation;
+import org.eclipse.emf.diffmerge.impl.helpers.DifferenceDependencyGraph;
+import org.eclipse.emf.diffmerge.impl.helpers.DifferenceIndex;
+import org.eclipse.emf.diffmerge.impl.helpers.MatchOperation;
+import org.eclipse.emf.diffmerge.impl.helpers.MatchTree;
+import org.eclipse.emf.diffmerge.impl.helpers.MergeOperation;
+import org.eclipse.emf.diffmerge.impl.policies.DefaultDiffPolicy;
+import org.eclipse.emf.diffmerge.impl.policies.DefaultMatchPolicy;
+import org.eclipse.emf.diffmerge.impl.policies.DefaultMergePolicy;
+import org.eclipse.emf.diffmerge.structures.common.FArrayList;
+import org.eclipse.emf.diffmerge.util.IExpensiveOperation;
+import org.eclipse.emf.diffmerge.util.OperationMetrics;
+import org.eclipse.emf.ecore.EAttribute;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EReference;
+
+
+/**
+ * A memory-lean implementation of IComparison.Editable whose matches and
+ * differences are plain Java objects instead of EMF objects.
+ * It relies on the same Match, Diff and Merge operations as EComparison and can be
+ * used in its place whenever the comparison does not need to be persisted or
+ * edited as a model. A persistable EComparison can be obtained via toEComparison().
+ * @see EComparison
+ * @author Olivier Constant
+ */
+public class CompactComparison implements IComparison.Compactable,
+    DifferenceDependencyGraph.Provider, DifferenceIndex.Provider, MatchTree.Provider,
+    OperationMetrics.Provider {
+
+  /** The non-null model scope playing the TARGET comparison role */
+  private IEditableModelScope _targetScope;
+
+  /** The non-null model scope playing the REFERENCE comparison role */
+  private IEditableModelScope _referenceScope;
+
+  /** The optional model scope playing the ANCESTOR comparison role */
+  private final IEditableModelScope _ancestorScope;
+
+  /** The non-null mapping of this comparison */
+  private final CompactMapping _mapping;
+
+  /** The potentially null last match policy used */
+  private IMatchPolicy _lastMatchPolicy;
+
+  /** The potentially null last diff policy used */
+  private IDiffPolicy _lastDiffPolicy;
+
+  /** The potentially null last merge policy used */
+  private IMergePolicy _lastMergePolicy;
+
+  /** The non-null, unmodifiable map from roles to non-null, modifiable sets of duplicate match IDs */
+  private final Map<Role, Set<Object>> _duplicateIDs;
+
+  /** The non-null map from roles to graphs of explicit dependencies, which are built on demand */
+  private final Map<Role, DifferenceDependencyGraph> _requiresGraphs;
+
+  /** The non-null map from roles to graphs of implicit dependencies, which are built on demand */
+  private final Map<Role, DifferenceDependencyGraph> _impliesGraphs;
+
+  /** The non-null metrics of the last computation and of the subsequent merges */
+  private final OperationMetrics _metrics;
+
+  /** The potentially null containment tree of matches, which is built on demand */
+  private volatile MatchTree _matchTree;
+
+  /** The potentially null index of the differences, which is maintained once built */
+  private volatile DifferenceIndex _differenceIndex;
+
+
+  /**
+   * Simplified constructor
+   * @param targetScope_p the non-null model scope playing the TARGET comparison role
+   * @param referenceScope_p the non-null model scope playing the REFERENCE comparison role
+   */
+  public CompactComparison(IEditableModelScope targetScope_p,
+      IEditableModelScope referenceScope_p) {
+    this(targetScope_p, referenceScope_p, null);
+  }
+
+  /**
+   * Full constructor
+   * @param targetScope_p the non-null model scope playing the TARGET comparison role
+   * @param referenceScope_p the non-null model scope playing the REFERENCE comparison role
+   * @param ancestorScope_p the optional model scope playing the ANCESTOR comparison role
+   */
+  public CompactComparison(IEditableModelScope targetScope_p,
+      IEditableModelScope referenceScope_p, IEditableModelScope ancestorScope_p) {
+    _targetScope = targetScope_p;
+    _referenceScope = referenceScope_p;
+    _ancestorScope = ancestorScope_p;
+    _mapping = new CompactMapping(this);
+    Map<Role, Set<Object>> duplicateIDs = new HashMap<Role, Set<Object>>(3);
+    for (Role role : Role.values()) {
+      duplicateIDs.put(role, new HashSet<Object>(0));
+    }
+    _duplicateIDs = Collections.unmodifiableMap(duplicateIDs);
+    _requiresGraphs = new EnumMap<Role, DifferenceDependencyGraph>(Role.class);
+    _impliesGraphs = new EnumMap<Role, DifferenceDependencyGraph>(Role.class);
+    _metrics = new OperationMetrics();
+    _matchTree = null;
+    _differenceIndex = null;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IComparison#clear()
+   */
+  public void clear() {
+    _mapping.clear();
+    _lastMatchPolicy = null;
+    _lastDiffPolicy = null;
+    _lastMergePolicy = null;
+    for (Role role : Role.values()) {
+      _duplicateIDs.get(role).clear();
+    }
+    discardDependencyGraphs();
+    discardMatchTree();
+    _differenceIndex = null;
+    _metrics.clear();
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IComparison.Compactable#compact()
+   */
+  public long compact() {
+    long result = _mapping.compact();
+    _metrics.addToCounter(OperationMetrics.COUNTER_RECLAIMED_BYTES, result);
+    return result;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IComparison#compute(org.eclipse.emf.diffmerge.api.IMatchPolicy, org.eclipse.emf.diffmerge.api.IDiffPolicy, org.eclipse.emf.diffmerge.api.IMergePolicy, org.eclipse.core.runtime.IProgressMonitor)
+   */
+  public IStatus compute(IMatchPolicy matchPolicy_p, IDiffPolicy diffPolicy_p,
+      IMergePolicy mergePolicy_p, IProgressMonitor monitor_p) {
+    // Monitor
+    IProgressMonitor nonNullMonitor = monitor_p != null? monitor_p:
+      new NullProgressMonitor();
+    SubMonitor subMonitor = SubMonitor.convert(nonNullMonitor,
+        Messages.Comparison_Task_Main, 2);
+    // Policies
+    _lastMatchPolicy = matchPolicy_p != null? matchPolicy_p: new DefaultMatchPolicy();
+    _lastDiffPolicy = diffPolicy_p != null? diffPolicy_p: new DefaultDiffPolicy();
+    _lastMergePolicy = mergePolicy_p != null? mergePolicy_p: new DefaultMergePolicy();
+    // Behavior
+    discardDependencyGraphs();
+    discardMatchTree();
+    _differenceIndex = null;
+    _metrics.clear();
+    IStatus result = computeMatch(getLastMatchPolicy(), subMonitor.newChild(1));
+    if (result.isOK()) {
+      // All differences are new, so the index is maintained from the start
+      _differenceIndex = new DifferenceIndex();
+      result = computeDiff(getLastDiffPolicy(), getLastMergePolicy(),
+          subMonitor.newChild(1));
+    }
+    return result;
+  }
+
+  /**
+   * Execute the Diff phase of the comparison process
+   * @param diffPolicy_p a non-null diff policy
+   * @param mergePolicy_p a non-null merge policy
+   * @param monitor_p a non-null progress monitor
+   * @return a non-null status of the execution
+   */
+  protected IStatus computeDiff(IDiffPolicy diffPolicy_p,
+      IMergePolicy mergePolicy_p, IProgressMonitor monitor_p) {
+    IExpensiveOperation diffOperation = new DiffOperation(
+        this, diffPolicy_p, mergePolicy_p);
+    recordMetricsOf(diffOperation);
+    return diffOperation.run(monitor_p);
+  }
+
+  /**
+   * Execute the Match phase of the comparison process
+   * @param matchPolicy_p a non-null match policy
+   * @param monitor_p a non-null progress monitor
+   * @return a non-null status of the execution
+   */
+  protected IStatus computeMatch(IMatchPolicy matchPolicy_p,
+      IProgressMonitor monitor_p) {
+    IExpensiveOperation matchOperation = new MatchOperation(
+        this, matchPolicy_p, _duplicateIDs);
+    recordMetricsOf(matchOperation);
+    return matchOperation.run(monitor_p);
+  }
+
+  /**
+   * Discard the graphs of inter-difference dependencies, if any, so that they are
+   * rebuilt from the current differences the next time they are needed
+   * This is only needed when differences are computed again: merges do not change
+   * inter-difference dependencies, so graphs are kept across merges.
+   */
+  protected void discardDependencyGraphs() {
+    _requiresGraphs.clear();
+    _impliesGraphs.clear();
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.impl.helpers.MatchTree.Provider#discardMatchTree()
+   */
+  public void discardMatchTree() {
+    _matchTree = null;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IComparison#getAllContents(org.eclipse.emf.diffmerge.api.Role)
+   */
+  @SuppressWarnings("serial")
+  public TreeIterator<IMatch> getAllContents(final Role role_p) {
+    return new AbstractTreeIterator<IMatch>(this, false) {
+      /**
+       * @see org.eclipse.emf.common.util.AbstractTreeIterator#getChildren(java.lang.Object)
+       */
+      @Override
+      protected Iterator<? extends IMatch> getChildren(Object object_p) {
+        Iterator<? extends IMatch> result;
+        if (object_p instanceof IComparison)
+          result = ((IComparison)object_p).getContents(role_p).iterator();
+        else
+          result = getContentsOf((IMatch)object_p, role_p).iterator();
+        return result;
+      }
+    };
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IComparison#getContainerOf(org.eclipse.emf.diffmerge.api.IMatch, org.eclipse.emf.diffmerge.api.Role)
+   */
+  public IMatch getContainerOf(IMatch match_p, Role role_p) {
+    // The tree is used if available but not built since direct access is as cheap
+    MatchTree tree = _matchTree;
+    if (tree != null && tree.covers(match_p, role_p))
+      return tree.getContainerOf(match_p, role_p);
+    IMatch result = null;
+    EObject child = match_p.get(role_p);
+    if (child != null) {
+      EObject container = getScope(role_p).getContainer(child);
+      if (container != null)
+        result = getMapping().getMatchFor(container, role_p);
+    }
+    return result;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IComparison#getContents()
+   */
+  public List<IMatch> getContents() {
+    return getMatchTree().getContents();
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IComparison#getContents(org.eclipse.emf.diffmerge.api.Role)
+   */
+  public List<IMatch> getContents(Role role_p) {
+    return getMatchTree().getContents(role_p);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IComparison#getContentsOf(org.eclipse.emf.diffmerge.api.IMatch)
+   */
+  public List<IMatch> getContentsOf(IMatch match_p) {
+    return getMatchTree().getContentsOf(match_p);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IComparison#getContentsOf(org.eclipse.emf.diffmerge.api.IMatch, org.eclipse.emf.diffmerge.api.Role)
+   */
+  public List<IMatch> getContentsOf(IMatch match_p, Role role_p) {
+    return getMatchTree().getContentsOf(match_p, role_p);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.impl.helpers.DifferenceDependencyGraph.Provider#getDependencyGraph(org.eclipse.emf.diffmerge.api.Role, boolean)
+   */
+  public DifferenceDependencyGraph getDependencyGraph(Role role_p, boolean isExplicit_p) {
+    Map<Role, DifferenceDependencyGraph> graphs = isExplicit_p? _requiresGraphs: _impliesGraphs;
+    DifferenceDependencyGraph result = graphs.get(role_p);
+    if (result == null) {
+      result = new DifferenceDependencyGraph(this, role_p, isExplicit_p);
+      graphs.put(role_p, result);
+    }
+    return result;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.impl.helpers.DifferenceIndex.Provider#getDifferenceIndex(boolean)
+   */
+  public DifferenceIndex getDifferenceIndex(boolean create_p) {
+    DifferenceIndex result = _differenceIndex;
+    if (result == null && create_p) {
+      synchronized (this) {
+        result = _differenceIndex;
+        if (result == null) {
+          result = new DifferenceIndex(this);
+          _differenceIndex = result;
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IComparison#getDifferences(org.eclipse.emf.diffmerge.api.Role)
+   */
+  public List<IDifference> getDifferences(Role role_p) {
+    List<IDifference> result = new FArrayList<IDifference>();
+    Iterator<IMatch> it = getAllContents(role_p);
+    while (it.hasNext()) {
+      IMatch current = it.next();
+      result.addAll(current.getPresenceDifferencesIn(role_p));
+    }
+    return result;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IComparison#getDuplicateMatchIDs(org.eclipse.emf.diffmerge.api.Role)
+   */
+  public Collection<Object> getDuplicateMatchIDs(Role role_p) {
+    return _duplicateIDs.get(role_p);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IComparison#getLastDiffPolicy()
+   */
+  public IDiffPolicy getLastDiffPolicy() {
+    return _lastDiffPolicy;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IComparison#getLastMatchPolicy()
+   */
+  public IMatchPolicy getLastMatchPolicy() {
+    return _lastMatchPolicy;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IComparison#getLastMergePolicy()
+   */
+  public IMergePolicy getLastMergePolicy() {
+    return _lastMergePolicy;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IComparison.Editable#getMapping()
+   */
+  public CompactMapping getMapping() {
+    return _mapping;
+  }
+
+  /**
+   * Return the containment tree of matches, building it if needed
+   * @return a non-null object
+   */
+  protected MatchTree getMatchTree() {
+    MatchTree result = _matchTree;
+    if (result == null) {
+      synchronized (this) {
+        result = _matchTree;
+        if (result == null) {
+          result = new MatchTree(this);
+          _matchTree = result;
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.util.OperationMetrics.Provider#getMetrics()
+   */
+  public OperationMetrics getMetrics() {
+    return _metrics;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IComparison#getNbDifferences()
+   */
+  public int getNbDifferences() {
+    return getDifferenceIndex(true).getNbDifferences();
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IComparison#getNbNoContainmentDifferences()
+   */
+  public int getNbNoContainmentDifferences() {
+    return getDifferenceIndex(true).getNbNoContainmentDifferences();
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IComparison#getRemainingDifferences()
+   */
+  public Collection<IDifference> getRemainingDifferences() {
+    return getDifferenceIndex(true).getRemainingDifferences();
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IComparison.Editable#getScope(org.eclipse.emf.diffmerge.api.Role)
+   */
+  public IEditableModelScope getScope(Role role_p) {
+    IEditableModelScope result;
+    switch (role_p) {
+    case TARGET:
+      result = _targetScope; break;
+    case REFERENCE:
+      result = _referenceScope; break;
+    default:
+      result = _ancestorScope;
+    }
+    return result;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IComparison#hasRemainingDifferences()
+   */
+  public boolean hasRemainingDifferences() {
+    return getDifferenceIndex(true).hasRemainingDifferences();
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IComparison#isConsistent()
+   */
+  public boolean isConsistent() {
+    for (Role role : Role.values()) {
+      if (!getDuplicateMatchIDs(role).isEmpty())
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IComparison#isThreeWay()
+   */
+  public boolean isThreeWay() {
+    return _ancestorScope != null;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IComparison#merge(java.util.Collection, org.eclipse.emf.diffmerge.api.Role, boolean, org.eclipse.core.runtime.IProgressMonitor)
+   */
+  public Collection<IDifference> merge(Collection<? extends IDifference> differences_p,
+      Role destination_p, boolean updateReferences_p, IProgressMonitor monitor_p) {
+    MergeOperation operation = new MergeOperation(
+        this, differences_p, destination_p, updateReferences_p);
+    recordMetricsOf(operation);
+    try {
+      operation.run(monitor_p);
+    } finally {
+      discardMatchTree();
+    }
+    return operation.getOutput();
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IComparison#merge(org.eclipse.emf.diffmerge.api.IMergeSelector, boolean, org.eclipse.core.runtime.IProgressMonitor)
+   */
+  public Collection<IDifference> merge(IMergeSelector merger_p,
+      boolean updateReferences_p, IProgressMonitor monitor_p) {
+    MergeOperation operation = new MergeOperation(this, merger_p, updateReferences_p);
+    recordMetricsOf(operation);
+    try {
+      operation.run(monitor_p);
+    } finally {
+      discardMatchTree();
+    }
+    return operation.getOutput();
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IComparison#merge(org.eclipse.emf.diffmerge.api.Role, boolean, org.eclipse.core.runtime.IProgressMonitor)
+   */
+  public Collection<IDifference> merge(final Role destination_p,
+      boolean updateReferences_p, IProgressMonitor monitor_p) {
+    return merge(new IMergeSelector() {
+      /**
+       * @see org.eclipse.emf.diffmerge.api.IMergeSelector#getMergeDirection(org.eclipse.emf.diffmerge.api.diff.IDifference)
+       */
+      public Role getMergeDirection(IDifference difference_p) {
+        return destination_p;
+      }
+    }, updateReferences_p, monitor_p);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IComparison.Editable#newAttributeValuePresence(org.eclipse.emf.diffmerge.api.IMatch, org.eclipse.emf.ecore.EAttribute, java.lang.Object, org.eclipse.emf.diffmerge.api.Role, boolean)
+   */
+  public IAttributeValuePresence newAttributeValuePresence(IMatch elementMatch_p,
+      EAttribute attribute_p, Object value_p, Role presenceRole_p, boolean isOrder_p) {
+    return new CompactAttributeValuePresence(
+        this, elementMatch_p, attribute_p, value_p, presenceRole_p, isOrder_p);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IComparison.Editable#newElementPresence(org.eclipse.emf.diffmerge.api.IMatch, org.eclipse.emf.diffmerge.api.IMatch)
+   */
+  public IElementPresence newElementPresence(IMatch elementMatch_p, IMatch ownerMatch_p) {
+    return new CompactElementPresence(this, elementMatch_p, ownerMatch_p);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IComparison.Editable#newMatch(org.eclipse.emf.ecore.EObject, org.eclipse.emf.ecore.EObject, org.eclipse.emf.ecore.EObject)
+   */
+  public CompactMatch newMatch(EObject targetElement_p, EObject referenceElement_p,
+      EObject ancestorElement_p) {
+    return new CompactMatch(_mapping, targetElement_p, referenceElement_p, ancestorElement_p);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IComparison.Editable#newReferenceValuePresence(org.eclipse.emf.diffmerge.api.IMatch, org.eclipse.emf.ecore.EReference, org.eclipse.emf.ecore.EObject, org.eclipse.emf.diffmerge.api.IMatch, org.eclipse.emf.diffmerge.api.Role, boolean)
+   */
+  public IReferenceValuePresence newReferenceValuePresence(IMatch elementMatch_p,
+      EReference reference_p, EObject value_p, IMatch valueMatch_p,
+      Role presenceRole_p, boolean isOrder_p) {
+    return new CompactReferenceValuePresence(this, elementMatch_p, reference_p,
+        value_p, valueMatch_p, presenceRole_p, isOrder_p);
+  }
+
+  /**
+   * Make the given operation record its performance in the metrics of this comparison
+   * @param operation_p a non-null operation
+   */
+  protected void recordMetricsOf(IExpensiveOperation operation_p) {
+    if (operation_p instanceof AbstractExpensiveOperation)
+      ((AbstractExpensiveOperation)operation_p).setMetrics(_metrics);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IComparison.Editable#swapScopes()
+   */
+  public boolean swapScopes() {
+    boolean isEmpty = getMapping().isEmpty();
+    if (isEmpty) {
+      IEditableModelScope formerTarget = _targetScope;
+      _targetScope = _referenceScope;
+      _referenceScope = formerTarget;
+      discardMatchTree();
+    }
+    return isEmpty;
+  }
+
+  /**
+   * Return a new EComparison on the same scopes whose matches and differences
+   * are EMF equivalents of those of this comparison, typically for persistence
+   * or for use in editors. This comparison is not modified.
+   * @return a non-null comparison
+   */
+  public EComparison toEComparison() {
+    EComparisonImpl result = new EComparisonImpl(_targetScope, _referenceScope, _ancestorScope);
+    result.setLastMatchPolicy(_lastMatchPolicy);
+    result.setLastDiffPolicy(_lastDiffPolicy);
+    result.setLastMergePolicy(_lastMergePolicy);
+    for (Role role : Role.values()) {
+      result.getDuplicateMatchIDs(role).addAll(getDuplicateMatchIDs(role));
+    }
+    EMapping eMapping = result.getMapping();
+    // Matches
+    Map<IMatch, EMatch> matchMap = new IdentityHashMap<IMatch, EMatch>(_mapping.size());
+    for (CompactMatch match : _mapping.getModifiableContents()) {
+      EMatch eMatch = result.newMatch(match.get(Role.TARGET), match.get(Role.REFERENCE),
+          match.get(Role.ANCESTOR));
+      eMatch.setMatchID(match.getMatchID());
+      eMapping.getModifiableContents().add(eMatch);
+      matchMap.put(match, eMatch);
+    }
+    for (IMatch completed : _mapping.getCompletedMatches(Role.TARGET))
+      eMapping.getTargetCompletedMatches().add(matchMap.get(completed));
+    for (IMatch completed : _mapping.getCompletedMatches(Role.REFERENCE))
+      eMapping.getReferenceCompletedMatches().add(matchMap.get(completed));
+    // Differences
+    Map<IMergeableDifference, EMergeableDifference> differenceMap =
+      new IdentityHashMap<IMergeableDifference, EMergeableDifference>();
+    for (CompactMatch match : _mapping.getModifiableContents()) {
+      EMatch eMatch = matchMap.get(match);
+      for (IDifference difference : match.getRelatedDifferences()) {
+        IDifference eDifference;
+        if (difference instanceof IElementPresence) {
+          IMatch ownerMatch = ((IElementPresence)difference).getOwnerMatch();
+          eDifference = result.newElementPresence(
+              eMatch, ownerMatch == null? null: matchMap.get(ownerMatch));
+        } else if (difference instanceof IAttributeValuePresence) {
+          IAttributeValuePresence presence = (IAttributeValuePresence)difference;
+          eDifference = result.newAttributeValuePresence(eMatch, presence.getFeature(),
+              presence.getValue(), presence.getPresenceRole(), presence.isOrder());
+        } else if (difference instanceof IReferenceValuePresence) {
+          IReferenceValuePresence presence = (IReferenceValuePresence)difference;
+          IMatch valueMatch = presence.getValueMatch();
+          eDifference = result.newReferenceValuePresence(eMatch, presence.getFeature(),
+              presence.getValue(), valueMatch == null? null: matchMap.get(valueMatch),
+              presence.getPresenceRole(), presence.isOrder());
+        } else {
+          continue;
+        }
+        EMergeableDifference eMergeable = (EMergeableDifference)eDifference;
+        copyDifferenceState(difference, eMergeable);
+        differenceMap.put((IMergeableDifference)difference, eMergeable);
+      }
+    }
+    // Dependencies
+    for (Map.Entry<IMergeableDifference, EMergeableDifference> entry :
+      differenceMap.entrySet()) {
+      IMergeableDifference difference = entry.getKey();
+      EMergeableDifference eDifference = entry.getValue();
+      for (Role role : new Role[] {Role.TARGET, Role.REFERENCE}) {
+        for (IMergeableDifference required : difference.getDirectRequiresDependencies(role)) {
+          EMergeableDifference eRequired = differenceMap.get(required);
+          if (eRequired != null)
+            eDifference.markRequires(eRequired, role);
+        }
+        for (IMergeableDifference implied : difference.getDirectImpliesDependencies(role)) {
+          EMergeableDifference eImplied = differenceMap.get(implied);
+          if (eImplied != null)
+            eDifference.markImplies(eImplied, role);
+        }
+      }
+    }
+    result.getMapping().crossReference(Role.TARGET);
+    result.getMapping().crossReference(Role.REFERENCE);
+    return result;
+  }
+
+  /**
+   * Copy the state of the given difference to the given EMF difference
+   * @param difference_p a non-null difference of this comparison
+   * @param eDifference_p a non-null EMF difference that corresponds to difference_p
+   */
+  protected void copyDifferenceState(IDifference difference_p,
+      EMergeableDifference eDifference_p) {
+    eDifference_p.setAlignedWithAncestor(difference_p.isAlignedWithAncestor());
+    eDifference_p.setConflicting(difference_p.isConflicting());
+    eDifference_p.setIgnored(difference_p.isIgnored());
+    Role mergeDestination = difference_p.getMergeDestination();
+    if (mergeDestination != null) {
+      eDifference_p.markAsMergedIn(mergeDestination);
+    } else {
+      for (Role role : new Role[] {Role.TARGET, Role.REFERENCE}) {
+        if (!difference_p.canMergeTo(role))
+          eDifference_p.getPossibleMergeDestinations().remove(role);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,135 @@
+/*********************************************************************
+ * Copyright (c) 2010-2019 Thales Global Services S.A.S.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    Thales Global Services S.A.S. - initial API and implementation
+ **********************************************************************/
+package org.eclipse.emf.diffmerge.impl.compact;
+
+import org.eclipse.emf.diffmerge.api.IDiffPolicy;
+import org.eclipse.emf.diffmerge.api.IMapping;
+import org.eclipse.emf.diffmerge.api.IMatch;
+import org.eclipse.emf.diffmerge.api.IMergePolicy;
+import org.eclipse.emf.diffmerge.api.diff.IElementPresence;
+import org.eclipse.emf.diffmerge.api.scopes.IEditableModelScope;
+import org.eclipse.emf.diffmerge.impl.helpers.BidirectionalComparisonCopier;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EStructuralFeature;
+
+
+/**
+ * A memory-lean implementation of IElementPresence which is not an EMF object.
+ * @see CompactComparison
+ * @author Olivier Constant
+ */
+public class CompactElementPresence extends AbstractCompactPresence
+implements IElementPresence {
+
+  /** The potentially null match of the owner of the element */
+  private final IMatch _ownerMatch;
+
+
+  /**
+   * Constructor
+   * @param comparison_p the non-null comparison to which this difference belongs
+   * @param elementMatch_p the non-null partial match for the present element
+   * @param ownerMatch_p a potentially null match for the owner of the element
+   */
+  public CompactElementPresence(CompactComparison comparison_p,
+      IMatch elementMatch_p, IMatch ownerMatch_p) {
+    super(comparison_p, elementMatch_p, elementMatch_p.getUncoveredRole().opposite());
+    _ownerMatch = ownerMatch_p;
+    ((IMatch.Editable)elementMatch_p).addRelatedDifference(this);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.diff.IElementPresence#getElement()
+   */
+  public EObject getElement() {
+    return getElementMatch().get(getPresenceRole());
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.diff.IElementPresence#getOwnerMatch()
+   */
+  public IMatch getOwnerMatch() {
+    return _ownerMatch;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.diff.IElementPresence#isRoot()
+   */
+  public boolean isRoot() {
+    return getOwnerMatch() == null;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.diff.IElementRelativeDifference#isUnrelatedToContainmentTree()
+   */
+  public boolean isUnrelatedToContainmentTree() {
+    return false;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.impl.compact.AbstractCompactPresence#mergeAddition()
+   */
+  @Override
+  protected void mergeAddition() {
+    IMapping.Editable mapping = getComparison().getMapping();
+    IMatch eltMatch = getElementMatch();
+    EObject clone = eltMatch.isPartial()? mapping.completeMatch(eltMatch):
+      eltMatch.get(getAbsenceRole());
+    boolean addedToScope = false;
+    boolean actuallyAdded = false;
+    IMergePolicy mergePolicy = getComparison().getLastMergePolicy();
+    if (mergePolicy.bindPresenceToOwnership(getAbsenceScope()) && !isRoot()) {
+      EObject container = getOwnerMatch().get(getAbsenceRole());
+      if (container != null) {
+        EReference containment = getPresenceScope().getContainment(getElement());
+        actuallyAdded = getAbsenceScope().add(container, containment, clone);
+        addedToScope = true; // Even if !actuallyAdded
+        // Order handling
+        IDiffPolicy diffPolicy = getComparison().getLastDiffPolicy();
+        if (diffPolicy != null && actuallyAdded && diffPolicy.considerOrdered(containment)) {
+          // Move added value if required
+          int index = mergePolicy.getDesiredValuePosition(getComparison(),
+              getAbsenceRole(), getOwnerMatch(), containment, getElement());
+          if (index >= 0)
+            getAbsenceScope().move(container, containment, index, -1);
+        }
+      }
+      // Else container will be created and ownership automatically applied by the copier,
+      // if containment tree of the scope is consistent with matching
+    }
+    if (!addedToScope)
+      actuallyAdded = getAbsenceScope().add(clone);
+    if (actuallyAdded)
+      BidirectionalComparisonCopier.handleIDCopy(getElement(), getPresenceScope(),
+          clone, getAbsenceScope(), mergePolicy);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.impl.compact.AbstractCompactPresence#mergeRemoval()
+   */
+  @Override
+  protected void mergeRemoval() {
+    if (isRoot() || getElementMatch().getOwnershipDifference(getPresenceRole()) == null) {
+      IEditableModelScope presenceScope = getPresenceScope();
+      EObject element = getElement();
+      presenceScope.remove(element);
+      // Delete element
+      for (EStructuralFeature.Setting setting :
+        getComparison().getMapping().getCrossReferences(element, getPresenceRole())) {
+        presenceScope.remove(setting.getEObject(),
+            (EReference)setting.getEStructuralFeature(), element);
+      }
+    } // Else handled by ownership
+  }
+
+}
@@ -0,0 +1,625 @@
+/*********************************************************************
+ * Copyright (c) 2010-2019 Thales Global Services S.A.S.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    Thales Global Services S.A.S. - initial API and implementation
+ **********************************************************************/
+package org.eclipse.emf.diffmerge.impl.compact;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.eclipse.emf.common.util.ECollections;
+import org.eclipse.emf.common.util.EMap;
+import org.eclipse.emf.diffmerge.api.IMapping;
+import org.eclipse.emf.diffmerge.api.IMatch;
+import org.eclipse.emf.diffmerge.api.Role;
+import org.eclipse.emf.diffmerge.api.scopes.IModelScope;
+import org.eclipse.emf.diffmerge.impl.helpers.BidirectionalComparisonCopier;
+import org.eclipse.emf.diffmerge.impl.helpers.CrossReferenceIndex;
+import org.eclipse.emf.diffmerge.structures.IEqualityTester;
+import org.eclipse.emf.diffmerge.structures.common.FHashMap;
+import org.eclipse.emf.diffmerge.structures.common.FOrderedSet;
+import org.eclipse.emf.diffmerge.util.ModelImplUtil;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EStructuralFeature.Setting;
+
+
+/**
+ * A memory-lean implementation of IMapping.Editable which is not an EMF object.
+ * Matches are held in a plain array in creation order and are indexed per role
+ * by element identity. Removed matches leave a gap in the array which is reclaimed
+ * when gaps become numerous.
+ * @see CompactComparison
+ * @author Olivier Constant
+ */
+public class CompactMapping implements IMapping.Selective {
+
+  /** The initial capacity of the array of matches */
+  protected static final int INITIAL_CAPACITY = 16;
+
+  /** The non-null comparison that owns this mapping */
+  private final CompactComparison _comparison;
+
+  /** The non-null copier for completing matches and references */
+  private final BidirectionalComparisonCopier _copier;
+
+  /** The non-null matches, potentially with null gaps, only the first _end of which are relevant */
+  private CompactMatch[] _matches;
+
+  /** The number of relevant positions in _matches, including gaps */
+  private int _end;
+
+  /** The number of gaps within the relevant positions in _matches */
+  private int _nbGaps;
+
+  /** The non-null, modifiable index of matches per element in the TARGET role */
+  private final Map<EObject, CompactMatch> _targetMatchIndex;
+
+  /** The non-null, modifiable index of matches per element in the REFERENCE role */
+  private final Map<EObject, CompactMatch> _referenceMatchIndex;
+
+  /** The non-null, modifiable index of matches per element in the ANCESTOR role */
+  private final Map<EObject, CompactMatch> _ancestorMatchIndex;
+
+  /** The non-null, modifiable matches completed in the TARGET role */
+  private final Collection<IMatch> _targetCompletedMatches;
+
+  /** The non-null, modifiable matches completed in the REFERENCE role */
+  private final Collection<IMatch> _referenceCompletedMatches;
+
+  /** The non-null cross-reference index for the TARGET scope */
+  private final CrossReferenceIndex _targetCrossReferences;
+
+  /** The non-null cross-reference index for the REFERENCE scope */
+  private final CrossReferenceIndex _referenceCrossReferences;
+
+
+  /**
+   * Constructor
+   * @param comparison_p the non-null comparison that owns this mapping
+   */
+  public CompactMapping(CompactComparison comparison_p) {
+    _comparison = comparison_p;
+    _copier = new BidirectionalComparisonCopier();
+    _matches = new CompactMatch[INITIAL_CAPACITY];
+    _end = 0;
+    _nbGaps = 0;
+    _targetMatchIndex = new IdentityHashMap<EObject, CompactMatch>();
+    _referenceMatchIndex = new IdentityHashMap<EObject, CompactMatch>();
+    _ancestorMatchIndex = new IdentityHashMap<EObject, CompactMatch>();
+    _targetCompletedMatches = new FOrderedSet<IMatch>(IEqualityTester.BY_REFERENCE);
+    _referenceCompletedMatches = new FOrderedSet<IMatch>(IEqualityTester.BY_REFERENCE);
+    _targetCrossReferences = new CrossReferenceIndex(Role.TARGET);
+    _referenceCrossReferences = new CrossReferenceIndex(Role.REFERENCE);
+  }
+
+  /**
+   * Add the given match to this mapping
+   * @param match_p a non-null match which does not belong to this mapping
+   */
+  protected void addMatch(CompactMatch match_p) {
+    if (_end == _matches.length) {
+      if (_nbGaps > _end / 2)
+        removeGaps();
+      else
+        _matches = Arrays.copyOf(_matches, _matches.length + (_matches.length >> 1));
+    }
+    match_p._position = _end;
+    _matches[_end] = match_p;
+    _end++;
+    registerMatch(match_p);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMapping.Editable#clear()
+   */
+  public void clear() {
+    _matches = new CompactMatch[INITIAL_CAPACITY];
+    _end = 0;
+    _nbGaps = 0;
+    _targetMatchIndex.clear();
+    _referenceMatchIndex.clear();
+    _ancestorMatchIndex.clear();
+    _targetCompletedMatches.clear();
+    _referenceCompletedMatches.clear();
+    _targetCrossReferences.clear();
+    _referenceCrossReferences.clear();
+  }
+
+  /**
+   * Reduce the memory footprint of this mapping and of its matches to the minimum
+   * for their current contents
+   * @return the estimated number of bytes reclaimed
+   */
+  public long compact() {
+    long result = 0L;
+    removeGaps();
+    int length = Math.max(_end, 1);
+    if (length < _matches.length) {
+      result += (long)(_matches.length - length) * ModelImplUtil.ESTIMATED_REFERENCE_SIZE;
+      _matches = Arrays.copyOf(_matches, length);
+    }
+    for (int i = 0; i < _end; i++) {
+      result += _matches[i].compact();
+    }
+    return result;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMapping.Editable#completeMatch(org.eclipse.emf.diffmerge.api.IMatch)
+   */
+  public EObject completeMatch(IMatch partialMatch_p) {
+    return _copier.completeMatch(this, partialMatch_p);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMapping.Editable#completeReferences(org.eclipse.emf.diffmerge.api.Role)
+   */
+  public void completeReferences(Role role_p) {
+    _copier.completeReferences(this, role_p);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMapping.Selective#completeReferences(org.eclipse.emf.diffmerge.api.Role, java.util.Collection)
+   */
+  public void completeReferences(Role role_p, Collection<IMatch> matches_p) {
+    _copier.completeReferences(this, role_p, matches_p);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMapping#covers(org.eclipse.emf.ecore.EObject, org.eclipse.emf.diffmerge.api.Role)
+   */
+  public boolean covers(EObject element_p, Role role_p) {
+    return getMatchFor(element_p, role_p) != null;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMapping.Editable#crossReference(org.eclipse.emf.diffmerge.api.Role)
+   */
+  public void crossReference(Role role_p) {
+    CrossReferenceIndex index = getCrossReferenceIndex(role_p);
+    if (index != null)
+      index.build(this);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMapping#getComparison()
+   */
+  public CompactComparison getComparison() {
+    return _comparison;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMapping#getCompletedMatches(org.eclipse.emf.diffmerge.api.Role)
+   */
+  public Collection<IMatch> getCompletedMatches(Role destinationRole_p) {
+    return Collections.unmodifiableCollection(
+        getModifiableCompletedMatches(destinationRole_p));
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMapping#getContents()
+   */
+  public Collection<IMatch> getContents() {
+    return Collections.<IMatch>unmodifiableCollection(getModifiableContents());
+  }
+
+  /**
+   * Return the cross-reference index for the given role, if any
+   * @param role_p a non-null role
+   * @return a potentially null index
+   */
+  protected CrossReferenceIndex getCrossReferenceIndex(Role role_p) {
+    CrossReferenceIndex result = null;
+    if (role_p == Role.TARGET)
+      result = _targetCrossReferences;
+    else if (role_p == Role.REFERENCE)
+      result = _referenceCrossReferences;
+    return result;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMapping#getCrossReferences(org.eclipse.emf.ecore.EObject, org.eclipse.emf.diffmerge.api.Role)
+   */
+  public Collection<Setting> getCrossReferences(EObject element_p, Role role_p) {
+    Collection<Setting> result = null;
+    CrossReferenceIndex index = getCrossReferenceIndex(role_p);
+    if (index != null)
+      result = index.get(element_p);
+    else
+      result = Collections.emptyList();
+    return result;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMapping#getMatchFor(org.eclipse.emf.ecore.EObject, org.eclipse.emf.diffmerge.api.Role)
+   */
+  public CompactMatch getMatchFor(EObject element_p, Role role_p) {
+    CompactMatch result = null;
+    if (element_p != null && role_p != null)
+      result = getMatchIndex(role_p).get(element_p);
+    return result;
+  }
+
+  /**
+   * Return the index of matches per element for the given role
+   * @param role_p a non-null role
+   * @return a non-null, modifiable map
+   */
+  protected Map<EObject, CompactMatch> getMatchIndex(Role role_p) {
+    Map<EObject, CompactMatch> result;
+    switch (role_p) {
+    case TARGET:
+      result = _targetMatchIndex; break;
+    case REFERENCE:
+      result = _referenceMatchIndex; break;
+    default:
+      result = _ancestorMatchIndex;
+    }
+    return result;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMapping.Editable#getModifiableCompletedMatches(org.eclipse.emf.diffmerge.api.Role)
+   */
+  public Collection<IMatch> getModifiableCompletedMatches(Role destinationRole_p) {
+    return Role.TARGET == destinationRole_p? _targetCompletedMatches:
+      _referenceCompletedMatches;
+  }
+
+  /**
+   * Return a collection view of the matches of this mapping in creation order.
+   * Removing matches through the view removes them from this mapping.
+   * @see org.eclipse.emf.diffmerge.api.IMapping.Editable#getModifiableContents()
+   */
+  public Collection<CompactMatch> getModifiableContents() {
+    return new AbstractCollection<CompactMatch>() {
+      /**
+       * @see java.util.AbstractCollection#iterator()
+       */
+      @Override
+      public Iterator<CompactMatch> iterator() {
+        return new MatchIterator();
+      }
+      /**
+       * @see java.util.AbstractCollection#remove(java.lang.Object)
+       */
+      @Override
+      public boolean remove(Object object_p) {
+        boolean result = false;
+        if (object_p instanceof CompactMatch) {
+          CompactMatch match = (CompactMatch)object_p;
+          result = match.getMapping() == CompactMapping.this && match._position >= 0;
+          if (result)
+            removeMatch(match);
+        }
+        return result;
+      }
+      /**
+       * @see java.util.AbstractCollection#size()
+       */
+      @Override
+      public int size() {
+        return CompactMapping.this.size();
+      }
+    };
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMapping#getNbFullMatches()
+   */
+  public int getNbFullMatches() {
+    int result = 0;
+    for (IMatch match : getModifiableContents()) {
+      if (!match.isPartial())
+        result++;
+    }
+    return result;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMapping#getNbPartialMatches(org.eclipse.emf.diffmerge.api.Role)
+   */
+  public int getNbPartialMatches(Role covered_p) {
+    int result = 0;
+    for (IMatch match : getModifiableContents()) {
+      if (match.isPartial() && (covered_p == null || match.coversRole(covered_p)))
+        result++;
+    }
+    return result;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMapping#getOrderingRole()
+   */
+  public Role getOrderingRole() {
+    return Role.TARGET;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMapping#isCompleteFor(org.eclipse.emf.diffmerge.api.scopes.IModelScope, org.eclipse.emf.diffmerge.api.Role)
+   */
+  public boolean isCompleteFor(IModelScope scope_p, Role role_p) {
+    Iterator<EObject> it = scope_p.getAllContents();
+    while (it.hasNext()) {
+      if (!covers(it.next(), role_p))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMapping#isEmpty()
+   */
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMapping.Editable#map(org.eclipse.emf.ecore.EObject, org.eclipse.emf.diffmerge.api.Role)
+   */
+  public IMatch.Editable map(EObject element_p, Role role_p) {
+    assert element_p != null && role_p != null;
+    CompactMatch previous = getMatchFor(element_p, role_p);
+    // Enforce consistency by removing previous match if any
+    if (previous != null)
+      removeMatch(previous);
+    CompactMatch result = getComparison().newMatch(
+        Role.TARGET == role_p? element_p: null,
+        Role.REFERENCE == role_p? element_p: null,
+        Role.ANCESTOR == role_p? element_p: null);
+    addMatch(result);
+    return result;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMapping.Editable#mapIncrementally(org.eclipse.emf.ecore.EObject, org.eclipse.emf.diffmerge.api.Role, org.eclipse.emf.ecore.EObject, org.eclipse.emf.diffmerge.api.Role)
+   */
+  public boolean mapIncrementally(EObject element1_p, Role role1_p,
+      EObject element2_p, Role role2_p) {
+    assert role1_p != null && role2_p != null && role1_p != role2_p;
+    CompactMatch newMatch = null;
+    boolean result = false;
+    Role role3 = Role.otherThan(role1_p, role2_p);
+    EObject element3 = null;
+    // Checking existing match in role1_p
+    if (element1_p != null) {
+      newMatch = getMatchFor(element1_p, role1_p);
+      if (newMatch != null) {
+        element3 = newMatch.get(role3);
+        EObject foundElement2 = newMatch.get(role2_p);
+        result = foundElement2 != null && foundElement2 != element2_p;
+      }
+    }
+    // Checking existing match in role2_p
+    if (element2_p != null) {
+      CompactMatch found = getMatchFor(element2_p, role2_p);
+      if (found != null) {
+        EObject foundElement1 = found.get(role1_p);
+        result = result || foundElement1 != null && foundElement1 != element1_p;
+        EObject inRole3 = found.get(role3);
+        if (inRole3 != null)
+          element3 = inRole3;
+        // Match found for role2_p which is different from that of role1_p
+        if (newMatch != null && newMatch != found)
+          removeMatch(found);
+        else
+          newMatch = found;
+      }
+    }
+    EObject[] elements = new EObject[Role.values().length];
+    elements[role1_p.ordinal()] = element1_p;
+    elements[role2_p.ordinal()] = element2_p;
+    elements[role3.ordinal()] = element3;
+    EObject target = elements[Role.TARGET.ordinal()];
+    EObject reference = elements[Role.REFERENCE.ordinal()];
+    EObject ancestor = elements[Role.ANCESTOR.ordinal()];
+    if (newMatch == null) {
+      addMatch(getComparison().newMatch(target, reference, ancestor));
+    } else {
+      // The match indexes are updated by the match itself
+      newMatch.reset(target, reference, ancestor);
+    }
+    return result;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMapping#maps(org.eclipse.emf.ecore.EObject, org.eclipse.emf.ecore.EObject)
+   */
+  public boolean maps(EObject target_p, EObject reference_p) {
+    return maps(target_p, Role.TARGET, reference_p, Role.REFERENCE);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMapping#maps(org.eclipse.emf.ecore.EObject, org.eclipse.emf.ecore.EObject, org.eclipse.emf.ecore.EObject)
+   */
+  public boolean maps(EObject target_p, EObject reference_p, EObject ancestor_p) {
+    return maps(ancestor_p, Role.ANCESTOR, target_p, Role.TARGET) &&
+      maps(ancestor_p, Role.ANCESTOR, reference_p, Role.REFERENCE) &&
+      maps(target_p, Role.TARGET, reference_p, Role.REFERENCE);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMapping#maps(org.eclipse.emf.ecore.EObject, org.eclipse.emf.diffmerge.api.Role, org.eclipse.emf.ecore.EObject, org.eclipse.emf.diffmerge.api.Role)
+   */
+  public boolean maps(EObject element1_p, Role role1_p, EObject element2_p, Role role2_p) {
+    boolean result = false;
+    if (element1_p != null) {
+      IMatch fromElement1 = getMatchFor(element1_p, role1_p);
+      result = fromElement1 != null && fromElement1.get(role2_p) == element2_p;
+    } else if (element2_p != null) {
+      IMatch fromElement2 = getMatchFor(element2_p, role2_p);
+      result = fromElement2 != null && fromElement2.get(role1_p) == element1_p;
+    }
+    return result;
+  }
+
+  /**
+   * Register the given match in the match indexes according to its current elements
+   * @param match_p a non-null match
+   */
+  protected void registerMatch(CompactMatch match_p) {
+    for (Role role : Role.values()) {
+      EObject element = match_p.get(role);
+      if (element != null)
+        getMatchIndex(role).put(element, match_p);
+    }
+  }
+
+  /**
+   * Remove the gaps left by removed matches, preserving the order of the remaining matches
+   */
+  protected void removeGaps() {
+    if (_nbGaps > 0) {
+      int newEnd = 0;
+      for (int i = 0; i < _end; i++) {
+        CompactMatch match = _matches[i];
+        if (match != null) {
+          match._position = newEnd;
+          _matches[newEnd] = match;
+          newEnd++;
+        }
+      }
+      Arrays.fill(_matches, newEnd, _end, null);
+      _end = newEnd;
+      _nbGaps = 0;
+    }
+  }
+
+  /**
+   * Remove the given match from this mapping
+   * @param match_p a non-null match that belongs to this mapping
+   */
+  protected void removeMatch(CompactMatch match_p) {
+    unregisterMatch(match_p);
+    _matches[match_p._position] = null;
+    match_p._position = -1;
+    _nbGaps++;
+  }
+
+  /**
+   * Update the match indexes after the element of the given match in the given role
+   * has changed
+   * @param match_p a non-null match which belongs to this mapping
+   * @param role_p a non-null role
+   * @param oldElement_p the potentially null previous element
+   * @param newElement_p the potentially null new element
+   */
+  protected void updateMatchIndex(CompactMatch match_p, Role role_p,
+      EObject oldElement_p, EObject newElement_p) {
+    Map<EObject, CompactMatch> index = getMatchIndex(role_p);
+    if (oldElement_p != null && index.get(oldElement_p) == match_p)
+      index.remove(oldElement_p);
+    if (newElement_p != null)
+      index.put(newElement_p, match_p);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMapping#size()
+   */
+  public int size() {
+    return _end - _nbGaps;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMapping#size(org.eclipse.emf.diffmerge.api.Role)
+   */
+  public int size(Role role_p) {
+    return getMatchIndex(role_p).size();
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMapping#toMap(org.eclipse.emf.diffmerge.api.Role, org.eclipse.emf.diffmerge.api.Role)
+   */
+  public EMap<EObject, EObject> toMap(Role keyRole_p, Role valueRole_p) {
+    EMap<EObject, EObject> result = new FHashMap<EObject, EObject>();
+    for (IMatch match : getModifiableContents()) {
+      EObject key = match.get(keyRole_p);
+      if (key != null)
+        result.put(key, match.get(valueRole_p));
+    }
+    return ECollections.unmodifiableEMap(result);
+  }
+
+  /**
+   * Remove the given match from the match indexes according to its current elements
+   * @param match_p a non-null match
+   */
+  protected void unregisterMatch(CompactMatch match_p) {
+    for (Role role : Role.values()) {
+      EObject element = match_p.get(role);
+      if (element != null) {
+        Map<EObject, CompactMatch> index = getMatchIndex(role);
+        if (index.get(element) == match_p)
+          index.remove(element);
+      }
+    }
+  }
+
+
+  /**
+   * An iterator over the matches of this mapping which skips gaps.
+   */
+  protected class MatchIterator implements Iterator<CompactMatch> {
+    /** The position of the next match, or _end if none */
+    private int _next;
+    /** The last match returned, if any */
+    private CompactMatch _last;
+    /**
+     * Constructor
+     */
+    protected MatchIterator() {
+      _next = skipGaps(0);
+      _last = null;
+    }
+    /**
+     * @see java.util.Iterator#hasNext()
+     */
+    public boolean hasNext() {
+      return _next < _end;
+    }
+    /**
+     * @see java.util.Iterator#next()
+     */
+    public CompactMatch next() {
+      if (!hasNext())
+        throw new NoSuchElementException();
+      _last = _matches[_next];
+      _next = skipGaps(_next + 1);
+      return _last;
+    }
+    /**
+     * @see java.util.Iterator#remove()
+     */
+    public void remove() {
+      if (_last == null || _last._position < 0)
+        throw new IllegalStateException();
+      removeMatch(_last);
+      _last = null;
+    }
+    /**
+     * Return the first position from the given one which is not a gap
+     * @param position_p a positive int
+     * @return a positive int which is _end if there is no such position
+     */
+    private int skipGaps(int position_p) {
+      int result = position_p;
+      while (result < _end && _matches[result] == null)
+        result++;
+      return result;
+    }
+  }
+
+}
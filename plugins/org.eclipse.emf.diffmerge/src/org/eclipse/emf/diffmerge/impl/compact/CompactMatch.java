@@ -0,0 +1,674 @@
+/*********************************************************************
+ * Copyright (c) 2010-2019 Thales Global Services S.A.S.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    Thales Global Services S.A.S. - initial API and implementation
+ **********************************************************************/
+package org.eclipse.emf.diffmerge.impl.compact;
+
+import static org.eclipse.emf.diffmerge.api.Role.ANCESTOR;
+import static org.eclipse.emf.diffmerge.api.Role.REFERENCE;
+import static org.eclipse.emf.diffmerge.api.Role.TARGET;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.emf.diffmerge.api.IMatch;
+import org.eclipse.emf.diffmerge.api.IPureMatch;
+import org.eclipse.emf.diffmerge.api.Role;
+import org.eclipse.emf.diffmerge.api.diff.IAttributeValuePresence;
+import org.eclipse.emf.diffmerge.api.diff.IDifference;
+import org.eclipse.emf.diffmerge.api.diff.IElementPresence;
+import org.eclipse.emf.diffmerge.api.diff.IElementRelativeDifference;
+import org.eclipse.emf.diffmerge.api.diff.IPresenceDifference;
+import org.eclipse.emf.diffmerge.api.diff.IReferenceValuePresence;
+import org.eclipse.emf.diffmerge.api.diff.IValuePresence;
+import org.eclipse.emf.diffmerge.impl.helpers.DifferenceIndex;
+import org.eclipse.emf.diffmerge.structures.common.FArrayList;
+import org.eclipse.emf.diffmerge.util.ModelImplUtil;
+import org.eclipse.emf.ecore.EAttribute;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.resource.Resource;
+
+
+/**
+ * A memory-lean implementation of IMatch which is not an EMF object.
+ * Related differences are held in a plain array. Value presences are retrieved
+ * by scanning this array, unless the match has many differences in which case
+ * an index per feature is built on demand.
+ * @see CompactComparison
+ * @author Olivier Constant
+ */
+public class CompactMatch implements IMatch.Editable, IMatch.Indexed {
+
+  /** The number of related differences above which value presences are indexed */
+  protected static final int INDEX_THRESHOLD = 8;
+
+  /** A constant key representing order in the TARGET side in the index of value presences */
+  private static final Object ORDER_KEY_TARGET = new Object();
+
+  /** A constant key representing order in the REFERENCE side in the index of value presences */
+  private static final Object ORDER_KEY_REFERENCE = new Object();
+
+  /** A shared, empty array of differences */
+  private static final IDifference[] NO_DIFFERENCE = new IDifference[0];
+
+  /** The non-null mapping that owns this match */
+  private final CompactMapping _mapping;
+
+  /** The position of this match in its mapping, or -1 if it does not belong to it anymore */
+  int _position;
+
+  /** The potentially null element on the TARGET side */
+  private EObject _target;
+
+  /** The potentially null element on the REFERENCE side */
+  private EObject _reference;
+
+  /** The potentially null element on the ANCESTOR side */
+  private EObject _ancestor;
+
+  /** The potentially null match ID */
+  private Object _matchID;
+
+  /** The non-null related differences, only the first _nbDifferences of which are relevant */
+  private IDifference[] _differences;
+
+  /** The number of related differences */
+  private int _nbDifferences;
+
+  /** The potentially null element presence difference */
+  private IElementPresence _elementPresence;
+
+  /** The potentially null ownership difference on the TARGET side */
+  private IReferenceValuePresence _targetOwnership;
+
+  /** The potentially null ownership difference on the REFERENCE side */
+  private IReferenceValuePresence _referenceOwnership;
+
+  /** The index: feature -> value or order key -> value presence, null until needed */
+  private Map<EStructuralFeature, Map<Object, IValuePresence>> _valuePresenceIndex;
+
+
+  /**
+   * Constructor
+   * Precondition: at least one of the given elements is not null.
+   * @param mapping_p the non-null mapping that owns this match
+   * @param target_p the optional element on the TARGET side
+   * @param reference_p the optional element on the REFERENCE side
+   * @param ancestor_p the optional element on the ANCESTOR side
+   */
+  public CompactMatch(CompactMapping mapping_p, EObject target_p, EObject reference_p,
+      EObject ancestor_p) {
+    _mapping = mapping_p;
+    _position = -1;
+    _target = target_p;
+    _reference = reference_p;
+    _ancestor = ancestor_p;
+    _differences = NO_DIFFERENCE;
+    _nbDifferences = 0;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMatch.Editable#addOwnershipDifference(org.eclipse.emf.diffmerge.api.diff.IReferenceValuePresence)
+   */
+  public void addOwnershipDifference(IReferenceValuePresence presence_p) {
+    if (Role.TARGET == presence_p.getPresenceRole())
+      _targetOwnership = presence_p;
+    else
+      _referenceOwnership = presence_p;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMatch.Editable#addRelatedDifference(org.eclipse.emf.diffmerge.api.diff.IDifference)
+   */
+  public void addRelatedDifference(IDifference difference_p) {
+    assert difference_p != null;
+    if (!isRelatedDifference(difference_p)) {
+      if (_nbDifferences == _differences.length) {
+        int newLength = _differences.length < 2? 2: _differences.length + (_differences.length >> 1);
+        _differences = Arrays.copyOf(_differences, newLength);
+      }
+      _differences[_nbDifferences] = difference_p;
+      _nbDifferences++;
+      if (difference_p instanceof IElementPresence) {
+        _elementPresence = (IElementPresence)difference_p;
+      } else if (difference_p instanceof IValuePresence) {
+        IValuePresence presence = (IValuePresence)difference_p;
+        if (_valuePresenceIndex != null)
+          index(presence);
+        else if (_nbDifferences > INDEX_THRESHOLD)
+          buildIndex();
+        // If relevant, register implicit universal container reference on value
+        if (presence instanceof IReferenceValuePresence &&
+            ((IReferenceValuePresence)presence).isOwnership()) {
+          IMatch valueMatch = ((IReferenceValuePresence)presence).getValueMatch();
+          if (valueMatch != null)
+            ((IMatch.Editable)valueMatch).addOwnershipDifference(
+                (IReferenceValuePresence)presence);
+        }
+      }
+      DifferenceIndex differenceIndex = getMapping().getComparison().getDifferenceIndex(false);
+      if (differenceIndex != null)
+        differenceIndex.differenceAdded(difference_p);
+    }
+  }
+
+  /**
+   * Build the index of value presences from the related differences
+   */
+  protected void buildIndex() {
+    _valuePresenceIndex = new HashMap<EStructuralFeature, Map<Object, IValuePresence>>();
+    for (int i = 0; i < _nbDifferences; i++) {
+      IDifference difference = _differences[i];
+      if (difference instanceof IValuePresence)
+        index((IValuePresence)difference);
+    }
+  }
+
+  /**
+   * Reduce the memory footprint of this match to the minimum for its current contents
+   * @return the estimated number of bytes reclaimed
+   */
+  public long compact() {
+    long result = 0L;
+    if (_nbDifferences < _differences.length) {
+      result = (long)(_differences.length - _nbDifferences) *
+          ModelImplUtil.ESTIMATED_REFERENCE_SIZE;
+      _differences = _nbDifferences == 0? NO_DIFFERENCE:
+        Arrays.copyOf(_differences, _nbDifferences);
+    }
+    return result;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IPureMatch#coversRole(org.eclipse.emf.diffmerge.api.Role)
+   */
+  public boolean coversRole(Role role_p) {
+    return get(role_p) != null;
+  }
+
+  /**
+   * @see Object#equals(Object)
+   */
+  @Override
+  public boolean equals(Object object_p) {
+    boolean result = false;
+    if (object_p instanceof IPureMatch) {
+      IPureMatch peer = (IPureMatch)object_p;
+      result = // Equality by reference of elements
+        peer == this ||
+        peer.get(TARGET) == get(TARGET) &&
+        peer.get(REFERENCE) == get(REFERENCE) &&
+        peer.get(ANCESTOR) == get(ANCESTOR);
+    }
+    return result;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IPureMatch#get(org.eclipse.emf.diffmerge.api.Role)
+   */
+  public EObject get(Role role_p) {
+    EObject result;
+    switch (role_p) {
+    case TARGET:
+      result = _target; break;
+    case REFERENCE:
+      result = _reference; break;
+    default:
+      result = _ancestor;
+    }
+    return result;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMatch#getAllDifferences()
+   */
+  public List<IDifference> getAllDifferences() {
+    List<IDifference> result = new FArrayList<IDifference>(_nbDifferences + 2, null);
+    result.addAll(getRelatedDifferences());
+    if (_targetOwnership != null)
+      result.add(_targetOwnership);
+    if (_referenceOwnership != null)
+      result.add(_referenceOwnership);
+    return Collections.unmodifiableList(result);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMatch#getAttributeDifferences(org.eclipse.emf.ecore.EAttribute)
+   */
+  public Collection<IAttributeValuePresence> getAttributeDifferences(EAttribute attribute_p) {
+    return getValuePresences(attribute_p, IAttributeValuePresence.class);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMatch#getAttributeValueDifference(org.eclipse.emf.ecore.EAttribute, java.lang.Object)
+   */
+  public IAttributeValuePresence getAttributeValueDifference(EAttribute attribute_p,
+      Object value_p) {
+    return (IAttributeValuePresence)getValuePresence(attribute_p, value_p);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMatch#getAttributesWithDifferences()
+   */
+  public Collection<EAttribute> getAttributesWithDifferences() {
+    return getFeaturesWithDifferences(EAttribute.class);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMatch#getElementPresenceDifference()
+   */
+  public IElementPresence getElementPresenceDifference() {
+    return _elementPresence;
+  }
+
+  /**
+   * Return the features of the given type for which value presences exist
+   * @param type_p a non-null type of feature
+   * @return a non-null, unmodifiable collection
+   */
+  protected <F extends EStructuralFeature> Collection<F> getFeaturesWithDifferences(
+      Class<F> type_p) {
+    Set<F> result = null;
+    for (int i = 0; i < _nbDifferences; i++) {
+      IDifference difference = _differences[i];
+      if (difference instanceof IValuePresence) {
+        EStructuralFeature feature = ((IValuePresence)difference).getFeature();
+        if (type_p.isInstance(feature)) {
+          if (result == null)
+            result = new LinkedHashSet<F>();
+          result.add(type_p.cast(feature));
+        }
+      }
+    }
+    if (result == null)
+      result = Collections.emptySet();
+    return Collections.unmodifiableSet(result);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IPureMatch#getMapping()
+   */
+  public CompactMapping getMapping() {
+    return _mapping;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IPureMatch#getMatchID()
+   */
+  public Object getMatchID() {
+    return _matchID;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMatch#getNbNoContainmentDifferences()
+   */
+  public int getNbNoContainmentDifferences() {
+    int result = 0;
+    if (!isPartial()) {
+      for (int i = 0; i < _nbDifferences; i++) {
+        IDifference difference = _differences[i];
+        if (difference instanceof IElementRelativeDifference &&
+            ((IElementRelativeDifference)difference).isUnrelatedToContainmentTree() &&
+            !difference.isMerged())
+          result++;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMatch.Indexed#getNbRelatedDifferences()
+   */
+  public int getNbRelatedDifferences() {
+    return _nbDifferences;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMatch#getOrderDifference(org.eclipse.emf.ecore.EStructuralFeature, org.eclipse.emf.diffmerge.api.Role)
+   */
+  public IValuePresence getOrderDifference(EStructuralFeature feature_p, Role role_p) {
+    return getValuePresence(feature_p, getOrderKey(role_p));
+  }
+
+  /**
+   * Return the key that represents order for the given role in the index of value presences
+   * @param role_p a non-null role
+   * @return a non-null object
+   */
+  private static Object getOrderKey(Role role_p) {
+    return role_p == Role.TARGET? ORDER_KEY_TARGET: ORDER_KEY_REFERENCE;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMatch#getOwnershipDifference(org.eclipse.emf.diffmerge.api.Role)
+   */
+  public IReferenceValuePresence getOwnershipDifference(Role role_p) {
+    return (Role.TARGET == role_p)? _targetOwnership: _referenceOwnership;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMatch#getPresenceDifferencesIn(org.eclipse.emf.diffmerge.api.Role)
+   */
+  public Collection<IDifference> getPresenceDifferencesIn(Role role_p) {
+    Collection<IDifference> result = new ArrayList<IDifference>();
+    for (int i = 0; i < _nbDifferences; i++) {
+      IDifference difference = _differences[i];
+      if (difference instanceof IPresenceDifference &&
+          ((IPresenceDifference)difference).getPresenceRole() == role_p)
+        result.add(difference);
+    }
+    return Collections.unmodifiableCollection(result);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMatch#getReferenceDifferences(org.eclipse.emf.ecore.EReference)
+   */
+  public Collection<IReferenceValuePresence> getReferenceDifferences(EReference reference_p) {
+    return getValuePresences(reference_p, IReferenceValuePresence.class);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMatch#getReferencesWithDifferences()
+   */
+  public Collection<EReference> getReferencesWithDifferences() {
+    return getFeaturesWithDifferences(EReference.class);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMatch#getReferenceValueDifference(org.eclipse.emf.ecore.EReference, org.eclipse.emf.ecore.EObject)
+   */
+  public IReferenceValuePresence getReferenceValueDifference(EReference reference_p,
+      EObject value_p) {
+    return (IReferenceValuePresence)getValuePresence(reference_p, value_p);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMatch.Indexed#getRelatedDifference(int)
+   */
+  public IDifference getRelatedDifference(int index_p) {
+    if (index_p >= _nbDifferences)
+      throw new IndexOutOfBoundsException(String.valueOf(index_p));
+    return _differences[index_p];
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMatch#getRelatedDifferences()
+   */
+  public List<IDifference> getRelatedDifferences() {
+    List<IDifference> result;
+    if (_nbDifferences == 0) {
+      result = Collections.emptyList();
+    } else {
+      result = new AbstractList<IDifference>() {
+        /**
+         * @see java.util.AbstractList#get(int)
+         */
+        @Override
+        public IDifference get(int index_p) {
+          if (index_p >= _nbDifferences)
+            throw new IndexOutOfBoundsException(String.valueOf(index_p));
+          return _differences[index_p];
+        }
+        /**
+         * @see java.util.AbstractCollection#size()
+         */
+        @Override
+        public int size() {
+          return _nbDifferences;
+        }
+      };
+    }
+    return result;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IPureMatch#getUncoveredRole()
+   */
+  public Role getUncoveredRole() {
+    Role result = null;
+    if (!coversRole(TARGET))
+      result = TARGET;
+    else if (!coversRole(REFERENCE))
+      result = REFERENCE;
+    return result;
+  }
+
+  /**
+   * Return the value presence for the given feature and the given key
+   * @param feature_p a non-null feature
+   * @param key_p a non-null value of the feature or order key
+   * @return a potentially null value presence
+   */
+  protected IValuePresence getValuePresence(EStructuralFeature feature_p, Object key_p) {
+    IValuePresence result = null;
+    if (_valuePresenceIndex != null) {
+      Map<Object, IValuePresence> forFeature = _valuePresenceIndex.get(feature_p);
+      if (forFeature != null)
+        result = forFeature.get(key_p);
+    } else {
+      // Latest registered difference prevails, as with the index
+      for (int i = _nbDifferences - 1; i >= 0 && result == null; i--) {
+        IDifference difference = _differences[i];
+        if (difference instanceof IValuePresence) {
+          IValuePresence presence = (IValuePresence)difference;
+          if (presence.getFeature() == feature_p && hasKey(presence, key_p))
+            result = presence;
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Return the value presences of the given type for the given feature
+   * @param feature_p a non-null feature
+   * @param type_p a non-null type of value presence
+   * @return a non-null, unmodifiable collection
+   */
+  protected <P extends IValuePresence> Collection<P> getValuePresences(
+      EStructuralFeature feature_p, Class<P> type_p) {
+    Collection<P> result = null;
+    if (_valuePresenceIndex != null) {
+      Map<Object, IValuePresence> forFeature = _valuePresenceIndex.get(feature_p);
+      if (forFeature != null) {
+        result = new ArrayList<P>(forFeature.size());
+        for (IValuePresence presence : forFeature.values()) {
+          result.add(type_p.cast(presence));
+        }
+      }
+    } else {
+      for (int i = 0; i < _nbDifferences; i++) {
+        IDifference difference = _differences[i];
+        if (type_p.isInstance(difference) &&
+            ((IValuePresence)difference).getFeature() == feature_p) {
+          if (result == null)
+            result = new ArrayList<P>(2);
+          result.add(type_p.cast(difference));
+        }
+      }
+    }
+    if (result == null)
+      result = Collections.emptyList();
+    return Collections.unmodifiableCollection(result);
+  }
+
+  /**
+   * @see Object#hashCode()
+   */
+  @Override
+  public int hashCode() {
+    int result = 0;
+    if (_target != null)
+      result += _target.hashCode();
+    if (_reference != null)
+      result += _reference.hashCode();
+    if (_ancestor != null)
+      result += _ancestor.hashCode();
+    return result;
+  }
+
+  /**
+   * Return whether the given value presence is registered under the given key
+   * @param presence_p a non-null value presence
+   * @param key_p a non-null value or order key
+   */
+  private static boolean hasKey(IValuePresence presence_p, Object key_p) {
+    boolean result;
+    if (presence_p.isOrder()) {
+      result = getOrderKey(presence_p.getPresenceRole()) == key_p;
+    } else {
+      Object value = presence_p.getValue();
+      // Reference values are compared by reference, attribute values by equality
+      result = value == key_p ||
+        !(presence_p instanceof IReferenceValuePresence) && value != null &&
+        value.equals(key_p);
+    }
+    return result;
+  }
+
+  /**
+   * Register the given value presence in the index
+   * @param presence_p a non-null value presence
+   */
+  private void index(IValuePresence presence_p) {
+    EStructuralFeature feature = presence_p.getFeature();
+    Map<Object, IValuePresence> forFeature = _valuePresenceIndex.get(feature);
+    if (forFeature == null) {
+      if (presence_p instanceof IReferenceValuePresence)
+        forFeature = new IdentityHashMap<Object, IValuePresence>();
+      else
+        forFeature = new HashMap<Object, IValuePresence>();
+      _valuePresenceIndex.put(feature, forFeature);
+    }
+    Object key = presence_p.isOrder()? getOrderKey(presence_p.getPresenceRole()):
+      presence_p.getValue();
+    forFeature.put(key, presence_p);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IPureMatch#involves(org.eclipse.emf.ecore.resource.Resource)
+   */
+  public boolean involves(Resource resource_p) {
+    return _target != null && _target.eResource() == resource_p ||
+      _reference != null && _reference.eResource() == resource_p ||
+      _ancestor != null && _ancestor.eResource() == resource_p;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMatch#isAMove()
+   */
+  public boolean isAMove() {
+    boolean result = false;
+    if (!isPartial() && _elementPresence == null)
+      result = _targetOwnership != null || _referenceOwnership != null;
+    return result;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IPureMatch#isPartial()
+   */
+  public boolean isPartial() {
+    return getUncoveredRole() != null;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IPureMatch#isPartial(org.eclipse.emf.diffmerge.api.Role, org.eclipse.emf.diffmerge.api.Role)
+   */
+  public boolean isPartial(Role role1_p, Role role2_p) {
+    return !coversRole(role1_p) || !coversRole(role2_p);
+  }
+
+  /**
+   * Return whether the given difference is already registered as related to this match
+   * @param difference_p a non-null difference
+   */
+  protected boolean isRelatedDifference(IDifference difference_p) {
+    if (_valuePresenceIndex != null && difference_p instanceof IValuePresence) {
+      IValuePresence presence = (IValuePresence)difference_p;
+      Object key = presence.isOrder()? getOrderKey(presence.getPresenceRole()):
+        presence.getValue();
+      return getValuePresence(presence.getFeature(), key) == difference_p;
+    }
+    for (int i = 0; i < _nbDifferences; i++) {
+      if (_differences[i] == difference_p)
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IPureMatch#maps(org.eclipse.emf.ecore.EObject, org.eclipse.emf.ecore.EObject)
+   */
+  public boolean maps(EObject target_p, EObject reference_p) {
+    return _target == target_p && _reference == reference_p;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IPureMatch#maps(org.eclipse.emf.ecore.EObject, org.eclipse.emf.ecore.EObject, org.eclipse.emf.ecore.EObject)
+   */
+  public boolean maps(EObject target_p, EObject reference_p, EObject ancestor_p) {
+    return maps(target_p, reference_p) && _ancestor == ancestor_p;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IPureMatch.Editable#reset(org.eclipse.emf.ecore.EObject, org.eclipse.emf.ecore.EObject, org.eclipse.emf.ecore.EObject)
+   */
+  public void reset(EObject target_p, EObject reference_p, EObject ancestor_p) {
+    assert target_p != null || reference_p != null || ancestor_p != null;
+    set(TARGET, target_p);
+    set(REFERENCE, reference_p);
+    set(ANCESTOR, ancestor_p);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IPureMatch.Editable#set(org.eclipse.emf.diffmerge.api.Role, org.eclipse.emf.ecore.EObject)
+   */
+  public void set(Role role_p, EObject element_p) {
+    EObject oldElement = get(role_p);
+    switch (role_p) {
+    case TARGET:
+      _target = element_p; break;
+    case REFERENCE:
+      _reference = element_p; break;
+    default:
+      _ancestor = element_p;
+    }
+    if (_position >= 0 && oldElement != element_p)
+      _mapping.updateMatchIndex(this, role_p, oldElement, element_p);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IPureMatch.Editable#setMatchID(java.lang.Object)
+   */
+  public void setMatchID(Object matchID_p) {
+    _matchID = matchID_p;
+  }
+
+  /**
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + " (target: " + _target + //$NON-NLS-1$
+      ", reference: " + _reference + ", ancestor: " + _ancestor + ")"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+  }
+
+}
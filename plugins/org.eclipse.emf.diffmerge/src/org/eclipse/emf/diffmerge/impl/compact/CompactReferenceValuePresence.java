@@ -0,0 +1,319 @@
+/*********************************************************************
+ * Copyright (c) 2010-2019 Thales Global Services S.A.S.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    Thales Global Services S.A.S. - initial API and implementation
+ **********************************************************************/
+package org.eclipse.emf.diffmerge.impl.compact;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.eclipse.emf.diffmerge.api.IComparison;
+import org.eclipse.emf.diffmerge.api.IDiffPolicy;
+import org.eclipse.emf.diffmerge.api.IMatch;
+import org.eclipse.emf.diffmerge.api.IMergePolicy;
+import org.eclipse.emf.diffmerge.api.Role;
+import org.eclipse.emf.diffmerge.api.diff.IReferenceValuePresence;
+import org.eclipse.emf.diffmerge.api.scopes.IEditableModelScope;
+import org.eclipse.emf.diffmerge.impl.helpers.BidirectionalComparisonCopier;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EStructuralFeature;
+
+
+/**
+ * A memory-lean implementation of IReferenceValuePresence which is not an EMF object.
+ * @see CompactComparison
+ * @author Olivier Constant
+ */
+public class CompactReferenceValuePresence extends AbstractCompactValuePresence
+implements IReferenceValuePresence {
+
+  /** The non-null value element */
+  private final EObject _value;
+
+  /** The potentially null match of the value, null if the value is out of scope */
+  private final IMatch _valueMatch;
+
+
+  /**
+   * Constructor
+   * @param comparison_p the non-null comparison to which this difference belongs
+   * @param elementMatch_p the non-null match for the element holding the value
+   * @param reference_p the non-null reference holding the value
+   * @param value_p the value element, which may only be null if valueMatch_p is not null
+   * @param valueMatch_p an optional match, which cannot be null if value_p is null
+   * @param presenceRole_p the role in which the value is held: TARGET or REFERENCE
+   * @param isOrder_p whether the value presence is solely due to ordering
+   */
+  public CompactReferenceValuePresence(CompactComparison comparison_p,
+      IMatch elementMatch_p, EReference reference_p, EObject value_p,
+      IMatch valueMatch_p, Role presenceRole_p, boolean isOrder_p) {
+    super(comparison_p, elementMatch_p, reference_p, presenceRole_p, isOrder_p);
+    assert valueMatch_p != null || value_p != null;
+    _valueMatch = valueMatch_p;
+    _value = (value_p != null)? value_p: valueMatch_p.get(presenceRole_p);
+    assert _value != null;
+    ((IMatch.Editable)elementMatch_p).addRelatedDifference(this);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.impl.compact.AbstractCompactValuePresence#getFeature()
+   */
+  @Override
+  public EReference getFeature() {
+    return (EReference)super.getFeature();
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.diff.IReferenceValuePresence#getOpposite()
+   */
+  public IReferenceValuePresence getOpposite() {
+    IReferenceValuePresence result = null;
+    EReference opposite = getFeature().getEOpposite();
+    if (opposite != null) {
+      IMatch valueMatch = getValueMatch();
+      if (valueMatch != null)
+        result = valueMatch.getReferenceValueDifference(
+            opposite, getElementMatch().get(getPresenceRole()));
+    }
+    return result;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.diff.IReferenceValuePresence#getSymmetrical()
+   */
+  public IReferenceValuePresence getSymmetrical() {
+    IReferenceValuePresence result = null;
+    if (!getFeature().isMany()) {
+      Collection<IReferenceValuePresence> candidates =
+        getElementMatch().getReferenceDifferences(getFeature());
+      assert candidates.size() <= 2; // Because !isMany()
+      for (IReferenceValuePresence candidate : candidates) {
+        if (candidate.getPresenceRole() == getAbsenceRole()) {
+          result = candidate;
+          break;
+        }
+      }
+    } else if (isOrder()) {
+      result = (IReferenceValuePresence)getElementMatch().getOrderDifference(
+          getFeature(), getAbsenceRole());
+    }
+    return result;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.diff.IReferenceValuePresence#getSymmetricalOwnership()
+   */
+  public IReferenceValuePresence getSymmetricalOwnership() {
+    IReferenceValuePresence result = null;
+    IMatch valueMatch = getValueMatch();
+    if (valueMatch != null)
+      result = valueMatch.getOwnershipDifference(getAbsenceRole());
+    return result;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.diff.IReferenceValuePresence#getValue()
+   */
+  public EObject getValue() {
+    return _value;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.diff.IReferenceValuePresence#getValueMatch()
+   */
+  public IMatch getValueMatch() {
+    return _valueMatch;
+  }
+
+  /**
+   * Return whether this difference has an opposite with stronger constraints
+   */
+  protected boolean hasStrongerOpposite() {
+    boolean result = false;
+    EReference reference = getFeature();
+    if (reference.isMany()) {
+      EReference opposite = reference.getEOpposite();
+      result = opposite != null && !opposite.isMany();
+    }
+    return result;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.diff.IReferenceValuePresence#isContainment()
+   */
+  public boolean isContainment() {
+    return getComparison().getScope(getPresenceRole()).isContainment(getFeature());
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.diff.IReferenceValuePresence#isOppositeOf(org.eclipse.emf.diffmerge.api.diff.IReferenceValuePresence)
+   */
+  public boolean isOppositeOf(IReferenceValuePresence peer_p) {
+    return getPresenceRole() == peer_p.getPresenceRole() &&
+      getFeature().getEOpposite() == peer_p.getFeature() &&
+      getElementMatch() == peer_p.getValueMatch() &&
+      getValueMatch() == peer_p.getElementMatch();
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.diff.IReferenceValuePresence#isOutOfScope()
+   */
+  public boolean isOutOfScope() {
+    return getValueMatch() == null;
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.diff.IReferenceValuePresence#isOwnership()
+   */
+  public boolean isOwnership() {
+    return !isOrder() && isContainment();
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.diff.IReferenceValuePresence#isSymmetricalOwnershipTo(org.eclipse.emf.diffmerge.api.diff.IReferenceValuePresence)
+   */
+  public boolean isSymmetricalOwnershipTo(IReferenceValuePresence peer_p) {
+    return getAbsenceRole() == peer_p.getPresenceRole() &&
+      isOwnership() && peer_p.isOwnership() &&
+      getValueMatch() != null && getValueMatch() == peer_p.getValueMatch();
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.api.diff.IElementRelativeDifference#isUnrelatedToContainmentTree()
+   */
+  public boolean isUnrelatedToContainmentTree() {
+    return !isOwnership();
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.impl.compact.AbstractCompactValuePresence#mergeOrder()
+   */
+  @Override
+  protected void mergeOrder() {
+    EObject sourceHolder = getHolder();
+    EObject destinationHolder = getMatchOfHolder();
+    EReference reference = getFeature();
+    assert sourceHolder != null && destinationHolder != null; // Otherwise order change would not have been detected
+    IEditableModelScope absenceScope = getAbsenceScope();
+    IMergePolicy mergePolicy = getComparison().getLastMergePolicy();
+    Role destination = getAbsenceRole();
+    IMatch holderMatch = getElementMatch();
+    IComparison owningComparison = getComparison();
+    List<EObject> sourceValues = getPresenceScope().get(sourceHolder, reference);
+    for (int i = sourceValues.size() - 1; i >= 0; i--) {
+      EObject sourceValue = sourceValues.get(i);
+      IMatch valueMatch = owningComparison.getMapping().getMatchFor(
+          sourceValue, destination.opposite());
+      boolean coverValue = valueMatch != null ||
+        getComparison().getLastDiffPolicy().coverOutOfScopeValue(sourceValue, reference);
+      if (coverValue) {
+        EObject destinationValue = valueMatch != null? valueMatch.get(destination):
+          sourceValue;
+        if (destinationValue != null) {
+          int index = mergePolicy.getDesiredValuePosition(
+              owningComparison, destination, holderMatch, reference, sourceValue);
+          if (index >= 0) {
+            List<EObject> updatedDestinationValues =
+              absenceScope.get(destinationHolder, reference);
+            int oldIndex = updatedDestinationValues.indexOf(destinationValue);
+            absenceScope.move(destinationHolder, reference, index, oldIndex);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.impl.compact.AbstractCompactValuePresence#mergeValueAddition()
+   */
+  @Override
+  protected void mergeValueAddition() {
+    IEditableModelScope absenceScope = getAbsenceScope();
+    EObject destinationHolder = getMatchOfHolder();
+    IMatch valueMatch = getValueMatch();
+    EObject destinationValue;
+    boolean cloned;
+    if (valueMatch == null) {
+      // Out of scope
+      destinationValue = getValue(); // Keep as-is
+      cloned = false;
+    } else if (valueMatch.isPartial()) {
+      // Within scope, value not present in absence scope
+      destinationValue = getComparison().getMapping().completeMatch(valueMatch);
+      cloned = true;
+    } else {
+      // Within scope, value present in absence scope
+      destinationValue = valueMatch.get(getAbsenceRole());
+      cloned = false;
+    }
+    // Assertions are assumed to be enforced by diff dependency handling
+    assert destinationHolder != null && destinationValue != null;
+    boolean actuallyAdded = absenceScope.add(destinationHolder, getFeature(), destinationValue);
+    // Order handling
+    IDiffPolicy diffPolicy = getComparison().getLastDiffPolicy();
+    IMergePolicy mergePolicy = getComparison().getLastMergePolicy();
+    if (diffPolicy != null && actuallyAdded && diffPolicy.considerOrdered(getFeature())) {
+      // Move added value if required
+      int index = mergePolicy.getDesiredValuePosition(getComparison(),
+          getAbsenceRole(), getElementMatch(), getFeature(), getValue());
+      if (index >= 0)
+        absenceScope.move(destinationHolder, getFeature(), index, -1);
+    }
+    // ID enforcement
+    if (cloned && actuallyAdded)
+      BidirectionalComparisonCopier.handleIDCopy(getValue(), getPresenceScope(),
+          destinationValue, getAbsenceScope(), mergePolicy);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.impl.compact.AbstractCompactValuePresence#mergeValueRemoval()
+   */
+  @Override
+  protected final void mergeValueRemoval() {
+    if (isOutOfScope()) {
+      // Out of scope
+      getPresenceScope().remove(getHolder(), getFeature(), getValue());
+    } else {
+      // Within scope
+      mergeValueRemovalWithinScope();
+    }
+  }
+
+  /**
+   * Remove the in-presence-scope value from the presence scope.
+   * Precondition: !isOutOfScope()
+   */
+  protected void mergeValueRemovalWithinScope() {
+    IEditableModelScope presenceScope = getPresenceScope();
+    if (getSymmetrical() == null &&
+        !(hasStrongerOpposite() && !getValueMatch().isPartial())) {
+      EObject valueElement = getValue();
+      presenceScope.remove(getHolder(), getFeature(), valueElement);
+      if (isOwnership()) {
+        // Value has been removed from its containment: delete element
+        for (EStructuralFeature.Setting setting :
+          getComparison().getMapping().getCrossReferences(valueElement, getPresenceRole())) {
+          presenceScope.remove(setting.getEObject(),
+              (EReference)setting.getEStructuralFeature(), valueElement);
+        }
+        if (!getComparison().getLastMergePolicy().bindPresenceToOwnership(presenceScope)) {
+          // Re-integrate direct children in scope
+          for (EObject child : presenceScope.getContents(valueElement)) {
+            presenceScope.add(child);
+          }
+        }
+      }
+    }
+    // Otherwise, we know this difference will be merged implicitly because of dependencies
+    // since a required difference implies this difference
+  }
+
+}
@@ -11,28 +11,38 @@
  **********************************************************************/
 package org.eclipse.emf.diffmerge.impl.helpers;
 
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.core.runtime.SubMonitor;
 import org.eclipse.emf.diffmerge.util.IExpensiveOperation;
+import org.eclipse.emf.diffmerge.util.OperationMetrics;
 
 
 /**
- * A simple, partial implementation of IExpensiveOperation.
+ * A simple, partial implementation of IExpensiveOperation which records
+ * performance metrics.
  * @author Olivier Constant
  */
-public abstract class AbstractExpensiveOperation implements IExpensiveOperation {
+public abstract class AbstractExpensiveOperation implements IExpensiveOperation,
+    OperationMetrics.Provider {
 
   /** The non-null progress monitor for this operation */
   private SubMonitor _monitor;
   
+  /** The non-null metrics where this operation records its performance */
+  private OperationMetrics _metrics;
+  
   /**
    * Constructor
    */
   protected AbstractExpensiveOperation() {
     _monitor = SubMonitor.convert(new NullProgressMonitor());
+    _metrics = new OperationMetrics();
   }
   
   /**
@@ -44,6 +54,13 @@ public abstract class AbstractExpensiveOperation implements IExpensiveOperation
       throw new OperationCanceledException();
   }
   
+  /**
+   * @see org.eclipse.emf.diffmerge.util.OperationMetrics.Provider#getMetrics()
+   */
+  public OperationMetrics getMetrics() {
+    return _metrics;
+  }
+  
   /**
    * Return a non-null progress monitor for this operation
    */
@@ -66,4 +83,34 @@ public abstract class AbstractExpensiveOperation implements IExpensiveOperation
     return run();
   }
   
+  /**
+   * Set the metrics where this operation records its performance, so that
+   * the metrics of several operations can be cumulated
+   * @param metrics_p non-null metrics
+   */
+  public void setMetrics(OperationMetrics metrics_p) {
+    _metrics = metrics_p;
+  }
+  
+  /**
+   * Wait for the given asynchronous computation to terminate, propagating its failure if any
+   * @param future_p a non-null future
+   * @return the potentially null result of the computation
+   */
+  protected <T> T waitFor(Future<T> future_p) {
+    try {
+      return future_p.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new OperationCanceledException();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException)cause;
+      if (cause instanceof Error)
+        throw (Error)cause;
+      throw new IllegalStateException(cause);
+    }
+  }
+  
 }
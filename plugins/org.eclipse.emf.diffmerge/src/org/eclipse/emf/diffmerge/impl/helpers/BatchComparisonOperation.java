@@ -0,0 +1,624 @@
+/*********************************************************************
+ * Copyright (c) 2010-2019 Thales Global Services S.A.S.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    Thales Global Services S.A.S. - initial API and implementation
+ **********************************************************************/
+package org.eclipse.emf.diffmerge.impl.helpers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.MultiStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.diffmerge.EMFDiffMergePlugin;
+import org.eclipse.emf.diffmerge.Messages;
+import org.eclipse.emf.diffmerge.api.IComparison;
+import org.eclipse.emf.diffmerge.api.IDiffPolicy;
+import org.eclipse.emf.diffmerge.api.IMatchPolicy;
+import org.eclipse.emf.diffmerge.api.IMergePolicy;
+import org.eclipse.emf.diffmerge.api.Role;
+import org.eclipse.emf.diffmerge.api.scopes.IEditableModelScope;
+import org.eclipse.emf.diffmerge.api.scopes.IPersistentModelScope;
+import org.eclipse.emf.diffmerge.diffdata.impl.EComparisonImpl;
+import org.eclipse.emf.diffmerge.impl.policies.ConfigurableDiffPolicy;
+import org.eclipse.emf.diffmerge.impl.policies.ConfigurableMatchPolicy;
+import org.eclipse.emf.diffmerge.impl.policies.ConfigurableMergePolicy;
+import org.eclipse.emf.diffmerge.impl.scopes.FragmentedModelScope;
+import org.eclipse.emf.diffmerge.util.OperationMetrics;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.resource.ResourceSet;
+import org.eclipse.emf.ecore.resource.impl.ResourceSetImpl;
+import org.eclipse.osgi.util.NLS;
+
+
+/**
+ * An operation which computes a batch of independent comparisons without user
+ * interface, typically for checking the consistency of many pairs or triples of models.
+ * Comparisons are computed on a bounded pool of threads. Each comparison loads its
+ * scopes in its own resource set, which is unloaded as soon as the comparison has been
+ * summarized, so the number of comparisons whose models are in memory at the same time
+ * never exceeds the given maximum.
+ * Failures are reported per comparison and do not interrupt the batch.
+ * @see ComparisonTask
+ * @see ComparisonSummary
+ * @author Olivier Constant
+ */
+public class BatchComparisonOperation extends AbstractExpensiveOperation {
+
+  /** The non-null, potentially empty list of comparisons to compute */
+  private final List<ComparisonTask> _tasks;
+
+  /** The strictly positive maximal number of threads */
+  private final int _nbThreads;
+
+  /** The strictly positive maximal number of comparisons loaded at the same time */
+  private final int _maxLoadedComparisons;
+
+  /** The non-null summaries of the comparisons, in the order of the tasks, with null
+   * values for comparisons not computed yet */
+  private final ComparisonSummary[] _summaries;
+
+
+  /**
+   * The definition of a comparison in a batch: the URIs of its models and its policies.
+   * Configurable policies are cloned for every comparison so that they can be shared
+   * among tasks, unless they belong to subclasses which do not override clone();
+   * other policies must be thread-safe if they are shared.
+   * Scopes, resource sets and comparisons can be customized by overriding the
+   * corresponding factory methods.
+   */
+  public static class ComparisonTask {
+    /** The non-null name of the comparison */
+    private final String _name;
+    /** The non-null URI of the target model */
+    private final URI _targetURI;
+    /** The non-null URI of the reference model */
+    private final URI _referenceURI;
+    /** The potentially null URI of the ancestor model, where null stands for two-way */
+    private final URI _ancestorURI;
+    /** The potentially null match policy, where null stands for default */
+    private final IMatchPolicy _matchPolicy;
+    /** The potentially null diff policy, where null stands for default */
+    private final IDiffPolicy _diffPolicy;
+    /** The potentially null merge policy, where null stands for default */
+    private final IMergePolicy _mergePolicy;
+
+    /**
+     * Constructor for a comparison with default policies
+     * @param name_p a non-null name for the comparison
+     * @param targetURI_p the non-null URI of the target model
+     * @param referenceURI_p the non-null URI of the reference model
+     * @param ancestorURI_p the URI of the ancestor model, or null for a two-way comparison
+     */
+    public ComparisonTask(String name_p, URI targetURI_p, URI referenceURI_p,
+        URI ancestorURI_p) {
+      this(name_p, targetURI_p, referenceURI_p, ancestorURI_p, null, null, null);
+    }
+
+    /**
+     * Constructor
+     * @param name_p a non-null name for the comparison
+     * @param targetURI_p the non-null URI of the target model
+     * @param referenceURI_p the non-null URI of the reference model
+     * @param ancestorURI_p the URI of the ancestor model, or null for a two-way comparison
+     * @param matchPolicy_p an optional match policy (null stands for default)
+     * @param diffPolicy_p an optional diff policy (null stands for default)
+     * @param mergePolicy_p an optional merge policy (null stands for default)
+     */
+    public ComparisonTask(String name_p, URI targetURI_p, URI referenceURI_p,
+        URI ancestorURI_p, IMatchPolicy matchPolicy_p, IDiffPolicy diffPolicy_p,
+        IMergePolicy mergePolicy_p) {
+      _name = name_p;
+      _targetURI = targetURI_p;
+      _referenceURI = referenceURI_p;
+      _ancestorURI = ancestorURI_p;
+      _matchPolicy = matchPolicy_p;
+      _diffPolicy = diffPolicy_p;
+      _mergePolicy = mergePolicy_p;
+    }
+
+    /**
+     * Create and return a comparison between the given scopes
+     * @param targetScope_p a non-null scope
+     * @param referenceScope_p a non-null scope
+     * @param ancestorScope_p a potentially null scope
+     * @return a non-null comparison
+     */
+    protected IComparison.Editable createComparison(IEditableModelScope targetScope_p,
+        IEditableModelScope referenceScope_p, IEditableModelScope ancestorScope_p) {
+      return new EComparisonImpl(targetScope_p, referenceScope_p, ancestorScope_p);
+    }
+
+    /**
+     * Create and return the resource set where the scopes of the comparison are loaded
+     * @return a non-null, empty resource set
+     */
+    protected ResourceSet createResourceSet() {
+      return new ResourceSetImpl();
+    }
+
+    /**
+     * Create and return the scope for the model at the given URI in the given resource set
+     * @param uri_p a non-null URI
+     * @param resourceSet_p a non-null resource set
+     * @return a non-null scope
+     */
+    protected IEditableModelScope createScope(URI uri_p, ResourceSet resourceSet_p) {
+      return new FragmentedModelScope(uri_p, resourceSet_p, true);
+    }
+
+    /**
+     * Return the URI of the ancestor model, if any
+     * @return a potentially null URI, where null stands for a two-way comparison
+     */
+    public URI getAncestorURI() {
+      return _ancestorURI;
+    }
+
+    /**
+     * Return the diff policy to use for one computation of the comparison
+     * @return a potentially null policy, where null stands for default
+     */
+    public IDiffPolicy getDiffPolicy() {
+      IDiffPolicy result = _diffPolicy;
+      if (result instanceof ConfigurableDiffPolicy) {
+        try {
+          ConfigurableDiffPolicy clone = ((ConfigurableDiffPolicy)result).clone();
+          // Subclasses which do not override clone() are shared as is
+          if (clone.getClass() == result.getClass())
+            result = clone;
+        } catch (CloneNotSupportedException e) {
+          // Policy shared as is
+        }
+      }
+      return result;
+    }
+
+    /**
+     * Return the match policy to use for one computation of the comparison
+     * @return a potentially null policy, where null stands for default
+     */
+    public IMatchPolicy getMatchPolicy() {
+      IMatchPolicy result = _matchPolicy;
+      if (result instanceof ConfigurableMatchPolicy) {
+        try {
+          ConfigurableMatchPolicy clone = ((ConfigurableMatchPolicy)result).clone();
+          // Subclasses which do not override clone() are shared as is
+          if (clone.getClass() == result.getClass())
+            result = clone;
+        } catch (CloneNotSupportedException e) {
+          // Policy shared as is
+        }
+      }
+      return result;
+    }
+
+    /**
+     * Return the merge policy to use for one computation of the comparison
+     * @return a potentially null policy, where null stands for default
+     */
+    public IMergePolicy getMergePolicy() {
+      IMergePolicy result = _mergePolicy;
+      if (result instanceof ConfigurableMergePolicy) {
+        try {
+          ConfigurableMergePolicy clone = ((ConfigurableMergePolicy)result).clone();
+          // Subclasses which do not override clone() are shared as is
+          if (clone.getClass() == result.getClass())
+            result = clone;
+        } catch (CloneNotSupportedException e) {
+          // Policy shared as is
+        }
+      }
+      return result;
+    }
+
+    /**
+     * Return the name of the comparison
+     * @return a non-null string
+     */
+    public String getName() {
+      return _name;
+    }
+
+    /**
+     * Return the URI of the reference model
+     * @return a non-null URI
+     */
+    public URI getReferenceURI() {
+      return _referenceURI;
+    }
+
+    /**
+     * Return the URI of the target model
+     * @return a non-null URI
+     */
+    public URI getTargetURI() {
+      return _targetURI;
+    }
+  }
+
+
+  /**
+   * The outcome of a comparison in a batch, which remains available once the
+   * models of the comparison have been unloaded.
+   */
+  public static class ComparisonSummary {
+    /** The non-null task of the comparison */
+    private final ComparisonTask _task;
+    /** The non-null status of the comparison */
+    private final IStatus _status;
+    /** The number of differences, or -1 if the comparison was not computed */
+    private final int _nbDifferences;
+    /** The number of differences which are not containment differences, or -1 if the
+     * comparison was not computed */
+    private final int _nbNoContainmentDifferences;
+    /** The non-null map from roles to numbers of duplicate match IDs */
+    private final Map<Role, Integer> _nbDuplicateMatchIDs;
+    /** The duration of the loading of the models in nanoseconds */
+    private final long _loadingDuration;
+    /** The duration of the computation of the comparison in nanoseconds */
+    private final long _computationDuration;
+    /** The non-null metrics of the comparison */
+    private final OperationMetrics _metrics;
+
+    /**
+     * Constructor
+     * @param task_p the non-null task of the comparison
+     * @param status_p the non-null status of the comparison
+     * @param comparison_p the comparison, or null if it could not be computed
+     * @param loadingDuration_p the duration of the loading of the models in nanoseconds
+     * @param computationDuration_p the duration of the computation in nanoseconds
+     */
+    public ComparisonSummary(ComparisonTask task_p, IStatus status_p,
+        IComparison comparison_p, long loadingDuration_p, long computationDuration_p) {
+      _task = task_p;
+      _status = status_p;
+      _nbDuplicateMatchIDs = new EnumMap<Role, Integer>(Role.class);
+      _loadingDuration = loadingDuration_p;
+      _computationDuration = computationDuration_p;
+      _metrics = new OperationMetrics();
+      if (comparison_p != null && status_p.isOK()) {
+        _nbDifferences = comparison_p.getNbDifferences();
+        _nbNoContainmentDifferences = comparison_p.getNbNoContainmentDifferences();
+        for (Role role : Role.values()) {
+          int nbDuplicates = comparison_p.getDuplicateMatchIDs(role).size();
+          if (nbDuplicates > 0)
+            _nbDuplicateMatchIDs.put(role, Integer.valueOf(nbDuplicates));
+        }
+        if (comparison_p instanceof OperationMetrics.Provider)
+          _metrics.addAll(((OperationMetrics.Provider)comparison_p).getMetrics());
+      } else {
+        _nbDifferences = -1;
+        _nbNoContainmentDifferences = -1;
+      }
+      _metrics.addPhaseDuration(OperationMetrics.PHASE_LOADING, loadingDuration_p);
+    }
+
+    /**
+     * Return the duration of the computation of the comparison, excluding loading
+     * @return a positive or zero duration in nanoseconds
+     */
+    public long getComputationDuration() {
+      return _computationDuration;
+    }
+
+    /**
+     * Return the duration of the loading of the models of the comparison
+     * @return a positive or zero duration in nanoseconds
+     */
+    public long getLoadingDuration() {
+      return _loadingDuration;
+    }
+
+    /**
+     * Return the metrics of the comparison, including the loading of its models
+     * @return non-null metrics
+     */
+    public OperationMetrics getMetrics() {
+      return _metrics;
+    }
+
+    /**
+     * Return the number of differences of the comparison
+     * @return a positive or zero int, or -1 if the comparison was not computed
+     */
+    public int getNbDifferences() {
+      return _nbDifferences;
+    }
+
+    /**
+     * Return the number of duplicate match IDs in the model of the given role
+     * @param role_p a non-null role
+     * @return a positive or zero int
+     */
+    public int getNbDuplicateMatchIDs(Role role_p) {
+      Integer result = _nbDuplicateMatchIDs.get(role_p);
+      return result == null? 0: result.intValue();
+    }
+
+    /**
+     * Return the number of differences which are not containment differences
+     * @return a positive or zero int, or -1 if the comparison was not computed
+     */
+    public int getNbNoContainmentDifferences() {
+      return _nbNoContainmentDifferences;
+    }
+
+    /**
+     * Return the status of the comparison
+     * @return a non-null status
+     */
+    public IStatus getStatus() {
+      return _status;
+    }
+
+    /**
+     * Return the task of the comparison
+     * @return a non-null task
+     */
+    public ComparisonTask getTask() {
+      return _task;
+    }
+
+    /**
+     * Return whether the comparison was computed and its match policy was suitable
+     * to its models, i.e., no duplicate match ID was found
+     * @see IComparison#isConsistent()
+     */
+    public boolean isConsistent() {
+      return _status.isOK() && _nbDuplicateMatchIDs.isEmpty();
+    }
+  }
+
+
+  /**
+   * Constructor for a batch which uses as many threads as processors
+   * @param tasks_p a non-null, potentially empty list of comparisons to compute
+   */
+  public BatchComparisonOperation(List<? extends ComparisonTask> tasks_p) {
+    this(tasks_p, Runtime.getRuntime().availableProcessors(),
+        Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Constructor
+   * @param tasks_p a non-null, potentially empty list of comparisons to compute
+   * @param nbThreads_p the strictly positive maximal number of threads
+   * @param maxLoadedComparisons_p the strictly positive maximal number of comparisons
+   *          whose models are loaded at the same time
+   */
+  public BatchComparisonOperation(List<? extends ComparisonTask> tasks_p,
+      int nbThreads_p, int maxLoadedComparisons_p) {
+    _tasks = new ArrayList<ComparisonTask>(tasks_p);
+    _nbThreads = Math.max(1, nbThreads_p);
+    _maxLoadedComparisons = Math.max(1, maxLoadedComparisons_p);
+    _summaries = new ComparisonSummary[_tasks.size()];
+  }
+
+  /**
+   * Compute the given comparison task and return its summary, unloading its models
+   * before returning. Failures are reported in the summary.
+   * This method is called concurrently on different tasks.
+   * @param task_p a non-null task
+   * @return a non-null summary
+   */
+  protected ComparisonSummary compare(ComparisonTask task_p) {
+    ResourceSet resourceSet = task_p.createResourceSet();
+    IComparison.Editable comparison = null;
+    IStatus status;
+    long loadingDuration = 0L;
+    long computationDuration = 0L;
+    try {
+      long start = System.nanoTime();
+      IEditableModelScope targetScope = task_p.createScope(task_p.getTargetURI(), resourceSet);
+      IEditableModelScope referenceScope = task_p.createScope(
+          task_p.getReferenceURI(), resourceSet);
+      IEditableModelScope ancestorScope = task_p.getAncestorURI() == null? null:
+        task_p.createScope(task_p.getAncestorURI(), resourceSet);
+      boolean loaded = load(targetScope) && load(referenceScope) &&
+          (ancestorScope == null || load(ancestorScope));
+      long end = System.nanoTime();
+      loadingDuration = end - start;
+      if (loaded) {
+        checkProgress();
+        start = end;
+        comparison = task_p.createComparison(targetScope, referenceScope, ancestorScope);
+        status = comparison.compute(task_p.getMatchPolicy(), task_p.getDiffPolicy(),
+            task_p.getMergePolicy(), new NullProgressMonitor() {
+              /**
+               * @see org.eclipse.core.runtime.NullProgressMonitor#isCanceled()
+               */
+              @Override
+              public boolean isCanceled() {
+                return getMonitor().isCanceled();
+              }
+            });
+        computationDuration = System.nanoTime() - start;
+      } else {
+        status = new Status(IStatus.ERROR, getPluginId(),
+            NLS.bind(Messages.BatchComparisonOperation_LoadingFailed, task_p.getName()));
+      }
+    } catch (OperationCanceledException e) {
+      throw e;
+    } catch (Exception e) {
+      status = new Status(IStatus.ERROR, getPluginId(),
+          NLS.bind(Messages.BatchComparisonOperation_Failed, task_p.getName()), e);
+    } finally {
+      unload(resourceSet);
+    }
+    return new ComparisonSummary(task_p, status, comparison, loadingDuration,
+        computationDuration);
+  }
+
+  /**
+   * Return the effective number of threads of the pool, which accounts for the maximal
+   * number of comparisons loaded at the same time since every thread loads the models
+   * of at most one comparison at a time
+   * @return a strictly positive int
+   */
+  protected int getNbThreads() {
+    return Math.max(1, Math.min(_tasks.size(), Math.min(_nbThreads, _maxLoadedComparisons)));
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.util.IExpensiveOperation#getOperationName()
+   */
+  public String getOperationName() {
+    return Messages.BatchComparisonOperation_Name;
+  }
+
+  /**
+   * Return the ID of the plug-in for the statuses of this operation, which also
+   * applies when the operation is run outside an OSGi framework
+   * @return a non-null string
+   */
+  protected String getPluginId() {
+    EMFDiffMergePlugin plugin = EMFDiffMergePlugin.getDefault();
+    return plugin != null? plugin.getPluginId(): EMFDiffMergePlugin.class.getPackage().getName();
+  }
+  
+  /**
+   * Return the summaries of the comparisons computed so far
+   * @return a non-null, unmodifiable list whose elements are in the order of the tasks
+   *          and are null for the comparisons which have not been computed
+   */
+  public List<ComparisonSummary> getSummaries() {
+    synchronized (_summaries) {
+      return Collections.unmodifiableList(Arrays.asList(_summaries.clone()));
+    }
+  }
+
+  /**
+   * Return the comparisons to compute
+   * @return a non-null, unmodifiable list
+   */
+  public List<ComparisonTask> getTasks() {
+    return Collections.unmodifiableList(_tasks);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.impl.helpers.AbstractExpensiveOperation#getWorkAmount()
+   */
+  @Override
+  protected int getWorkAmount() {
+    return _tasks.size();
+  }
+
+  /**
+   * Load the given scope if it is persistent
+   * @param scope_p a non-null scope
+   * @return whether the scope is loaded
+   * @throws Exception if loading failed
+   */
+  protected boolean load(IEditableModelScope scope_p) throws Exception {
+    boolean result = true;
+    if (scope_p instanceof IPersistentModelScope)
+      result = ((IPersistentModelScope)scope_p).load();
+    return result;
+  }
+
+  /**
+   * Record the given summary of a computed comparison
+   * @param index_p the index of the corresponding task
+   * @param summary_p a non-null summary
+   */
+  protected void record(int index_p, ComparisonSummary summary_p) {
+    synchronized (_summaries) {
+      _summaries[index_p] = summary_p;
+    }
+    OperationMetrics metrics = getMetrics();
+    metrics.addAll(summary_p.getMetrics());
+    metrics.incrementCounter(OperationMetrics.COUNTER_COMPARISONS);
+    if (summary_p.getNbDifferences() >= 0)
+      metrics.addToCounter(OperationMetrics.COUNTER_DIFFERENCES,
+          summary_p.getNbDifferences());
+    for (Role role : Role.values()) {
+      int nbDuplicates = summary_p.getNbDuplicateMatchIDs(role);
+      if (nbDuplicates > 0)
+        metrics.addToCounter(OperationMetrics.COUNTER_DUPLICATE_MATCH_IDS, nbDuplicates);
+    }
+    if (!summary_p.getStatus().isOK())
+      metrics.incrementCounter(OperationMetrics.COUNTER_FAILED_COMPARISONS);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.util.IExpensiveOperation#run()
+   */
+  public IStatus run() {
+    String pluginId = getPluginId();
+    MultiStatus result = new MultiStatus(pluginId, 0,
+        Messages.BatchComparisonOperation_Name, null);
+    if (_tasks.isEmpty())
+      return result;
+    ExecutorService executor = Executors.newFixedThreadPool(getNbThreads());
+    try {
+      CompletionService<Integer> completionService =
+          new ExecutorCompletionService<Integer>(executor);
+      for (int i = 0; i < _tasks.size(); i++) {
+        final int index = i;
+        completionService.submit(new Callable<Integer>() {
+          /**
+           * @see java.util.concurrent.Callable#call()
+           */
+          public Integer call() throws Exception {
+            checkProgress();
+            record(index, compare(_tasks.get(index)));
+            return Integer.valueOf(index);
+          }
+        });
+      }
+      for (int i = 0; i < _tasks.size(); i++) {
+        try {
+          waitFor(completionService.take());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new OperationCanceledException();
+        }
+        getMonitor().worked(1);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    for (ComparisonSummary summary : getSummaries()) {
+      if (!summary.getStatus().isOK())
+        result.add(summary.getStatus());
+      else if (!summary.isConsistent())
+        result.add(new Status(IStatus.WARNING, pluginId, NLS.bind(
+            Messages.BatchComparisonOperation_Inconsistent, summary.getTask().getName())));
+    }
+    return result;
+  }
+
+  /**
+   * Unload all the resources of the given resource set so that the memory they use
+   * can be reclaimed
+   * @param resourceSet_p a non-null resource set
+   */
+  protected void unload(ResourceSet resourceSet_p) {
+    List<Resource> resources = new ArrayList<Resource>(resourceSet_p.getResources());
+    for (Resource resource : resources) {
+      resource.unload();
+    }
+    resourceSet_p.getResources().clear();
+  }
+
+}
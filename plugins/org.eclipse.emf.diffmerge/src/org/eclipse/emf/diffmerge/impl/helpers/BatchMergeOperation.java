@@ -0,0 +1,608 @@
+/*********************************************************************
+ * Copyright (c) 2010-2019 Thales Global Services S.A.S.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    Thales Global Services S.A.S. - initial API and implementation
+ **********************************************************************/
+package org.eclipse.emf.diffmerge.impl.helpers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.emf.diffmerge.api.IComparison;
+import org.eclipse.emf.diffmerge.api.IMapping;
+import org.eclipse.emf.diffmerge.api.IMatch;
+import org.eclipse.emf.diffmerge.api.IMergeSelector;
+import org.eclipse.emf.diffmerge.api.Role;
+import org.eclipse.emf.diffmerge.api.diff.IDifference;
+import org.eclipse.emf.diffmerge.api.diff.IMergeableDifference;
+import org.eclipse.emf.diffmerge.util.OperationMetrics;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EStructuralFeature.Setting;
+
+
+/**
+ * A merge operation which builds a complete merge plan before modifying the scopes.
+ * Planning simulates the successive calls to IMergeableDifference#mergeTo(Role) that
+ * MergeOperation performs: each step of the plan is a difference to merge together
+ * with its required differences that are not merged yet and its implied differences,
+ * and the differences that cannot be merged are recorded as conflicts.
+ * Dependencies are walked in the dependency graphs of the comparison and every
+ * difference is walked at most once per role, instead of one transitive closure
+ * being computed per merged difference.
+ * The plan is then applied in order, so scope edits happen in the same order as
+ * with MergeOperation. Finally, the references are only completed for the matches
+ * completed by the operation and for the completed matches which reference them.
+ * Matches completed by former merges without reference completion are therefore
+ * not covered.
+ * Precondition: the differences can be merged independently of the merge selector
+ * being called before or after the merge of the previous differences.
+ * @see MergeOperation
+ * @see DifferenceDependencyGraph
+ * @author Olivier Constant
+ */
+public class BatchMergeOperation extends MergeOperation {
+
+  /** The non-null steps of the merge plan, in order (initially empty) */
+  protected final List<MergeStep> _plan;
+
+  /** The non-null differences which cannot be merged as requested (initially empty) */
+  protected final Collection<IDifference> _conflicts;
+
+  /** The non-null map from differences to the destination they are planned to be merged in */
+  private final Map<IMergeableDifference, Role> _plannedDestinations;
+
+  /** The non-null map from roles to walkers of explicit dependencies, built on demand */
+  private final Map<Role, DependencyWalker> _requiresWalkers;
+
+  /** The non-null map from roles to walkers of implicit dependencies, built on demand */
+  private final Map<Role, DependencyWalker> _impliesWalkers;
+
+
+  /**
+   * Constructor for a selected subset of differences
+   * @param comparison_p a non-null comparison
+   * @param differences_p a non-null, potentially empty set of differences to merge
+   * @param destination_p a role which is TARGET or REFERENCE
+   * @param updateReferences_p whether references of the elements added must be set
+   */
+  public BatchMergeOperation(IComparison comparison_p,
+      Collection<? extends IDifference> differences_p, Role destination_p,
+      boolean updateReferences_p) {
+    super(comparison_p, differences_p, destination_p, updateReferences_p);
+    _plan = new ArrayList<MergeStep>();
+    _conflicts = new ArrayList<IDifference>();
+    _plannedDestinations = new IdentityHashMap<IMergeableDifference, Role>();
+    _requiresWalkers = new EnumMap<Role, DependencyWalker>(Role.class);
+    _impliesWalkers = new EnumMap<Role, DependencyWalker>(Role.class);
+  }
+
+  /**
+   * Constructor for a global merger
+   * @param comparison_p a non-null comparison
+   * @param merger_p a non-null merger
+   * @param updateReferences_p whether references of the elements added must be set
+   */
+  public BatchMergeOperation(IComparison comparison_p, IMergeSelector merger_p,
+      boolean updateReferences_p) {
+    super(comparison_p, merger_p, updateReferences_p);
+    _plan = new ArrayList<MergeStep>();
+    _conflicts = new ArrayList<IDifference>();
+    _plannedDestinations = new IdentityHashMap<IMergeableDifference, Role>();
+    _requiresWalkers = new EnumMap<Role, DependencyWalker>(Role.class);
+    _impliesWalkers = new EnumMap<Role, DependencyWalker>(Role.class);
+  }
+
+  /**
+   * Apply the merge plan
+   * @return the non-null, potentially empty map from destination roles to the
+   *         non-null matches completed in those roles by the application of the plan
+   */
+  protected Map<Role, List<IMatch>> applyPlan() {
+    IMapping mapping = _comparison.getMapping();
+    Map<Role, Integer> formerNbCompleted = new EnumMap<Role, Integer>(Role.class);
+    for (Role role : Arrays.asList(Role.TARGET, Role.REFERENCE)) {
+      formerNbCompleted.put(
+          role, Integer.valueOf(mapping.getCompletedMatches(role).size()));
+    }
+    for (MergeStep step : _plan) {
+      checkProgress();
+      Role destination = step.getDestination();
+      IMergeableDifference.Editable difference = step.getDifference();
+      difference.markAsMergedIn(destination);
+      for (IMergeableDifference.Editable required : step.getRequired()) {
+        required.markAsMergedIn(destination);
+        required.doMergeIn(destination);
+        _actuallyMerged.add(required);
+      }
+      difference.doMergeIn(destination);
+      _actuallyMerged.add(difference);
+      for (IMergeableDifference.Editable implied : step.getImplied()) {
+        implied.markAsMergedIn(destination);
+        _actuallyMerged.add(implied);
+      }
+    }
+    Map<Role, List<IMatch>> result = new EnumMap<Role, List<IMatch>>(Role.class);
+    for (Map.Entry<Role, Integer> entry : formerNbCompleted.entrySet()) {
+      Collection<IMatch> completed = mapping.getCompletedMatches(entry.getKey());
+      int nbFormer = entry.getValue().intValue();
+      if (completed.size() > nbFormer) {
+        // Completed matches are ordered by completion
+        List<IMatch> newlyCompleted = new ArrayList<IMatch>(completed.size() - nbFormer);
+        Iterator<IMatch> it = completed.iterator();
+        for (int i = 0; i < nbFormer; i++) {
+          it.next();
+        }
+        while (it.hasNext()) {
+          newlyCompleted.add(it.next());
+        }
+        result.put(entry.getKey(), newlyCompleted);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Complete the references of the given newly completed matches in the given role,
+   * and of the formerly completed matches which refer to or contain their elements
+   * @param destination_p a role which is TARGET or REFERENCE
+   * @param newlyCompleted_p a non-null, non-empty list of matches completed in destination_p
+   */
+  protected void completeReferences(Role destination_p, List<IMatch> newlyCompleted_p) {
+    IMapping.Editable editableMapping = (IMapping.Editable)_comparison.getMapping();
+    if (!(editableMapping instanceof IMapping.Selective)) {
+      // References can only be completed for all completed matches
+      editableMapping.completeReferences(destination_p);
+      return;
+    }
+    IMapping.Selective mapping = (IMapping.Selective)editableMapping;
+    Role sourceRole = destination_p.opposite();
+    Set<IMatch> completed = Collections.newSetFromMap(new IdentityHashMap<IMatch, Boolean>());
+    completed.addAll(mapping.getCompletedMatches(destination_p));
+    Set<IMatch> touched = Collections.newSetFromMap(new IdentityHashMap<IMatch, Boolean>());
+    touched.addAll(newlyCompleted_p);
+    List<IMatch> toComplete = new ArrayList<IMatch>(newlyCompleted_p);
+    for (IMatch match : newlyCompleted_p) {
+      EObject element = match.get(sourceRole);
+      // Former elements whose references may now be completed
+      List<EObject> holders = new ArrayList<EObject>();
+      holders.add(element.eContainer());
+      for (Setting setting : mapping.getCrossReferences(element, sourceRole)) {
+        holders.add(setting.getEObject());
+      }
+      for (EObject holder : holders) {
+        IMatch holderMatch = mapping.getMatchFor(holder, sourceRole);
+        if (holderMatch != null && completed.contains(holderMatch) && touched.add(holderMatch))
+          toComplete.add(holderMatch);
+      }
+    }
+    mapping.completeReferences(destination_p, toComplete);
+  }
+
+  /**
+   * Return the conflicts found while planning, i.e., the differences which
+   * cannot be merged as requested
+   * @return a non-null, potentially empty, unmodifiable collection
+   */
+  public Collection<IDifference> getConflicts() {
+    return Collections.unmodifiableCollection(_conflicts);
+  }
+
+  /**
+   * Return the dependency graph of the comparison for the given role
+   * @param role_p a role which is TARGET or REFERENCE
+   * @param isExplicit_p whether explicit or implicit dependencies are considered
+   * @return a non-null graph
+   */
+  protected DifferenceDependencyGraph getDependencyGraph(Role role_p, boolean isExplicit_p) {
+    DifferenceDependencyGraph result;
+    if (_comparison instanceof DifferenceDependencyGraph.Provider)
+      result = ((DifferenceDependencyGraph.Provider)_comparison).getDependencyGraph(
+          role_p, isExplicit_p);
+    else
+      result = new DifferenceDependencyGraph(_comparison, role_p, isExplicit_p);
+    return result;
+  }
+
+  /**
+   * Return the walker of dependencies of the given kind for the given role
+   * @param role_p a role which is TARGET or REFERENCE
+   * @param isExplicit_p whether explicit or implicit dependencies are considered
+   * @return a non-null walker
+   */
+  protected DependencyWalker getDependencyWalker(Role role_p, boolean isExplicit_p) {
+    Map<Role, DependencyWalker> walkers = isExplicit_p? _requiresWalkers: _impliesWalkers;
+    DependencyWalker result = walkers.get(role_p);
+    if (result == null) {
+      result = new DependencyWalker(getDependencyGraph(role_p, isExplicit_p));
+      walkers.put(role_p, result);
+    }
+    return result;
+  }
+
+  /**
+   * Return the merge plan
+   * @return a non-null, potentially empty, unmodifiable list
+   */
+  public List<MergeStep> getPlan() {
+    return Collections.unmodifiableList(_plan);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.impl.helpers.MergeOperation#getWorkAmount()
+   */
+  @Override
+  protected int getWorkAmount() {
+    // 1 more for applying the plan
+    return super.getWorkAmount() + 1;
+  }
+
+  /**
+   * Return whether the given difference would be merged in the given role
+   * if the plan built so far were applied
+   * @param difference_p a non-null difference
+   * @param destination_p a role which is TARGET or REFERENCE
+   */
+  protected boolean isPlannedAsMergedIn(IMergeableDifference difference_p,
+      Role destination_p) {
+    Role planned = _plannedDestinations.get(difference_p);
+    return (planned != null? planned: difference_p.getMergeDestination()) == destination_p;
+  }
+
+  /**
+   * Return whether the given difference would be merged
+   * if the plan built so far were applied
+   * @param difference_p a non-null difference
+   */
+  protected boolean isPlannedAsMerged(IMergeableDifference difference_p) {
+    return _plannedDestinations.containsKey(difference_p) || difference_p.isMerged();
+  }
+
+  /**
+   * Return whether the given difference could be merged in the given role
+   * if the plan built so far were applied, as in IDifference#canMergeTo(Role)
+   * @param difference_p a non-null difference
+   * @param destination_p a role which is TARGET or REFERENCE
+   */
+  protected boolean isPlannedAsMergeableTo(IMergeableDifference difference_p,
+      Role destination_p) {
+    return !_plannedDestinations.containsKey(difference_p) &&
+        difference_p.canMergeTo(destination_p);
+  }
+
+  /**
+   * Return whether the given difference passes the merge checks in the given role
+   * if the plan built so far were applied, i.e., whether it is merged in that role
+   * or can be merged in it
+   * @param difference_p a non-null difference
+   * @param destination_p a role which is TARGET or REFERENCE
+   */
+  protected boolean isPlannedAsValidFor(IMergeableDifference difference_p,
+      Role destination_p) {
+    return isPlannedAsMergedIn(difference_p, destination_p) ||
+        isPlannedAsMergeableTo(difference_p, destination_p);
+  }
+
+  /**
+   * Plan the merge of the given difference in the given role as
+   * IMergeableDifference#mergeTo(Role) would perform it after the plan built so far
+   * @param difference_p a non-null difference
+   * @param destination_p a role which is TARGET or REFERENCE
+   */
+  protected void planMerge(IMergeableDifference difference_p, Role destination_p) {
+    if (!isPlannedAsValidFor(difference_p, destination_p)) {
+      _conflicts.add(difference_p);
+      return;
+    }
+    if (isPlannedAsMerged(difference_p))
+      return;
+    DependencyWalker requiresWalker = getDependencyWalker(destination_p, true);
+    DependencyWalker impliesWalker = getDependencyWalker(destination_p, false);
+    List<IMergeableDifference> allRequired;
+    boolean isWalked = requiresWalker.covers(difference_p);
+    if (isWalked) {
+      // Only the dependencies which have not been walked yet may not be merged
+      allRequired = requiresWalker.walk(Collections.singleton(difference_p));
+    } else {
+      allRequired = new ArrayList<IMergeableDifference>(
+          difference_p.getRequiresDependencies(destination_p));
+    }
+    for (IMergeableDifference required : allRequired) {
+      if (!isPlannedAsValidFor(required, destination_p)) {
+        _conflicts.add(difference_p);
+        if (isWalked)
+          requiresWalker.cancel();
+        return;
+      }
+    }
+    List<IMergeableDifference> starts = new ArrayList<IMergeableDifference>(
+        allRequired.size() + 1);
+    starts.add(difference_p);
+    starts.addAll(allRequired);
+    List<IMergeableDifference> allImplied;
+    if (isWalked && impliesWalker.coversAll(starts)) {
+      requiresWalker.commit();
+      allImplied = impliesWalker.walk(starts);
+      impliesWalker.commit();
+    } else {
+      if (isWalked)
+        requiresWalker.cancel();
+      allImplied = new ArrayList<IMergeableDifference>(
+          difference_p.getImpliesDependencies(destination_p));
+    }
+    // Recording
+    MergeStep step = new MergeStep(difference_p, destination_p);
+    _plannedDestinations.put(difference_p, destination_p);
+    for (IMergeableDifference required : allRequired) {
+      if (!isPlannedAsMerged(required)) {
+        _plannedDestinations.put(required, destination_p);
+        step.getRequired().add((IMergeableDifference.Editable)required);
+      }
+    }
+    for (IMergeableDifference implied : allImplied) {
+      if (!isPlannedAsMerged(implied)) {
+        _plannedDestinations.put(implied, destination_p);
+        step.getImplied().add((IMergeableDifference.Editable)implied);
+      }
+    }
+    _plan.add(step);
+  }
+
+  /**
+   * Build the merge plan for the whole comparison with a merger
+   */
+  protected void planOnComparison() {
+    for (IMatch match : _comparison.getMapping().getContents()) {
+      for (IDifference difference : match.getAllDifferences()) {
+        checkProgress();
+        Role mergeDirection = _merger.getMergeDirection(difference);
+        if (mergeDirection != null && difference instanceof IMergeableDifference &&
+            isPlannedAsMergeableTo((IMergeableDifference)difference, mergeDirection))
+          planMerge((IMergeableDifference)difference, mergeDirection);
+      }
+      getMonitor().worked(1);
+    }
+  }
+
+  /**
+   * Build the merge plan for a selected subset of differences
+   */
+  protected void planOnSet() {
+    for (IDifference difference : _toMerge) {
+      checkProgress();
+      if (difference instanceof IMergeableDifference)
+        planMerge((IMergeableDifference)difference, _destinationRole);
+      getMonitor().worked(1);
+    }
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.impl.helpers.MergeOperation#run()
+   */
+  @Override
+  public IStatus run() {
+    getMonitor().worked(1);
+    long start = System.nanoTime();
+    if (isGlobal())
+      planOnComparison();
+    else
+      planOnSet();
+    long planned = System.nanoTime();
+    getMetrics().addPhaseDuration(OperationMetrics.PHASE_MERGE_PLANNING, planned - start);
+    getMetrics().addToCounter(OperationMetrics.COUNTER_MERGE_CONFLICTS, _conflicts.size());
+    Map<Role, List<IMatch>> newlyCompleted = applyPlan();
+    getMetrics().addPhaseDuration(OperationMetrics.PHASE_MERGE, System.nanoTime() - planned);
+    getMetrics().addToCounter(
+        OperationMetrics.COUNTER_MERGED_DIFFERENCES, _actuallyMerged.size());
+    getMonitor().worked(1);
+    if (_updateReferences) {
+      checkProgress();
+      start = System.nanoTime();
+      for (Map.Entry<Role, List<IMatch>> entry : newlyCompleted.entrySet()) {
+        completeReferences(entry.getKey(), entry.getValue());
+      }
+      getMetrics().addPhaseDuration(
+          OperationMetrics.PHASE_REFERENCE_COMPLETION, System.nanoTime() - start);
+      getMonitor().worked(1);
+    }
+    return Status.OK_STATUS;
+  }
+
+
+  /**
+   * A step of a merge plan: a difference to merge in a given role, preceded by
+   * its required differences and followed by its implied differences.
+   */
+  public static class MergeStep {
+
+    /** The non-null difference to merge */
+    private final IMergeableDifference.Editable _difference;
+
+    /** The non-null destination role */
+    private final Role _destination;
+
+    /** The non-null, modifiable list of required differences to merge before, in order */
+    private final List<IMergeableDifference.Editable> _required;
+
+    /** The non-null, modifiable list of implied differences to mark as merged after */
+    private final List<IMergeableDifference.Editable> _implied;
+
+    /**
+     * Constructor
+     * @param difference_p a non-null difference
+     * @param destination_p a role which is TARGET or REFERENCE
+     */
+    public MergeStep(IMergeableDifference difference_p, Role destination_p) {
+      _difference = (IMergeableDifference.Editable)difference_p;
+      _destination = destination_p;
+      _required = new ArrayList<IMergeableDifference.Editable>(0);
+      _implied = new ArrayList<IMergeableDifference.Editable>(0);
+    }
+
+    /**
+     * Return the destination role of this step
+     * @return a role which is TARGET or REFERENCE
+     */
+    public Role getDestination() {
+      return _destination;
+    }
+
+    /**
+     * Return the difference to merge in this step
+     * @return a non-null difference
+     */
+    public IMergeableDifference.Editable getDifference() {
+      return _difference;
+    }
+
+    /**
+     * Return the implied differences to mark as merged after the difference
+     * @return a non-null, modifiable list
+     */
+    public List<IMergeableDifference.Editable> getImplied() {
+      return _implied;
+    }
+
+    /**
+     * Return the required differences to merge before the difference, in order
+     * @return a non-null, modifiable list
+     */
+    public List<IMergeableDifference.Editable> getRequired() {
+      return _required;
+    }
+  }
+
+
+  /**
+   * A walker of a dependency graph which visits every node at most once:
+   * the nodes that have been visited in committed walks are not visited again,
+   * and neither are their dependencies since they have been visited with them.
+   */
+  protected static class DependencyWalker {
+
+    /** The non-null dependency graph */
+    private final DifferenceDependencyGraph _graph;
+
+    /** The non-null set of nodes visited by committed walks */
+    private final BitSet _visited;
+
+    /** The non-null nodes visited by the current walk, if any */
+    private int[] _walked;
+
+    /** The number of nodes in _walked */
+    private int _nbWalked;
+
+    /**
+     * Constructor
+     * @param graph_p a non-null dependency graph
+     */
+    public DependencyWalker(DifferenceDependencyGraph graph_p) {
+      _graph = graph_p;
+      _visited = new BitSet(graph_p.getNbNodes());
+      _walked = new int[16];
+      _nbWalked = 0;
+    }
+
+    /**
+     * Forget the nodes visited by the current walk
+     */
+    public void cancel() {
+      for (int i = 0; i < _nbWalked; i++) {
+        _visited.clear(_walked[i]);
+      }
+      _nbWalked = 0;
+    }
+
+    /**
+     * Record the nodes visited by the current walk as definitely visited
+     */
+    public void commit() {
+      _nbWalked = 0;
+    }
+
+    /**
+     * Return whether the given difference is covered by the graph
+     * @param difference_p a non-null difference
+     */
+    public boolean covers(IMergeableDifference difference_p) {
+      return _graph.contains(difference_p);
+    }
+
+    /**
+     * Return whether all the given differences are covered by the graph
+     * @param differences_p a non-null collection of differences
+     */
+    public boolean coversAll(Collection<? extends IMergeableDifference> differences_p) {
+      return _graph.containsAll(differences_p);
+    }
+
+    /**
+     * Visit the given node if it has not been visited yet
+     * @param node_p a valid node index
+     */
+    private void visit(int node_p) {
+      if (!_visited.get(node_p)) {
+        _visited.set(node_p);
+        if (_nbWalked == _walked.length)
+          _walked = Arrays.copyOf(_walked, _nbWalked + (_nbWalked >> 1));
+        _walked[_nbWalked++] = node_p;
+      }
+    }
+
+    /**
+     * Walk the dependencies of the given differences which have not been visited
+     * yet and return them. The walk must then be committed or canceled.
+     * @param starts_p a non-null collection of differences covered by the graph
+     * @return a non-null, modifiable list of differences which does not contain the
+     *         given differences, in topological order (dependencies first)
+     */
+    public List<IMergeableDifference> walk(
+        Collection<? extends IMergeableDifference> starts_p) {
+      int[] starts = new int[starts_p.size()];
+      int nbStarts = 0;
+      for (IMergeableDifference start : starts_p) {
+        starts[nbStarts++] = _graph.indexOf(start);
+      }
+      for (int start : starts) {
+        visit(start);
+      }
+      // Breadth-first, since _walked is the queue
+      for (int i = 0; i < _nbWalked; i++) {
+        for (int dependency : _graph.getDirectDependencies(_walked[i])) {
+          visit(dependency);
+        }
+      }
+      int[] ranks = new int[_nbWalked];
+      int nbRanks = 0;
+      Arrays.sort(starts);
+      for (int i = 0; i < _nbWalked; i++) {
+        int node = _walked[i];
+        if (Arrays.binarySearch(starts, node) < 0)
+          ranks[nbRanks++] = _graph.getRank(node);
+      }
+      Arrays.sort(ranks, 0, nbRanks);
+      List<IMergeableDifference> result = new ArrayList<IMergeableDifference>(nbRanks);
+      for (int i = 0; i < nbRanks; i++) {
+        result.add(_graph.getDifference(_graph.getNodeAt(ranks[i])));
+      }
+      return result;
+    }
+  }
+
+}
@@ -11,6 +11,8 @@
  **********************************************************************/
 package org.eclipse.emf.diffmerge.impl.helpers;
 
+import java.util.Collection;
+
 import org.eclipse.emf.diffmerge.api.IMapping;
 import org.eclipse.emf.diffmerge.api.IMatch;
 import org.eclipse.emf.diffmerge.api.IMergePolicy;
@@ -74,6 +76,20 @@ public class BidirectionalComparisonCopier {
     involvedCopier.completeReferences(mapping_p.getComparison());
   }
   
+  /**
+   * Complete the references of the given completed elements in the given role
+   * @param mapping_p a non-null mapping
+   * @param role_p a role which is TARGET or REFERENCE
+   * @param matches_p a non-null collection of matches which have been completed in role_p
+   */
+  public void completeReferences(IMapping.Editable mapping_p, Role role_p,
+      Collection<IMatch> matches_p) {
+    UnidirectionalComparisonCopier involvedCopier =
+      (role_p == Role.TARGET)? _referenceToTargetCopier:
+        _targetToReferenceCopier;
+    involvedCopier.completeReferences(mapping_p.getComparison(), matches_p);
+  }
+  
   /**
    * Handle ID copy for the given target element from the given target scope
    * according to the given source element from the given source scope and
@@ -0,0 +1,225 @@
+/*********************************************************************
+ * Copyright (c) 2010-2019 Thales Global Services S.A.S.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    Thales Global Services S.A.S. - initial API and implementation
+ **********************************************************************/
+package org.eclipse.emf.diffmerge.impl.helpers;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.eclipse.emf.diffmerge.api.IMapping;
+import org.eclipse.emf.diffmerge.api.IMatch;
+import org.eclipse.emf.diffmerge.api.Role;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.EStructuralFeature.Setting;
+import org.eclipse.emf.ecore.InternalEObject;
+import org.eclipse.emf.ecore.util.EContentsEList;
+import org.eclipse.emf.ecore.util.ECrossReferenceEList;
+
+
+/**
+ * A frozen index of the cross-references that are not covered by differences
+ * in a given role of a mapping, i.e., the modifiable cross-references between
+ * elements of partial matches.
+ * The index is built from the partial matches of the mapping only, so its cost
+ * depends on the number of unmatched elements rather than on the size of the scope.
+ * The cross-references are stored as parallel arrays of holders and references
+ * grouped by referenced element, and settings are only obtained from the holders
+ * when the cross-references to an element are requested.
+ * @see IMapping#getCrossReferences(EObject, Role)
+ * @author Olivier Constant
+ */
+public class CrossReferenceIndex {
+
+  /** The initial capacity of the arrays while the index is being built */
+  private static final int INITIAL_CAPACITY = 16;
+
+  /** The non-null role covered by this index */
+  private final Role _role;
+
+  /** The non-null map from referenced elements to the [start, end[ ranges of their cross-references */
+  private Map<EObject, int[]> _ranges;
+
+  /** The non-null holders of the cross-references, grouped by referenced element */
+  private EObject[] _holders;
+
+  /** The non-null cross-references, at the same positions as their holders */
+  private EReference[] _references;
+
+
+  /**
+   * Constructor
+   * @param role_p a role which is TARGET or REFERENCE
+   */
+  public CrossReferenceIndex(Role role_p) {
+    _role = role_p;
+    clear();
+  }
+
+  /**
+   * Build this index from the given mapping, replacing its former contents
+   * @param mapping_p a non-null mapping
+   */
+  public void build(IMapping mapping_p) {
+    int size = 0;
+    EObject[] holders = new EObject[INITIAL_CAPACITY];
+    EReference[] references = new EReference[INITIAL_CAPACITY];
+    EObject[] values = new EObject[INITIAL_CAPACITY];
+    Map<EObject, int[]> ranges = new IdentityHashMap<EObject, int[]>();
+    // Collect the cross-references and count them per referenced element
+    for (IMatch match : mapping_p.getContents()) {
+      EObject holder = match.get(_role);
+      if (holder == null || !match.isPartial())
+        continue;
+      EContentsEList.FeatureIterator<EObject> it = getCrossReferences(holder);
+      while (it.hasNext()) {
+        EObject value = it.next();
+        IMatch valueMatch = mapping_p.getMatchFor(value, _role);
+        // Unidirectional, modifiable cross-references between unmatched elements
+        if (valueMatch != null && valueMatch.isPartial()) {
+          if (size == holders.length) {
+            int newLength = size + (size >> 1);
+            holders = Arrays.copyOf(holders, newLength);
+            references = Arrays.copyOf(references, newLength);
+            values = Arrays.copyOf(values, newLength);
+          }
+          holders[size] = holder;
+          references[size] = (EReference)it.feature();
+          values[size] = value;
+          size++;
+          int[] range = ranges.get(value);
+          if (range == null) {
+            range = new int[2];
+            ranges.put(value, range);
+          }
+          range[1]++;
+        }
+      }
+    }
+    // Turn counts into ranges
+    int start = 0;
+    for (int[] range : ranges.values()) {
+      int count = range[1];
+      range[0] = start;
+      range[1] = start;
+      start += count;
+    }
+    // Group the cross-references by referenced element, preserving their order
+    _holders = new EObject[size];
+    _references = new EReference[size];
+    for (int i = 0; i < size; i++) {
+      int[] range = ranges.get(values[i]);
+      int position = range[1]++;
+      _holders[position] = holders[i];
+      _references[position] = references[i];
+    }
+    _ranges = ranges;
+  }
+
+  /**
+   * Clear this index
+   */
+  public void clear() {
+    _ranges = Collections.emptyMap();
+    _holders = new EObject[0];
+    _references = new EReference[0];
+  }
+
+  /**
+   * Return the cross-references to the given element
+   * @param element_p a non-null element
+   * @return a non-null, potentially empty, unmodifiable collection
+   */
+  public Collection<Setting> get(EObject element_p) {
+    final int[] range = _ranges.get(element_p);
+    if (range == null)
+      return Collections.emptyList();
+    final EObject[] holders = _holders;
+    final EReference[] references = _references;
+    return new AbstractList<Setting>() {
+      /**
+       * @see java.util.AbstractList#get(int)
+       */
+      @Override
+      public Setting get(int index_p) {
+        if (index_p < 0 || index_p >= size())
+          throw new IndexOutOfBoundsException();
+        int position = range[0] + index_p;
+        // Many-valued features return their list, which is a setting
+        return ((InternalEObject)holders[position]).eSetting(references[position]);
+      }
+      /**
+       * @see java.util.AbstractCollection#size()
+       */
+      @Override
+      public int size() {
+        return range[1] - range[0];
+      }
+    };
+  }
+
+  /**
+   * Return an iterator over the values of the cross-references of the given element
+   * which must be considered by this index
+   * @param element_p a non-null element
+   * @return a non-null iterator
+   */
+  protected EContentsEList.FeatureIterator<EObject> getCrossReferences(EObject element_p) {
+    return new ECrossReferenceEList.FeatureIteratorImpl<EObject>(element_p) {
+      /**
+       * @see org.eclipse.emf.ecore.util.EContentsEList.FeatureIteratorImpl#isIncluded(org.eclipse.emf.ecore.EStructuralFeature)
+       */
+      @Override
+      protected boolean isIncluded(EStructuralFeature feature_p) {
+        return super.isIncludedEntry(feature_p) &&
+          CrossReferenceIndex.this.isIncluded((EReference)feature_p);
+      }
+      /**
+       * @see org.eclipse.emf.ecore.util.EContentsEList.FeatureIteratorImpl#resolve()
+       */
+      @Override
+      protected boolean resolve() {
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Return the role covered by this index
+   * @return TARGET or REFERENCE
+   */
+  public Role getRole() {
+    return _role;
+  }
+
+  /**
+   * Return whether the given cross-reference should be covered by this index
+   * @param reference_p a non-null cross-reference
+   */
+  protected boolean isIncluded(EReference reference_p) {
+    // Modifiable cross-references only
+    return reference_p.isChangeable() && !reference_p.isDerived();
+  }
+
+  /**
+   * Return the number of cross-references in this index
+   * @return a positive int
+   */
+  public int size() {
+    return _holders.length;
+  }
+
+}
@@ -15,14 +15,25 @@ package org.eclipse.emf.diffmerge.impl.helpers;
 import static org.eclipse.emf.diffmerge.api.Role.ANCESTOR;
 import static org.eclipse.emf.diffmerge.api.Role.REFERENCE;
 import static org.eclipse.emf.diffmerge.api.Role.TARGET;
-import static org.eclipse.emf.diffmerge.structures.IEqualityTester.BY_REFERENCE;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.emf.diffmerge.Messages;
 import org.eclipse.emf.diffmerge.api.IComparison;
@@ -38,12 +49,16 @@ import org.eclipse.emf.diffmerge.api.diff.IMergeableDifference;
 import org.eclipse.emf.diffmerge.api.diff.IReferenceValuePresence;
 import org.eclipse.emf.diffmerge.api.diff.IValuePresence;
 import org.eclipse.emf.diffmerge.api.scopes.IFeaturedModelScope;
+import org.eclipse.emf.diffmerge.impl.scopes.AbstractModelScope;
+import org.eclipse.emf.diffmerge.impl.scopes.FragmentedModelScope;
 import org.eclipse.emf.diffmerge.structures.IEqualityTester;
 import org.eclipse.emf.diffmerge.structures.common.FArrayList;
+import org.eclipse.emf.diffmerge.util.OperationMetrics;
 import org.eclipse.emf.ecore.EAttribute;
 import org.eclipse.emf.ecore.EClass;
 import org.eclipse.emf.ecore.EObject;
 import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EStructuralFeature;
 
 
 /**
@@ -52,6 +67,9 @@ import org.eclipse.emf.ecore.EReference;
  */
 public class DiffOperation extends AbstractExpensiveOperation {
   
+  /** The minimal number of matches for differences to be detected in parallel */
+  protected static final int PARALLEL_DETECTION_THRESHOLD = 1000;
+  
   /** The non-null diff policy */
   private final IDiffPolicy _diffPolicy;
   
@@ -67,6 +85,32 @@ public class DiffOperation extends AbstractExpensiveOperation {
   /** Whether the scope on the TARGET side is read-only */
   protected final boolean _isTargetScopeReadOnly;
   
+  /** The buffer of the value presences detected by the current thread if it is
+   * a detection worker, otherwise null */
+  private final ThreadLocal<List<DetectedValuePresence>> _detectionBuffer;
+  
+  /** The non-null, synchronized list of the counters of match look-ups of every
+   * thread, each being a pair (number of look-ups, number of hits) */
+  private final List<long[]> _matchLookupCounters;
+  
+  /** The counter of match look-ups of the current thread */
+  private final ThreadLocal<long[]> _matchLookupCounter;
+  
+  /** The duration in nanoseconds spent in setting dependencies so far */
+  private long _dependenciesDuration;
+  
+  /** The current nesting level of the setting of dependencies */
+  private int _dependenciesDepth;
+  
+  /** The duration in nanoseconds spent in computing digests */
+  private long _digestsDuration;
+  
+  /** The digests of the elements of the TARGET scope, or null if digests are not used */
+  private Map<EObject, Long> _targetDigests;
+  
+  /** The digests of the elements of the REFERENCE scope, or null if digests are not used */
+  private Map<EObject, Long> _referenceDigests;
+  
   
   /**
    * Constructor based on a comparison with a predefined mapping
@@ -82,6 +126,22 @@ public class DiffOperation extends AbstractExpensiveOperation {
     _mergePolicy = mergePolicy_p;
     _isReferenceScopeReadOnly = getComparison().getScope(REFERENCE).isReadOnly();
     _isTargetScopeReadOnly = getComparison().getScope(TARGET).isReadOnly();
+    _detectionBuffer = new ThreadLocal<List<DetectedValuePresence>>();
+    _matchLookupCounters = Collections.synchronizedList(new ArrayList<long[]>());
+    _matchLookupCounter = new ThreadLocal<long[]>() {
+      /**
+       * @see java.lang.ThreadLocal#initialValue()
+       */
+      @Override
+      protected long[] initialValue() {
+        long[] result = new long[2];
+        _matchLookupCounters.add(result);
+        return result;
+      }
+    };
+    _dependenciesDuration = 0L;
+    _dependenciesDepth = 0;
+    _digestsDuration = 0L;
   }
   
   /**
@@ -110,13 +170,22 @@ public class DiffOperation extends AbstractExpensiveOperation {
    * @param value_p a non-null value
    * @param role_p a non-null role which is TARGET or REFERENCE
    * @param isOrder_p whether the value presence is solely due to ordering
-   * @return a non-null attribute value presence
+   * @return a non-null attribute value presence, or null if called by a detection worker
    */
   protected IAttributeValuePresence createAttributeValueDifference(
       IMatch elementMatch_p, EAttribute attribute_p, Object value_p,
       Role role_p, boolean isOrder_p) {
+    List<DetectedValuePresence> buffer = _detectionBuffer.get();
+    if (buffer != null) {
+      // Creation is deferred to the commit phase
+      buffer.add(new DetectedValuePresence(
+          elementMatch_p, attribute_p, value_p, null, role_p, isOrder_p));
+      return null;
+    }
     IAttributeValuePresence result = getComparison().newAttributeValuePresence(
             elementMatch_p, attribute_p, value_p, role_p, isOrder_p);
+    getMetrics().incrementCounter(OperationMetrics.COUNTER_ATTRIBUTE_VALUE_PRESENCES);
+    long start = startDependencies();
     IAttributeValuePresence symmetrical = result.getSymmetrical();
     if (symmetrical != null) {
       setSymmetricalValuePresenceDependencies(result, symmetrical);
@@ -124,6 +193,7 @@ public class DiffOperation extends AbstractExpensiveOperation {
     if (getComparison().isThreeWay()) {
       setThreeWayProperties(result);
     }
+    endDependencies(start);
     return result;
   }
   
@@ -131,6 +201,14 @@ public class DiffOperation extends AbstractExpensiveOperation {
    * Create differences based on the mapping between the model scopes compared
    */
   protected void createDifferences() {
+    if (useSubtreeDigests()) {
+      createDifferencesWithDigests();
+      return;
+    }
+    if (useParallelDetection()) {
+      createDifferencesInParallel();
+      return;
+    }
     for (IMatch match : getMapping().getContents()) {
       checkProgress();
       if (getDiffPolicy().coverMatch(match)) {
@@ -140,6 +218,119 @@ public class DiffOperation extends AbstractExpensiveOperation {
     }
   }
   
+  /**
+   * Create differences based on the mapping between the model scopes compared,
+   * detecting the differences of non-partial matches on a pool of threads.
+   * The matches are split into contiguous partitions which are processed independently
+   * by workers. The differences that the workers detect are then created, and their
+   * dependencies set, in the current thread in the order of the mapping, so that the
+   * resulting comparison is the same as with a sequential execution.
+   */
+  protected void createDifferencesInParallel() {
+    final List<IMatch> matches = new ArrayList<IMatch>(getMapping().getContents());
+    prepareParallelDetection(matches);
+    int nbThreads = getNbDetectionThreads();
+    // Several partitions per thread for balancing the workload
+    int nbPartitions = Math.min(matches.size(), 4 * nbThreads);
+    int partitionSize = nbPartitions == 0? 0: (matches.size() + nbPartitions - 1) / nbPartitions;
+    ExecutorService executor = Executors.newFixedThreadPool(nbThreads);
+    try {
+      List<Future<List<List<DetectedValuePresence>>>> futures =
+          new ArrayList<Future<List<List<DetectedValuePresence>>>>(nbPartitions);
+      for (int start = 0; start < matches.size(); start += partitionSize) {
+        final List<IMatch> partition =
+            matches.subList(start, Math.min(start + partitionSize, matches.size()));
+        futures.add(executor.submit(new Callable<List<List<DetectedValuePresence>>>() {
+          /**
+           * @see java.util.concurrent.Callable#call()
+           */
+          public List<List<DetectedValuePresence>> call() throws Exception {
+            return detectDifferences(partition);
+          }
+        }));
+      }
+      // Commit phase, in the order of the mapping
+      int i = 0;
+      for (Future<List<List<DetectedValuePresence>>> future : futures) {
+        for (List<DetectedValuePresence> detected : waitFor(future)) {
+          checkProgress();
+          createDetectedDifferences(matches.get(i), detected);
+          getMonitor().worked(1);
+          i++;
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+  
+  /**
+   * Create differences based on the mapping between the model scopes compared,
+   * skipping the subtrees whose elements are in matches with identical subtrees.
+   * The TARGET scope and then the REFERENCE scope are walked top-down: the differences
+   * of every match are created when its element is first reached, and the walk does not
+   * descend below the elements whose subtrees are identical on the other side.
+   * @see DiffOperation#hasIdenticalSubtrees(IMatch)
+   */
+  protected void createDifferencesWithDigests() {
+    long start = System.nanoTime();
+    SubtreeDigester digester = new SubtreeDigester(getComparison(), getDiffPolicy());
+    _referenceDigests = digester.getDigests(REFERENCE);
+    _targetDigests = digester.getDigests(TARGET);
+    _digestsDuration = System.nanoTime() - start;
+    getMetrics().addPhaseDuration(OperationMetrics.PHASE_SUBTREE_DIGESTS, _digestsDuration);
+    long nbPruned = 0L;
+    for (Role role : Arrays.asList(TARGET, REFERENCE)) {
+      IFeaturedModelScope scope = getComparison().getScope(role);
+      List<EObject> stack = new ArrayList<EObject>(scope.getContents());
+      Collections.reverse(stack);
+      while (!stack.isEmpty()) {
+        checkProgress();
+        EObject element = stack.remove(stack.size() - 1);
+        IMatch match = getMatchFor(element, role);
+        if (match != null) {
+          if (hasIdenticalSubtrees(match)) {
+            if (role == TARGET)
+              nbPruned++;
+            continue;
+          }
+          // Matches which cover TARGET are handled from the TARGET side
+          if ((role == TARGET || !match.coversRole(TARGET)) &&
+              getDiffPolicy().coverMatch(match)) {
+            createTechnicalDifferences(match);
+          }
+          getMonitor().worked(1);
+        }
+        List<EObject> children = scope.getContents(element);
+        for (int i = children.size() - 1; i >= 0; i--) {
+          stack.add(children.get(i));
+        }
+      }
+    }
+    getMetrics().addToCounter(OperationMetrics.COUNTER_PRUNED_SUBTREES, nbPruned);
+  }
+  
+  /**
+   * Create the differences of the given match during the commit phase of a parallel
+   * detection
+   * @see DiffOperation#createDifferencesInParallel()
+   * @param match_p a non-null match
+   * @param detected_p the potentially null, non-empty list of the value presences detected
+   *        for match_p
+   */
+  protected void createDetectedDifferences(IMatch match_p,
+      List<DetectedValuePresence> detected_p) {
+    if (match_p.isPartial()) {
+      if (getDiffPolicy().coverMatch(match_p)) {
+        getOrCreateElementPresence(match_p);
+      }
+    } else if (detected_p != null) {
+      for (DetectedValuePresence presence : detected_p) {
+        presence.create();
+      }
+    }
+  }
+  
   /**
    * Create the reference order difference corresponding to the given link
    * (holder, reference, value)
@@ -165,17 +356,27 @@ public class DiffOperation extends AbstractExpensiveOperation {
    * @param valueMatch_p an optional match, which cannot be null if value_p or reference_p is null
    * @param role_p a non-null role which is TARGET or REFERENCE
    * @param isOrder_p whether the value presence is solely due to ordering
-   * @return a non-null reference value presence
+   * @return a non-null reference value presence, or null if called by a detection worker
    */
   protected IReferenceValuePresence createReferenceValueDifference(
       IMatch elementMatch_p, EReference reference_p, EObject value_p,
       IMatch valueMatch_p, Role role_p, boolean isOrder_p) {
+    List<DetectedValuePresence> buffer = _detectionBuffer.get();
+    if (buffer != null) {
+      // Creation is deferred to the commit phase
+      buffer.add(new DetectedValuePresence(
+          elementMatch_p, reference_p, value_p, valueMatch_p, role_p, isOrder_p));
+      return null;
+    }
     IReferenceValuePresence result = getComparison().newReferenceValuePresence(
         elementMatch_p, reference_p, value_p, valueMatch_p, role_p, isOrder_p);
+    getMetrics().incrementCounter(OperationMetrics.COUNTER_REFERENCE_VALUE_PRESENCES);
+    long start = startDependencies();
     setReferencedValueDependencies(result);
     if (getComparison().isThreeWay()) {
       setThreeWayProperties(result);
     }
+    endDependencies(start);
     return result;
   }
   
@@ -192,6 +393,38 @@ public class DiffOperation extends AbstractExpensiveOperation {
     }
   }
   
+  /**
+   * Detect the differences of the given non-partial matches without creating them.
+   * This operation is executed by detection workers: it must not modify the comparison.
+   * @param matches_p a non-null, potentially empty list of matches
+   * @return a non-null list which contains, for every match at the same index, either
+   *         the non-null, non-empty list of the value presences detected, or null
+   */
+  protected List<List<DetectedValuePresence>> detectDifferences(List<IMatch> matches_p) {
+    List<List<DetectedValuePresence>> result =
+        new ArrayList<List<DetectedValuePresence>>(matches_p.size());
+    List<DetectedValuePresence> buffer = new ArrayList<DetectedValuePresence>();
+    _detectionBuffer.set(buffer);
+    try {
+      for (IMatch match : matches_p) {
+        if (getMonitor().isCanceled())
+          throw new OperationCanceledException();
+        List<DetectedValuePresence> detected = null;
+        if (!match.isPartial() && getDiffPolicy().coverMatch(match)) {
+          detectContentDifferences(match, TARGET, REFERENCE, true);
+          if (!buffer.isEmpty()) {
+            detected = new ArrayList<DetectedValuePresence>(buffer);
+            buffer.clear();
+          }
+        }
+        result.add(detected);
+      }
+    } finally {
+      _detectionBuffer.remove();
+    }
+    return result;
+  }
+  
   /**
    * Detect the differences related to the attributes for the given match
    * and the given roles
@@ -256,36 +489,44 @@ public class DiffOperation extends AbstractExpensiveOperation {
     IFeaturedModelScope scope2 = getComparison().getScope(role2_p);
     EObject element1 = match_p.get(role1_p);
     EObject element2 = match_p.get(role2_p);
-    List<Object> values1 = scope1.get(element1, attribute_p);
-    List<Object> values2 = scope2.get(element2, attribute_p);
-    List<Object> remainingValues1 = new ArrayList<Object>(values1);
-    List<Object> remainingValues2 = new ArrayList<Object>(values2);
+    List<Object> values1 = getRandomAccess(scope1.get(element1, attribute_p));
+    List<Object> values2 = getRandomAccess(scope2.get(element2, attribute_p));
+    AttributeValuePositions positions2 = new AttributeValuePositions(
+        values2, attribute_p, getDiffPolicy());
+    boolean[] aligned1 = new boolean[values1.size()];
     boolean checkOrder = attribute_p.isMany() && getDiffPolicy().considerOrdered(attribute_p);
-    int maxIndex = -1;
-    for (Object value1 : values1) {
-      ObjectAndIndex matchingValue2 =
-          findEqualAttributeValue(attribute_p, value1, remainingValues2);
-      if (matchingValue2.getObject() != null) {
+    // Positions in values2 of the values of values1 which are present on both sides
+    int nbAligned = 0;
+    int[] alignedPositions = checkOrder? new int[values1.size()]: null;
+    int[] alignedIndexes = checkOrder? new int[values1.size()]: null;
+    for (int i = 0; i < values1.size(); i++) {
+      int position = positions2.indexOfEqual(values1.get(i));
+      if (position >= 0) {
+        positions2.consume(position);
+        aligned1[i] = true;
         if (checkOrder) {
-          if (matchingValue2.getIndex() < maxIndex) {
-            // Ordering difference
-            if (!create_p) {
-              return true;
-            }
-            createAttributeOrderDifference(
-                match_p, attribute_p, value1, matchingValue2.getObject(), role1_p, role2_p);
-            result = true;
-            checkOrder = false;
-          } else {
-            maxIndex = matchingValue2.getIndex();
-          }
+          alignedPositions[nbAligned] = position;
+          alignedIndexes[nbAligned] = i;
+          nbAligned++;
         }
-        remainingValues1.remove(value1);
-        remainingValues2.remove(matchingValue2.getObject());
       }
     }
-    for (Object remainingValue1 : remainingValues1) {
-      if (getDiffPolicy().coverValue(remainingValue1, attribute_p)){
+    if (checkOrder) {
+      // Ordering difference if the aligned values are not in the same order on both sides
+      int misplaced = getFirstMisplaced(alignedPositions, nbAligned);
+      if (misplaced >= 0) {
+        if (!create_p) {
+          return true;
+        }
+        createAttributeOrderDifference(match_p, attribute_p,
+            values1.get(alignedIndexes[misplaced]), values2.get(alignedPositions[misplaced]),
+            role1_p, role2_p);
+        result = true;
+      }
+    }
+    for (int i = 0; i < values1.size(); i++) {
+      Object remainingValue1 = values1.get(i);
+      if (!aligned1[i] && getDiffPolicy().coverValue(remainingValue1, attribute_p)){
         if (!create_p) {
           return true;
         }
@@ -293,8 +534,9 @@ public class DiffOperation extends AbstractExpensiveOperation {
         result = true;
       }
     }
-    for (Object remainingValue2 : remainingValues2) {
-      if (getDiffPolicy().coverValue(remainingValue2, attribute_p)){
+    for (int i = 0; i < values2.size(); i++) {
+      Object remainingValue2 = values2.get(i);
+      if (!positions2.isConsumed(i) && getDiffPolicy().coverValue(remainingValue2, attribute_p)){
         if (!create_p) {
           return true;
         }
@@ -375,14 +617,23 @@ public class DiffOperation extends AbstractExpensiveOperation {
     EObject element1 = match_p.get(role1_p);
     EObject element2 = match_p.get(role2_p);
     List<EObject> values1 = scope1.get(element1, reference_p);
-    List<EObject> values2 = scope2.get(element2, reference_p);
-    List<EObject> remainingValues2 = new FArrayList<EObject>(values2, BY_REFERENCE);
+    List<EObject> values2 = getRandomAccess(scope2.get(element2, reference_p));
+    ValuePositions positions2 = new ValuePositions(values2);
     boolean checkOrder = reference_p.isMany() && diffPolicy.considerOrdered(reference_p);
-    int maxIndex = -1;
+    // Values in role1_p which are present in role2_p, and their positions in role2_p
+    int nbAligned = 0;
+    int[] alignedPositions = null;
+    EObject[] alignedValues = null;
+    IMatch[] alignedMatches = null;
+    if (checkOrder) {
+      alignedPositions = new int[values1.size()];
+      alignedValues = new EObject[values1.size()];
+      alignedMatches = new IMatch[values1.size()];
+    }
     // Check which ones match
     for (EObject value1 : values1) {
       // For every value in role1_p, get its corresponding match if in scope
-      IMatch valueMatch1 = getMapping().getMatchFor(value1, role1_p);
+      IMatch valueMatch1 = getMatchFor(value1, role1_p);
       // The role1_p value is covered if a match is found or it is a covered out-of-scope value
       boolean outsideScope1 = valueMatch1 == null;
       boolean coverValue1 =
@@ -393,29 +644,12 @@ public class DiffOperation extends AbstractExpensiveOperation {
         @SuppressWarnings("null") // OK due to the definition of outsideScope
         EObject matchValue2 = outsideScope1? value1:
           valueMatch1.get(role2_p);
-        boolean isIsolated = matchValue2 == null;
-        int index = -1;
-        if (!isIsolated) {
-          // Check value presence and ordering
-          index = detectReferenceValueAmong(
-              reference_p, matchValue2, remainingValues2, outsideScope1);
-          isIsolated = index < 0;
-          if (checkOrder && !isIsolated) {
-            if (index < maxIndex) {
-              // Ordering difference
-              if (!create_p) {
-                return true;
-              }
-              createReferenceOrderDifference(
-                  match_p, reference_p, value1, valueMatch1);
-              result = true;
-              checkOrder = false;
-            } else {
-              maxIndex = index;
-            }
-          }
+        int position = -1;
+        if (matchValue2 != null) {
+          position = detectReferenceValueAmong(
+              reference_p, matchValue2, positions2, outsideScope1);
         }
-        if (isIsolated) {
+        if (position < 0) {
           // We have a covered unmatched presence in role1_p
           if (!create_p) {
             return true;
@@ -424,18 +658,36 @@ public class DiffOperation extends AbstractExpensiveOperation {
               match_p, reference_p, value1, valueMatch1, role1_p, false);
           result = true;
         } else {
-          // Remove from the remaining values in role2_p
-          if (index > -1) {
-            remainingValues2.remove(index);
-          } else {
-            remainingValues2.remove(matchValue2);
+          // Exclude from the remaining values in role2_p
+          positions2.consume(position);
+          if (checkOrder) {
+            alignedPositions[nbAligned] = position;
+            alignedValues[nbAligned] = value1;
+            alignedMatches[nbAligned] = valueMatch1;
+            nbAligned++;
           }
         }
       } // Else value1 is out of scope and not covered as such
     }
+    if (checkOrder) {
+      // Ordering difference if the aligned values are not in the same order on both sides
+      int misplaced = getFirstMisplaced(alignedPositions, nbAligned);
+      if (misplaced >= 0) {
+        if (!create_p) {
+          return true;
+        }
+        createReferenceOrderDifference(
+            match_p, reference_p, alignedValues[misplaced], alignedMatches[misplaced]);
+        result = true;
+      }
+    }
     // For every remaining value in role2_p, create a difference if covered
-    for (EObject remainingValue2 : remainingValues2) {
-      IMatch valueMatch2 = getMapping().getMatchFor(remainingValue2, role2_p);
+    for (int i = 0; i < values2.size(); i++) {
+      if (positions2.isConsumed(i)) {
+        continue;
+      }
+      EObject remainingValue2 = values2.get(i);
+      IMatch valueMatch2 = getMatchFor(remainingValue2, role2_p);
       boolean outsideReferenceScope = valueMatch2 == null;
       boolean coverReferenceValue =
           !outsideReferenceScope && diffPolicy.coverMatch(valueMatch2) ||
@@ -462,7 +714,10 @@ public class DiffOperation extends AbstractExpensiveOperation {
    * @param values_p a non-null, potentially empty list
    * @param outsideScope_p whether the value is out-of-scope
    * @return a positive int or -1 if the element is not found
+   * @deprecated This operation is no longer called: reference values are now aligned
+   *   through detectReferenceValueAmong(EReference, EObject, ValuePositions, boolean)
    */
+  @Deprecated
   protected int detectReferenceValueAmong(EReference reference_p,
       EObject value_p, List<EObject> values_p, boolean outsideScope_p) {
     int result = values_p.indexOf(value_p);
@@ -481,6 +736,45 @@ public class DiffOperation extends AbstractExpensiveOperation {
     return result;
   }
   
+  /**
+   * Return the position of the given reference value among the values of the given
+   * index which have not been consumed yet, given that it should or not be considered
+   * as an out-of-scope value
+   * @param reference_p a non-null reference
+   * @param value_p a non-null element
+   * @param positions_p a non-null index of values
+   * @param outsideScope_p whether the value is out-of-scope
+   * @return a positive int or -1 if the element is not found
+   */
+  protected int detectReferenceValueAmong(EReference reference_p,
+      EObject value_p, ValuePositions positions_p, boolean outsideScope_p) {
+    int result = positions_p.indexOf(value_p);
+    if (result == -1 && outsideScope_p) {
+      // Outside scope
+      IDiffPolicy diffPolicy = getDiffPolicy();
+      List<EObject> candidateValues = positions_p.getValues();
+      for (int i = 0; i < candidateValues.size(); i++) {
+        if (!positions_p.isConsumed(i) && diffPolicy.considerEqualOutOfScope(
+            value_p, candidateValues.get(i), reference_p)) {
+          result = i;
+          break;
+        }
+      }
+    }
+    return result;
+  }
+  
+  /**
+   * Notify that the setting of the dependencies of a new difference ends
+   * @see DiffOperation#startDependencies()
+   * @param start_p the value returned by the corresponding call to startDependencies()
+   */
+  private void endDependencies(long start_p) {
+    _dependenciesDepth--;
+    if (_dependenciesDepth == 0)
+      _dependenciesDuration += System.nanoTime() - start_p;
+  }
+  
   /**
    * Return a value in the given collection of values which is considered equal
    * to the given value for the given attribute and its index in the collection
@@ -501,6 +795,53 @@ public class DiffOperation extends AbstractExpensiveOperation {
     return new ObjectAndIndex();
   }
   
+  /**
+   * Return the index of an element of the given sequence of distinct positions which
+   * does not belong to a longest increasing subsequence, if any. Such an element is
+   * a value which must be moved for the values of both sides to be in the same order.
+   * @param positions_p a non-null array of distinct positions
+   * @param size_p the number of significant positions in the array
+   * @return the smallest such index, or -1 if the sequence is increasing
+   */
+  protected int getFirstMisplaced(int[] positions_p, int size_p) {
+    int i = 1;
+    while (i < size_p && positions_p[i - 1] < positions_p[i]) {
+      i++;
+    }
+    if (i >= size_p) {
+      return -1; // Already in the same order
+    }
+    // Patience sorting: tails[k] is the index of the smallest last position of an
+    // increasing subsequence of length k+1, predecessors allow rebuilding one
+    int[] tails = new int[size_p];
+    int[] predecessors = new int[size_p];
+    int length = 0;
+    for (int k = 0; k < size_p; k++) {
+      int low = 0;
+      int high = length;
+      while (low < high) {
+        int middle = (low + high) >>> 1;
+        if (positions_p[tails[middle]] < positions_p[k])
+          low = middle + 1;
+        else
+          high = middle;
+      }
+      predecessors[k] = low > 0? tails[low - 1]: -1;
+      tails[low] = k;
+      if (low == length)
+        length++;
+    }
+    boolean[] inSubsequence = new boolean[size_p];
+    for (int k = tails[length - 1]; k >= 0; k = predecessors[k]) {
+      inSubsequence[k] = true;
+    }
+    int result = 0;
+    while (inSubsequence[result]) {
+      result++;
+    }
+    return result;
+  }
+  
   /**
    * Return the comparison which is being built
    * @return a non-null comparison
@@ -532,6 +873,31 @@ public class DiffOperation extends AbstractExpensiveOperation {
     return getComparison().getMapping();
   }
   
+  /**
+   * Return the match for the given element in the given role, recording the look-up
+   * in the metrics. This operation may be called by detection workers.
+   * @see IMapping#getMatchFor(EObject, Role)
+   * @param element_p a potentially null element
+   * @param role_p a potentially null role
+   * @return a potentially null match
+   */
+  protected IMatch getMatchFor(EObject element_p, Role role_p) {
+    IMatch result = getMapping().getMatchFor(element_p, role_p);
+    long[] counter = _matchLookupCounter.get();
+    counter[0]++;
+    if (result != null)
+      counter[1]++;
+    return result;
+  }
+  
+  /**
+   * Return the number of threads to use for detecting differences in parallel
+   * @return a strictly positive int
+   */
+  protected int getNbDetectionThreads() {
+    return Runtime.getRuntime().availableProcessors();
+  }
+  
   /**
    * @see org.eclipse.emf.diffmerge.util.IExpensiveOperation#getOperationName()
    */
@@ -552,14 +918,30 @@ public class DiffOperation extends AbstractExpensiveOperation {
       Role presenceRole = match_p.getUncoveredRole().opposite();
       IMatch ownerMatch = getComparison().getContainerOf(match_p, presenceRole);
       result = getComparison().newElementPresence(match_p, ownerMatch);
+      getMetrics().incrementCounter(OperationMetrics.COUNTER_ELEMENT_PRESENCES);
+      long start = startDependencies();
       setElementPresenceDependencies(result);
       if (getComparison().isThreeWay()) {
     	  setThreeWayProperties(result);
       }
+      endDependencies(start);
     }
     return result;
   }
   
+  /**
+   * Return a list with the same contents as the given list which supports
+   * efficient access by index
+   * @param list_p a non-null list
+   * @return list_p if it already supports efficient access by index, a copy otherwise
+   */
+  protected <T> List<T> getRandomAccess(List<T> list_p) {
+    List<T> result = list_p;
+    if (!(list_p instanceof RandomAccess))
+      result = new ArrayList<T>(list_p);
+    return result;
+  }
+  
   /**
    * @see org.eclipse.emf.diffmerge.impl.helpers.AbstractExpensiveOperation#getWorkAmount()
    */
@@ -568,6 +950,39 @@ public class DiffOperation extends AbstractExpensiveOperation {
     return 1 + getMapping().size();
   }
   
+  /**
+   * Return whether the given scope can be navigated from several threads at the same time
+   * while differences are being detected. Scopes which may resolve proxies when they are
+   * navigated, and thus modify the model, are not considered as such.
+   * @param scope_p a non-null scope
+   */
+  protected boolean isConcurrentlyReadable(IFeaturedModelScope scope_p) {
+    return scope_p instanceof AbstractModelScope && !(scope_p instanceof FragmentedModelScope);
+  }
+  
+  /**
+   * Return whether the elements of the given match have identical subtrees according
+   * to their digests and their containers are matched, so that no difference can be
+   * detected in the matches of the subtrees
+   * @see DiffOperation#createDifferencesWithDigests()
+   * @param match_p a non-null match
+   */
+  protected boolean hasIdenticalSubtrees(IMatch match_p) {
+    if (_targetDigests == null || match_p.isPartial())
+      return false;
+    Long targetDigest = _targetDigests.get(match_p.get(TARGET));
+    if (targetDigest == null ||
+        !targetDigest.equals(_referenceDigests.get(match_p.get(REFERENCE))))
+      return false;
+    // Ownership differences are detected on the match if a container is unmatched
+    for (Role role : Arrays.asList(TARGET, REFERENCE)) {
+      IMatch containerMatch = getComparison().getContainerOf(match_p, role);
+      if (containerMatch != null && containerMatch.isPartial(TARGET, REFERENCE))
+        return false;
+    }
+    return true;
+  }
+  
   /**
    * Return whether the scope of the given role is read-only.
    * If no scope has the given role, then true is returned.
@@ -616,12 +1031,67 @@ public class DiffOperation extends AbstractExpensiveOperation {
     }
   }
   
+  /**
+   * Prepare the parallel detection of differences on the given matches by initializing,
+   * in the current thread, the lazily computed data which workers share: the features of
+   * the types of the elements and their characteristics according to the diff policy
+   * @param matches_p a non-null, potentially empty list of matches
+   */
+  protected void prepareParallelDetection(List<IMatch> matches_p) {
+    Set<EClass> eClasses = new HashSet<EClass>();
+    for (IMatch match : matches_p) {
+      checkProgress();
+      for (Role role : Arrays.asList(TARGET, REFERENCE)) {
+        EObject element = match.get(role);
+        if (element != null && eClasses.add(element.eClass())) {
+          for (EAttribute attribute : element.eClass().getEAllAttributes()) {
+            if (getDiffPolicy().coverFeature(attribute)) {
+              getDiffPolicy().considerOrdered(attribute);
+            }
+          }
+          for (EReference reference : element.eClass().getEAllReferences()) {
+            if (!reference.isContainer() && getDiffPolicy().coverFeature(reference)) {
+              getDiffPolicy().considerOrdered(reference);
+            }
+          }
+        }
+      }
+    }
+  }
+  
+  /**
+   * Record the match look-ups of all threads in the metrics and reset their counters
+   */
+  protected void recordMatchLookups() {
+    long nbLookups = 0L;
+    long nbHits = 0L;
+    synchronized (_matchLookupCounters) {
+      for (long[] counter : _matchLookupCounters) {
+        nbLookups += counter[0];
+        nbHits += counter[1];
+        counter[0] = 0L;
+        counter[1] = 0L;
+      }
+    }
+    getMetrics().addToCounter(OperationMetrics.COUNTER_MATCH_LOOKUPS, nbLookups);
+    getMetrics().addToCounter(OperationMetrics.COUNTER_MATCH_LOOKUP_HITS, nbHits);
+  }
+  
   /**
    * @see org.eclipse.emf.diffmerge.util.IExpensiveOperation#run()
    */
   public IStatus run() {
     getMonitor().worked(1);
+    long start = System.nanoTime();
+    _dependenciesDuration = 0L;
+    _dependenciesDepth = 0;
+    _digestsDuration = 0L;
     createDifferences();
+    getMetrics().addPhaseDuration(OperationMetrics.PHASE_DIFFERENCES,
+        System.nanoTime() - start - _dependenciesDuration - _digestsDuration);
+    getMetrics().addPhaseDuration(
+        OperationMetrics.PHASE_DEPENDENCIES, _dependenciesDuration);
+    recordMatchLookups();
     return Status.OK_STATUS;
   }
   
@@ -692,7 +1162,7 @@ public class DiffOperation extends AbstractExpensiveOperation {
     Collection<EObject> additionPeers = getMergePolicy().getAdditionGroup(
         presence_p.getElement(), getComparison().getScope(presenceRole));
     for (EObject peer : additionPeers) {
-      IMatch peerMatch = getMapping().getMatchFor(peer, presenceRole);
+      IMatch peerMatch = getMatchFor(peer, presenceRole);
       if (peerMatch != null && peerMatch.isPartial()) {
         IElementPresence peerPresence = getOrCreateElementPresence(peerMatch);
         if (peerPresence != null) {
@@ -707,7 +1177,7 @@ public class DiffOperation extends AbstractExpensiveOperation {
     Collection<EObject> deletionPeers = getMergePolicy().getDeletionGroup(
         presence_p.getElement(), getComparison().getScope(presenceRole));
     for (EObject peer : deletionPeers) {
-      IMatch peerMatch = getMapping().getMatchFor(peer, presenceRole);
+      IMatch peerMatch = getMatchFor(peer, presenceRole);
       if (peerMatch != null && peerMatch.isPartial()) {
         IElementPresence peerPresence = getOrCreateElementPresence(peerMatch);
         if (peerPresence != null) {
@@ -989,16 +1459,17 @@ public class DiffOperation extends AbstractExpensiveOperation {
         Role presenceRole = presence_p.getPresenceRole();
         List<EObject> values = _comparison.getScope(presenceRole).get(
             presence_p.getElementMatch().get(presenceRole), reference);
+        ValuePositions ancestorPositions = new ValuePositions(ancestorValues);
         int maxIndex = -1;
         aligned = true;
         for (EObject value : values) {
-          IMatch currentValueMatch = getMapping().getMatchFor(value, presenceRole);
+          IMatch currentValueMatch = getMatchFor(value, presenceRole);
           if (currentValueMatch != null) {
             EObject matchAncestor = currentValueMatch.get(ANCESTOR);
             //TODO handle ancestor out-of-scope value
             if (matchAncestor != null) {
               int index = detectReferenceValueAmong(
-                  reference, matchAncestor, ancestorValues, false);
+                  reference, matchAncestor, ancestorPositions, false);
               if (index >= 0) {
                 if (index < maxIndex) {
                   // Ordering difference
@@ -1029,6 +1500,317 @@ public class DiffOperation extends AbstractExpensiveOperation {
     }
   }
   
+  /**
+   * Notify that the setting of the dependencies of a new difference starts.
+   * Nested settings, which occur when required differences are created on the fly,
+   * are only measured at the outermost level.
+   * @return a time in nanoseconds to be passed to endDependencies(long)
+   */
+  private long startDependencies() {
+    _dependenciesDepth++;
+    return _dependenciesDepth == 1? System.nanoTime(): 0L;
+  }
+  
+  /**
+   * Return whether differences must be detected in parallel before they are created.
+   * Creation of differences and setting of their dependencies remain sequential,
+   * so the resulting comparison does not depend on this choice.
+   * During detection, workers call the detection operations of this class and read
+   * the comparison, e.g., through its mapping and getContainerOf(IMatch, Role), so
+   * these read paths must be safe for concurrent reads. Since subclasses may redefine
+   * detection operations in a non thread-safe way, this is only the case for this exact
+   * class: subclasses must redefine this operation to opt in.
+   * @see IDiffPolicy.Parallelizable
+   */
+  protected boolean useParallelDetection() {
+    IDiffPolicy policy = getDiffPolicy();
+    return getClass() == DiffOperation.class &&
+        policy instanceof IDiffPolicy.Parallelizable &&
+        ((IDiffPolicy.Parallelizable)policy).isThreadSafe() &&
+        getNbDetectionThreads() > 1 &&
+        getMapping().size() >= PARALLEL_DETECTION_THRESHOLD &&
+        isConcurrentlyReadable(getComparison().getScope(TARGET)) &&
+        isConcurrentlyReadable(getComparison().getScope(REFERENCE));
+  }
+  
+  /**
+   * Return whether the subtrees of the elements of matches must be compared through
+   * digests beforehand, so that differences are not detected in the subtrees which
+   * are identical on both sides. In this case differences are detected sequentially.
+   * @see IDiffPolicy.Digestible
+   * @see SubtreeDigester
+   */
+  protected boolean useSubtreeDigests() {
+    IDiffPolicy policy = getDiffPolicy();
+    return policy instanceof IDiffPolicy.Digestible &&
+        ((IDiffPolicy.Digestible)policy).isDigestible();
+  }
+  
+  
+  /**
+   * An index of the positions of the values of an attribute which allows finding
+   * the first position of a value considered equal to a given value, among those which
+   * have not been consumed yet. If the diff policy provides equivalence keys, then
+   * values are only compared to the values which have the same key or no key.
+   * @see IDiffPolicy.AttributeValueKeys
+   */
+  protected static class AttributeValuePositions {
+    /** The number of values above which positions are hashed */
+    private static final int HASHING_THRESHOLD = 8;
+    /** The key that stands for values which have no equivalence key */
+    private static final Object NO_KEY = new Object();
+    /** The non-null list of values */
+    private final List<Object> _values;
+    /** The non-null attribute whose values are indexed */
+    private final EAttribute _attribute;
+    /** The non-null diff policy that defines equality of values */
+    private final IDiffPolicy _policy;
+    /** Whether the value at each position has been consumed */
+    private final boolean[] _consumed;
+    /** The first position of every equivalence key which may not be consumed,
+     * or null if positions are not hashed */
+    private final Map<Object, Integer> _firstPositions;
+    /** The next position with the same key for every position, or -1, or null if not hashed */
+    private final int[] _nextPositions;
+    /**
+     * Constructor
+     * @param values_p a non-null list of values which is not modified in the meantime
+     * @param attribute_p a non-null attribute
+     * @param policy_p a non-null diff policy
+     */
+    public AttributeValuePositions(List<Object> values_p, EAttribute attribute_p,
+        IDiffPolicy policy_p) {
+      _values = values_p;
+      _attribute = attribute_p;
+      _policy = policy_p;
+      int size = values_p.size();
+      _consumed = new boolean[size];
+      if (size > HASHING_THRESHOLD && policy_p instanceof IDiffPolicy.AttributeValueKeys) {
+        _firstPositions = new HashMap<Object, Integer>(size);
+        _nextPositions = new int[size];
+        for (int i = size - 1; i >= 0; i--) {
+          Integer next = _firstPositions.put(getKey(values_p.get(i)), Integer.valueOf(i));
+          _nextPositions[i] = next == null? -1: next.intValue();
+        }
+      } else {
+        _firstPositions = null;
+        _nextPositions = null;
+      }
+    }
+    /**
+     * Mark the value at the given position as consumed
+     * @param position_p a valid, non-consumed position
+     */
+    public void consume(int position_p) {
+      _consumed[position_p] = true;
+    }
+    /**
+     * Return the first non-consumed position whose value is considered equal to the given
+     * value among the positions of the given key, or -1 if none
+     * @param key_p a non-null key
+     * @param value_p a non-null value
+     */
+    protected int getFirstEqualWithKey(Object key_p, Object value_p) {
+      Integer first = _firstPositions.get(key_p);
+      int result = first == null? -1: first.intValue();
+      while (result >= 0 && _consumed[result]) {
+        result = _nextPositions[result];
+      }
+      if (first != null && result != first.intValue()) {
+        // Skip consumed positions in subsequent lookups
+        if (result < 0)
+          _firstPositions.remove(key_p);
+        else
+          _firstPositions.put(key_p, Integer.valueOf(result));
+      }
+      while (result >= 0 &&
+          (_consumed[result] || !_policy.considerEqual(value_p, _values.get(result), _attribute))) {
+        result = _nextPositions[result];
+      }
+      return result;
+    }
+    /**
+     * Return the key under which the given value is indexed
+     * @param value_p a non-null value
+     * @return a non-null object
+     */
+    protected Object getKey(Object value_p) {
+      Object result = ((IDiffPolicy.AttributeValueKeys)_policy).getEquivalenceKey(
+          value_p, _attribute);
+      return result == null? NO_KEY: result;
+    }
+    /**
+     * Return the first non-consumed position whose value is considered equal to the
+     * given value
+     * @param value_p a non-null value
+     * @return a positive int or 0, or -1 if there is no such position
+     */
+    public int indexOfEqual(Object value_p) {
+      Object key = _firstPositions == null? NO_KEY: getKey(value_p);
+      if (key == NO_KEY) {
+        for (int i = 0; i < _consumed.length; i++) {
+          if (!_consumed[i] && _policy.considerEqual(value_p, _values.get(i), _attribute))
+            return i;
+        }
+        return -1;
+      }
+      int result = getFirstEqualWithKey(key, value_p);
+      // Values without key may still be considered equal
+      int unkeyed = getFirstEqualWithKey(NO_KEY, value_p);
+      if (unkeyed >= 0 && (result < 0 || unkeyed < result))
+        result = unkeyed;
+      return result;
+    }
+    /**
+     * Return whether the value at the given position has been consumed
+     * @param position_p a valid position
+     */
+    public boolean isConsumed(int position_p) {
+      return _consumed[position_p];
+    }
+  }
+  
+  
+  /**
+   * A value presence which has been detected by a detection worker and whose
+   * creation is deferred to the commit phase.
+   */
+  protected class DetectedValuePresence {
+    /** The non-null match of the holder of the value */
+    private final IMatch _elementMatch;
+    /** The attribute or reference, where null stands for root containment */
+    private final EStructuralFeature _feature;
+    /** The value, which may only be null if _valueMatch is not null */
+    private final Object _value;
+    /** The optional match of the value if it is an element */
+    private final IMatch _valueMatch;
+    /** The non-null role which is TARGET or REFERENCE */
+    private final Role _role;
+    /** Whether the value presence is solely due to ordering */
+    private final boolean _isOrder;
+    /**
+     * Constructor
+     * @param elementMatch_p a non-null match
+     * @param feature_p a potentially null attribute or reference
+     * @param value_p the value, which may only be null if valueMatch_p is not null
+     * @param valueMatch_p an optional match
+     * @param role_p a non-null role which is TARGET or REFERENCE
+     * @param isOrder_p whether the value presence is solely due to ordering
+     */
+    public DetectedValuePresence(IMatch elementMatch_p, EStructuralFeature feature_p,
+        Object value_p, IMatch valueMatch_p, Role role_p, boolean isOrder_p) {
+      _elementMatch = elementMatch_p;
+      _feature = feature_p;
+      _value = value_p;
+      _valueMatch = valueMatch_p;
+      _role = role_p;
+      _isOrder = isOrder_p;
+    }
+    /**
+     * Create the corresponding value presence in the comparison
+     * @return a non-null value presence
+     */
+    public IValuePresence create() {
+      IValuePresence result;
+      if (_feature instanceof EAttribute) {
+        result = createAttributeValueDifference(
+            _elementMatch, (EAttribute)_feature, _value, _role, _isOrder);
+      } else {
+        result = createReferenceValueDifference(
+            _elementMatch, (EReference)_feature, (EObject)_value, _valueMatch, _role, _isOrder);
+      }
+      return result;
+    }
+  }
+  
+  
+  /**
+   * An index of the positions of values in a list of elements which allows finding,
+   * in constant time, the first position of a given element among those which have not
+   * been consumed yet. Elements are compared by reference.
+   */
+  protected static class ValuePositions {
+    /** The number of values above which positions are hashed */
+    private static final int HASHING_THRESHOLD = 8;
+    /** The non-null list of values */
+    private final List<EObject> _values;
+    /** Whether the value at each position has been consumed */
+    private final boolean[] _consumed;
+    /** The first position of every distinct value which may not be consumed,
+     * or null if there are too few values for hashing to be worth it */
+    private final Map<EObject, Integer> _firstPositions;
+    /** The next position of the same value for every position, or -1, or null if not hashed */
+    private final int[] _nextPositions;
+    /**
+     * Constructor
+     * @param values_p a non-null list of values which is not modified in the meantime
+     */
+    public ValuePositions(List<EObject> values_p) {
+      _values = values_p;
+      int size = values_p.size();
+      _consumed = new boolean[size];
+      if (size > HASHING_THRESHOLD) {
+        _firstPositions = new IdentityHashMap<EObject, Integer>(size);
+        _nextPositions = new int[size];
+        for (int i = size - 1; i >= 0; i--) {
+          Integer next = _firstPositions.put(values_p.get(i), Integer.valueOf(i));
+          _nextPositions[i] = next == null? -1: next.intValue();
+        }
+      } else {
+        _firstPositions = null;
+        _nextPositions = null;
+      }
+    }
+    /**
+     * Mark the value at the given position as consumed
+     * @param position_p a valid, non-consumed position
+     */
+    public void consume(int position_p) {
+      _consumed[position_p] = true;
+    }
+    /**
+     * Return the values whose positions are indexed
+     * @return a non-null, unmodifiable list
+     */
+    public List<EObject> getValues() {
+      return Collections.unmodifiableList(_values);
+    }
+    /**
+     * Return the first position of the given value which has not been consumed
+     * @param value_p a potentially null element
+     * @return a positive int or 0, or -1 if there is no such position
+     */
+    public int indexOf(EObject value_p) {
+      if (_firstPositions == null) {
+        for (int i = 0; i < _consumed.length; i++) {
+          if (!_consumed[i] && _values.get(i) == value_p)
+            return i;
+        }
+        return -1;
+      }
+      Integer first = _firstPositions.get(value_p);
+      int result = first == null? -1: first.intValue();
+      while (result >= 0 && _consumed[result]) {
+        result = _nextPositions[result];
+      }
+      if (first != null && result != first.intValue()) {
+        // Skip consumed positions in subsequent lookups
+        if (result < 0)
+          _firstPositions.remove(value_p);
+        else
+          _firstPositions.put(value_p, Integer.valueOf(result));
+      }
+      return result;
+    }
+    /**
+     * Return whether the value at the given position has been consumed
+     * @param position_p a valid position
+     */
+    public boolean isConsumed(int position_p) {
+      return _consumed[position_p];
+    }
+  }
+  
   
   /**
    * A trivial data structure that associates an object and an index.
@@ -0,0 +1,521 @@
+/*********************************************************************
+ * Copyright (c) 2010-2019 Thales Global Services S.A.S.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    Thales Global Services S.A.S. - initial API and implementation
+ **********************************************************************/
+package org.eclipse.emf.diffmerge.impl.helpers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.emf.diffmerge.api.IComparison;
+import org.eclipse.emf.diffmerge.api.IMatch;
+import org.eclipse.emf.diffmerge.api.Role;
+import org.eclipse.emf.diffmerge.api.diff.IDifference;
+import org.eclipse.emf.diffmerge.api.diff.IMergeableDifference;
+import org.eclipse.emf.diffmerge.structures.IEqualityTester;
+import org.eclipse.emf.diffmerge.structures.common.FArrayList;
+
+
+/**
+ * A frozen graph of the inter-difference dependencies of a comparison in a given role,
+ * for computing the transitive closures of dependencies at the scale of the comparison.
+ * The graph is condensed into its strongly connected components, which are numbered
+ * in topological order so that the dependencies of a component precede it.
+ * The closure of a component is computed at most once, as the union of the closures
+ * of the components it depends on, so overlapping closures share their computation.
+ * Closures are stored as sorted arrays of components, so their memory footprint is
+ * proportional to their size rather than to the number of components.
+ * Closures are listed in topological order, i.e., dependencies come first.
+ * The graph must be built after the comparison has been computed, and it is not
+ * updated if dependencies change afterwards.
+ * @see IMergeableDifference#getRequiresDependencies(Role)
+ * @see IMergeableDifference#getImpliesDependencies(Role)
+ * @author Olivier Constant
+ */
+public class DifferenceDependencyGraph {
+
+  /**
+   * An object which provides shared dependency graphs, typically a comparison.
+   */
+  public interface Provider {
+    /**
+     * Return the graph of the inter-difference dependencies for the given role,
+     * building it if needed.
+     * This method is only meaningful once the differences have been computed.
+     * @param role_p the role to which dependencies are relative (TARGET or REFERENCE)
+     * @param isExplicit_p whether explicit or implicit dependencies are considered
+     * @return a non-null graph
+     */
+    DifferenceDependencyGraph getDependencyGraph(Role role_p, boolean isExplicit_p);
+  }
+
+  /** The initial capacity of the stack for computing closures */
+  private static final int INITIAL_STACK_CAPACITY = 16;
+
+  /** The shared closure of the components without dependencies */
+  private static final int[] EMPTY_CLOSURE = new int[0];
+
+  /** The non-null role for dependency computation */
+  private final Role _role;
+
+  /** Whether to use explicit or implicit inter-difference dependencies */
+  private final boolean _isExplicit;
+
+  /** The non-null map from differences to their indexes as nodes */
+  private final Map<IMergeableDifference, Integer> _indexes;
+
+  /** The non-null differences by node index */
+  private final IMergeableDifference[] _differences;
+
+  /** The non-null direct dependencies by node index */
+  private final int[][] _successors;
+
+  /** The non-null components by node index */
+  private final int[] _componentOf;
+
+  /** The non-null positions of the nodes in the topological order, by node index */
+  private final int[] _ranks;
+
+  /** The non-null node indexes grouped by component, in component order */
+  private final int[] _members;
+
+  /** The non-null start positions in _members per component, plus the final end position */
+  private final int[] _memberStarts;
+
+  /** The non-null, distinct components that each component directly depends on */
+  private final int[][] _dependencies;
+
+  /** The non-null closures per component as sorted arrays of components, excluding
+   * the component itself, with null for closures not computed yet */
+  private final int[][] _closures;
+
+
+  /**
+   * Constructor
+   * @param comparison_p a non-null, computed comparison
+   * @param role_p the role to which dependencies are relative (TARGET or REFERENCE)
+   * @param isExplicit_p whether to use explicit or implicit inter-difference dependencies
+   */
+  public DifferenceDependencyGraph(IComparison comparison_p, Role role_p,
+      boolean isExplicit_p) {
+    _role = role_p;
+    _isExplicit = isExplicit_p;
+    _indexes = new IdentityHashMap<IMergeableDifference, Integer>();
+    List<IMergeableDifference> differences = new ArrayList<IMergeableDifference>();
+    for (IMatch match : comparison_p.getMapping().getContents()) {
+      for (IDifference difference : match.getAllDifferences()) {
+        if (difference instanceof IMergeableDifference)
+          addNode((IMergeableDifference)difference, differences);
+      }
+    }
+    // Dependencies, which may reveal differences outside the mapping
+    List<int[]> successors = new ArrayList<int[]>(differences.size());
+    for (int i = 0; i < differences.size(); i++) {
+      Collection<IMergeableDifference> direct = getDirectDependencies(differences.get(i));
+      int[] nodeSuccessors = new int[direct.size()];
+      int j = 0;
+      for (IMergeableDifference dependency : direct) {
+        nodeSuccessors[j++] = addNode(dependency, differences);
+      }
+      successors.add(nodeSuccessors);
+    }
+    _differences = differences.toArray(new IMergeableDifference[differences.size()]);
+    _successors = successors.toArray(new int[successors.size()][]);
+    _componentOf = new int[_differences.length];
+    int nbComponents = computeComponents();
+    // Grouping of nodes per component
+    _memberStarts = new int[nbComponents + 1];
+    for (int component : _componentOf) {
+      _memberStarts[component + 1]++;
+    }
+    for (int c = 0; c < nbComponents; c++) {
+      _memberStarts[c + 1] += _memberStarts[c];
+    }
+    _members = new int[_differences.length];
+    _ranks = new int[_differences.length];
+    int[] positions = Arrays.copyOf(_memberStarts, nbComponents);
+    for (int node = 0; node < _differences.length; node++) {
+      int rank = positions[_componentOf[node]]++;
+      _members[rank] = node;
+      _ranks[node] = rank;
+    }
+    // Condensed dependencies
+    _dependencies = new int[nbComponents][];
+    int[] lastSeenBy = new int[nbComponents];
+    Arrays.fill(lastSeenBy, -1);
+    int[] buffer = new int[nbComponents];
+    for (int c = 0; c < nbComponents; c++) {
+      int size = 0;
+      lastSeenBy[c] = c;
+      for (int m = _memberStarts[c]; m < _memberStarts[c + 1]; m++) {
+        for (int successor : _successors[_members[m]]) {
+          int successorComponent = _componentOf[successor];
+          if (lastSeenBy[successorComponent] != c) {
+            lastSeenBy[successorComponent] = c;
+            buffer[size++] = successorComponent;
+          }
+        }
+      }
+      _dependencies[c] = Arrays.copyOf(buffer, size);
+    }
+    _closures = new int[nbComponents][];
+  }
+
+  /**
+   * Register the given difference as a node if needed and return its index
+   * @param difference_p a non-null difference
+   * @param differences_p the non-null, modifiable list of differences by node index
+   * @return a positive int
+   */
+  private int addNode(IMergeableDifference difference_p,
+      List<IMergeableDifference> differences_p) {
+    Integer result = _indexes.get(difference_p);
+    if (result == null) {
+      result = Integer.valueOf(differences_p.size());
+      _indexes.put(difference_p, result);
+      differences_p.add(difference_p);
+    }
+    return result.intValue();
+  }
+
+  /**
+   * Compute the strongly connected components of the graph into _componentOf.
+   * Tarjan's algorithm is applied iteratively for scalability reasons. It completes
+   * a component only after all the components it can reach, so components are
+   * numbered in topological order, dependencies first.
+   * @return the number of components
+   */
+  private int computeComponents() {
+    final int nbNodes = _differences.length;
+    int[] order = new int[nbNodes];
+    Arrays.fill(order, -1);
+    int[] lowLinks = new int[nbNodes];
+    boolean[] onStack = new boolean[nbNodes];
+    int[] componentStack = new int[nbNodes];
+    int componentStackSize = 0;
+    int[] callStack = new int[nbNodes];
+    int[] nextSuccessor = new int[nbNodes];
+    int counter = 0;
+    int result = 0;
+    for (int root = 0; root < nbNodes; root++) {
+      if (order[root] >= 0)
+        continue;
+      int callStackSize = 0;
+      callStack[callStackSize++] = root;
+      order[root] = lowLinks[root] = counter++;
+      componentStack[componentStackSize++] = root;
+      onStack[root] = true;
+      while (callStackSize > 0) {
+        int node = callStack[callStackSize - 1];
+        int[] nodeSuccessors = _successors[node];
+        if (nextSuccessor[node] < nodeSuccessors.length) {
+          int successor = nodeSuccessors[nextSuccessor[node]++];
+          if (order[successor] < 0) {
+            // Descend
+            order[successor] = lowLinks[successor] = counter++;
+            componentStack[componentStackSize++] = successor;
+            onStack[successor] = true;
+            callStack[callStackSize++] = successor;
+          } else if (onStack[successor]) {
+            lowLinks[node] = Math.min(lowLinks[node], order[successor]);
+          }
+        } else {
+          // All successors explored
+          callStackSize--;
+          if (callStackSize > 0) {
+            int caller = callStack[callStackSize - 1];
+            lowLinks[caller] = Math.min(lowLinks[caller], lowLinks[node]);
+          }
+          if (lowLinks[node] == order[node]) {
+            int member;
+            do {
+              member = componentStack[--componentStackSize];
+              onStack[member] = false;
+              _componentOf[member] = result;
+            } while (member != node);
+            result++;
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Return whether the given difference is covered by this graph
+   * @param difference_p a non-null difference
+   */
+  public boolean contains(IMergeableDifference difference_p) {
+    return _indexes.containsKey(difference_p);
+  }
+
+  /**
+   * Return whether all the given differences are covered by this graph
+   * @param differences_p a non-null collection of differences
+   */
+  public boolean containsAll(Collection<? extends IMergeableDifference> differences_p) {
+    for (IMergeableDifference difference : differences_p) {
+      if (!contains(difference))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Return the transitive closure of the dependencies of the given difference
+   * @param difference_p a non-null difference covered by this graph
+   * @return a non-null, potentially empty, unmodifiable list which does not contain
+   *         the given difference
+   */
+  public List<IMergeableDifference> getClosure(IMergeableDifference difference_p) {
+    int component = _componentOf[_indexes.get(difference_p).intValue()];
+    if (getComponentClosure(component).length == 0 &&
+        _memberStarts[component + 1] - _memberStarts[component] == 1)
+      return Collections.emptyList();
+    return getClosure(Collections.singleton(difference_p));
+  }
+
+  /**
+   * Return the transitive closure of the dependencies of the given differences
+   * @param differences_p a non-null collection of differences covered by this graph
+   * @return a non-null, potentially empty, unmodifiable list which does not contain
+   *         any of the given differences
+   */
+  public List<IMergeableDifference> getClosure(
+      Collection<? extends IMergeableDifference> differences_p) {
+    int[] components = new int[INITIAL_STACK_CAPACITY];
+    int nbComponents = 0;
+    Set<IMergeableDifference> excluded = Collections.newSetFromMap(
+        new IdentityHashMap<IMergeableDifference, Boolean>());
+    for (IMergeableDifference difference : differences_p) {
+      int component = _componentOf[_indexes.get(difference).intValue()];
+      int[] closure = getComponentClosure(component);
+      if (nbComponents + closure.length + 1 > components.length)
+        components = Arrays.copyOf(components,
+            Math.max(nbComponents + closure.length + 1, 2 * components.length));
+      components[nbComponents++] = component;
+      System.arraycopy(closure, 0, components, nbComponents, closure.length);
+      nbComponents += closure.length;
+      excluded.add(difference);
+    }
+    nbComponents = sortDistinct(components, nbComponents);
+    List<IMergeableDifference> result = new FArrayList<IMergeableDifference>(
+        IEqualityTester.BY_REFERENCE);
+    for (int i = 0; i < nbComponents; i++) {
+      int c = components[i];
+      for (int m = _memberStarts[c]; m < _memberStarts[c + 1]; m++) {
+        IMergeableDifference member = _differences[_members[m]];
+        if (!excluded.contains(member))
+          result.add(member);
+      }
+    }
+    return Collections.unmodifiableList(result);
+  }
+
+  /**
+   * Return the closure of the given component, computing it if needed.
+   * The closures of the components it depends on are computed first, iteratively.
+   * @param component_p a valid component
+   * @return a non-null, sorted array of distinct components which does not contain
+   *         the given component and which must not be modified
+   */
+  protected int[] getComponentClosure(int component_p) {
+    if (_closures[component_p] == null) {
+      int[] stack = new int[INITIAL_STACK_CAPACITY];
+      int stackSize = 0;
+      stack[stackSize++] = component_p;
+      while (stackSize > 0) {
+        int component = stack[stackSize - 1];
+        boolean ready = true;
+        for (int dependency : _dependencies[component]) {
+          if (_closures[dependency] == null) {
+            if (stackSize == stack.length)
+              stack = Arrays.copyOf(stack, stackSize + (stackSize >> 1) + 1);
+            stack[stackSize++] = dependency;
+            ready = false;
+          }
+        }
+        if (ready) {
+          stackSize--;
+          if (_closures[component] == null)
+            _closures[component] = computeComponentClosure(component);
+        }
+      }
+    }
+    return _closures[component_p];
+  }
+
+  /**
+   * Compute the closure of the given component from the closures of its dependencies
+   * @param component_p a valid component whose dependencies have their closures computed
+   * @return a non-null, sorted array of distinct components
+   */
+  private int[] computeComponentClosure(int component_p) {
+    int[] dependencies = _dependencies[component_p];
+    if (dependencies.length == 0)
+      return EMPTY_CLOSURE;
+    int[] result;
+    if (dependencies.length == 1) {
+      // Topological order: the closure of a component only contains smaller components
+      int dependency = dependencies[0];
+      int[] closure = _closures[dependency];
+      result = Arrays.copyOf(closure, closure.length + 1);
+      result[closure.length] = dependency;
+    } else {
+      int size = 0;
+      for (int dependency : dependencies) {
+        size += _closures[dependency].length + 1;
+      }
+      result = new int[size];
+      size = 0;
+      for (int dependency : dependencies) {
+        int[] closure = _closures[dependency];
+        System.arraycopy(closure, 0, result, size, closure.length);
+        size += closure.length;
+        result[size++] = dependency;
+      }
+      size = sortDistinct(result, size);
+      if (size < result.length)
+        result = Arrays.copyOf(result, size);
+    }
+    return result;
+  }
+
+  /**
+   * Return the direct dependencies of the given difference in this graph
+   * @param difference_p a non-null difference
+   * @return a non-null, potentially empty collection
+   */
+  protected Collection<IMergeableDifference> getDirectDependencies(
+      IMergeableDifference difference_p) {
+    Collection<IMergeableDifference> result;
+    if (_isExplicit) {
+      Collection<IMergeableDifference> required =
+          difference_p.getDirectRequiresDependencies(_role);
+      Collection<IMergeableDifference> implied =
+          difference_p.getDirectImpliesDependencies(_role);
+      if (implied.isEmpty()) {
+        result = required;
+      } else {
+        result = new ArrayList<IMergeableDifference>(required);
+        for (IMergeableDifference implicit : implied) {
+          result.addAll(implicit.getDirectRequiresDependencies(_role));
+        }
+      }
+    } else {
+      result = difference_p.getDirectImpliesDependencies(_role);
+    }
+    return result;
+  }
+
+  /**
+   * Return the difference of the given node
+   * @param node_p a valid node index
+   * @return a non-null difference
+   */
+  public IMergeableDifference getDifference(int node_p) {
+    return _differences[node_p];
+  }
+
+  /**
+   * Return the direct dependencies of the given node
+   * @param node_p a valid node index
+   * @return a non-null array of node indexes which must not be modified
+   */
+  public int[] getDirectDependencies(int node_p) {
+    return _successors[node_p];
+  }
+
+  /**
+   * Return the number of nodes of this graph, i.e., of differences it covers
+   * @return a positive int
+   */
+  public int getNbNodes() {
+    return _differences.length;
+  }
+
+  /**
+   * Return the position of the given node in the topological order of this graph,
+   * where dependencies come first and nodes of the same component are contiguous
+   * @param node_p a valid node index
+   * @return a positive int which is smaller than getNbNodes()
+   */
+  public int getRank(int node_p) {
+    return _ranks[node_p];
+  }
+
+  /**
+   * Return the node at the given position in the topological order of this graph
+   * @param rank_p a positive int which is smaller than getNbNodes()
+   * @return a valid node index
+   * @see DifferenceDependencyGraph#getRank(int)
+   */
+  public int getNodeAt(int rank_p) {
+    return _members[rank_p];
+  }
+
+  /**
+   * Return the index of the node of the given difference
+   * @param difference_p a non-null difference
+   * @return a valid node index, or -1 if the difference is not covered by this graph
+   */
+  public int indexOf(IMergeableDifference difference_p) {
+    Integer result = _indexes.get(difference_p);
+    return result != null? result.intValue(): -1;
+  }
+
+  /**
+   * Return the number of strongly connected components of this graph
+   * @return a positive int
+   */
+  public int getNbComponents() {
+    return _closures.length;
+  }
+
+  /**
+   * Return the role to which the dependencies of this graph are relative
+   * @return TARGET or REFERENCE
+   */
+  public Role getRole() {
+    return _role;
+  }
+
+  /**
+   * Return whether this graph represents explicit or implicit dependencies
+   */
+  public boolean isExplicit() {
+    return _isExplicit;
+  }
+
+  /**
+   * Sort the given number of first values of the given array and remove duplicates
+   * @param values_p a non-null array
+   * @param size_p the number of values to consider
+   * @return the number of distinct values, which are now the first values of the array
+   */
+  private static int sortDistinct(int[] values_p, int size_p) {
+    if (size_p == 0)
+      return 0;
+    Arrays.sort(values_p, 0, size_p);
+    int result = 1;
+    for (int i = 1; i < size_p; i++) {
+      if (values_p[i] != values_p[result - 1])
+        values_p[result++] = values_p[i];
+    }
+    return result;
+  }
+
+}
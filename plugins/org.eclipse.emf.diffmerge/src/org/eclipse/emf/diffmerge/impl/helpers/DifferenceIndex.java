@@ -0,0 +1,167 @@
+/*********************************************************************
+ * Copyright (c) 2010-2019 Thales Global Services S.A.S.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    Thales Global Services S.A.S. - initial API and implementation
+ **********************************************************************/
+package org.eclipse.emf.diffmerge.impl.helpers;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+
+import org.eclipse.emf.diffmerge.api.IComparison;
+import org.eclipse.emf.diffmerge.api.IMatch;
+import org.eclipse.emf.diffmerge.api.diff.IDifference;
+import org.eclipse.emf.diffmerge.api.diff.IElementRelativeDifference;
+import org.eclipse.emf.diffmerge.structures.IEqualityTester;
+import org.eclipse.emf.diffmerge.structures.common.FHashSet;
+
+
+/**
+ * An index of the differences of a comparison which maintains their number and the
+ * set of those which have not been merged, so that the corresponding queries on the
+ * comparison do not have to go through all matches and differences.
+ * The index must be notified of every difference added to a match and of every change
+ * in the merge state of a difference. Differences are not expected to be removed from
+ * their match while the index is in use: the index must be discarded instead.
+ * @see IComparison#getNbDifferences()
+ * @see IComparison#getRemainingDifferences()
+ * @author Olivier Constant
+ */
+public class DifferenceIndex {
+
+  /** The number of differences which have been added */
+  private int _nbDifferences;
+
+  /** The non-null set of differences which have not been merged, in the order they were added */
+  private final Set<IDifference> _remaining;
+
+
+  /**
+   * An object which maintains an index of its differences.
+   */
+  public interface Provider {
+    /**
+     * Return the index of the differences of this object
+     * @param create_p whether the index must be built if it does not exist
+     * @return a potentially null object, which is not null if create_p
+     */
+    DifferenceIndex getDifferenceIndex(boolean create_p);
+  }
+
+
+  /**
+   * Constructor for an index of a comparison which has no difference yet
+   */
+  public DifferenceIndex() {
+    _nbDifferences = 0;
+    _remaining = new FHashSet<IDifference>(IEqualityTester.BY_EQUALS);
+  }
+
+  /**
+   * Constructor for an index of the current differences of the given comparison
+   * @param comparison_p a non-null comparison
+   */
+  public DifferenceIndex(IComparison comparison_p) {
+    this();
+    for (IMatch match : comparison_p.getMapping().getContents()) {
+      if (match instanceof IMatch.Indexed) {
+        IMatch.Indexed indexedMatch = (IMatch.Indexed)match;
+        int nbDifferences = indexedMatch.getNbRelatedDifferences();
+        for (int i = 0; i < nbDifferences; i++) {
+          differenceAdded(indexedMatch.getRelatedDifference(i));
+        }
+      } else {
+        for (IDifference difference : match.getRelatedDifferences()) {
+          differenceAdded(difference);
+        }
+      }
+    }
+  }
+
+  /**
+   * Return the index which is maintained for the given comparison, if any
+   * @param comparison_p a potentially null comparison
+   * @return a potentially null object
+   */
+  public static DifferenceIndex getMaintainedIndex(IComparison comparison_p) {
+    DifferenceIndex result = null;
+    if (comparison_p instanceof Provider)
+      result = ((Provider)comparison_p).getDifferenceIndex(false);
+    return result;
+  }
+
+  /**
+   * Notify this index that the given difference has been added to a match
+   * @param difference_p a non-null difference which has not already been added
+   */
+  public synchronized void differenceAdded(IDifference difference_p) {
+    _nbDifferences++;
+    if (!difference_p.isMerged())
+      _remaining.add(difference_p);
+  }
+
+  /**
+   * Return the number of differences
+   * @see IComparison#getNbDifferences()
+   */
+  public synchronized int getNbDifferences() {
+    return _nbDifferences;
+  }
+
+  /**
+   * Return the number of differences which have not been merged, whose match is not
+   * partial and which are not related to the containment tree, in time linear in
+   * the number of differences which have not been merged
+   * @see IComparison#getNbNoContainmentDifferences()
+   */
+  public synchronized int getNbNoContainmentDifferences() {
+    int result = 0;
+    for (IDifference difference : _remaining) {
+      if (difference instanceof IElementRelativeDifference) {
+        IElementRelativeDifference relative = (IElementRelativeDifference)difference;
+        if (relative.isUnrelatedToContainmentTree() &&
+            !relative.getElementMatch().isPartial())
+          result++;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Return a copy of the set of differences which have not been merged, so that
+   * the result is not affected by subsequent merges
+   * @see IComparison#getRemainingDifferences()
+   * @return a non-null, potentially empty, unmodifiable collection
+   */
+  public synchronized Collection<IDifference> getRemainingDifferences() {
+    return Collections.unmodifiableCollection(
+        new FHashSet<IDifference>(_remaining, IEqualityTester.BY_EQUALS));
+  }
+
+  /**
+   * Return whether there are differences which have not been merged
+   * @see IComparison#hasRemainingDifferences()
+   */
+  public synchronized boolean hasRemainingDifferences() {
+    return !_remaining.isEmpty();
+  }
+
+  /**
+   * Notify this index that the merge state of the given difference may have changed
+   * @param difference_p a non-null difference which has been added
+   */
+  public synchronized void mergeStateChanged(IDifference difference_p) {
+    if (difference_p.isMerged())
+      _remaining.remove(difference_p);
+    else
+      _remaining.add(difference_p);
+  }
+
+}
@@ -0,0 +1,1289 @@
+/*********************************************************************
+ * Copyright (c) 2010-2019 Thales Global Services S.A.S.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    Thales Global Services S.A.S. - initial API and implementation
+ **********************************************************************/
+package org.eclipse.emf.diffmerge.impl.helpers;
+
+import static org.eclipse.emf.diffmerge.api.Role.ANCESTOR;
+import static org.eclipse.emf.diffmerge.api.Role.REFERENCE;
+import static org.eclipse.emf.diffmerge.api.Role.TARGET;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.emf.common.notify.Notification;
+import org.eclipse.emf.common.notify.impl.AdapterImpl;
+import org.eclipse.emf.diffmerge.api.IComparison;
+import org.eclipse.emf.diffmerge.api.IDiffPolicy;
+import org.eclipse.emf.diffmerge.api.IMatch;
+import org.eclipse.emf.diffmerge.api.IMatchPolicy;
+import org.eclipse.emf.diffmerge.api.IMergePolicy;
+import org.eclipse.emf.diffmerge.api.Role;
+import org.eclipse.emf.diffmerge.api.diff.IAttributeValuePresence;
+import org.eclipse.emf.diffmerge.api.diff.IDifference;
+import org.eclipse.emf.diffmerge.api.diff.IElementPresence;
+import org.eclipse.emf.diffmerge.api.diff.IElementRelativeDifference;
+import org.eclipse.emf.diffmerge.api.diff.IMergeableDifference;
+import org.eclipse.emf.diffmerge.api.diff.IPresenceDifference;
+import org.eclipse.emf.diffmerge.api.diff.IReferenceValuePresence;
+import org.eclipse.emf.diffmerge.api.diff.IValuePresence;
+import org.eclipse.emf.diffmerge.api.scopes.IEditableModelScope;
+import org.eclipse.emf.diffmerge.api.scopes.IModelScope;
+import org.eclipse.emf.diffmerge.diffdata.EMapping;
+import org.eclipse.emf.diffmerge.diffdata.EMatch;
+import org.eclipse.emf.diffmerge.diffdata.impl.EComparisonImpl;
+import org.eclipse.emf.diffmerge.diffdata.impl.EMatchImpl;
+import org.eclipse.emf.diffmerge.diffdata.impl.EMergeableDifferenceImpl;
+import org.eclipse.emf.diffmerge.impl.scopes.RootedModelScope;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.util.EContentsEList;
+import org.eclipse.emf.ecore.util.ECrossReferenceEList;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+
+
+/**
+ * A helper which keeps a comparison up to date with the changes in the compared scopes.
+ * Once the comparison has been computed through the operations of this helper, the
+ * elements which are touched in the compared scopes are recorded by means of an adapter
+ * which is attached to the elements of the scopes only. update(IProgressMonitor) then
+ * brings the comparison up to date locally:
+ * - the match IDs of the touched elements and of their contents are computed again,
+ *   which requires a match policy whose match IDs only depend on elements and their
+ *   ancestors;
+ * - only the elements whose match ID has changed, the elements which have appeared
+ *   or disappeared, and the elements which share their former or new match IDs
+ *   are matched again;
+ * - only the differences of the new matches, of the matches of touched elements and of
+ *   their containers, and of the matches which contain, belong to or reference elements
+ *   that have been matched again are detected again. The dependencies of the other
+ *   differences on the differences which are detected again are set again.
+ * Any other situation, e.g., different policies, swapped scopes, changes in the roots of
+ * a scope or in the ANCESTOR scope, scopes which are not plain RootedModelScopes, or
+ * duplicate match IDs, results in a full computation.
+ * A local update yields the same matches, differences and dependencies as a full
+ * computation provided that the coverage of a match by the diff policy and the addition
+ * and deletion groups of the merge policy only depend on the elements of the match, that
+ * the diff policy does not cover derived references, and that the differences which are
+ * not detected again have not been merged or ignored. Dependencies due to cyclic moves
+ * are only set for the ownership differences which are detected again.
+ * Once installed, the comparison must only be computed through this helper and its
+ * operations.
+ * @see IncrementalComparisonUpdater#isEquivalent(IComparison, IComparison)
+ * @author Olivier Constant
+ */
+public class IncrementalComparisonUpdater {
+
+  /** An object that represents a null match ID, to distinguish from absent match IDs */
+  protected static final Object NULL_MATCH_ID = new Object();
+
+  /** The non-null comparison which is kept up to date */
+  private final IComparison.Editable _comparison;
+
+  /** The non-null, modifiable map from roles to the recorders of changes in the
+   * corresponding scopes */
+  private final Map<Role, ChangeRecorder> _recorders;
+
+  /** The non-null, modifiable map from roles to the scopes of the last computation */
+  private final Map<Role, IEditableModelScope> _lastScopes;
+
+  /** The non-null, modifiable map from roles to the roots of the scopes of the
+   * last computation */
+  private final Map<Role, List<EObject>> _lastRoots;
+
+  /** The match policy of the last computation, if any */
+  private IMatchPolicy _lastMatchPolicy;
+
+  /** The diff policy of the last computation, if any */
+  private IDiffPolicy _lastDiffPolicy;
+
+  /** The merge policy of the last computation, if any */
+  private IMergePolicy _lastMergePolicy;
+
+  /** The match operation of the last computation, which computes match IDs in updates,
+   * or null if not available */
+  private IncrementalMatchOperation _matchOperation;
+
+  /** The match IDs of the elements per role, or null if not available */
+  private Map<Role, Map<EObject, Object>> _matchIDs;
+
+  /** The elements per match ID per role, or null if not available */
+  private Map<Role, Map<Object, EObject>> _registries;
+
+  /** The differences which directly depend on every difference, or null if not available */
+  private Map<IMergeableDifference, List<IMergeableDifference>> _dependents;
+
+  /** The match IDs per role which are recorded during the match phase of a computation */
+  private Map<Role, Map<EObject, Object>> _newMatchIDs;
+
+  /** Whether the last computation has been a local update */
+  private boolean _isLastUpdateLocal;
+
+  /** The number of non-partial matches whose differences have been detected during
+   * the last computation */
+  private int _nbDetectedMatches;
+
+  /** The number of elements which have been matched again during the last computation */
+  private int _nbRematchedElements;
+
+
+  /**
+   * Constructor
+   * @param comparison_p the non-null comparison to keep up to date
+   */
+  public IncrementalComparisonUpdater(IComparison.Editable comparison_p) {
+    _comparison = comparison_p;
+    _recorders = new EnumMap<Role, ChangeRecorder>(Role.class);
+    _lastScopes = new EnumMap<Role, IEditableModelScope>(Role.class);
+    _lastRoots = new EnumMap<Role, List<EObject>>(Role.class);
+  }
+
+  /**
+   * Add the given difference to the differences which depend on the given other one
+   * @param source_p a non-null difference
+   * @param target_p a non-null difference on which source_p depends
+   */
+  protected void addDependent(IMergeableDifference source_p, IMergeableDifference target_p) {
+    List<IMergeableDifference> dependents = _dependents.get(target_p);
+    if (dependents == null) {
+      dependents = new ArrayList<IMergeableDifference>(2);
+      _dependents.put(target_p, dependents);
+    }
+    if (!dependents.contains(source_p))
+      dependents.add(source_p);
+  }
+
+  /**
+   * Add the match of the given element in the given role, if any, to the given matches
+   * @param element_p a potentially null element
+   * @param role_p a non-null role
+   * @param matches_p a non-null, modifiable set of matches
+   */
+  protected void addMatchOf(EObject element_p, Role role_p, Set<IMatch> matches_p) {
+    IMatch match = _comparison.getMapping().getMatchFor(element_p, role_p);
+    if (match != null)
+      matches_p.add(match);
+  }
+
+  /**
+   * Compute the comparison from scratch on the same scopes as the given fresh comparison
+   * with the same policies as the last computation, and return whether it is equivalent
+   * to the comparison which is kept up to date
+   * @param fresh_p a non-null, non-computed comparison on the same scopes as the comparison
+   * @param monitor_p an optional progress monitor
+   * @return whether the comparisons are equivalent
+   */
+  public boolean checkConsistency(IComparison.Editable fresh_p, IProgressMonitor monitor_p) {
+    IStatus status = fresh_p.compute(_comparison.getLastMatchPolicy(),
+        _comparison.getLastDiffPolicy(), _comparison.getLastMergePolicy(), monitor_p);
+    return status.isOK() && isEquivalent(_comparison, fresh_p);
+  }
+
+  /**
+   * Clear the comparison and compute it again from scratch with the policies of the
+   * last computation
+   * @param monitor_p an optional progress monitor
+   * @return a non-null status of the computation
+   */
+  protected IStatus computeFully(IProgressMonitor monitor_p) {
+    IMatchPolicy matchPolicy = _lastMatchPolicy != null? _lastMatchPolicy:
+      _comparison.getLastMatchPolicy();
+    IDiffPolicy diffPolicy = _lastDiffPolicy != null? _lastDiffPolicy:
+      _comparison.getLastDiffPolicy();
+    IMergePolicy mergePolicy = _lastMergePolicy != null? _lastMergePolicy:
+      _comparison.getLastMergePolicy();
+    _comparison.clear();
+    return _comparison.compute(matchPolicy, diffPolicy, mergePolicy, monitor_p);
+  }
+
+  /**
+   * Stop recording changes and forget about the last computation
+   */
+  public void dispose() {
+    reset();
+  }
+
+  /**
+   * Notify this updater that the diff phase of a computation ends
+   * @param succeeded_p whether the diff phase has succeeded
+   */
+  protected void endDiff(boolean succeeded_p) {
+    if (succeeded_p && _newMatchIDs != null) {
+      _matchIDs = _newMatchIDs;
+      _registries = newRegistries();
+      _lastMatchPolicy = _comparison.getLastMatchPolicy();
+      _lastDiffPolicy = _comparison.getLastDiffPolicy();
+      _lastMergePolicy = _comparison.getLastMergePolicy();
+      boolean isObservable = _registries != null;
+      for (Role role : Role.values()) {
+        IEditableModelScope scope = _comparison.getScope(role);
+        if (scope != null) {
+          _lastScopes.put(role, scope);
+          _lastRoots.put(role, new ArrayList<EObject>(scope.getContents()));
+          isObservable = isObservable && isObservable(scope);
+        }
+      }
+      if (isObservable) {
+        for (Map.Entry<Role, IEditableModelScope> entry : _lastScopes.entrySet()) {
+          ChangeRecorder recorder = new ChangeRecorder(entry.getValue());
+          recorder.install();
+          _recorders.put(entry.getKey(), recorder);
+        }
+      } else {
+        reset();
+      }
+    } else {
+      reset();
+    }
+    _newMatchIDs = null;
+  }
+
+  /**
+   * Return the comparison which is kept up to date
+   * @return a non-null comparison
+   */
+  public IComparison.Editable getComparison() {
+    return _comparison;
+  }
+
+  /**
+   * Return the non-partial matches whose differences have been detected during
+   * the last computation
+   * @return a positive int
+   */
+  public int getNbDetectedMatches() {
+    return _nbDetectedMatches;
+  }
+
+  /**
+   * Return the number of elements which have been matched again during the last
+   * computation, which is the number of all elements if it was not a local update
+   * @return a positive int
+   */
+  public int getNbRematchedElements() {
+    return _nbRematchedElements;
+  }
+
+  /**
+   * Return the differences whose existence only depends on the given match, which are
+   * those that are detected again when the match is
+   * @param match_p a non-null match
+   * @return a non-null, modifiable list
+   */
+  protected List<IDifference> getOwnDifferences(IMatch match_p) {
+    List<IDifference> result = new ArrayList<IDifference>();
+    if (match_p.isPartial()) {
+      IElementPresence presence = match_p.getElementPresenceDifference();
+      if (presence != null)
+        result.add(presence);
+    } else {
+      result.addAll(match_p.getRelatedDifferences());
+      for (Role role : Arrays.asList(TARGET, REFERENCE)) {
+        // Ownership differences on partial containers are detected from the child
+        IReferenceValuePresence ownership = match_p.getOwnershipDifference(role);
+        if (ownership != null && ownership.getElementMatch().isPartial())
+          result.add(ownership);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Return the role of the given scope in the comparison
+   * @param scope_p a non-null scope
+   * @return a potentially null role
+   */
+  protected Role getRoleOf(IModelScope scope_p) {
+    for (Role role : Role.values()) {
+      if (_comparison.getScope(role) == scope_p)
+        return role;
+    }
+    return null;
+  }
+
+  /**
+   * Return the roles of the comparison which have a scope
+   * @return a non-null, non-empty list
+   */
+  protected List<Role> getRoles() {
+    return _comparison.isThreeWay()? Arrays.asList(TARGET, REFERENCE, ANCESTOR):
+      Arrays.asList(TARGET, REFERENCE);
+  }
+
+  /**
+   * Return whether the last computation has been a local update
+   */
+  public boolean isLastUpdateLocal() {
+    return _isLastUpdateLocal;
+  }
+
+  /**
+   * Return whether the comparison can be updated locally from the last computation
+   * and the recorded changes
+   */
+  protected boolean isLocallyUpdatable() {
+    boolean result = _registries != null && _dependents != null &&
+        _comparison instanceof EComparisonImpl &&
+        _comparison.getLastMatchPolicy() == _lastMatchPolicy &&
+        _comparison.getLastDiffPolicy() == _lastDiffPolicy &&
+        _comparison.getLastMergePolicy() == _lastMergePolicy;
+    Iterator<Role> it = Arrays.asList(Role.values()).iterator();
+    while (result && it.hasNext()) {
+      Role role = it.next();
+      IEditableModelScope scope = _comparison.getScope(role);
+      ChangeRecorder recorder = _recorders.get(role);
+      result = scope == _lastScopes.get(role) && (scope == null ||
+          recorder != null && recorder.getScope() == scope &&
+          scope.getContents().equals(_lastRoots.get(role)) &&
+          _comparison.getDuplicateMatchIDs(role).isEmpty() &&
+          (role != ANCESTOR || !recorder.hasChanges()));
+    }
+    return result;
+  }
+
+  /**
+   * Return whether the match IDs of the last computation can be reused for the
+   * elements that have not been impacted by changes, with the given match policy
+   * @see IMatchPolicy.Incremental#hasAncestorBasedMatchIDs()
+   * @param matchPolicy_p a non-null match policy
+   */
+  protected boolean isMatchIDReusable(IMatchPolicy matchPolicy_p) {
+    return matchPolicy_p instanceof IMatchPolicy.Incremental &&
+        ((IMatchPolicy.Incremental)matchPolicy_p).hasAncestorBasedMatchIDs();
+  }
+
+  /**
+   * Return whether the changes in the given scope can be recorded so that the
+   * comparison is updated locally, i.e., whether the elements it covers are
+   * exactly the contents of its roots
+   * @param scope_p a non-null scope
+   */
+  protected boolean isObservable(IModelScope scope_p) {
+    return scope_p.getClass() == RootedModelScope.class;
+  }
+
+  /**
+   * Return whether the given match IDs, where null match IDs are represented by
+   * NULL_MATCH_ID, are considered equal by the match policy of the last computation
+   * @param matchID1_p a non-null object
+   * @param matchID2_p a non-null object
+   */
+  protected boolean isSameMatchID(Object matchID1_p, Object matchID2_p) {
+    if (matchID1_p == NULL_MATCH_ID || matchID2_p == NULL_MATCH_ID)
+      return matchID1_p == matchID2_p;
+    @SuppressWarnings("unchecked") // No issue if properly defined, see IMatchPolicy
+    Comparator<Object> comparator =
+      (Comparator<Object>)_lastMatchPolicy.getMatchIDComparator();
+    return comparator != null? comparator.compare(matchID1_p, matchID2_p) == 0:
+      matchID1_p.equals(matchID2_p);
+  }
+
+  /**
+   * Return whether the two given comparisons are equivalent, i.e., they have the same matches
+   * and differences with the same characteristics, states and direct dependencies.
+   * This is typically used for checking an incrementally computed comparison against a
+   * comparison computed from scratch on the same scopes.
+   * @param first_p a non-null comparison
+   * @param second_p a non-null comparison
+   */
+  public static boolean isEquivalent(IComparison first_p, IComparison second_p) {
+    return getSignature(first_p).equals(getSignature(second_p));
+  }
+
+  /**
+   * Return a signature of the given comparison which does not depend on the objects
+   * that represent matches and differences
+   * @param comparison_p a non-null comparison
+   * @return a non-null, modifiable map from the keys of matches and differences to their
+   *         characteristics
+   */
+  protected static Map<List<Object>, List<Object>> getSignature(IComparison comparison_p) {
+    Map<List<Object>, List<Object>> result = new HashMap<List<Object>, List<Object>>();
+    for (IMatch match : comparison_p.getMapping().getContents()) {
+      result.put(getKey(match), Collections.emptyList());
+      for (IDifference difference : match.getRelatedDifferences()) {
+        List<Object> characteristics = new ArrayList<Object>();
+        characteristics.add(Boolean.valueOf(difference.isAlignedWithAncestor()));
+        characteristics.add(Boolean.valueOf(difference.isConflicting()));
+        characteristics.add(Boolean.valueOf(difference.isIgnored()));
+        characteristics.add(difference.getMergeDestination());
+        for (Role role : Arrays.asList(TARGET, REFERENCE)) {
+          characteristics.add(Boolean.valueOf(difference.canMergeTo(role)));
+          if (difference instanceof IMergeableDifference) {
+            IMergeableDifference mergeable = (IMergeableDifference)difference;
+            characteristics.add(getKeys(mergeable.getDirectRequiresDependencies(role)));
+            characteristics.add(getKeys(mergeable.getDirectImpliesDependencies(role)));
+          }
+        }
+        result.put(getKey(difference), characteristics);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Return a key for the given match which does not depend on the object that represents it
+   * @param match_p a potentially null match
+   * @return a non-null list
+   */
+  protected static List<Object> getKey(IMatch match_p) {
+    if (match_p == null)
+      return Collections.emptyList();
+    return Arrays.<Object>asList(
+        match_p.get(TARGET), match_p.get(REFERENCE), match_p.get(ANCESTOR));
+  }
+
+  /**
+   * Return a key for the given difference which does not depend on the objects that
+   * represent it
+   * @param difference_p a non-null difference
+   * @return a non-null list
+   */
+  protected static List<Object> getKey(IDifference difference_p) {
+    List<Object> result = new ArrayList<Object>();
+    result.add(difference_p instanceof IElementPresence? IElementPresence.class:
+      difference_p instanceof IAttributeValuePresence? IAttributeValuePresence.class:
+        difference_p instanceof IReferenceValuePresence? IReferenceValuePresence.class:
+          difference_p.getClass());
+    if (difference_p instanceof IPresenceDifference)
+      result.add(((IPresenceDifference)difference_p).getPresenceRole());
+    if (difference_p instanceof IElementRelativeDifference)
+      result.add(getKey(((IElementRelativeDifference)difference_p).getElementMatch()));
+    if (difference_p instanceof IElementPresence) {
+      result.add(getKey(((IElementPresence)difference_p).getOwnerMatch()));
+    } else if (difference_p instanceof IValuePresence) {
+      IValuePresence presence = (IValuePresence)difference_p;
+      result.add(presence.getFeature());
+      result.add(Boolean.valueOf(presence.isOrder()));
+      IMatch valueMatch = presence instanceof IReferenceValuePresence?
+          ((IReferenceValuePresence)presence).getValueMatch(): null;
+      result.add(valueMatch != null? getKey(valueMatch): presence.getValue());
+    }
+    return result;
+  }
+
+  /**
+   * Return the set of the keys of the given differences
+   * @param differences_p a non-null collection of differences
+   * @return a non-null, modifiable set
+   */
+  protected static Set<List<Object>> getKeys(
+      Collection<? extends IDifference> differences_p) {
+    Set<List<Object>> result = new HashSet<List<Object>>();
+    for (IDifference difference : differences_p) {
+      result.add(getKey(difference));
+    }
+    return result;
+  }
+
+  /**
+   * Return a new operation for executing the Diff phase of a full computation
+   * @param diffPolicy_p a non-null diff policy
+   * @param mergePolicy_p a non-null merge policy
+   * @return a non-null operation
+   */
+  public DiffOperation newDiffOperation(IDiffPolicy diffPolicy_p, IMergePolicy mergePolicy_p) {
+    return new IncrementalDiffOperation(diffPolicy_p, mergePolicy_p);
+  }
+
+  /**
+   * Return a new, empty, modifiable set of objects compared by reference
+   * @return a non-null set
+   */
+  protected static <T> Set<T> newIdentitySet() {
+    return Collections.newSetFromMap(new IdentityHashMap<T, Boolean>());
+  }
+
+  /**
+   * Return a new operation for executing the Match phase of a full computation
+   * @param policy_p a non-null match policy
+   * @param duplicateIDs_p an optional map that associates each role with an empty,
+   *          modifiable set of duplicate match IDs
+   * @return a non-null operation
+   */
+  public MatchOperation newMatchOperation(IMatchPolicy policy_p,
+      Map<Role, Set<Object>> duplicateIDs_p) {
+    return new IncrementalMatchOperation(policy_p, duplicateIDs_p);
+  }
+
+  /**
+   * Create and return the registries of elements per match ID from the recorded match IDs
+   * @return a potentially null map, null if some match IDs are shared by several elements
+   *         of the same role
+   */
+  protected Map<Role, Map<Object, EObject>> newRegistries() {
+    Map<Role, Map<Object, EObject>> result =
+        new EnumMap<Role, Map<Object, EObject>>(Role.class);
+    for (Map.Entry<Role, Map<EObject, Object>> entry : _matchIDs.entrySet()) {
+      Map<Object, EObject> registry = _matchOperation.createMatchIDToElementMap();
+      for (Map.Entry<EObject, Object> idEntry : entry.getValue().entrySet()) {
+        Object matchID = idEntry.getValue();
+        if (matchID != NULL_MATCH_ID && registry.put(matchID, idEntry.getKey()) != null)
+          return null;
+      }
+      result.put(entry.getKey(), registry);
+    }
+    return result;
+  }
+
+  /**
+   * Forget about the last computation and stop recording changes, so that the
+   * next computation is made from scratch
+   */
+  protected void reset() {
+    for (ChangeRecorder recorder : _recorders.values()) {
+      recorder.uninstall();
+    }
+    _recorders.clear();
+    _matchOperation = null;
+    _matchIDs = null;
+    _registries = null;
+    _dependents = null;
+    _lastMatchPolicy = null;
+    _lastDiffPolicy = null;
+    _lastMergePolicy = null;
+    _lastScopes.clear();
+    _lastRoots.clear();
+  }
+
+  /**
+   * Notify this updater that the diff phase of a full computation starts
+   */
+  protected void startDiff() {
+    _nbDetectedMatches = 0;
+    _dependents = _newMatchIDs == null? null:
+      new IdentityHashMap<IMergeableDifference, List<IMergeableDifference>>();
+  }
+
+  /**
+   * Notify this updater that the match phase of a full computation starts
+   * @param operation_p the non-null match operation of the computation
+   */
+  protected void startMatch(IncrementalMatchOperation operation_p) {
+    reset();
+    _isLastUpdateLocal = false;
+    _nbRematchedElements = 0;
+    if (isMatchIDReusable(operation_p.getMatchPolicy())) {
+      _matchOperation = operation_p;
+      _newMatchIDs = new EnumMap<Role, Map<EObject, Object>>(Role.class);
+      for (Role role : Role.values()) {
+        if (_comparison.getScope(role) != null)
+          _newMatchIDs.put(role, new ConcurrentHashMap<EObject, Object>());
+      }
+    }
+  }
+
+  /**
+   * Bring the comparison up to date with the changes that have been recorded in the
+   * compared scopes since the last computation, locally if possible, otherwise by
+   * clearing and computing it again with the same policies.
+   * If a local update fails, the next update is a full computation.
+   * @param monitor_p an optional progress monitor, which is only used by full computations
+   * @return a non-null status
+   */
+  public IStatus update(IProgressMonitor monitor_p) {
+    if (isLocallyUpdatable()) {
+      boolean succeeded = false;
+      try {
+        succeeded = updateLocally();
+      } finally {
+        if (!succeeded)
+          reset();
+      }
+      if (succeeded)
+        return Status.OK_STATUS;
+    }
+    return computeFully(monitor_p);
+  }
+
+  /**
+   * Update the differences of the comparison after the given matches have been
+   * replaced by the given new matches
+   * @param oldMatches_p the non-null set of the matches which have been removed
+   * @param newMatches_p the non-null list of the matches which have been added
+   * @param dirty_p the non-null set of the current matches whose differences must be
+   *          detected again, which includes newMatches_p
+   */
+  protected void updateDifferences(Set<IMatch> oldMatches_p, List<IMatch> newMatches_p,
+      Set<IMatch> dirty_p) {
+    // Differences to remove
+    Set<IMergeableDifference> removed = newIdentitySet();
+    for (IMatch oldMatch : oldMatches_p) {
+      for (IDifference difference : oldMatch.getAllDifferences()) {
+        removed.add((IMergeableDifference)difference);
+      }
+    }
+    for (IMatch match : dirty_p) {
+      for (IDifference difference : getOwnDifferences(match)) {
+        removed.add((IMergeableDifference)difference);
+      }
+    }
+    // Dependencies on removed differences
+    Set<IMergeableDifference> neighbors = new LinkedHashSet<IMergeableDifference>();
+    for (IMergeableDifference difference : removed) {
+      for (Role role : Arrays.asList(TARGET, REFERENCE)) {
+        for (IMergeableDifference target : difference.getDirectRequiresDependencies(role)) {
+          List<IMergeableDifference> dependents = _dependents.get(target);
+          if (dependents != null)
+            dependents.remove(difference);
+        }
+        for (IMergeableDifference target : difference.getDirectImpliesDependencies(role)) {
+          List<IMergeableDifference> dependents = _dependents.get(target);
+          if (dependents != null)
+            dependents.remove(difference);
+        }
+      }
+    }
+    for (IMergeableDifference difference : removed) {
+      List<IMergeableDifference> dependents = _dependents.remove(difference);
+      if (dependents != null) {
+        for (IMergeableDifference dependent : dependents) {
+          if (!removed.contains(dependent))
+            neighbors.add(dependent);
+        }
+      }
+    }
+    for (IMergeableDifference neighbor : neighbors) {
+      EMergeableDifferenceImpl neighborImpl = (EMergeableDifferenceImpl)neighbor;
+      for (Collection<IMergeableDifference> dependencies : Arrays.asList(
+          neighborImpl.getExplicitDependenciesForTarget(false),
+          neighborImpl.getExplicitDependenciesForReference(false),
+          neighborImpl.getImplicitDependenciesForTarget(false),
+          neighborImpl.getImplicitDependenciesForReference(false))) {
+        if (dependencies != null && !dependencies.isEmpty())
+          dependencies.removeAll(removed);
+      }
+    }
+    // Removal
+    for (IMergeableDifference difference : removed) {
+      EMatchImpl holder = (EMatchImpl)
+          ((IElementRelativeDifference)difference).getElementMatch();
+      holder.removeRelatedDifference(difference);
+    }
+    // Detection
+    ((EComparisonImpl)_comparison).discardDerivedData();
+    IncrementalDiffOperation operation =
+        new IncrementalDiffOperation(_lastDiffPolicy, _lastMergePolicy);
+    for (IMatch match : dirty_p) {
+      if (operation.getDiffPolicy().coverMatch(match))
+        operation.createTechnicalDifferences(match);
+    }
+    for (IMergeableDifference neighbor : neighbors) {
+      operation.setDependencies(neighbor);
+    }
+    ((EComparisonImpl)_comparison).discardDerivedData();
+  }
+
+  /**
+   * Update the comparison locally according to the recorded changes.
+   * Precondition: isLocallyUpdatable()
+   * @return whether the update could be made, otherwise the comparison has not been
+   *         modified and must be computed from scratch
+   */
+  protected boolean updateLocally() {
+    List<Role> roles = getRoles();
+    List<Role> changeableRoles = Arrays.asList(TARGET, REFERENCE);
+    EMapping mapping = (EMapping)_comparison.getMapping();
+    // Changes
+    Map<Role, Collection<EObject>> touched =
+        new EnumMap<Role, Collection<EObject>>(Role.class);
+    Map<Role, Set<EObject>> removed = new EnumMap<Role, Set<EObject>>(Role.class);
+    Map<Role, Map<EObject, Object>> newMatchIDs =
+        new EnumMap<Role, Map<EObject, Object>>(Role.class);
+    Map<Role, Set<EObject>> changed = new EnumMap<Role, Set<EObject>>(Role.class);
+    Map<Object, EObject> affectedIDs = _matchOperation.createMatchIDToElementMap();
+    int nbTouched = 0;
+    for (Role role : changeableRoles) {
+      touched.put(role, _recorders.get(role).consumeChanges());
+      removed.put(role, IncrementalComparisonUpdater.<EObject>newIdentitySet());
+      newMatchIDs.put(role, new IdentityHashMap<EObject, Object>());
+      changed.put(role, IncrementalComparisonUpdater.<EObject>newIdentitySet());
+      nbTouched += touched.get(role).size();
+    }
+    _nbDetectedMatches = 0;
+    _nbRematchedElements = 0;
+    _isLastUpdateLocal = true;
+    if (nbTouched == 0)
+      return true;
+    IMatchPolicy matchPolicy = _lastMatchPolicy;
+    if (matchPolicy instanceof IMatchPolicy.Stateful)
+      ((IMatchPolicy.Stateful)matchPolicy).startMatching();
+    try {
+      for (Role role : changeableRoles) {
+        updateMatchIDs(role, touched.get(role), newMatchIDs.get(role), removed.get(role));
+      }
+    } finally {
+      if (matchPolicy instanceof IMatchPolicy.Stateful)
+        ((IMatchPolicy.Stateful)matchPolicy).endMatching();
+    }
+    for (Role role : changeableRoles) {
+      Map<EObject, Object> matchIDs = _matchIDs.get(role);
+      for (Map.Entry<EObject, Object> entry : newMatchIDs.get(role).entrySet()) {
+        Object oldMatchID = matchIDs.get(entry.getKey());
+        if (oldMatchID == null || !isSameMatchID(oldMatchID, entry.getValue())) {
+          changed.get(role).add(entry.getKey());
+          if (oldMatchID != null && oldMatchID != NULL_MATCH_ID)
+            affectedIDs.put(oldMatchID, entry.getKey());
+          if (entry.getValue() != NULL_MATCH_ID)
+            affectedIDs.put(entry.getValue(), entry.getKey());
+        }
+      }
+      for (EObject element : removed.get(role)) {
+        changed.get(role).add(element);
+        Object oldMatchID = matchIDs.get(element);
+        if (oldMatchID != NULL_MATCH_ID)
+          affectedIDs.put(oldMatchID, element);
+      }
+    }
+    // Registries, which are all updated before the mapping for detecting duplicates
+    for (Role role : changeableRoles) {
+      Map<Object, EObject> registry = _registries.get(role);
+      Map<EObject, Object> matchIDs = _matchIDs.get(role);
+      for (EObject element : changed.get(role)) {
+        Object oldMatchID = matchIDs.get(element);
+        if (oldMatchID != null && oldMatchID != NULL_MATCH_ID &&
+            registry.get(oldMatchID) == element)
+          registry.remove(oldMatchID);
+      }
+    }
+    for (Role role : changeableRoles) {
+      Map<Object, EObject> registry = _registries.get(role);
+      for (EObject element : changed.get(role)) {
+        Object newMatchID = newMatchIDs.get(role).get(element);
+        if (newMatchID != null && newMatchID != NULL_MATCH_ID) {
+          EObject squatter = registry.put(newMatchID, element);
+          if (squatter != null && squatter != element)
+            return false;
+        }
+      }
+      Map<EObject, Object> matchIDs = _matchIDs.get(role);
+      matchIDs.keySet().removeAll(removed.get(role));
+      matchIDs.putAll(newMatchIDs.get(role));
+    }
+    // Matches
+    Map<Role, Set<EObject>> rematched = new EnumMap<Role, Set<EObject>>(Role.class);
+    for (Role role : roles) {
+      Set<EObject> rematchedInRole = newIdentitySet();
+      if (changed.containsKey(role))
+        rematchedInRole.addAll(changed.get(role));
+      Map<Object, EObject> registry = _registries.get(role);
+      for (Object matchID : affectedIDs.keySet()) {
+        EObject element = registry.get(matchID);
+        if (element != null)
+          rematchedInRole.add(element);
+      }
+      rematched.put(role, rematchedInRole);
+      _nbRematchedElements += rematchedInRole.size();
+    }
+    Set<IMatch> oldMatches = newIdentitySet();
+    for (Role role : roles) {
+      for (EObject element : rematched.get(role)) {
+        addMatchOf(element, role, oldMatches);
+      }
+    }
+    mapping.getModifiableContents().removeAll(oldMatches);
+    for (Role role : changeableRoles) {
+      mapping.getModifiableCompletedMatches(role).removeAll(oldMatches);
+    }
+    List<IMatch> newMatches = new ArrayList<IMatch>();
+    boolean keepMatchIDs = _lastMatchPolicy.keepMatchIDs();
+    for (Object matchID : affectedIDs.keySet()) {
+      EObject target = _registries.get(TARGET).get(matchID);
+      EObject reference = _registries.get(REFERENCE).get(matchID);
+      EObject ancestor = _comparison.isThreeWay()? _registries.get(ANCESTOR).get(matchID): null;
+      if (target != null || reference != null || ancestor != null) {
+        EMatch match = (EMatch)_comparison.newMatch(target, reference, ancestor);
+        if (keepMatchIDs)
+          match.setMatchID(_matchOperation.getKeptMatchID(matchID));
+        newMatches.add(match);
+      }
+    }
+    for (Role role : changeableRoles) {
+      for (EObject element : changed.get(role)) {
+        if (newMatchIDs.get(role).get(element) == NULL_MATCH_ID)
+          newMatches.add(_comparison.newMatch(role == TARGET? element: null,
+              role == REFERENCE? element: null, null));
+      }
+    }
+    for (IMatch match : newMatches) {
+      mapping.getModifiableContents().add((EMatch)match);
+    }
+    boolean crossReference = false;
+    for (IMatch match : oldMatches) {
+      crossReference = crossReference || match.isPartial();
+    }
+    for (IMatch match : newMatches) {
+      crossReference = crossReference || match.isPartial();
+    }
+    // Dirty matches
+    Set<IMatch> dirty = new LinkedHashSet<IMatch>(newMatches);
+    for (Role role : changeableRoles) {
+      IModelScope scope = _comparison.getScope(role);
+      for (EObject element : touched.get(role)) {
+        if (!removed.get(role).contains(element) && scope.covers(element)) {
+          IMatch match = _comparison.getMapping().getMatchFor(element, role);
+          if (match != null) {
+            dirty.add(match);
+            crossReference = crossReference || match.isPartial();
+          }
+          addMatchOf(scope.getContainer(element), role, dirty);
+        }
+      }
+    }
+    for (Role role : roles) {
+      IModelScope scope = _comparison.getScope(role);
+      ChangeRecorder recorder = _recorders.get(role);
+      for (EObject element : rematched.get(role)) {
+        if (!removed.containsKey(role) || !removed.get(role).contains(element)) {
+          addMatchOf(scope.getContainer(element), role, dirty);
+          for (EObject child : scope.getContents(element)) {
+            addMatchOf(child, role, dirty);
+          }
+        }
+        for (EObject referrer : recorder.getReferrers(element)) {
+          addMatchOf(referrer, role, dirty);
+        }
+      }
+    }
+    if (crossReference) {
+      mapping.crossReference(TARGET);
+      mapping.crossReference(REFERENCE);
+    }
+    // Differences
+    updateDifferences(oldMatches, newMatches, dirty);
+    return true;
+  }
+
+  /**
+   * Compute again the match IDs of the given touched elements of the given role
+   * and of their contents, and determine which elements have left the scope
+   * @param role_p TARGET or REFERENCE
+   * @param touched_p the non-null collection of the touched elements in the role
+   * @param newMatchIDs_p a non-null, modifiable map that must be filled with the new
+   *          match IDs of the elements in the scope, where null match IDs are
+   *          represented by NULL_MATCH_ID
+   * @param removed_p a non-null, modifiable set that must be filled with the elements
+   *          which have left the scope
+   */
+  protected void updateMatchIDs(Role role_p, Collection<EObject> touched_p,
+      Map<EObject, Object> newMatchIDs_p, Set<EObject> removed_p) {
+    IModelScope scope = _comparison.getScope(role_p);
+    ChangeRecorder recorder = _recorders.get(role_p);
+    Map<EObject, Object> matchIDs = _matchIDs.get(role_p);
+    for (EObject element : touched_p) {
+      if (scope.covers(element)) {
+        if (!newMatchIDs_p.containsKey(element)) {
+          // Match IDs may depend on ancestors
+          newMatchIDs_p.put(element, getNewMatchID(element, scope));
+          Iterator<EObject> it = scope.getAllContents(element);
+          while (it.hasNext()) {
+            EObject child = it.next();
+            if (!newMatchIDs_p.containsKey(child))
+              newMatchIDs_p.put(child, getNewMatchID(child, scope));
+          }
+        }
+      } else {
+        recorder.forget(element);
+        if (matchIDs.containsKey(element))
+          removed_p.add(element);
+        Iterator<EObject> it = EcoreUtil.getAllContents(element, false);
+        while (it.hasNext()) {
+          EObject child = it.next();
+          if (matchIDs.containsKey(child))
+            removed_p.add(child);
+        }
+      }
+    }
+  }
+
+  /**
+   * Return the current match ID of the given element
+   * @param element_p a non-null element
+   * @param scope_p a non-null scope that covers element_p
+   * @return a non-null object, where NULL_MATCH_ID stands for a null match ID
+   */
+  protected Object getNewMatchID(EObject element_p, IModelScope scope_p) {
+    Object result = _matchOperation.getMatchID(element_p, scope_p);
+    return result == null? NULL_MATCH_ID: result;
+  }
+
+
+  /**
+   * A recorder of the elements touched in a model scope, which is attached to the elements
+   * of the scope only and never resolves proxies.
+   * Touched elements include the elements whose features have changed and the elements
+   * which have been added, removed or moved. The recorder also maintains a superset of
+   * the elements of the scope which reference every element via non-derived
+   * cross-references.
+   */
+  protected static class ChangeRecorder extends AdapterImpl {
+    /** The non-null scope whose changes are recorded */
+    private final IModelScope _scope;
+    /** The non-null set of the elements this recorder is attached to */
+    private final Set<EObject> _observed;
+    /** The non-null set of touched elements */
+    private final Set<EObject> _touched;
+    /** The non-null map from elements to the elements which may reference them */
+    private final Map<EObject, List<EObject>> _referrers;
+    /**
+     * Constructor
+     * @param scope_p the non-null scope whose changes must be recorded
+     */
+    public ChangeRecorder(IModelScope scope_p) {
+      _scope = scope_p;
+      _observed = newIdentitySet();
+      _touched = newIdentitySet();
+      _referrers = new IdentityHashMap<EObject, List<EObject>>();
+    }
+    /**
+     * Register the given holder as referencing the given value
+     * @param holder_p a non-null element
+     * @param value_p a potentially null element
+     */
+    protected void addReferrer(EObject holder_p, EObject value_p) {
+      if (value_p == null)
+        return;
+      List<EObject> referrers = _referrers.get(value_p);
+      if (referrers == null) {
+        referrers = new ArrayList<EObject>(2);
+        _referrers.put(value_p, referrers);
+      }
+      if (referrers.isEmpty() || referrers.get(referrers.size() - 1) != holder_p)
+        referrers.add(holder_p);
+    }
+    /**
+     * Return the elements touched since the last call to this operation, and forget them
+     * @return a non-null, modifiable collection
+     */
+    public synchronized Collection<EObject> consumeChanges() {
+      Collection<EObject> result = new ArrayList<EObject>(_touched);
+      _touched.clear();
+      return result;
+    }
+    /**
+     * Stop observing the given element and its contents, typically because they
+     * have left the scope
+     * @param element_p a non-null element
+     */
+    public synchronized void forget(EObject element_p) {
+      unobserve(element_p);
+      Iterator<EObject> it = EcoreUtil.getAllContents(element_p, false);
+      while (it.hasNext()) {
+        unobserve(it.next());
+      }
+    }
+    /**
+     * Return the elements which may reference the given element
+     * @param element_p a non-null element
+     * @return a non-null, unmodifiable collection
+     */
+    public synchronized Collection<EObject> getReferrers(EObject element_p) {
+      List<EObject> result = _referrers.get(element_p);
+      if (result == null)
+        return Collections.emptyList();
+      return Collections.unmodifiableList(new ArrayList<EObject>(result));
+    }
+    /**
+     * Return the scope whose changes are recorded
+     * @return a non-null scope
+     */
+    public IModelScope getScope() {
+      return _scope;
+    }
+    /**
+     * Return whether elements have been touched since the last consumption of changes
+     */
+    public synchronized boolean hasChanges() {
+      return !_touched.isEmpty();
+    }
+    /**
+     * Start recording changes on the elements of the scope
+     */
+    public synchronized void install() {
+      Iterator<EObject> it = _scope.getAllContents();
+      while (it.hasNext()) {
+        observe(it.next());
+      }
+    }
+    /**
+     * @see org.eclipse.emf.common.notify.impl.AdapterImpl#notifyChanged(org.eclipse.emf.common.notify.Notification)
+     */
+    @Override
+    public void notifyChanged(Notification notification_p) {
+      if (notification_p.isTouch())
+        return;
+      switch (notification_p.getEventType()) {
+      case Notification.SET:
+      case Notification.UNSET:
+      case Notification.ADD:
+      case Notification.ADD_MANY:
+      case Notification.REMOVE:
+      case Notification.REMOVE_MANY:
+      case Notification.MOVE:
+        Object notifier = notification_p.getNotifier();
+        Object feature = notification_p.getFeature();
+        synchronized (this) {
+          if (notifier instanceof EObject)
+            _touched.add((EObject)notifier);
+          if (feature instanceof EReference) {
+            EReference reference = (EReference)feature;
+            if (reference.isContainment()) {
+              // Values are added, removed or moved
+              touch(notification_p.getOldValue(), false);
+              touch(notification_p.getNewValue(), true);
+            } else if (!reference.isContainer() && !reference.isDerived() &&
+                notifier instanceof EObject) {
+              for (EObject value : getElements(notification_p.getNewValue())) {
+                addReferrer((EObject)notifier, value);
+              }
+            }
+          }
+        }
+        break;
+      default:
+        // Not a change
+      }
+    }
+    /**
+     * Return the elements among the given value or values
+     * @param value_p a potentially null object
+     * @return a non-null, modifiable list
+     */
+    protected List<EObject> getElements(Object value_p) {
+      List<EObject> result = new ArrayList<EObject>(1);
+      if (value_p instanceof EObject) {
+        result.add((EObject)value_p);
+      } else if (value_p instanceof Collection<?>) {
+        for (Object value : (Collection<?>)value_p) {
+          if (value instanceof EObject)
+            result.add((EObject)value);
+        }
+      }
+      return result;
+    }
+    /**
+     * Start observing the given element if it is not a proxy, and register it as
+     * a referrer of the elements it references
+     * @param element_p a non-null element
+     */
+    protected void observe(EObject element_p) {
+      if (!element_p.eIsProxy() && _observed.add(element_p)) {
+        element_p.eAdapters().add(this);
+        EContentsEList.FeatureIterator<EObject> it =
+          new ECrossReferenceEList.FeatureIteratorImpl<EObject>(element_p) {
+          /**
+           * @see org.eclipse.emf.ecore.util.EContentsEList.FeatureIteratorImpl#isIncluded(org.eclipse.emf.ecore.EStructuralFeature)
+           */
+          @Override
+          protected boolean isIncluded(EStructuralFeature feature_p) {
+            return super.isIncludedEntry(feature_p) && !feature_p.isDerived();
+          }
+          /**
+           * @see org.eclipse.emf.ecore.util.EContentsEList.FeatureIteratorImpl#resolve()
+           */
+          @Override
+          protected boolean resolve() {
+            return false;
+          }
+        };
+        while (it.hasNext()) {
+          addReferrer(element_p, it.next());
+        }
+      }
+    }
+    /**
+     * Record the given value or values as touched if they are elements, and
+     * start observing them and their contents if required
+     * @param value_p a potentially null object
+     * @param observe_p whether the elements must be observed
+     */
+    protected void touch(Object value_p, boolean observe_p) {
+      for (EObject element : getElements(value_p)) {
+        _touched.add(element);
+        if (observe_p) {
+          observe(element);
+          Iterator<EObject> it = EcoreUtil.getAllContents(element, false);
+          while (it.hasNext()) {
+            observe(it.next());
+          }
+        }
+      }
+    }
+    /**
+     * Stop observing the given element
+     * @param element_p a non-null element
+     */
+    protected void unobserve(EObject element_p) {
+      if (_observed.remove(element_p))
+        element_p.eAdapters().remove(this);
+    }
+    /**
+     * Stop recording changes
+     */
+    public synchronized void uninstall() {
+      for (EObject element : _observed) {
+        element.eAdapters().remove(this);
+      }
+      _observed.clear();
+      _touched.clear();
+      _referrers.clear();
+    }
+  }
+
+
+  /**
+   * A diff operation which records the dependencies between differences, so that
+   * the differences which depend on a difference can be retrieved.
+   */
+  protected class IncrementalDiffOperation extends DiffOperation {
+    /**
+     * Constructor
+     * @param diffPolicy_p a non-null diff policy
+     * @param mergePolicy_p a non-null merge policy
+     */
+    public IncrementalDiffOperation(IDiffPolicy diffPolicy_p, IMergePolicy mergePolicy_p) {
+      super(_comparison, diffPolicy_p, mergePolicy_p);
+    }
+    /**
+     * @see org.eclipse.emf.diffmerge.impl.helpers.DiffOperation#createTechnicalDifferences(org.eclipse.emf.diffmerge.api.IMatch)
+     */
+    @Override
+    protected void createTechnicalDifferences(IMatch match_p) {
+      if (!match_p.isPartial())
+        _nbDetectedMatches++;
+      super.createTechnicalDifferences(match_p);
+    }
+    /**
+     * @see org.eclipse.emf.diffmerge.impl.helpers.DiffOperation#markImplies(org.eclipse.emf.diffmerge.api.diff.IMergeableDifference, org.eclipse.emf.diffmerge.api.diff.IMergeableDifference, org.eclipse.emf.diffmerge.api.Role)
+     */
+    @Override
+    protected void markImplies(IMergeableDifference source_p,
+        IMergeableDifference target_p, Role role_p) {
+      super.markImplies(source_p, target_p, role_p);
+      if (_dependents != null && !isReadOnly(role_p))
+        addDependent(source_p, target_p);
+    }
+    /**
+     * @see org.eclipse.emf.diffmerge.impl.helpers.DiffOperation#markRequires(org.eclipse.emf.diffmerge.api.diff.IMergeableDifference, org.eclipse.emf.diffmerge.api.diff.IMergeableDifference, org.eclipse.emf.diffmerge.api.Role)
+     */
+    @Override
+    protected void markRequires(IMergeableDifference source_p,
+        IMergeableDifference target_p, Role role_p) {
+      super.markRequires(source_p, target_p, role_p);
+      if (_dependents != null && !isReadOnly(role_p))
+        addDependent(source_p, target_p);
+    }
+    /**
+     * @see org.eclipse.emf.diffmerge.impl.helpers.DiffOperation#run()
+     */
+    @Override
+    public IStatus run() {
+      boolean succeeded = false;
+      try {
+        startDiff();
+        IStatus result = super.run();
+        succeeded = result.isOK();
+        return result;
+      } finally {
+        endDiff(succeeded);
+      }
+    }
+    /**
+     * Set again the dependencies of the given difference which has been kept while
+     * differences it depended on have been detected again
+     * @param difference_p a non-null difference
+     */
+    protected void setDependencies(IMergeableDifference difference_p) {
+      if (difference_p instanceof IElementPresence) {
+        setElementPresenceDependencies((IElementPresence)difference_p);
+      } else if (difference_p instanceof IReferenceValuePresence) {
+        setReferencedValueDependencies((IReferenceValuePresence)difference_p);
+      } else if (difference_p instanceof IAttributeValuePresence) {
+        IAttributeValuePresence presence = (IAttributeValuePresence)difference_p;
+        IAttributeValuePresence symmetrical = presence.getSymmetrical();
+        if (symmetrical != null)
+          setSymmetricalValuePresenceDependencies(presence, symmetrical);
+      }
+    }
+    /**
+     * @see org.eclipse.emf.diffmerge.impl.helpers.DiffOperation#useParallelDetection()
+     */
+    @Override
+    protected boolean useParallelDetection() {
+      // Differences are counted per match
+      return false;
+    }
+  }
+
+
+  /**
+   * A match operation which records the match IDs of the elements.
+   */
+  protected class IncrementalMatchOperation extends MatchOperation {
+    /**
+     * Constructor
+     * @param policy_p a non-null match policy
+     * @param duplicateIDs_p an optional map that associates each role with an empty,
+     *          modifiable set of duplicate match IDs, to be filled by this operation
+     */
+    public IncrementalMatchOperation(IMatchPolicy policy_p,
+        Map<Role, Set<Object>> duplicateIDs_p) {
+      super(_comparison, policy_p, duplicateIDs_p);
+    }
+    /**
+     * @see org.eclipse.emf.diffmerge.impl.helpers.MatchOperation#getMatchID(org.eclipse.emf.ecore.EObject, org.eclipse.emf.diffmerge.api.scopes.IModelScope)
+     */
+    @Override
+    protected Object getMatchID(EObject element_p, IModelScope scope_p) {
+      Object result = super.getMatchID(element_p, scope_p);
+      Map<Role, Map<EObject, Object>> newMatchIDs = _newMatchIDs;
+      if (newMatchIDs != null) {
+        Map<EObject, Object> inRole = newMatchIDs.get(getRoleOf(scope_p));
+        if (inRole != null)
+          inRole.put(element_p, result == null? NULL_MATCH_ID: result);
+      }
+      return result;
+    }
+    /**
+     * @see org.eclipse.emf.diffmerge.impl.helpers.MatchOperation#run()
+     */
+    @Override
+    public IStatus run() {
+      boolean succeeded = false;
+      try {
+        startMatch(this);
+        IStatus result = super.run();
+        succeeded = result.isOK();
+        return result;
+      } finally {
+        if (!succeeded)
+          endDiff(false);
+      }
+    }
+  }
+
+}
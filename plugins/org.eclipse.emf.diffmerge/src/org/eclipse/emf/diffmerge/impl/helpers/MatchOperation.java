@@ -11,16 +11,23 @@
  **********************************************************************/
 package org.eclipse.emf.diffmerge.impl.helpers;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.emf.diffmerge.Messages;
 import org.eclipse.emf.diffmerge.api.IComparison;
@@ -29,6 +36,9 @@ import org.eclipse.emf.diffmerge.api.IMatch;
 import org.eclipse.emf.diffmerge.api.IMatchPolicy;
 import org.eclipse.emf.diffmerge.api.Role;
 import org.eclipse.emf.diffmerge.api.scopes.IModelScope;
+import org.eclipse.emf.diffmerge.impl.scopes.AbstractModelScope;
+import org.eclipse.emf.diffmerge.impl.scopes.FragmentedModelScope;
+import org.eclipse.emf.diffmerge.util.OperationMetrics;
 import org.eclipse.emf.ecore.EObject;
 
 
@@ -38,6 +48,9 @@ import org.eclipse.emf.ecore.EObject;
  */
 public class MatchOperation extends AbstractExpensiveOperation {
   
+  /** The minimal number of elements in a scope for match IDs to be computed in parallel */
+  protected static final int PARALLEL_MATCH_ID_THRESHOLD = 1000;
+  
   /** The non-null match policy */
   private final IMatchPolicy _policy;
   
@@ -53,6 +66,10 @@ public class MatchOperation extends AbstractExpensiveOperation {
   /** Duplicate IDs in role 2 which may have an impact on the mapping */
   protected final Set<Object> _duplicateCandidatesRole2;
   
+  /** The potentially null pool of threads for computing match IDs, which is shared
+   * by all the scopes of a run of this operation */
+  private ExecutorService _matchIDExecutor;
+  
   
   /**
    * Constructor
@@ -69,6 +86,54 @@ public class MatchOperation extends AbstractExpensiveOperation {
     _duplicateIDs = duplicateIDs_p;
     _duplicateCandidatesRole1 = new HashSet<Object>(0);
     _duplicateCandidatesRole2 = new HashSet<Object>(0);
+    _matchIDExecutor = null;
+  }
+  
+  /**
+   * Compute the match IDs of the given elements from the given scope on a pool of threads
+   * if there are enough elements, sequentially otherwise.
+   * The elements are split into contiguous partitions which are processed independently.
+   * @param elements_p a non-null, potentially empty list of elements from the scope
+   * @param scope_p a non-null scope
+   * @return a non-null array of potentially null match IDs whose indexes are those of elements_p
+   */
+  protected Object[] computeMatchIDs(final List<EObject> elements_p,
+      final IModelScope scope_p) {
+    final Object[] result = new Object[elements_p.size()];
+    if (result.length < PARALLEL_MATCH_ID_THRESHOLD) {
+      for (int i = 0; i < result.length; i++) {
+        checkProgress();
+        result[i] = getMatchID(elements_p.get(i), scope_p);
+      }
+      return result;
+    }
+    int nbThreads = getNbMatchIDThreads();
+    // Several partitions per thread for balancing the workload
+    int nbPartitions = Math.min(result.length, 4 * nbThreads);
+    int partitionSize = nbPartitions == 0? 0: (result.length + nbPartitions - 1) / nbPartitions;
+    ExecutorService executor = getMatchIDExecutor();
+    List<Future<?>> futures = new ArrayList<Future<?>>(nbPartitions);
+    for (int start = 0; start < result.length; start += partitionSize) {
+      final int from = start;
+      final int to = Math.min(start + partitionSize, result.length);
+      futures.add(executor.submit(new Callable<Object>() {
+        /**
+         * @see java.util.concurrent.Callable#call()
+         */
+        public Object call() throws Exception {
+          for (int i = from; i < to; i++) {
+            if (getMonitor().isCanceled())
+              throw new OperationCanceledException();
+            result[i] = getMatchID(elements_p.get(i), scope_p);
+          }
+          return null;
+        }
+      }));
+    }
+    for (Future<?> future : futures) {
+      waitFor(future);
+    }
+    return result;
   }
   
   /**
@@ -87,6 +152,31 @@ public class MatchOperation extends AbstractExpensiveOperation {
     return result;
   }
   
+  /**
+   * Fill the mapping destructively, assuming that the match policy has been
+   * notified that matching starts
+   * @see MatchOperation#match()
+   */
+  protected void doMatch() {
+    final Role firstSide = getComparison().getMapping().getOrderingRole();
+    final Role secondSide = firstSide.opposite();
+    boolean threeWay = _comparison.isThreeWay();
+    getMonitor().subTask(Messages.MatchBuilder_Task_RegisteringIDs);
+    Map<Object, EObject> firstSideIDRegistry = explore(firstSide, true);
+    getMonitor().worked(1);
+    getMonitor().subTask(Messages.MatchBuilder_Task_MappingIDs);
+    Map<Object, EObject> secondSideIDRegistry = exploreAndMatch(
+        secondSide, firstSideIDRegistry, firstSide, null, null, threeWay);
+    getMonitor().worked(1);
+    if (threeWay) {
+      exploreAndMatch(Role.ANCESTOR, firstSideIDRegistry, firstSide,
+          secondSideIDRegistry, secondSide, false);
+      getMonitor().worked(1);
+    }
+    _duplicateCandidatesRole1.clear();
+    _duplicateCandidatesRole2.clear();
+  }
+  
   /**
    * Explore the scope of the given role and fill the mapping with its elements,
    * not attempting to match them
@@ -105,17 +195,20 @@ public class MatchOperation extends AbstractExpensiveOperation {
     if (scope != null) {
       // Explore the scope, marking its elements as unmatched
       // and registering their match IDs
-      Iterator<EObject> it = scope.getAllContents();
+      boolean needMatchIDs = rememberMatchIDs || fillIDMap_p;
+      List<EObject> elements = getAllContentsAsList(scope);
+      Object[] matchIDs = needMatchIDs? getMatchIDs(elements, scope): null;
+      long start = System.nanoTime();
       IMapping.Editable mapping = getComparison().getMapping();
-      while (it.hasNext()) {
+      for (int i = 0; i < elements.size(); i++) {
         checkProgress();
-        EObject current = it.next();
+        EObject current = elements.get(i);
         IMatch.Editable match = mapping.map(current, role_p);
-        if (rememberMatchIDs || fillIDMap_p) {
-          Object matchID = getMatchPolicy().getMatchID(current, scope);
+        if (needMatchIDs) {
+          Object matchID = matchIDs[i];
           if (matchID != null) {
             if (rememberMatchIDs)
-              match.setMatchID(matchID);
+              match.setMatchID(getKeptMatchID(matchID));
             if (fillIDMap_p) {
               EObject squatter = result.put(matchID, current);
               if (squatter != null && squatter != current && _duplicateIDs != null)
@@ -124,6 +217,8 @@ public class MatchOperation extends AbstractExpensiveOperation {
           }
         }
       }
+      getMetrics().addPhaseDuration(
+          OperationMetrics.PHASE_MAPPING, System.nanoTime() - start);
     }
     return result;
   }
@@ -153,14 +248,16 @@ public class MatchOperation extends AbstractExpensiveOperation {
     IModelScope scope = getComparison().getScope(role_p);
     boolean rememberMatchIDs = getMatchPolicy().keepMatchIDs();
     if (scope != null) {
-      Iterator<EObject> targetIt = scope.getAllContents();
+      List<EObject> elements = getAllContentsAsList(scope);
+      Object[] matchIDs = getMatchIDs(elements, scope);
+      long start = System.nanoTime();
       IMapping.Editable mapping = getComparison().getMapping();
-      while (targetIt.hasNext()) {
+      for (int i = 0; i < elements.size(); i++) {
         checkProgress();
-        EObject current = targetIt.next();
+        EObject current = elements.get(i);
         EObject counterpart1 = null;
         EObject counterpart2 = null;
-        Object matchID = getMatchPolicy().getMatchID(current, scope);
+        Object matchID = matchIDs[i];
         if (matchID != null) {
           if (fillIDMap_p) {
             EObject squatter = result.put(matchID, current);
@@ -173,7 +270,7 @@ public class MatchOperation extends AbstractExpensiveOperation {
         if (counterpart1 == null && counterpart2 == null) {
           IMatch.Editable match = mapping.map(current, role_p);
           if (rememberMatchIDs)
-            match.setMatchID(matchID);
+            match.setMatchID(getKeptMatchID(matchID));
         } else {
           boolean contradiction = false;
           if (counterpart1 != null) {
@@ -191,10 +288,100 @@ public class MatchOperation extends AbstractExpensiveOperation {
             _duplicateIDs.get(role_p).add(matchID); // matchID cannot be null since current was matched
         }
       }
+      getMetrics().addPhaseDuration(
+          OperationMetrics.PHASE_MAPPING, System.nanoTime() - start);
+    }
+    return result;
+  }
+  
+  /**
+   * Return the elements of the given scope in the order of getAllContents()
+   * @param scope_p a non-null scope
+   * @return a non-null, modifiable list
+   */
+  protected List<EObject> getAllContentsAsList(IModelScope scope_p) {
+    long start = System.nanoTime();
+    List<EObject> result = new ArrayList<EObject>();
+    Iterator<EObject> it = scope_p.getAllContents();
+    while (it.hasNext()) {
+      checkProgress();
+      result.add(it.next());
+    }
+    getMetrics().addPhaseDuration(
+        OperationMetrics.PHASE_EXPLORATION, System.nanoTime() - start);
+    getMetrics().addToCounter(OperationMetrics.COUNTER_ELEMENTS, result.size());
+    return result;
+  }
+  
+  /**
+   * Return the form of the given match ID which is to be kept in matches
+   * @see IMatchPolicy#keepMatchIDs()
+   * @param matchID_p a potentially null match ID
+   * @return a potentially null object
+   */
+  protected Object getKeptMatchID(Object matchID_p) {
+    Object result = matchID_p;
+    if (matchID_p != null && useHierarchicalMatchIDs())
+      result = matchID_p.toString(); // Hierarchical match IDs are transient
+    return result;
+  }
+  
+  /**
+   * Return the match ID of the given element according to the match policy.
+   * This operation may be called concurrently if match IDs are computed in parallel.
+   * @see IMatchPolicy#getMatchID(EObject, IModelScope)
+   * @see MatchOperation#useHierarchicalMatchIDs()
+   * @param element_p a non-null element
+   * @param scope_p a non-null scope that covers element_p
+   * @return a potentially null object
+   */
+  protected Object getMatchID(EObject element_p, IModelScope scope_p) {
+    Object result;
+    if (useHierarchicalMatchIDs())
+      result = ((IMatchPolicy.Hierarchical)getMatchPolicy()).getHierarchicalMatchID(
+          element_p, scope_p);
+    else
+      result = getMatchPolicy().getMatchID(element_p, scope_p);
+    return result;
+  }
+  
+  /**
+   * Return the match IDs of the given elements from the given scope, computing them
+   * in parallel if allowed
+   * @see MatchOperation#useParallelMatchIDs()
+   * @param elements_p a non-null, potentially empty list of elements from the scope
+   * @param scope_p a non-null scope
+   * @return a non-null array of potentially null match IDs whose indexes are those of elements_p
+   */
+  protected Object[] getMatchIDs(List<EObject> elements_p, IModelScope scope_p) {
+    long start = System.nanoTime();
+    Object[] result;
+    if (useParallelMatchIDs() && isConcurrentlyReadable(scope_p)) {
+      result = computeMatchIDs(elements_p, scope_p);
+    } else {
+      result = new Object[elements_p.size()];
+      for (int i = 0; i < result.length; i++) {
+        checkProgress();
+        result[i] = getMatchID(elements_p.get(i), scope_p);
+      }
     }
+    getMetrics().addPhaseDuration(
+        OperationMetrics.PHASE_MATCH_IDS, System.nanoTime() - start);
     return result;
   }
   
+  /**
+   * Return the pool of threads for computing match IDs, creating it if needed.
+   * The pool is shut down at the end of the match phase.
+   * @see MatchOperation#match()
+   * @return a non-null executor service
+   */
+  protected ExecutorService getMatchIDExecutor() {
+    if (_matchIDExecutor == null)
+      _matchIDExecutor = Executors.newFixedThreadPool(getNbMatchIDThreads());
+    return _matchIDExecutor;
+  }
+  
   /**
    * Return the match policy
    * @return a non-null match policy
@@ -211,6 +398,14 @@ public class MatchOperation extends AbstractExpensiveOperation {
     return _comparison;
   }
   
+  /**
+   * Return the number of threads to use for computing match IDs in parallel
+   * @return a strictly positive int
+   */
+  protected int getNbMatchIDThreads() {
+    return Runtime.getRuntime().availableProcessors();
+  }
+  
   /**
    * @see org.eclipse.emf.diffmerge.util.IExpensiveOperation#getOperationName()
    */
@@ -226,30 +421,51 @@ public class MatchOperation extends AbstractExpensiveOperation {
     return _comparison.isThreeWay()? 5: 6; // 1 init, 2|3 for ID-based matching, 2 for cross-refs
   }
   
+  /**
+   * Return whether the given scope can be navigated from several threads at the same time
+   * while match IDs are being computed. Scopes which may load fragments or resolve proxies
+   * when they are navigated, and thus modify the model, are not considered as such.
+   * @param scope_p a non-null scope
+   */
+  protected boolean isConcurrentlyReadable(IModelScope scope_p) {
+    return scope_p instanceof AbstractModelScope && !(scope_p instanceof FragmentedModelScope);
+  }
+  
   /**
    * Fill the mapping destructively
    * Postcondition: getOutput().isCompleteFor(TARGET)
    * Postcondition: getOutput().isCompleteFor(REFERENCE)
    * Postcondition: !getOutput().isThreeWay() || getOutput().isCompleteFor(ANCESTOR)
+   * @see IMatchPolicy.Stateful
    */
   protected void match() {
-    final Role firstSide = getComparison().getMapping().getOrderingRole();
-    final Role secondSide = firstSide.opposite();
-    boolean threeWay = _comparison.isThreeWay();
-    getMonitor().subTask(Messages.MatchBuilder_Task_RegisteringIDs);
-    Map<Object, EObject> firstSideIDRegistry = explore(firstSide, true);
-    getMonitor().worked(1);
-    getMonitor().subTask(Messages.MatchBuilder_Task_MappingIDs);
-    Map<Object, EObject> secondSideIDRegistry = exploreAndMatch(
-        secondSide, firstSideIDRegistry, firstSide, null, null, threeWay);
-    getMonitor().worked(1);
-    if (threeWay) {
-      exploreAndMatch(Role.ANCESTOR, firstSideIDRegistry, firstSide,
-          secondSideIDRegistry, secondSide, false);
-      getMonitor().worked(1);
+    IMatchPolicy policy = getMatchPolicy();
+    if (policy instanceof IMatchPolicy.Stateful)
+      ((IMatchPolicy.Stateful)policy).startMatching();
+    try {
+      doMatch();
+    } finally {
+      if (_matchIDExecutor != null) {
+        _matchIDExecutor.shutdownNow();
+        _matchIDExecutor = null;
+      }
+      if (policy instanceof IMatchPolicy.Stateful)
+        ((IMatchPolicy.Stateful)policy).endMatching();
     }
-    _duplicateCandidatesRole1.clear();
-    _duplicateCandidatesRole2.clear();
+  }
+  
+  /**
+   * Record the numbers of matches of the given mapping by kind in the metrics
+   * @param mapping_p a non-null mapping
+   */
+  protected void recordMatches(IMapping mapping_p) {
+    int nbPartial = 0;
+    for (IMatch match : mapping_p.getContents()) {
+      if (match.isPartial())
+        nbPartial++;
+    }
+    getMetrics().addToCounter(OperationMetrics.COUNTER_MATCHES, mapping_p.size());
+    getMetrics().addToCounter(OperationMetrics.COUNTER_PARTIAL_MATCHES, nbPartial);
   }
   
   /**
@@ -260,11 +476,39 @@ public class MatchOperation extends AbstractExpensiveOperation {
     getMonitor().worked(1);
     match();
     IMapping.Editable mapping = _comparison.getMapping();
+    recordMatches(mapping);
+    long start = System.nanoTime();
     mapping.crossReference(Role.TARGET);
     getMonitor().worked(1);
     mapping.crossReference(Role.REFERENCE);
     getMonitor().worked(1);
+    getMetrics().addPhaseDuration(
+        OperationMetrics.PHASE_CROSS_REFERENCING, System.nanoTime() - start);
     return Status.OK_STATUS;
   }
   
+  /**
+   * Return whether the match IDs which are computed are hierarchical match IDs
+   * provided by the match policy
+   * @see IMatchPolicy.Hierarchical
+   */
+  protected boolean useHierarchicalMatchIDs() {
+    IMatchPolicy policy = getMatchPolicy();
+    return policy instanceof IMatchPolicy.Hierarchical &&
+        ((IMatchPolicy.Hierarchical)policy).hasHierarchicalMatchIDs();
+  }
+  
+  /**
+   * Return whether match IDs must be computed in parallel before the elements
+   * are mapped. Mapping and detection of duplicate match IDs remain sequential,
+   * so the resulting mapping does not depend on this choice.
+   * @see IMatchPolicy.Parallelizable
+   */
+  protected boolean useParallelMatchIDs() {
+    IMatchPolicy policy = getMatchPolicy();
+    return policy instanceof IMatchPolicy.Parallelizable &&
+        ((IMatchPolicy.Parallelizable)policy).isThreadSafe() &&
+        getNbMatchIDThreads() > 1;
+  }
+  
 }
@@ -0,0 +1,269 @@
+/*********************************************************************
+ * Copyright (c) 2010-2019 Thales Global Services S.A.S.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    Thales Global Services S.A.S. - initial API and implementation
+ **********************************************************************/
+package org.eclipse.emf.diffmerge.impl.helpers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.emf.diffmerge.api.IComparison;
+import org.eclipse.emf.diffmerge.api.IMapping;
+import org.eclipse.emf.diffmerge.api.IMatch;
+import org.eclipse.emf.diffmerge.api.Role;
+import org.eclipse.emf.diffmerge.api.scopes.IModelScope;
+import org.eclipse.emf.diffmerge.structures.common.FArrayList;
+import org.eclipse.emf.ecore.EObject;
+
+
+/**
+ * A frozen view of the containment trees of the matches of a comparison, as induced
+ * by the containment of their elements in every role, plus the tree which merges the
+ * TARGET and REFERENCE roles.
+ * The trees are built in one traversal of the scopes, so that roots, children and
+ * containers are then available in constant time. Merged children are computed
+ * at most once per match, when first requested.
+ * The view must be built once matches are known, and it is not updated if the
+ * mapping or the scopes change afterwards: it must be discarded instead.
+ * @see MatchTree.Provider#discardMatchTree()
+ * @see IComparison#getContentsOf(IMatch, Role)
+ * @see IComparison#getContainerOf(IMatch, Role)
+ * @author Olivier Constant
+ */
+public class MatchTree {
+
+  /** The non-null map from roles to their non-null, unmodifiable lists of root matches */
+  private final Map<Role, List<IMatch>> _roots;
+
+  /** The non-null map from roles to the non-null map from matches to their non-null,
+   * non-empty, unmodifiable lists of children; leaf matches are absent */
+  private final Map<Role, Map<IMatch, List<IMatch>>> _children;
+
+  /** The non-null map from roles to the non-null map from the matches found in the
+   * role to their potentially null containers, where null stands for root matches */
+  private final Map<Role, Map<IMatch, IMatch>> _containers;
+
+  /** The non-null map from matches to their non-null, unmodifiable lists of children
+   * in the merged tree, filled on demand */
+  private final Map<IMatch, List<IMatch>> _mergedChildren;
+
+  /** The potentially null, unmodifiable list of roots in the merged tree, null until
+   * requested */
+  private List<IMatch> _mergedRoots;
+
+
+  /**
+   * An object which maintains a containment tree of its matches.
+   */
+  public interface Provider {
+    /**
+     * Discard the containment tree of matches, if any, so that it is rebuilt from the
+     * current mapping and scopes the next time it is needed.
+     * This must be called whenever the scopes are modified by other means than the
+     * operations of this object, e.g., when merges are undone or redone.
+     */
+    void discardMatchTree();
+  }
+
+
+  /**
+   * Constructor
+   * @param comparison_p a non-null comparison whose mapping has been computed
+   */
+  public MatchTree(IComparison comparison_p) {
+    _roots = new EnumMap<Role, List<IMatch>>(Role.class);
+    _children = new EnumMap<Role, Map<IMatch, List<IMatch>>>(Role.class);
+    _containers = new EnumMap<Role, Map<IMatch, IMatch>>(Role.class);
+    _mergedChildren = new IdentityHashMap<IMatch, List<IMatch>>();
+    _mergedRoots = null;
+    for (Role role : Role.values()) {
+      IModelScope scope = comparison_p.getScope(role);
+      if (scope != null)
+        build(comparison_p.getMapping(), scope, role);
+    }
+  }
+
+  /**
+   * Build the tree of the given role from the given scope
+   * @param mapping_p the non-null mapping of the comparison
+   * @param scope_p the non-null scope of the given role
+   * @param role_p a non-null role
+   */
+  protected void build(IMapping mapping_p, IModelScope scope_p, Role role_p) {
+    Map<IMatch, List<IMatch>> children = new IdentityHashMap<IMatch, List<IMatch>>();
+    Map<IMatch, IMatch> containers = new IdentityHashMap<IMatch, IMatch>();
+    List<IMatch> roots = getMatches(scope_p.getContents(), mapping_p, role_p);
+    List<IMatch> toVisit = new ArrayList<IMatch>(roots);
+    for (IMatch root : roots) {
+      containers.put(root, null);
+    }
+    // Depth-first traversal with an explicit stack for deep models
+    while (!toVisit.isEmpty()) {
+      IMatch current = toVisit.remove(toVisit.size() - 1);
+      List<IMatch> currentChildren = getMatches(
+          scope_p.getContents(current.get(role_p)), mapping_p, role_p);
+      if (!currentChildren.isEmpty()) {
+        children.put(current, currentChildren);
+        for (IMatch child : currentChildren) {
+          containers.put(child, current);
+          toVisit.add(child);
+        }
+      }
+    }
+    _roots.put(role_p, roots);
+    _children.put(role_p, children);
+    _containers.put(role_p, containers);
+  }
+
+  /**
+   * Return whether the given match has been found in the given role, i.e., whether
+   * its element in the role belongs to the tree of the corresponding scope
+   * @param match_p a non-null match
+   * @param role_p a non-null role
+   */
+  public boolean covers(IMatch match_p, Role role_p) {
+    Map<IMatch, IMatch> containers = _containers.get(role_p);
+    return containers != null && containers.containsKey(match_p);
+  }
+
+  /**
+   * Discard the tree which is maintained for the given comparison, if any
+   * @see MatchTree.Provider#discardMatchTree()
+   * @param comparison_p a potentially null comparison
+   */
+  public static void discardMaintainedTree(IComparison comparison_p) {
+    if (comparison_p instanceof Provider)
+      ((Provider)comparison_p).discardMatchTree();
+  }
+
+  /**
+   * Return the container of the given match in the given role
+   * @see IComparison#getContainerOf(IMatch, Role)
+   * @param match_p a non-null match
+   * @param role_p a non-null role
+   * @return a potentially null match, where null stands for a root match or a match
+   *          which is not covered in the given role
+   */
+  public IMatch getContainerOf(IMatch match_p, Role role_p) {
+    Map<IMatch, IMatch> containers = _containers.get(role_p);
+    return containers == null? null: containers.get(match_p);
+  }
+
+  /**
+   * Return the roots of the merged tree
+   * @see IComparison#getContents()
+   * @return a non-null, potentially empty, unmodifiable list
+   */
+  public synchronized List<IMatch> getContents() {
+    if (_mergedRoots == null)
+      _mergedRoots = merge(getContents(Role.REFERENCE), getContents(Role.TARGET));
+    return _mergedRoots;
+  }
+
+  /**
+   * Return the roots of the tree of the given role
+   * @see IComparison#getContents(Role)
+   * @param role_p a non-null role
+   * @return a non-null, potentially empty, unmodifiable list
+   */
+  public List<IMatch> getContents(Role role_p) {
+    List<IMatch> result = _roots.get(role_p);
+    if (result == null)
+      result = Collections.emptyList();
+    return result;
+  }
+
+  /**
+   * Return the children of the given match in the merged tree
+   * @see IComparison#getContentsOf(IMatch)
+   * @param match_p a non-null match
+   * @return a non-null, potentially empty, unmodifiable list
+   */
+  public synchronized List<IMatch> getContentsOf(IMatch match_p) {
+    List<IMatch> result = _mergedChildren.get(match_p);
+    if (result == null) {
+      List<IMatch> referenceChildren = getContentsOf(match_p, Role.REFERENCE);
+      List<IMatch> targetChildren = getContentsOf(match_p, Role.TARGET);
+      result = merge(referenceChildren, targetChildren);
+      // Only actual unions are worth remembering
+      if (result != referenceChildren && result != targetChildren)
+        _mergedChildren.put(match_p, result);
+    }
+    return result;
+  }
+
+  /**
+   * Return the children of the given match in the tree of the given role
+   * @see IComparison#getContentsOf(IMatch, Role)
+   * @param match_p a non-null match
+   * @param role_p a non-null role
+   * @return a non-null, potentially empty, unmodifiable list
+   */
+  public List<IMatch> getContentsOf(IMatch match_p, Role role_p) {
+    List<IMatch> result = null;
+    Map<IMatch, List<IMatch>> children = _children.get(role_p);
+    if (children != null)
+      result = children.get(match_p);
+    if (result == null)
+      result = Collections.emptyList();
+    return result;
+  }
+
+  /**
+   * Return the matches of the given elements in the given role
+   * @param elements_p a non-null, potentially empty list of elements
+   * @param mapping_p a non-null mapping
+   * @param role_p a non-null role
+   * @return a non-null, potentially empty, unmodifiable list
+   */
+  protected List<IMatch> getMatches(List<EObject> elements_p, IMapping mapping_p,
+      Role role_p) {
+    if (elements_p.isEmpty())
+      return Collections.emptyList();
+    List<IMatch> result = new FArrayList<IMatch>(elements_p.size(), null);
+    for (EObject element : elements_p) {
+      IMatch match = mapping_p.getMatchFor(element, role_p);
+      if (match != null)
+        result.add(match);
+    }
+    return result.isEmpty()? Collections.<IMatch>emptyList():
+      Collections.unmodifiableList(result);
+  }
+
+  /**
+   * Return the union of the given lists of matches without duplicates, where the
+   * first list comes first, in linear time
+   * @param first_p a non-null, unmodifiable list
+   * @param second_p a non-null, unmodifiable list
+   * @return a non-null, unmodifiable list
+   */
+  protected List<IMatch> merge(List<IMatch> first_p, List<IMatch> second_p) {
+    if (second_p.isEmpty())
+      return first_p;
+    if (first_p.isEmpty())
+      return second_p;
+    Set<IMatch> known = Collections.newSetFromMap(
+        new IdentityHashMap<IMatch, Boolean>(first_p.size()));
+    known.addAll(first_p);
+    List<IMatch> result = new FArrayList<IMatch>(first_p.size() + second_p.size(), null);
+    result.addAll(first_p);
+    for (IMatch match : second_p) {
+      if (known.add(match))
+        result.add(match);
+    }
+    return Collections.unmodifiableList(result);
+  }
+
+}
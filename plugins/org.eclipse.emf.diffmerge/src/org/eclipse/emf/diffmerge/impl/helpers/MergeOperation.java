@@ -25,6 +25,7 @@ import org.eclipse.emf.diffmerge.api.Role;
 import org.eclipse.emf.diffmerge.api.diff.IDifference;
 import org.eclipse.emf.diffmerge.api.diff.IMergeableDifference;
 import org.eclipse.emf.diffmerge.structures.common.FArrayList;
+import org.eclipse.emf.diffmerge.util.OperationMetrics;
 
 
 /**
@@ -126,12 +127,17 @@ public class MergeOperation extends AbstractExpensiveOperation {
   public IStatus run() {
     getMonitor().worked(1);
     IStatus result;
+    long start = System.nanoTime();
     if (isGlobal())
       result = runOnComparison();
     else
       result = runOnSet();
+    getMetrics().addPhaseDuration(OperationMetrics.PHASE_MERGE, System.nanoTime() - start);
+    getMetrics().addToCounter(
+        OperationMetrics.COUNTER_MERGED_DIFFERENCES, _actuallyMerged.size());
     if (_updateReferences && result != null && result.isOK()) {
       checkProgress();
+      start = System.nanoTime();
       IMapping.Editable mapping = (IMapping.Editable)_comparison.getMapping();
       if (_destinationRole != null) {
         mapping.completeReferences(_destinationRole);
@@ -139,6 +145,8 @@ public class MergeOperation extends AbstractExpensiveOperation {
         mapping.completeReferences(Role.TARGET);
         mapping.completeReferences(Role.REFERENCE);
       }
+      getMetrics().addPhaseDuration(
+          OperationMetrics.PHASE_REFERENCE_COMPLETION, System.nanoTime() - start);
       getMonitor().worked(1);
     }
     return result;
@@ -160,6 +168,7 @@ public class MergeOperation extends AbstractExpensiveOperation {
             _actuallyMerged.addAll(merged);
           } catch (UnsupportedOperationException e) {
             // Required differences cannot be merged: proceed
+            getMetrics().incrementCounter(OperationMetrics.COUNTER_MERGE_CONFLICTS);
           }
         }
       }
@@ -183,6 +192,7 @@ public class MergeOperation extends AbstractExpensiveOperation {
         }
       } catch (UnsupportedOperationException e) {
         // Cannot merge this difference: proceed
+        getMetrics().incrementCounter(OperationMetrics.COUNTER_MERGE_CONFLICTS);
       }
       getMonitor().worked(1);
     }
@@ -0,0 +1,357 @@
+/*********************************************************************
+ * Copyright (c) 2010-2019 Thales Global Services S.A.S.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    Thales Global Services S.A.S. - initial API and implementation
+ **********************************************************************/
+package org.eclipse.emf.diffmerge.impl.helpers;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.diffmerge.api.IComparison;
+import org.eclipse.emf.diffmerge.api.IDiffPolicy;
+import org.eclipse.emf.diffmerge.api.IMatch;
+import org.eclipse.emf.diffmerge.api.Role;
+import org.eclipse.emf.diffmerge.api.scopes.IFeaturedModelScope;
+import org.eclipse.emf.ecore.EAttribute;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+
+
+/**
+ * A helper which computes Merkle digests of the elements of the scopes of a comparison
+ * whose mapping is complete, so that the matches whose subtrees are identical on the
+ * TARGET and REFERENCE sides can be skipped as a whole by the diff phase.
+ * The digest of an element is a 64-bit hash which is computed bottom-up from:
+ * - its type and its own match,
+ * - the values of the features covered by the diff policy, excluding container
+ *   references and the values which are not covered: attribute values on their own,
+ *   in-scope reference values through their match, out-of-scope reference values
+ *   through their URI,
+ * - the digests of its children in the scope.
+ * Values are combined in order if the diff policy considers the feature as ordered,
+ * regardless of order otherwise.
+ * Since matches stand for elements, two elements of the same match have the same digest
+ * if and only if, except in the negligible event of a hash collision, their subtrees
+ * consist of the same matches with the same values, in which case no difference can be
+ * detected in the subtrees unless the diff policy is not digestible.
+ * Values which cannot be hashed consistently with Object#equals(Object) make the digest
+ * of their holder unique.
+ * @see IDiffPolicy.Digestible
+ * @see DiffOperation#useSubtreeDigests()
+ * @author Olivier Constant
+ */
+public class SubtreeDigester {
+
+  /** The multiplier for combining hashes */
+  private static final long MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+  /** The seed of digests */
+  private static final long SEED = 0xCBF29CE484222325L;
+
+  /** The tag of values which are not hashable */
+  private static final long UNHASHABLE = 1L;
+
+  /** The tag of null values */
+  private static final long NULL_VALUE = 2L;
+
+  /** The non-null comparison whose mapping is complete */
+  private final IComparison _comparison;
+
+  /** The non-null, digestible diff policy */
+  private final IDiffPolicy _policy;
+
+  /** The non-null cache of the hashes of the types of elements */
+  private final Map<EClass, Long> _typeHashes;
+
+  /** The non-null cache of the hashes of the Java types of values */
+  private final Map<Class<?>, Long> _classHashes;
+
+  /** The number of unique digests produced so far */
+  private long _nbUniqueDigests;
+
+
+  /**
+   * Constructor
+   * @param comparison_p a non-null comparison whose mapping is complete
+   * @param policy_p a non-null, digestible diff policy
+   */
+  public SubtreeDigester(IComparison comparison_p, IDiffPolicy policy_p) {
+    _comparison = comparison_p;
+    _policy = policy_p;
+    _typeHashes = new IdentityHashMap<EClass, Long>();
+    _classHashes = new IdentityHashMap<Class<?>, Long>();
+    _nbUniqueDigests = 0;
+  }
+
+  /**
+   * Combine the given hash with the given value
+   * @param hash_p a hash
+   * @param value_p a value
+   * @return a hash
+   */
+  protected static long combine(long hash_p, long value_p) {
+    return (Long.rotateLeft(hash_p, 23) ^ value_p) * MULTIPLIER;
+  }
+
+  /**
+   * Compute and register the digests of the given element and of its descendants
+   * in the given scope
+   * @param element_p a non-null element of the scope
+   * @param role_p the role of the scope, which is TARGET or REFERENCE
+   * @param scope_p a non-null scope
+   * @param digests_p a non-null, modifiable map in which digests are registered
+   * @return the digest of element_p
+   */
+  protected long digest(EObject element_p, Role role_p, IFeaturedModelScope scope_p,
+      Map<EObject, Long> digests_p) {
+    long result = digestContents(element_p, role_p, scope_p);
+    for (EObject child : scope_p.getContents(element_p)) {
+      result = combine(result, digest(child, role_p, scope_p, digests_p));
+    }
+    result = finish(result);
+    digests_p.put(element_p, Long.valueOf(result));
+    return result;
+  }
+
+  /**
+   * Compute the digest of the given element regardless of its descendants
+   * @param element_p a non-null element of the scope
+   * @param role_p the non-null role of the scope
+   * @param scope_p a non-null scope
+   * @return a digest
+   */
+  protected long digestContents(EObject element_p, Role role_p, IFeaturedModelScope scope_p) {
+    IMatch match = _comparison.getMapping().getMatchFor(element_p, role_p);
+    if (match == null)
+      return getUniqueDigest(role_p);
+    EClass eClass = element_p.eClass();
+    long result = combine(combine(SEED, getTypeHash(eClass)), hashMatch(match));
+    for (EAttribute attribute : eClass.getEAllAttributes()) {
+      if (_policy.coverFeature(attribute)) {
+        List<Object> values = scope_p.get(element_p, attribute);
+        result = combine(result, eClass.getFeatureID(attribute));
+        if (attribute.isMany() && _policy.considerOrdered(attribute)) {
+          // Uncovered values may still be misplaced, so all values are taken into account
+          result = combine(result, values.size());
+          for (Object value : values) {
+            long valueHash = hashAttributeValue(value);
+            if (valueHash == UNHASHABLE)
+              return getUniqueDigest(role_p);
+            result = combine(result, valueHash);
+          }
+        } else {
+          long sum = 0L;
+          int nbCovered = 0;
+          for (Object value : values) {
+            if (value == null || _policy.coverValue(value, attribute)) {
+              long valueHash = hashAttributeValue(value);
+              if (valueHash == UNHASHABLE)
+                return getUniqueDigest(role_p);
+              sum += finish(valueHash);
+              nbCovered++;
+            }
+          }
+          result = combine(combine(result, nbCovered), sum);
+        }
+      }
+    }
+    for (EReference reference : eClass.getEAllReferences()) {
+      if (!reference.isContainer() && _policy.coverFeature(reference)) {
+        List<EObject> values = scope_p.get(element_p, reference);
+        boolean isOrdered = reference.isMany() && _policy.considerOrdered(reference);
+        result = combine(result, eClass.getFeatureID(reference));
+        long sum = 0L;
+        int nbCovered = 0;
+        Set<URI> outOfScopeURIs = null;
+        for (EObject value : values) {
+          // Uncovered values are ignored by detection, including for ordering
+          IMatch valueMatch = _comparison.getMapping().getMatchFor(value, role_p);
+          long valueHash;
+          if (valueMatch != null) {
+            if (!_policy.coverMatch(valueMatch))
+              continue;
+            valueHash = hashMatch(valueMatch);
+          } else {
+            if (!_policy.coverOutOfScopeValue(value, reference))
+              continue;
+            URI uri = EcoreUtil.getURI(value);
+            if (outOfScopeURIs == null)
+              outOfScopeURIs = new HashSet<URI>();
+            // Out-of-scope values with the same URI could be aligned differently
+            if (!outOfScopeURIs.add(uri))
+              return getUniqueDigest(role_p);
+            valueHash = hashString(EObject.class, String.valueOf(uri));
+          }
+          nbCovered++;
+          if (isOrdered)
+            result = combine(result, valueHash);
+          else
+            sum += finish(valueHash);
+        }
+        result = combine(combine(result, nbCovered), sum);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Spread the bits of the given hash
+   * @param hash_p a hash
+   * @return a hash
+   */
+  protected static long finish(long hash_p) {
+    long result = hash_p;
+    result ^= result >>> 33;
+    result *= 0xFF51AFD7ED558CCDL;
+    result ^= result >>> 33;
+    result *= 0xC4CEB9FE1A85EC53L;
+    result ^= result >>> 33;
+    return result;
+  }
+
+  /**
+   * Compute and return the digests of all the elements of the scope of the given role.
+   * Neither the scopes nor the mapping may be modified while this operation is executed.
+   * @param role_p TARGET or REFERENCE
+   * @return a non-null, modifiable map from elements to their digests
+   */
+  public Map<EObject, Long> getDigests(Role role_p) {
+    Map<EObject, Long> result =
+        new IdentityHashMap<EObject, Long>(_comparison.getMapping().size());
+    IFeaturedModelScope scope = _comparison.getScope(role_p);
+    for (EObject root : scope.getContents()) {
+      digest(root, role_p, scope, result);
+    }
+    return result;
+  }
+
+  /**
+   * Return a hash of the given attribute value which is consistent with Object#equals(Object),
+   * or UNHASHABLE if it cannot be determined
+   * @param value_p a potentially null attribute value
+   * @return a hash
+   */
+  protected long hashAttributeValue(Object value_p) {
+    long result;
+    if (value_p == null) {
+      result = NULL_VALUE;
+    } else if (value_p instanceof String) {
+      result = hashString(value_p.getClass(), (String)value_p);
+    } else if (value_p instanceof Integer || value_p instanceof Long ||
+        value_p instanceof Short || value_p instanceof Byte) {
+      result = combine(getClassHash(value_p.getClass()), ((Number)value_p).longValue());
+    } else if (value_p instanceof Double) {
+      result = combine(getClassHash(value_p.getClass()),
+          Double.doubleToLongBits(((Double)value_p).doubleValue()));
+    } else if (value_p instanceof Float) {
+      result = combine(getClassHash(value_p.getClass()),
+          Float.floatToIntBits(((Float)value_p).floatValue()));
+    } else if (value_p instanceof Boolean) {
+      result = combine(getClassHash(value_p.getClass()),
+          ((Boolean)value_p).booleanValue()? 1: 0);
+    } else if (value_p instanceof Character) {
+      result = combine(getClassHash(value_p.getClass()), ((Character)value_p).charValue());
+    } else if (value_p instanceof Date) {
+      result = value_p.getClass() == Date.class? combine(
+          getClassHash(value_p.getClass()), ((Date)value_p).getTime()): UNHASHABLE;
+    } else if (value_p instanceof BigInteger || value_p instanceof BigDecimal) {
+      // The string representation of BigDecimal includes its scale, as equals does
+      result = hashString(value_p.getClass(), value_p.toString());
+    } else if (value_p instanceof Enum<?>) {
+      result = combine(getClassHash(value_p.getClass()), ((Enum<?>)value_p).ordinal());
+    } else {
+      result = UNHASHABLE;
+    }
+    return result;
+  }
+
+  /**
+   * Return a hash of the given match which is the same on the TARGET and REFERENCE sides.
+   * It combines the identity hash codes of the match and of its TARGET and REFERENCE
+   * elements, so that distinct matches practically never have the same hash.
+   * @param match_p a non-null match
+   * @return a hash
+   */
+  protected long hashMatch(IMatch match_p) {
+    EObject target = match_p.get(Role.TARGET);
+    EObject reference = match_p.get(Role.REFERENCE);
+    long result = combine(SEED, System.identityHashCode(match_p));
+    result = combine(result, target == null? 0: System.identityHashCode(target));
+    result = combine(result, reference == null? 0: System.identityHashCode(reference));
+    return result;
+  }
+
+  /**
+   * Return a hash of the given string as a value of the given type
+   * @param type_p a non-null type
+   * @param string_p a non-null string
+   * @return a hash
+   */
+  protected long hashString(Class<?> type_p, String string_p) {
+    long result = combine(getClassHash(type_p), string_p.length());
+    for (int i = 0; i < string_p.length(); i++) {
+      result = combine(result, string_p.charAt(i));
+    }
+    return finish(result);
+  }
+
+  /**
+   * Return a hash of the given Java type
+   * @param type_p a non-null type
+   * @return a hash
+   */
+  protected long getClassHash(Class<?> type_p) {
+    Long result = _classHashes.get(type_p);
+    if (result == null) {
+      String name = type_p.getName();
+      long hash = SEED;
+      for (int i = 0; i < name.length(); i++) {
+        hash = combine(hash, name.charAt(i));
+      }
+      result = Long.valueOf(hash);
+      _classHashes.put(type_p, result);
+    }
+    return result.longValue();
+  }
+
+  /**
+   * Return a hash of the given type of elements
+   * @param eClass_p a non-null type
+   * @return a hash
+   */
+  protected long getTypeHash(EClass eClass_p) {
+    Long result = _typeHashes.get(eClass_p);
+    if (result == null) {
+      result = Long.valueOf(hashString(EClass.class, String.valueOf(EcoreUtil.getURI(eClass_p))));
+      _typeHashes.put(eClass_p, result);
+    }
+    return result.longValue();
+  }
+
+  /**
+   * Return a new digest which is different from all other digests
+   * @param role_p the non-null role of the scope
+   * @return a digest
+   */
+  protected long getUniqueDigest(Role role_p) {
+    _nbUniqueDigests++;
+    return finish(combine(combine(UNHASHABLE, role_p.ordinal()), _nbUniqueDigests));
+  }
+
+}
@@ -121,6 +121,17 @@ public class UnidirectionalComparisonCopier extends EcoreUtil.Copier {
     copyReferences();
   }
   
+  /**
+   * Complete the references of the given completed elements
+   * @param comparison_p a non-null comparison defining a behavioral context
+   * @param matches_p a non-null collection of completed matches
+   */
+  public void completeReferences(IComparison.Editable comparison_p,
+      Collection<IMatch> matches_p) {
+    setComparison(comparison_p);
+    copyReferences(matches_p);
+  }
+  
   /**
    * Return a raw copy of the given element with only the proxy URI being set
    * @param element_p a non-null element
@@ -147,11 +158,19 @@ public class UnidirectionalComparisonCopier extends EcoreUtil.Copier {
    */
   @Override
   public void copyReferences() {
-    for (IMatch updatedMatch : getCompletedMatches())
+    copyReferences(getCompletedMatches());
+  }
+  
+  /**
+   * Copy the cross-references of the destination elements of the given matches
+   * @param matches_p a non-null collection of non-partial matches
+   */
+  protected void copyReferences(Collection<IMatch> matches_p) {
+    for (IMatch updatedMatch : matches_p)
       copyReferences(updatedMatch);
     // Update of containments may have changed resources, which may have an impact on IDs
     if (_mergePolicy != null) {
-      for (IMatch updatedMatch : getCompletedMatches()) {
+      for (IMatch updatedMatch : matches_p) {
         EObject source = updatedMatch.get(_sourceRole);
         EObject target = updatedMatch.get(_sourceRole.opposite());
         BidirectionalComparisonCopier.handleIDCopy(
@@ -15,24 +15,44 @@ import java.lang.ref.WeakReference;
 import java.util.Map;
 import java.util.WeakHashMap;
 
+import org.eclipse.emf.diffmerge.api.IMatchPolicy;
 import org.eclipse.emf.diffmerge.api.scopes.IModelScope;
 import org.eclipse.emf.diffmerge.impl.policies.DefaultMatchPolicy;
+import org.eclipse.emf.diffmerge.structures.common.BoundedCache;
 import org.eclipse.emf.ecore.EObject;
 
 
 /**
  * A match policy that supports caching of match IDs.
+ * The cache is bounded and safe for concurrent lookups. It is only used during
+ * match phases, i.e., between calls to startMatching() and endMatching(), and
+ * it is emptied when the last match phase ends: outside match phases, match IDs
+ * are computed without being cached so that no element is retained.
  * @author Olivier Constant
  */
-public abstract class CachingMatchPolicy extends DefaultMatchPolicy {
+public abstract class CachingMatchPolicy extends DefaultMatchPolicy
+implements IMatchPolicy.Stateful {
+  
+  /** The default maximal number of match IDs in the cache */
+  public static final int DEFAULT_CACHE_CAPACITY = 100000;
   
   /** An object that represents a null match ID, to distinguish from non-computed or
    * absent match IDs */
   protected static final Object NULL_MATCH_ID = new Object();
   
-  /** The cache for match IDs */
+  /**
+   * The former cache for match IDs
+   * @deprecated No longer used: match IDs are cached in a bounded cache, see getMatchIDCache()
+   */
+  @Deprecated
   protected final Map<EObject, WeakReference<Object>> _matchCache;
   
+  /** The non-null cache for match IDs, which is emptied when matching ends */
+  private final BoundedCache<EObject, Object> _boundedMatchCache;
+  
+  /** The number of match phases in progress, only modified while holding the lock of this policy */
+  private volatile int _matchPhases;
+  
   
   /**
    * Constructor
@@ -40,6 +60,36 @@ public abstract class CachingMatchPolicy extends DefaultMatchPolicy {
   public CachingMatchPolicy() {
     super();
     _matchCache = new WeakHashMap<EObject, WeakReference<Object>>();
+    _boundedMatchCache = new BoundedCache<EObject, Object>(DEFAULT_CACHE_CAPACITY);
+  }
+  
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMatchPolicy.Stateful#endMatching()
+   */
+  public synchronized void endMatching() {
+    if (_matchPhases > 0)
+      _matchPhases--;
+    if (_matchPhases == 0)
+      _boundedMatchCache.clear();
+  }
+  
+  /**
+   * Return the maximal number of match IDs that the cache may hold
+   * @return a positive int
+   */
+  public int getCacheCapacity() {
+    return _boundedMatchCache.getCapacity();
+  }
+  
+  /**
+   * Return the cache for match IDs, typically for consulting its statistics
+   * about the last comparison: hits, misses and evictions.
+   * Statistics are reset when matching starts, while entries are removed when
+   * matching ends.
+   * @return a non-null cache
+   */
+  public BoundedCache<EObject, Object> getMatchIDCache() {
+    return _boundedMatchCache;
   }
   
   /**
@@ -48,7 +98,7 @@ public abstract class CachingMatchPolicy extends DefaultMatchPolicy {
   @Override
   public Object getMatchID(EObject element_p, IModelScope scope_p) {
     Object result = null;
-    if (!useCache()) {
+    if (!useCache() || !isMatching()) {
       result = getUncachedMatchID(element_p, scope_p);
     } else {
       result = getMatchIDThroughCache(element_p, scope_p);
@@ -57,20 +107,21 @@ public abstract class CachingMatchPolicy extends DefaultMatchPolicy {
   }
   
   /**
-   * Return the match ID of the given element using the cache
+   * Return the match ID of the given element using the cache.
+   * This method may be called concurrently: in that case the same match ID may
+   * be computed more than once, which is harmless since it is deterministic.
    * @param element_p a non-null element
    * @param scope_p a non-null scope
    * @return a potentially null object
    */
   protected Object getMatchIDThroughCache(EObject element_p, IModelScope scope_p) {
     Object result;
-    WeakReference<Object> cachedRef = _matchCache.get(element_p);
-    Object cachedValue = (cachedRef == null)? null: cachedRef.get();
+    Object cachedValue = _boundedMatchCache.get(element_p);
     if (cachedValue == null) {
       // Match ID is not in cache
       result = getUncachedMatchID(element_p, scope_p);
       Object toCache = (result == null)? NULL_MATCH_ID: result;
-      _matchCache.put(element_p, new WeakReference<Object>(toCache));
+      _boundedMatchCache.put(element_p, toCache);
     } else {
       // Match ID is in cache
       result = (cachedValue == NULL_MATCH_ID)? null: cachedValue;
@@ -86,6 +137,36 @@ public abstract class CachingMatchPolicy extends DefaultMatchPolicy {
    */
   protected abstract Object getUncachedMatchID(EObject element_p, IModelScope scope_p);
   
+  /**
+   * Return whether a match phase is in progress
+   * @see IMatchPolicy.Stateful
+   */
+  protected boolean isMatching() {
+    return _matchPhases > 0;
+  }
+  
+  /**
+   * Set the maximal number of match IDs that the cache may hold.
+   * The cache is resized in place, so this may be called during a match phase:
+   * match IDs in excess are evicted.
+   * @param capacity_p a positive int
+   */
+  public void setCacheCapacity(int capacity_p) {
+    if (capacity_p != getCacheCapacity())
+      _boundedMatchCache.setCapacity(capacity_p);
+  }
+  
+  /**
+   * @see org.eclipse.emf.diffmerge.api.IMatchPolicy.Stateful#startMatching()
+   */
+  public synchronized void startMatching() {
+    if (_matchPhases == 0) {
+      _boundedMatchCache.clear();
+      _boundedMatchCache.resetStatistics();
+    }
+    _matchPhases++;
+  }
+  
   /**
    * Return whether the cache must be used
    */
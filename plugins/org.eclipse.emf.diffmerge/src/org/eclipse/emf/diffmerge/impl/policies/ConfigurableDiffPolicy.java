@@ -24,11 +24,17 @@ import org.eclipse.emf.ecore.EStructuralFeature;
  * @author Olivier Constant
  */
 public class ConfigurableDiffPolicy extends DefaultDiffPolicy
-implements IConfigurablePolicy {
+implements IConfigurablePolicy, IDiffPolicy.Parallelizable, IDiffPolicy.Digestible {
   
   /** Whether orders must be ignored */
   private boolean _ignoreOrders;
   
+  /** Whether differences may be detected in parallel */
+  private boolean _useParallelDetection;
+  
+  /** Whether identical subtrees may be skipped by comparing digests */
+  private boolean _useSubtreeDigests;
+  
   /** The non-null, potentially empty, modifiable set of listeners */
   protected final Set<IConfigurationChangedListener> _listeners;
   
@@ -38,6 +44,8 @@ implements IConfigurablePolicy {
    */
   public ConfigurableDiffPolicy() {
     _ignoreOrders = false;
+    _useParallelDetection = false;
+    _useSubtreeDigests = false;
     _listeners = new LinkedHashSet<IConfigurationChangedListener>();
   }
   
@@ -99,6 +107,17 @@ implements IConfigurablePolicy {
     }
   }
   
+  /**
+   * Return whether identical subtrees may be skipped by comparing digests.
+   * This is only the case if it has been requested via setUseSubtreeDigests(boolean)
+   * and this policy is exactly a ConfigurableDiffPolicy: subclasses may redefine how
+   * values are compared, so they must redefine this operation to opt in.
+   * @see org.eclipse.emf.diffmerge.api.IDiffPolicy.Digestible#isDigestible()
+   */
+  public boolean isDigestible() {
+    return getClass() == ConfigurableDiffPolicy.class && useSubtreeDigests();
+  }
+  
   /**
    * Return whether this policy ignores orders
    */
@@ -106,6 +125,17 @@ implements IConfigurablePolicy {
     return _ignoreOrders;
   }
   
+  /**
+   * Return whether differences can be detected concurrently.
+   * This is only the case if it has been requested via setUseParallelDetection(boolean)
+   * and this policy is exactly a ConfigurableDiffPolicy: subclasses may rely on
+   * non thread-safe computations, so they must redefine this operation to opt in.
+   * @see org.eclipse.emf.diffmerge.api.IDiffPolicy.Parallelizable#isThreadSafe()
+   */
+  public boolean isThreadSafe() {
+    return getClass() == ConfigurableDiffPolicy.class && useParallelDetection();
+  }
+  
   /**
    * @see org.eclipse.emf.diffmerge.api.config.IConfigurablePolicy#removeConfigurationChangedListener(org.eclipse.emf.diffmerge.api.config.IConfigurablePolicy.IConfigurationChangedListener)
    */
@@ -122,6 +152,27 @@ implements IConfigurablePolicy {
     fireConfigurationChanged(null);
   }
   
+  /**
+   * Set whether differences may be detected in parallel, provided that it is thread-safe
+   * @see ConfigurableDiffPolicy#isThreadSafe()
+   * @param useParallelDetection_p whether differences may be detected in parallel
+   */
+  public void setUseParallelDetection(boolean useParallelDetection_p) {
+    _useParallelDetection = useParallelDetection_p;
+    fireConfigurationChanged(null);
+  }
+  
+  /**
+   * Set whether identical subtrees may be skipped by comparing digests, provided that
+   * this policy is digestible
+   * @see ConfigurableDiffPolicy#isDigestible()
+   * @param useSubtreeDigests_p whether identical subtrees may be skipped
+   */
+  public void setUseSubtreeDigests(boolean useSubtreeDigests_p) {
+    _useSubtreeDigests = useSubtreeDigests_p;
+    fireConfigurationChanged(null);
+  }
+  
   /**
    * @see org.eclipse.emf.diffmerge.api.config.IConfigurablePolicy#update(org.eclipse.emf.diffmerge.api.config.IConfigurablePolicy)
    */
@@ -130,9 +181,28 @@ implements IConfigurablePolicy {
     if (policy_p instanceof ConfigurableDiffPolicy) {
       ConfigurableDiffPolicy policy = (ConfigurableDiffPolicy)policy_p;
       setIgnoreOrders(policy.isIgnoreOrders());
+      setUseParallelDetection(policy.useParallelDetection());
+      setUseSubtreeDigests(policy.useSubtreeDigests());
       result = true;
     }
     return result;
   }
   
+  /**
+   * Return whether differences may be detected in parallel, provided that it is thread-safe
+   * @see ConfigurableDiffPolicy#isThreadSafe()
+   */
+  public boolean useParallelDetection() {
+    return _useParallelDetection;
+  }
+  
+  /**
+   * Return whether identical subtrees may be skipped by comparing digests, provided that
+   * this policy is digestible
+   * @see ConfigurableDiffPolicy#isDigestible()
+   */
+  public boolean useSubtreeDigests() {
+    return _useSubtreeDigests;
+  }
+  
 }
@@ -15,11 +15,14 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.eclipse.emf.common.notify.Adapter;
 import org.eclipse.emf.common.notify.AdapterFactory;
@@ -29,6 +32,7 @@ import org.eclipse.emf.diffmerge.api.IMatchPolicy;
 import org.eclipse.emf.diffmerge.api.config.IConfigurablePolicy;
 import org.eclipse.emf.diffmerge.api.scopes.IFeaturedModelScope;
 import org.eclipse.emf.diffmerge.api.scopes.IModelScope;
+import org.eclipse.emf.diffmerge.structures.common.BoundedCache;
 import org.eclipse.emf.ecore.EClass;
 import org.eclipse.emf.ecore.ENamedElement;
 import org.eclipse.emf.ecore.EObject;
@@ -42,7 +46,8 @@ import org.eclipse.emf.edit.provider.IItemLabelProvider;
  * @author Olivier Constant
  */
 public class ConfigurableMatchPolicy extends CachingMatchPolicy
-implements IConfigurablePolicy {
+implements IConfigurablePolicy, IMatchPolicy.Parallelizable, IMatchPolicy.Incremental,
+IMatchPolicy.Hierarchical {
   
   /**
    * A predefined set of match criteria in decreasing order of priority.
@@ -139,6 +144,12 @@ implements IConfigurablePolicy {
   /** Whether the cache must be used */
   private boolean _useCache;
   
+  /** Whether match IDs may be computed in parallel */
+  private boolean _useParallelMatchIDs;
+  
+  /** Whether hierarchical match IDs may be used during match phases */
+  private boolean _useHierarchicalMatchIDs;
+  
   /** The set of match criteria to use */
   private final Set<MatchCriterionKind> _selectedCriteria;
   
@@ -148,6 +159,16 @@ implements IConfigurablePolicy {
   /** The non-null, potentially empty, modifiable set of listeners */
   protected final Set<IConfigurationChangedListener> _listeners;
   
+  /** The bounded caches of the hierarchical match IDs that have been computed per scope
+   * during the current match phases, or null if not in a match phase or if no hierarchical
+   * match ID is expected */
+  private volatile ConcurrentMap<IModelScope, BoundedCache<EObject, Object>> _matchPhaseIDs;
+  
+  /** The bounded cache of the shared segments of hierarchical match IDs during the
+   * current match phases, or null if not in a match phase or if no hierarchical match
+   * ID is expected */
+  private volatile BoundedCache<String, String> _matchPhaseSegments;
+  
   
   /**
    * Default constructor
@@ -155,6 +176,8 @@ implements IConfigurablePolicy {
   public ConfigurableMatchPolicy() {
     super();
     _useCache = false;
+    _useParallelMatchIDs = false;
+    _useHierarchicalMatchIDs = false;
     _selectedCriteria = new HashSet<MatchCriterionKind>(
         MatchCriterionKind.values().length);
     _selectedCriteria.addAll(getDefaultCriteria());
@@ -187,6 +210,18 @@ implements IConfigurablePolicy {
     return new ConfigurableMatchPolicy(this);
   }
   
+  /**
+   * @see org.eclipse.emf.diffmerge.impl.policies.CachingMatchPolicy#endMatching()
+   */
+  @Override
+  public synchronized void endMatching() {
+    super.endMatching();
+    if (!isMatching()) {
+      _matchPhaseIDs = null;
+      _matchPhaseSegments = null;
+    }
+  }
+  
   /**
    * Notify all registered listeners that the configuration changed
    * @param property_p an optional object that describes the configuration property that changed
@@ -273,6 +308,40 @@ implements IConfigurablePolicy {
     return result;
   }
   
+  /**
+   * Return a hierarchical match ID for the given element from the given scope
+   * based on the hierarchical match ID of its container and the given qualifier.
+   * The string form of the result is the same as
+   * getContainerRelativeID(element_p, scope_p, qualifier_p, separator_p), but
+   * the match ID of the container is shared instead of being copied.
+   * @see ConfigurableMatchPolicy#getContainerRelativeID(EObject, IModelScope, String, String)
+   * @param element_p a non-null element
+   * @param scope_p a non-null scope that covers the element
+   * @param qualifier_p a non-null suffix for the ID that identifies the element within its container
+   * @param separator_p an optional string to use as qualification separator
+   * @return a potentially null object
+   */
+  protected HierarchicalMatchID getContainerRelativeHierarchicalID(EObject element_p,
+      IModelScope scope_p, String qualifier_p, String separator_p) {
+    HierarchicalMatchID result = null;
+    EObject container = getContainer(element_p, scope_p);
+    if (container != null) {
+      Object containerID = getHierarchicalMatchID(container, scope_p);
+      if (containerID != null) {
+        String separator = separator_p == null? getQualificationSeparatorDefault():
+          separator_p;
+        HierarchicalMatchID parent = (containerID instanceof HierarchicalMatchID)?
+            (HierarchicalMatchID)containerID:
+              new HierarchicalMatchID(null, containerID.toString());
+        result = new HierarchicalMatchID(parent, getSharedSegment(separator + qualifier_p));
+      }
+    } else {
+      // Root
+      result = new HierarchicalMatchID(null, getSharedSegment(qualifier_p));
+    }
+    return result;
+  }
+  
   /**
    * Return the containment reference of the given element within the given scope
    * @param element_p a non-null element
@@ -375,6 +444,115 @@ implements IConfigurablePolicy {
     return result;
   }
   
+  /**
+   * Return a match ID for the given element from the given scope which is a
+   * hierarchical match ID if names or structure apply, or the match ID otherwise.
+   * During match phases, computed match IDs are memorized so that the match IDs of
+   * containers are mostly computed once.
+   * @see org.eclipse.emf.diffmerge.api.IMatchPolicy.Hierarchical#getHierarchicalMatchID(org.eclipse.emf.ecore.EObject, org.eclipse.emf.diffmerge.api.scopes.IModelScope)
+   */
+  public Object getHierarchicalMatchID(EObject element_p, IModelScope scope_p) {
+    if (!hasHierarchicalMatchIDs())
+      return getMatchID(element_p, scope_p);
+    Object result;
+    BoundedCache<EObject, Object> memorizedIDs = getMatchPhaseIDs(scope_p);
+    if (memorizedIDs == null) {
+      result = getUncachedHierarchicalMatchID(element_p, scope_p);
+    } else {
+      // Match phase: match IDs are mostly computed once, containers first
+      Object memorized = memorizedIDs.get(element_p);
+      if (memorized == null) {
+        result = getUncachedHierarchicalMatchID(element_p, scope_p);
+        memorized = (result == null)? NULL_MATCH_ID: result;
+        memorizedIDs.put(element_p, memorized);
+      }
+      result = (memorized == NULL_MATCH_ID)? null: memorized;
+    }
+    return result;
+  }
+  
+  /**
+   * Return a hierarchical match ID for the given element from the given scope according
+   * to the given criterion, whose string form is getMatchID(element_p, scope_p, criterion_p)
+   * @see ConfigurableMatchPolicy#getMatchID(EObject, IModelScope, MatchCriterionKind)
+   * @param element_p a non-null element
+   * @param scope_p a non-null scope
+   * @param criterion_p a non-null criterion
+   * @return a potentially null object
+   */
+  protected HierarchicalMatchID getHierarchicalMatchID(EObject element_p,
+      IModelScope scope_p, MatchCriterionKind criterion_p) {
+    HierarchicalMatchID result;
+    switch (criterion_p) {
+    case NAME:
+      result = getHierarchicalQualifiedName(element_p, scope_p); break;
+    case STRUCTURE:
+      result = getHierarchicalStructureBasedID(element_p, scope_p); break;
+    default:
+      result = toHierarchicalMatchID(getMatchID(element_p, scope_p, criterion_p)); break;
+    }
+    return result;
+  }
+  
+  /**
+   * Return the qualified name of the given element as a hierarchical match ID
+   * @see ConfigurableMatchPolicy#getQualifiedName(EObject, IModelScope)
+   * @param element_p a non-null element
+   * @param scope_p a non-null scope
+   * @return a potentially null object whose string form is the qualified name
+   */
+  protected HierarchicalMatchID getHierarchicalQualifiedName(EObject element_p,
+      IModelScope scope_p) {
+    HierarchicalMatchID result = null;
+    String name = getUnqualifiedName(element_p, scope_p);
+    if (isSignificant(name))
+      result = getContainerRelativeHierarchicalID(
+          element_p, scope_p, name, getQualificationSeparatorNames());
+    return result;
+  }
+  
+  /**
+   * Return a structural match ID for the given element based on its containment
+   * as a hierarchical match ID
+   * @see ConfigurableMatchPolicy#getStructureBasedContainmentID(EObject, IModelScope, boolean)
+   * @param element_p a non-null element
+   * @param scope_p a non-null scope that covers element_p
+   * @param checkContainment_p whether the containment reference must be checked for its discriminating nature
+   * @return a potentially null object
+   */
+  protected HierarchicalMatchID getHierarchicalStructureBasedContainmentID(
+      EObject element_p, IModelScope scope_p, boolean checkContainment_p) {
+    HierarchicalMatchID result = null;
+    String lastIDPart = getStructureBasedContainmentQualifier(element_p, scope_p, checkContainment_p);
+    if (isSignificant(lastIDPart))
+      result = getContainerRelativeHierarchicalID(
+          element_p, scope_p, lastIDPart, getQualificationSeparatorStructure());
+    return result;
+  }
+  
+  /**
+   * Return a match ID for the given element from the given scope based on the role
+   * played by the element in the model structure, as a hierarchical match ID
+   * @see ConfigurableMatchPolicy#getStructureBasedID(EObject, IModelScope)
+   * @param element_p a non-null element
+   * @param scope_p a non-null scope that covers the element
+   * @return a potentially null object
+   */
+  protected HierarchicalMatchID getHierarchicalStructureBasedID(EObject element_p,
+      IModelScope scope_p) {
+    HierarchicalMatchID result = null;
+    EReference containment = getContainment(element_p, scope_p);
+    if (containment == null && useFineGrainedCriterion(CRITERION_STRUCTURE_ROOTS)) {
+      result = toHierarchicalMatchID(getStructureBasedRootQualifier(element_p, scope_p));
+    } else if (containment != null &&
+        (useFineGrainedCriterion(CRITERION_STRUCTURE_CONTAINMENTS) ||
+            useFineGrainedCriterion(CRITERION_STRUCTURE_UNIQUECHILDREN))) {
+      result = getHierarchicalStructureBasedContainmentID(element_p, scope_p,
+          !useFineGrainedCriterion(CRITERION_STRUCTURE_CONTAINMENTS));
+    }
+    return result;
+  }
+  
   /**
    * @see org.eclipse.emf.diffmerge.impl.policies.CachingMatchPolicy#getMatchID(org.eclipse.emf.ecore.EObject, org.eclipse.emf.diffmerge.api.scopes.IModelScope)
    */
@@ -383,6 +561,40 @@ implements IConfigurablePolicy {
     return (String)super.getMatchID(element_p, scope_p);
   }
   
+  /**
+   * Hierarchical match IDs, if used, are ordered according to their string forms
+   * @see org.eclipse.emf.diffmerge.impl.policies.DefaultMatchPolicy#getMatchIDComparator()
+   */
+  @Override
+  public Comparator<Object> getMatchIDComparator() {
+    Comparator<Object> result;
+    if (hasHierarchicalMatchIDs())
+      result = HierarchicalMatchID.CONTENT_COMPARATOR;
+    else
+      result = super.getMatchIDComparator();
+    return result;
+  }
+  
+  /**
+   * Return the bounded cache of the match IDs that have been computed for elements
+   * of the given scope during the current match phases, if applicable
+   * @param scope_p a non-null scope
+   * @return a potentially null cache
+   */
+  private BoundedCache<EObject, Object> getMatchPhaseIDs(IModelScope scope_p) {
+    ConcurrentMap<IModelScope, BoundedCache<EObject, Object>> allIDs = _matchPhaseIDs;
+    if (allIDs == null)
+      return null;
+    BoundedCache<EObject, Object> result = allIDs.get(scope_p);
+    if (result == null) {
+      result = new BoundedCache<EObject, Object>(getCacheCapacity());
+      BoundedCache<EObject, Object> concurrent = allIDs.putIfAbsent(scope_p, result);
+      if (concurrent != null)
+        result = concurrent;
+    }
+    return result;
+  }
+  
   /**
    * Return a match ID for the given element from the given scope according
    * to the given criterion
@@ -494,6 +706,25 @@ implements IConfigurablePolicy {
     return result;
   }
   
+  /**
+   * Return a string which is equal to the given segment of hierarchical match ID
+   * and which is shared with other hierarchical match IDs during the current match phase
+   * @param segment_p a non-null string
+   * @return a non-null string
+   */
+  protected String getSharedSegment(String segment_p) {
+    String result = segment_p;
+    BoundedCache<String, String> segments = _matchPhaseSegments;
+    if (segments != null) {
+      String shared = segments.get(segment_p);
+      if (shared == null)
+        segments.put(segment_p, segment_p);
+      else
+        result = shared;
+    }
+    return result;
+  }
+  
   /**
    * Return the siblings of the given element from the given scope, including the element itself.
    * Siblings are defined as elements owned by the same setting if the element has a container,
@@ -633,6 +864,26 @@ implements IConfigurablePolicy {
     return null;
   }
   
+  /**
+   * Return the hierarchical match ID of the given element, without memorization
+   * @see ConfigurableMatchPolicy#getUncachedMatchID(EObject, IModelScope)
+   * @param element_p a non-null element
+   * @param scope_p a non-null scope
+   * @return a potentially null object
+   */
+  protected HierarchicalMatchID getUncachedHierarchicalMatchID(EObject element_p,
+      IModelScope scope_p) {
+    HierarchicalMatchID result = null;
+    for (MatchCriterionKind criterion : MatchCriterionKind.values()) {
+      if (useCriterion(criterion)) {
+        result = getHierarchicalMatchID(element_p, scope_p, criterion);
+        if (result != null)
+          return result;
+      }
+    }
+    return null;
+  }
+  
   /**
    * Return the unqualified name of the given element
    * @param element_p a non-null element
@@ -656,6 +907,34 @@ implements IConfigurablePolicy {
     return Arrays.asList(MatchCriterionKind.values());
   }
   
+  /**
+   * Return whether match IDs only depend on elements and their ancestors.
+   * This is not the case if structure is used as a criterion since it relies on
+   * siblings, or if labels are used since they may rely on any element.
+   * Since subclasses may rely on other elements, this is only the case
+   * for this exact class: subclasses must redefine this operation to opt in.
+   * @see org.eclipse.emf.diffmerge.api.IMatchPolicy.Incremental#hasAncestorBasedMatchIDs()
+   */
+  public boolean hasAncestorBasedMatchIDs() {
+    return getClass() == ConfigurableMatchPolicy.class &&
+        !useCriterion(MatchCriterionKind.STRUCTURE) &&
+        !(useCriterion(MatchCriterionKind.NAME) &&
+            useFineGrainedCriterion(CRITERION_QNAMES_LABELS));
+  }
+  
+  /**
+   * Return whether hierarchical match IDs are used during match phases.
+   * This is only the case if it has been requested via setUseHierarchicalMatchIDs(boolean)
+   * and names or structure are used as match criteria.
+   * Since subclasses may redefine the computation of match IDs as Strings, this is only
+   * the case for this exact class: subclasses must redefine this operation to opt in.
+   * @see org.eclipse.emf.diffmerge.api.IMatchPolicy.Hierarchical#hasHierarchicalMatchIDs()
+   */
+  public boolean hasHierarchicalMatchIDs() {
+    return getClass() == ConfigurableMatchPolicy.class && useHierarchicalMatchIDs() &&
+        (useCriterion(MatchCriterionKind.NAME) || useCriterion(MatchCriterionKind.STRUCTURE));
+  }
+  
   /**
    * Return whether the given containment reference is discriminating enough to uniquely
    * identify the given element as a child
@@ -691,6 +970,21 @@ implements IConfigurablePolicy {
     return false;
   }
   
+  /**
+   * Return whether match IDs can be computed concurrently.
+   * This is only the case if it has been requested via setUseParallelMatchIDs(boolean)
+   * and labels are not used since they rely on item providers that are created on demand.
+   * The cache of match IDs supports concurrent lookups.
+   * Since subclasses may rely on non thread-safe computations, this is only the case
+   * for this exact class: subclasses must redefine this operation to opt in.
+   * @see org.eclipse.emf.diffmerge.api.IMatchPolicy.Parallelizable#isThreadSafe()
+   */
+  public boolean isThreadSafe() {
+    return getClass() == ConfigurableMatchPolicy.class && useParallelMatchIDs() &&
+        !(useCriterion(MatchCriterionKind.NAME) &&
+            useFineGrainedCriterion(CRITERION_QNAMES_LABELS));
+  }
+  
   /**
    * Return whether only the model scope should be considered for building match IDs,
    * or the whole underlying EMF model
@@ -781,6 +1075,15 @@ implements IConfigurablePolicy {
     fireConfigurationChanged(null);
   }
   
+  /**
+   * @see org.eclipse.emf.diffmerge.impl.policies.CachingMatchPolicy#setCacheCapacity(int)
+   */
+  @Override
+  public void setCacheCapacity(int capacity_p) {
+    super.setCacheCapacity(capacity_p);
+    fireConfigurationChanged(null);
+  }
+  
   /**
    * Set whether the cache must be used
    * @param useCache_p whether it must be used
@@ -790,6 +1093,26 @@ implements IConfigurablePolicy {
     fireConfigurationChanged(null);
   }
   
+  /**
+   * Set whether hierarchical match IDs may be used during match phases
+   * @see ConfigurableMatchPolicy#hasHierarchicalMatchIDs()
+   * @param useHierarchicalMatchIDs_p whether hierarchical match IDs may be used
+   */
+  public void setUseHierarchicalMatchIDs(boolean useHierarchicalMatchIDs_p) {
+    _useHierarchicalMatchIDs = useHierarchicalMatchIDs_p;
+    fireConfigurationChanged(null);
+  }
+  
+  /**
+   * Set whether match IDs may be computed in parallel, provided that it is thread-safe
+   * @see ConfigurableMatchPolicy#isThreadSafe()
+   * @param useParallelMatchIDs_p whether match IDs may be computed in parallel
+   */
+  public void setUseParallelMatchIDs(boolean useParallelMatchIDs_p) {
+    _useParallelMatchIDs = useParallelMatchIDs_p;
+    fireConfigurationChanged(null);
+  }
+  
   /**
    * Set whether the given fine-grained match criterion must be used
    * @param criterion_p a non-null criterion
@@ -816,6 +1139,32 @@ implements IConfigurablePolicy {
     fireConfigurationChanged(criterion_p);
   }
   
+  /**
+   * @see org.eclipse.emf.diffmerge.impl.policies.CachingMatchPolicy#startMatching()
+   */
+  @Override
+  public synchronized void startMatching() {
+    super.startMatching();
+    if (_matchPhaseIDs == null && hasHierarchicalMatchIDs()) {
+      // Memorize match IDs within the bounds of the cache capacity so that
+      // those of containers are mostly computed only once
+      _matchPhaseIDs = new ConcurrentHashMap<IModelScope, BoundedCache<EObject, Object>>();
+      _matchPhaseSegments = new BoundedCache<String, String>(getCacheCapacity());
+    }
+  }
+  
+  /**
+   * Return the given match ID as a root hierarchical match ID
+   * @param matchID_p a potentially null match ID
+   * @return a hierarchical match ID, or null if matchID_p is null
+   */
+  protected HierarchicalMatchID toHierarchicalMatchID(String matchID_p) {
+    HierarchicalMatchID result = null;
+    if (matchID_p != null)
+      result = new HierarchicalMatchID(null, matchID_p);
+    return result;
+  }
+  
   /**
    * @see org.eclipse.emf.diffmerge.api.config.IConfigurablePolicy#update(org.eclipse.emf.diffmerge.api.config.IConfigurablePolicy)
    */
@@ -826,6 +1175,9 @@ implements IConfigurablePolicy {
       if (policy_p instanceof ConfigurableMatchPolicy) {
         ConfigurableMatchPolicy policy = (ConfigurableMatchPolicy)policy_p;
         setUseCache(policy.useCache());
+        setCacheCapacity(policy.getCacheCapacity());
+        setUseParallelMatchIDs(policy.useParallelMatchIDs());
+        setUseHierarchicalMatchIDs(policy.useHierarchicalMatchIDs());
         setAllUsedCriteria(policy.getAllUsedCriteria());
         setAllUsedFineGrainedCriteria(policy.getAllUsedFineGrainedCriteria());
         result = true;
@@ -842,6 +1194,14 @@ implements IConfigurablePolicy {
     return _useCache;
   }
   
+  /**
+   * Return whether match IDs may be computed in parallel, provided that it is thread-safe
+   * @see ConfigurableMatchPolicy#isThreadSafe()
+   */
+  public boolean useParallelMatchIDs() {
+    return _useParallelMatchIDs;
+  }
+  
   /**
    * Return whether the given fine-grained match criterion is selected for being used
    * by this match policy, independently of the fact that its category is used or not
@@ -859,4 +1219,12 @@ implements IConfigurablePolicy {
     return _selectedCriteria.contains(criterion_p);
   }
   
+  /**
+   * Return whether hierarchical match IDs may be used during match phases
+   * @see ConfigurableMatchPolicy#hasHierarchicalMatchIDs()
+   */
+  public boolean useHierarchicalMatchIDs() {
+    return _useHierarchicalMatchIDs;
+  }
+  
 }
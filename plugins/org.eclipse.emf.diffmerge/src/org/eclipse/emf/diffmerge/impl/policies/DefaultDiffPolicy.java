@@ -11,6 +11,11 @@
  **********************************************************************/
 package org.eclipse.emf.diffmerge.impl.policies;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Date;
+
+import org.eclipse.emf.common.util.Enumerator;
 import org.eclipse.emf.common.util.URI;
 import org.eclipse.emf.diffmerge.api.IDiffPolicy;
 import org.eclipse.emf.diffmerge.api.IMatch;
@@ -28,9 +33,15 @@ import org.eclipse.emf.ecore.util.FeatureMapUtil;
  * @see IDiffPolicy
  * @author Olivier Constant
  */
-public class DefaultDiffPolicy implements IDiffPolicy {
+public class DefaultDiffPolicy implements IDiffPolicy.AttributeValueKeys {
+  
+  /** Whether equivalence keys may be used, lazily computed from the class of this policy */
+  private Boolean _useEquivalenceKeys;
+  
   
   /**
+   * Subclasses which redefine this operation do not provide equivalence keys
+   * unless they redefine useEquivalenceKeys() consistently.
    * @see org.eclipse.emf.diffmerge.api.IDiffPolicy#considerEqual(Object, Object, EAttribute)
    */
   public boolean considerEqual(Object value1_p, Object value2_p, EAttribute attribute_p) {
@@ -113,6 +124,48 @@ public class DefaultDiffPolicy implements IDiffPolicy {
     return true;
   }
   
+  /**
+   * The value itself is returned as a key if it is of a plain data type,
+   * since considerEqual(Object, Object, EAttribute) relies on Object#equals(Object),
+   * provided that useEquivalenceKeys() holds.
+   * @see org.eclipse.emf.diffmerge.api.IDiffPolicy.AttributeValueKeys#getEquivalenceKey(java.lang.Object, org.eclipse.emf.ecore.EAttribute)
+   */
+  public Object getEquivalenceKey(Object value_p, EAttribute attribute_p) {
+    return useEquivalenceKeys() && isPlainDataValue(value_p)? value_p: null;
+  }
+  
+  /**
+   * Return whether considerEqual(Object, Object, EAttribute) is redefined in the class
+   * of this policy or in a superclass which is a proper subclass of the given one
+   * @param class_p a non-null superclass of the class of this policy
+   */
+  protected final boolean isConsiderEqualRedefinedBelow(Class<?> class_p) {
+    boolean result;
+    try {
+      Class<?> declaringClass = getClass().getMethod("considerEqual", //$NON-NLS-1$
+          Object.class, Object.class, EAttribute.class).getDeclaringClass();
+      result = declaringClass != class_p && class_p.isAssignableFrom(declaringClass);
+    } catch (NoSuchMethodException e) {
+      result = true; // Cannot happen
+    }
+    return result;
+  }
+  
+  /**
+   * Return whether the given attribute value is of a plain data type whose equals
+   * and hashCode methods are known to be consistent, such as String, primitive
+   * wrappers and enumeration literals
+   * @param value_p a non-null attribute value
+   */
+  protected boolean isPlainDataValue(Object value_p) {
+    return value_p instanceof String || value_p instanceof Boolean ||
+        value_p instanceof Character || value_p instanceof Integer ||
+        value_p instanceof Long || value_p instanceof Short || value_p instanceof Byte ||
+        value_p instanceof Double || value_p instanceof Float ||
+        value_p instanceof BigInteger || value_p instanceof BigDecimal ||
+        value_p instanceof Date || value_p instanceof Enumerator;
+  }
+  
   /**
    * Return whether the given element is provided by a plug-in of the current platform
    * @param element_p a non-null element
@@ -122,4 +175,22 @@ public class DefaultDiffPolicy implements IDiffPolicy {
     return uri != null && !uri.isPlatformResource();
   }
   
+  /**
+   * Return whether getEquivalenceKey(Object, EAttribute) may provide keys.
+   * Since a redefinition of considerEqual(Object, Object, EAttribute) may make values
+   * equal which are not equal according to Object#equals(Object), this is only the case
+   * by default if the operation is not redefined.
+   * Subclasses which redefine considerEqual(Object, Object, EAttribute) without affecting
+   * plain data values may redefine this operation to opt in.
+   * @see DefaultDiffPolicy#isConsiderEqualRedefinedBelow(Class)
+   */
+  protected boolean useEquivalenceKeys() {
+    Boolean result = _useEquivalenceKeys;
+    if (result == null) {
+      result = Boolean.valueOf(!isConsiderEqualRedefinedBelow(DefaultDiffPolicy.class));
+      _useEquivalenceKeys = result;
+    }
+    return result.booleanValue();
+  }
+  
 }
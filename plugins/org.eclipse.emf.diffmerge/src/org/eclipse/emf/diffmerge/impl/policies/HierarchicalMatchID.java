@@ -0,0 +1,326 @@
+/*********************************************************************
+ * Copyright (c) 2010-2019 Thales Global Services S.A.S.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    Thales Global Services S.A.S. - initial API and implementation
+ **********************************************************************/
+package org.eclipse.emf.diffmerge.impl.policies;
+
+import java.util.Comparator;
+
+import org.eclipse.emf.diffmerge.api.IMatchPolicy;
+
+
+/**
+ * A compact match ID for elements whose identification is qualified by the match ID
+ * of their container, such as qualified names.
+ * It consists of a reference to the match ID of the container and of a local segment
+ * that is appended to it, so that the match IDs of siblings share the same prefix
+ * instead of each holding a copy of it.
+ * The string form of a hierarchical match ID is the concatenation of all segments
+ * from the root. A hierarchical match ID has the same hash code as its string form
+ * and it is equal to any other hierarchical match ID that has the same string form.
+ * It is never equal to a String: policies that may return both kinds of match IDs
+ * should convert Strings into hierarchical match IDs so that match IDs can be
+ * compared via equals(Object), as in hash-based sets.
+ * Hierarchical match IDs are not serializable: their string forms are what
+ * matches keep when match IDs are kept.
+ * @see IMatchPolicy.Hierarchical
+ * @author Olivier Constant
+ */
+public final class HierarchicalMatchID implements CharSequence {
+  
+  /**
+   * A comparator for match IDs which orders hierarchical match IDs and Strings
+   * lexicographically according to their string forms, and which is equivalent to
+   * IMatchPolicy.NATURAL_ORDER_COMPARATOR for other objects.
+   * Since Strings and hierarchical match IDs are never equal, a String is ordered
+   * before a hierarchical match ID that has the same string form.
+   * @see IMatchPolicy#NATURAL_ORDER_COMPARATOR
+   */
+  public static final Comparator<Object> CONTENT_COMPARATOR = new Comparator<Object>() {
+    /**
+     * @see java.util.Comparator#compare(java.lang.Object, java.lang.Object)
+     */
+    public int compare(Object o1_p, Object o2_p) {
+      int result;
+      if (isTextual(o1_p) && isTextual(o2_p)) {
+        if (o1_p == o2_p)
+          result = 0;
+        else
+          result = compareContents(getSegments(o1_p), getSegments(o2_p));
+        if (result == 0 && o1_p.getClass() != o2_p.getClass())
+          result = (o1_p instanceof String)? -1: 1;
+      } else {
+        result = IMatchPolicy.NATURAL_ORDER_COMPARATOR.compare(o1_p, o2_p);
+      }
+      return result;
+    }
+    /**
+     * Compare the concatenations of the given sequences of segments lexicographically
+     * @param segments1_p a non-null, non-empty array of non-null strings
+     * @param segments2_p a non-null, non-empty array of non-null strings
+     * @return a negative, null or positive int as in String#compareTo(String)
+     */
+    private int compareContents(String[] segments1_p, String[] segments2_p) {
+      // Skip the shared prefix
+      int segmentIndex1 = 0;
+      int segmentIndex2 = 0;
+      while (segmentIndex1 < segments1_p.length && segmentIndex2 < segments2_p.length &&
+          segments1_p[segmentIndex1] == segments2_p[segmentIndex2]) {
+        segmentIndex1++;
+        segmentIndex2++;
+      }
+      // Compare the remaining characters
+      int charIndex1 = 0;
+      int charIndex2 = 0;
+      while (true) {
+        while (segmentIndex1 < segments1_p.length &&
+            charIndex1 == segments1_p[segmentIndex1].length()) {
+          segmentIndex1++;
+          charIndex1 = 0;
+        }
+        while (segmentIndex2 < segments2_p.length &&
+            charIndex2 == segments2_p[segmentIndex2].length()) {
+          segmentIndex2++;
+          charIndex2 = 0;
+        }
+        boolean ended1 = segmentIndex1 == segments1_p.length;
+        boolean ended2 = segmentIndex2 == segments2_p.length;
+        if (ended1 || ended2)
+          return (ended1? 0: 1) - (ended2? 0: 1);
+        char char1 = segments1_p[segmentIndex1].charAt(charIndex1++);
+        char char2 = segments2_p[segmentIndex2].charAt(charIndex2++);
+        if (char1 != char2)
+          return char1 - char2;
+      }
+    }
+    /**
+     * Return the segments of the given textual match ID from the root
+     * @param matchID_p a non-null hierarchical match ID or String
+     * @return a non-null, non-empty array of non-null strings
+     */
+    private String[] getSegments(Object matchID_p) {
+      String[] result;
+      if (matchID_p instanceof HierarchicalMatchID) {
+        HierarchicalMatchID id = (HierarchicalMatchID)matchID_p;
+        result = new String[id.getDepth()];
+        for (int i = result.length - 1; i >= 0; i--) {
+          result[i] = id._segment;
+          id = id._parent;
+        }
+      } else {
+        result = new String[] {(String)matchID_p};
+      }
+      return result;
+    }
+    /**
+     * Return whether the given object is a hierarchical match ID or a String
+     * @param object_p a potentially null object
+     */
+    private boolean isTextual(Object object_p) {
+      return object_p instanceof HierarchicalMatchID || object_p instanceof String;
+    }
+  };
+  
+  /** The potentially null match ID of the container, null for roots */
+  private final HierarchicalMatchID _parent;
+  
+  /** The non-null local segment */
+  private final String _segment;
+  
+  /** The length of the string form */
+  private final int _length;
+  
+  /** The hash code of the string form */
+  private final int _hash;
+  
+  
+  /**
+   * Constructor
+   * @param parent_p the potentially null match ID of the container
+   * @param segment_p the non-null local segment, which should typically be shared
+   *        between match IDs, e.g., via interning
+   */
+  public HierarchicalMatchID(HierarchicalMatchID parent_p, String segment_p) {
+    _parent = parent_p;
+    _segment = segment_p;
+    int parentLength = 0;
+    int parentHash = 0;
+    if (parent_p != null) {
+      parentLength = parent_p._length;
+      parentHash = parent_p._hash;
+    }
+    _length = parentLength + segment_p.length();
+    // Incremental computation of String#hashCode()
+    int hash = parentHash;
+    for (int i = 0; i < segment_p.length(); i++) {
+      hash = 31 * hash + segment_p.charAt(i);
+    }
+    _hash = hash;
+  }
+  
+  /**
+   * @see java.lang.CharSequence#charAt(int)
+   */
+  public char charAt(int index_p) {
+    if (index_p < 0 || index_p >= _length)
+      throw new IndexOutOfBoundsException(String.valueOf(index_p));
+    HierarchicalMatchID current = this;
+    int start = _length - _segment.length();
+    while (index_p < start) {
+      current = current._parent;
+      start -= current._segment.length();
+    }
+    return current._segment.charAt(index_p - start);
+  }
+  
+  /**
+   * Return whether the string form of this match ID is the given sequence of characters
+   * @param sequence_p a potentially null sequence of characters
+   */
+  public boolean contentEquals(CharSequence sequence_p) {
+    if (sequence_p == this)
+      return true;
+    if (sequence_p == null || sequence_p.length() != _length)
+      return false;
+    if (sequence_p instanceof HierarchicalMatchID)
+      return sameContents(this, (HierarchicalMatchID)sequence_p);
+    if (sequence_p instanceof String && sequence_p.hashCode() != _hash)
+      return false;
+    int position = _length;
+    HierarchicalMatchID current = this;
+    while (current != null) {
+      String segment = current._segment;
+      for (int i = segment.length() - 1; i >= 0; i--) {
+        position--;
+        if (segment.charAt(i) != sequence_p.charAt(position))
+          return false;
+      }
+      current = current._parent;
+    }
+    return true;
+  }
+  
+  /**
+   * Return whether the given object is a hierarchical match ID that has the same
+   * string form as this match ID
+   * @see java.lang.Object#equals(java.lang.Object)
+   */
+  @Override
+  public boolean equals(Object object_p) {
+    boolean result = false;
+    if (object_p instanceof HierarchicalMatchID) {
+      HierarchicalMatchID other = (HierarchicalMatchID)object_p;
+      result = other._hash == _hash && contentEquals(other);
+    }
+    return result;
+  }
+  
+  /**
+   * Return the number of segments of this match ID, i.e., its number of ancestors plus one
+   * @return a strictly positive int
+   */
+  public int getDepth() {
+    int result = 0;
+    for (HierarchicalMatchID current = this; current != null; current = current._parent) {
+      result++;
+    }
+    return result;
+  }
+  
+  /**
+   * Return the match ID of the container, if any
+   * @return a potentially null object
+   */
+  public HierarchicalMatchID getParent() {
+    return _parent;
+  }
+  
+  /**
+   * Return the local segment of this match ID
+   * @return a non-null string
+   */
+  public String getSegment() {
+    return _segment;
+  }
+  
+  /**
+   * Return the hash code of the string form of this match ID
+   * @see java.lang.Object#hashCode()
+   * @see String#hashCode()
+   */
+  @Override
+  public int hashCode() {
+    return _hash;
+  }
+  
+  /**
+   * @see java.lang.CharSequence#length()
+   */
+  public int length() {
+    return _length;
+  }
+  
+  /**
+   * Return whether the two given match IDs of the same length have the same string form
+   * @param id1_p a non-null match ID
+   * @param id2_p a non-null match ID such that id2_p.length() == id1_p.length()
+   */
+  private static boolean sameContents(HierarchicalMatchID id1_p, HierarchicalMatchID id2_p) {
+    // Compare backwards, stopping as soon as a common ancestor is reached
+    HierarchicalMatchID current1 = id1_p;
+    HierarchicalMatchID current2 = id2_p;
+    int index1 = current1._segment.length();
+    int index2 = current2._segment.length();
+    while (current1 != null && current2 != null) {
+      if (current1 == current2 && index1 == index2)
+        return true;
+      if (index1 == 0) {
+        current1 = current1._parent;
+        if (current1 != null)
+          index1 = current1._segment.length();
+      } else if (index2 == 0) {
+        current2 = current2._parent;
+        if (current2 != null)
+          index2 = current2._segment.length();
+      } else {
+        index1--;
+        index2--;
+        if (current1._segment.charAt(index1) != current2._segment.charAt(index2))
+          return false;
+      }
+    }
+    return true; // Same length
+  }
+  
+  /**
+   * @see java.lang.CharSequence#subSequence(int, int)
+   */
+  public CharSequence subSequence(int start_p, int end_p) {
+    return toString().subSequence(start_p, end_p);
+  }
+  
+  /**
+   * Return the string form of this match ID
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString() {
+    char[] result = new char[_length];
+    int end = _length;
+    for (HierarchicalMatchID current = this; current != null; current = current._parent) {
+      String segment = current._segment;
+      int start = end - segment.length();
+      segment.getChars(0, segment.length(), result, start);
+      end = start;
+    }
+    return new String(result);
+  }
+  
+}
@@ -11,9 +11,9 @@
  **********************************************************************/
 package org.eclipse.emf.diffmerge.impl.scopes;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 
@@ -113,8 +113,9 @@ public abstract class AbstractModelScope implements IFeaturedModelScope {
         Object value = source_p.eGet(attribute_p, resolveProxies());
         if (FeatureMapUtil.isMany(source_p, attribute_p)) {
           // Set, many (may contain null values)
-          result = new LinkedList<Object>();
-          for (Object inValue : (List<Object>)value) {
+          List<Object> values = (List<Object>)value;
+          result = new ArrayList<Object>(values.size());
+          for (Object inValue : values) {
             if (inValue != null)
               result.add(inValue);
           }
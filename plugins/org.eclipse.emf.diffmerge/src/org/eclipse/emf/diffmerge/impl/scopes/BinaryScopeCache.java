@@ -0,0 +1,634 @@
+/*********************************************************************
+ * Copyright (c) 2010-2019 Thales Global Services S.A.S.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    Thales Global Services S.A.S. - initial API and implementation
+ **********************************************************************/
+package org.eclipse.emf.diffmerge.impl.scopes;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.eclipse.emf.common.util.EList;
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.resource.ContentHandler;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.resource.ResourceSet;
+import org.eclipse.emf.ecore.resource.URIConverter;
+import org.eclipse.emf.ecore.resource.URIHandler;
+import org.eclipse.emf.ecore.xmi.impl.XMLResourceImpl;
+
+
+/**
+ * An on-disk cache of the contents of XML resources in a compact binary layout,
+ * keyed by a digest of the persistent contents of the resources and of the
+ * options for loading them.
+ * The digest of some contents is the Git blob id of these contents, so a given
+ * revision of a file is associated to the same cache entry whatever its location
+ * or the way it is obtained, provided that it is loaded with the same options.
+ * When a cached revision is loaded, the XML parsing
+ * is skipped and the resource is directly loaded from its binary form, with
+ * its extrinsic IDs. Resources whose contents are not supported by the binary
+ * layout are simply parsed every time.
+ * The cache is used by a resource set once installed on it: it then intercepts
+ * the input streams of the resource set, so that resources which are loaded on
+ * demand, e.g., fragments of a model, are covered.
+ * The cache directory is bounded in size: the least recently used entries are
+ * evicted when an entry is added and the maximal size is exceeded.
+ * @see FragmentedModelScope#OPTION_SCOPE_CACHE
+ * @author Olivier Constant
+ */
+public class BinaryScopeCache {
+
+  /** The default maximal size of the cache directory in bytes */
+  public static final long DEFAULT_MAX_SIZE = 512L * 1024 * 1024;
+
+  /** The file extension of the cache entries */
+  protected static final String ENTRY_EXTENSION = ".bin"; //$NON-NLS-1$
+
+  /** The file extension of the cache entries being written */
+  protected static final String TEMPORARY_EXTENSION = ".tmp"; //$NON-NLS-1$
+
+  /** The version of the layout of the cache entries, which is part of the keys */
+  protected static final String LAYOUT_VERSION = "1"; //$NON-NLS-1$
+
+  /** The size of the buffer for reading contents */
+  private static final int BUFFER_SIZE = 8192;
+
+  /** The hexadecimal digits */
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray(); //$NON-NLS-1$
+
+  /** The non-null cache directory */
+  private final File _directory;
+
+  /** The positive maximal size of the cache directory in bytes */
+  private final long _maxSize;
+
+
+  /**
+   * Constructor with a default maximal size
+   * @param directory_p a non-null directory, which is created if needed
+   */
+  public BinaryScopeCache(File directory_p) {
+    this(directory_p, DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * Constructor
+   * @param directory_p a non-null directory, which is created if needed
+   * @param maxSize_p the positive maximal size of the cache directory in bytes
+   */
+  public BinaryScopeCache(File directory_p, long maxSize_p) {
+    _directory = directory_p;
+    _maxSize = maxSize_p;
+  }
+
+  /**
+   * Remove all the entries of this cache
+   */
+  public synchronized void clear() {
+    for (File entry : getEntries()) {
+      entry.delete();
+    }
+  }
+
+  /**
+   * Remove the least recently used entries until the size of the cache directory
+   * does not exceed the maximal size
+   */
+  protected synchronized void evict() {
+    File[] entries = getEntries();
+    long size = 0L;
+    for (File entry : entries) {
+      size += entry.length();
+    }
+    if (size > _maxSize) {
+      Arrays.sort(entries, new Comparator<File>() {
+        /**
+         * @see java.util.Comparator#compare(java.lang.Object, java.lang.Object)
+         */
+        public int compare(File o1_p, File o2_p) {
+          long m1 = o1_p.lastModified();
+          long m2 = o2_p.lastModified();
+          return m1 < m2? -1: (m1 == m2? 0: 1);
+        }
+      });
+      for (int i = 0; i < entries.length && size > _maxSize; i++) {
+        long length = entries[i].length();
+        if (entries[i].delete())
+          size -= length;
+      }
+    }
+  }
+
+  /**
+   * Discard the given entry which could not be loaded into the given resource,
+   * e.g., because it is corrupted or because the metamodels have changed
+   * @param resource_p a non-null resource whose contents must be reset
+   * @param entry_p the non-null file of the entry
+   */
+  protected void discard(XMLResourceImpl resource_p, File entry_p) {
+    resource_p.getContents().clear();
+    resource_p.getEObjectToIDMap().clear();
+    resource_p.getIDToEObjectMap().clear();
+    entry_p.delete();
+  }
+
+  /**
+   * Return the cache directory
+   * @return a non-null file
+   */
+  public File getDirectory() {
+    return _directory;
+  }
+
+  /**
+   * Return the current entries of this cache
+   * @return a non-null, potentially empty array
+   */
+  protected File[] getEntries() {
+    File[] result = _directory.listFiles();
+    if (result == null)
+      return new File[0];
+    int nb = 0;
+    for (File file : result) {
+      if (file.getName().endsWith(ENTRY_EXTENSION))
+        result[nb++] = file;
+    }
+    return Arrays.copyOf(result, nb);
+  }
+
+  /**
+   * Return the file of the entry for the given key, which may not exist
+   * @param key_p a non-null key
+   * @return a non-null file
+   */
+  protected File getEntry(String key_p) {
+    return new File(_directory, key_p + ENTRY_EXTENSION);
+  }
+
+  /**
+   * Return the key of the given persistent contents of a resource loaded with the given
+   * options.
+   * By default, the key is the Git blob id of the contents qualified by a digest of the
+   * options and by the version of the layout of the cache entries.
+   * @param contents_p the non-null contents
+   * @param length_p the positive or zero length of the contents
+   * @param options_p the potentially null options for loading the resource
+   * @return a non-null string which is suitable as a file name
+   */
+  protected String getKey(byte[] contents_p, int length_p, Map<?, ?> options_p) {
+    MessageDigest digest = newDigest();
+    // Same as "git hash-object"
+    digest.update(toBytes("blob " + length_p + '\0')); //$NON-NLS-1$
+    digest.update(contents_p, 0, length_p);
+    StringBuilder builder = new StringBuilder();
+    builder.append(toHex(digest.digest(), Integer.MAX_VALUE));
+    builder.append('_');
+    builder.append(getOptionsKey(options_p));
+    builder.append('_');
+    builder.append(LAYOUT_VERSION);
+    return builder.toString();
+  }
+
+  /**
+   * Return the maximal size of the cache directory
+   * @return a positive number of bytes
+   */
+  public long getMaxSize() {
+    return _maxSize;
+  }
+
+  /**
+   * Return a key for the given load options.
+   * The key depends on the names of the relevant options and on their values if they are
+   * data values, or on the types of their values otherwise, so that it is the same across
+   * sessions for the same configuration of loading.
+   * @see BinaryScopeCache#isRelevantOption(Object)
+   * @param options_p the potentially null options for loading a resource
+   * @return a non-null string which is suitable as a part of a file name
+   */
+  protected String getOptionsKey(Map<?, ?> options_p) {
+    SortedMap<String, String> descriptions = new TreeMap<String, String>();
+    if (options_p != null) {
+      for (Map.Entry<?, ?> option : options_p.entrySet()) {
+        if (isRelevantOption(option.getKey())) {
+          Object value = option.getValue();
+          String description;
+          if (value == null || value instanceof String || value instanceof Number ||
+              value instanceof Boolean || value instanceof Character || value instanceof Enum<?>)
+            description = String.valueOf(value);
+          else
+            description = value.getClass().getName();
+          descriptions.put(String.valueOf(option.getKey()), description);
+        }
+      }
+    }
+    MessageDigest digest = newDigest();
+    digest.update(toBytes(descriptions.toString()));
+    return toHex(digest.digest(), 4);
+  }
+
+  /**
+   * Install this cache on the given resource set so that the XML resources loaded
+   * from the resource set are loaded from this cache if possible
+   * @param resourceSet_p a non-null resource set
+   * @return whether this cache was not already installed on the resource set
+   */
+  public boolean install(ResourceSet resourceSet_p) {
+    if (isInstalled(resourceSet_p))
+      return false;
+    resourceSet_p.setURIConverter(new CachingURIConverter(resourceSet_p.getURIConverter()));
+    return true;
+  }
+
+  /**
+   * Return whether this cache is installed on the given resource set
+   * @param resourceSet_p a non-null resource set
+   */
+  public boolean isInstalled(ResourceSet resourceSet_p) {
+    URIConverter converter = resourceSet_p.getURIConverter();
+    while (converter instanceof CachingURIConverter) {
+      CachingURIConverter cachingConverter = (CachingURIConverter)converter;
+      if (cachingConverter.getCache() == this)
+        return true;
+      converter = cachingConverter.getDelegate();
+    }
+    return false;
+  }
+
+  /**
+   * Return whether the load option of the given name may change the result of loading
+   * a resource and must therefore be part of the keys of the entries
+   * @param name_p a potentially null option name
+   */
+  protected boolean isRelevantOption(Object name_p) {
+    return !URIConverter.OPTION_RESPONSE.equals(name_p) &&
+        !FragmentedModelScope.OPTION_SCOPE_CACHE.equals(name_p) &&
+        !FragmentedModelScope.OPTION_PARALLEL_PRELOADING.equals(name_p);
+  }
+
+  /**
+   * Load the given resource from the binary form of the given contents if it is
+   * available in this cache, otherwise parse the contents and add their binary form
+   * to this cache
+   * @param resource_p a non-null resource being loaded
+   * @param contents_p the non-null persistent contents of the resource
+   * @param length_p the positive or zero length of the contents
+   * @param options_p the potentially null options for loading the resource
+   * @throws IOException if the contents could not be parsed
+   */
+  protected void load(XMLResourceImpl resource_p, byte[] contents_p, int length_p,
+      Map<?, ?> options_p) throws IOException {
+    // Default load options are taken into account when parsing
+    Map<Object, Object> allOptions = new HashMap<Object, Object>();
+    if (resource_p.getDefaultLoadOptions() != null)
+      allOptions.putAll(resource_p.getDefaultLoadOptions());
+    if (options_p != null)
+      allOptions.putAll(options_p);
+    String key = getKey(contents_p, length_p, allOptions);
+    File entry = getEntry(key);
+    if (entry.isFile()) {
+      InputStream stream = null;
+      try {
+        stream = new FileInputStream(entry);
+        newSerializer().load(resource_p,
+            new DataInputStream(new BufferedInputStream(stream, BUFFER_SIZE)));
+        entry.setLastModified(System.currentTimeMillis());
+        return;
+      } catch (IOException e) {
+        discard(resource_p, entry);
+      } catch (RuntimeException e) {
+        discard(resource_p, entry);
+      } finally {
+        if (stream != null)
+          stream.close();
+      }
+    }
+    resource_p.doLoad(new ByteArrayInputStream(contents_p, 0, length_p), options_p);
+    store(resource_p, entry);
+  }
+
+  /**
+   * Create and return a message digest for the keys of the entries
+   * @return a non-null message digest
+   */
+  protected static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-1"); //$NON-NLS-1$
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Create and return a serializer for the entries of this cache
+   * @return a non-null serializer
+   */
+  protected CompactResourceSerializer newSerializer() {
+    return new CompactResourceSerializer();
+  }
+
+  /**
+   * Read the given input stream completely, then close it
+   * @param stream_p a non-null input stream
+   * @return a non-null byte buffer whose size may exceed the number of bytes read
+   * @throws IOException if the stream could not be read
+   */
+  protected static ByteArrayOutputStream read(InputStream stream_p) throws IOException {
+    try {
+      ByteArrayOutputStream result = new ByteArrayOutputStream(BUFFER_SIZE);
+      byte[] buffer = new byte[BUFFER_SIZE];
+      int read = stream_p.read(buffer);
+      while (read >= 0) {
+        result.write(buffer, 0, read);
+        read = stream_p.read(buffer);
+      }
+      return result;
+    } finally {
+      stream_p.close();
+    }
+  }
+
+  /**
+   * Add the binary form of the given freshly loaded resource to this cache
+   * as the given entry, then evict entries if needed
+   * @param resource_p a non-null resource
+   * @param entry_p the non-null file of the entry
+   */
+  protected void store(XMLResourceImpl resource_p, File entry_p) {
+    if (!_directory.isDirectory() && !_directory.mkdirs())
+      return;
+    File temporary = null;
+    OutputStream stream = null;
+    try {
+      // Entries are written atomically since caches may be shared between sessions
+      temporary = File.createTempFile(entry_p.getName(), TEMPORARY_EXTENSION, _directory);
+      stream = new FileOutputStream(temporary);
+      DataOutputStream dataStream =
+          new DataOutputStream(new BufferedOutputStream(stream, BUFFER_SIZE));
+      newSerializer().save(resource_p, dataStream);
+      dataStream.close();
+      stream = null;
+      if (!temporary.renameTo(entry_p))
+        temporary.delete();
+    } catch (IOException e) {
+      // The cache is an optimization: failures, e.g. unsupported contents, only lose the entry
+      if (temporary != null)
+        temporary.delete();
+    } catch (RuntimeException e) {
+      if (temporary != null)
+        temporary.delete();
+    } finally {
+      if (stream != null) {
+        try {
+          stream.close();
+        } catch (IOException e) {
+          // Ignore
+        }
+      }
+    }
+    evict();
+  }
+
+  /**
+   * Return the UTF-8 bytes of the given string
+   * @param string_p a non-null string
+   * @return a non-null byte array
+   */
+  protected static byte[] toBytes(String string_p) {
+    try {
+      return string_p.getBytes("UTF-8"); //$NON-NLS-1$
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Return the hexadecimal form of the given bytes up to the given number of bytes
+   * @param bytes_p a non-null byte array
+   * @param maxLength_p the positive maximal number of bytes to consider
+   * @return a non-null string
+   */
+  protected static String toHex(byte[] bytes_p, int maxLength_p) {
+    int length = Math.min(bytes_p.length, maxLength_p);
+    StringBuilder builder = new StringBuilder(2 * length);
+    for (int i = 0; i < length; i++) {
+      builder.append(HEX_DIGITS[(bytes_p[i] >> 4) & 0xF]);
+      builder.append(HEX_DIGITS[bytes_p[i] & 0xF]);
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Uninstall this cache from the given resource set, leaving any other cache installed.
+   * This is only possible if the resource set has not been given a URI converter that
+   * is not a cache since this one was installed.
+   * @param resourceSet_p a non-null resource set
+   * @return whether this cache was installed on the resource set and has been uninstalled
+   */
+  public boolean uninstall(ResourceSet resourceSet_p) {
+    URIConverter converter = resourceSet_p.getURIConverter();
+    URIConverter uninstalled = withoutThis(converter);
+    if (uninstalled == converter)
+      return false;
+    resourceSet_p.setURIConverter(uninstalled);
+    return true;
+  }
+
+  /**
+   * Return the given URI converter, or an equivalent one, without the caching URI converter
+   * of this cache
+   * @param converter_p a non-null URI converter
+   * @return the given converter if it does not involve this cache, or a different one
+   */
+  protected URIConverter withoutThis(URIConverter converter_p) {
+    URIConverter result = converter_p;
+    if (converter_p instanceof CachingURIConverter) {
+      CachingURIConverter cachingConverter = (CachingURIConverter)converter_p;
+      URIConverter delegate = cachingConverter.getDelegate();
+      if (cachingConverter.getCache() == this) {
+        result = delegate;
+      } else {
+        URIConverter newDelegate = withoutThis(delegate);
+        if (newDelegate != delegate)
+          // Caches installed later remain installed
+          result = cachingConverter.getCache().new CachingURIConverter(newDelegate);
+      }
+    }
+    return result;
+  }
+
+
+  /**
+   * A URI converter which delegates to another one but provides input streams
+   * that load resources via the enclosing cache.
+   */
+  protected class CachingURIConverter implements URIConverter {
+    /** The non-null URI converter to delegate to */
+    private final URIConverter _delegate;
+    /**
+     * Constructor
+     * @param delegate_p the non-null URI converter to delegate to
+     */
+    public CachingURIConverter(URIConverter delegate_p) {
+      _delegate = delegate_p;
+    }
+    /**
+     * @see org.eclipse.emf.ecore.resource.URIConverter#contentDescription(org.eclipse.emf.common.util.URI, java.util.Map)
+     */
+    public Map<String, ?> contentDescription(URI uri_p, Map<?, ?> options_p) throws IOException {
+      return _delegate.contentDescription(uri_p, options_p);
+    }
+    /**
+     * @see org.eclipse.emf.ecore.resource.URIConverter#createInputStream(org.eclipse.emf.common.util.URI)
+     */
+    public InputStream createInputStream(URI uri_p) throws IOException {
+      return createInputStream(uri_p, null);
+    }
+    /**
+     * @see org.eclipse.emf.ecore.resource.URIConverter#createInputStream(org.eclipse.emf.common.util.URI, java.util.Map)
+     */
+    public InputStream createInputStream(URI uri_p, Map<?, ?> options_p) throws IOException {
+      ByteArrayOutputStream contents = read(_delegate.createInputStream(uri_p, options_p));
+      return new CachingInputStream(contents.toByteArray(), options_p);
+    }
+    /**
+     * @see org.eclipse.emf.ecore.resource.URIConverter#createOutputStream(org.eclipse.emf.common.util.URI)
+     */
+    public OutputStream createOutputStream(URI uri_p) throws IOException {
+      return _delegate.createOutputStream(uri_p);
+    }
+    /**
+     * @see org.eclipse.emf.ecore.resource.URIConverter#createOutputStream(org.eclipse.emf.common.util.URI, java.util.Map)
+     */
+    public OutputStream createOutputStream(URI uri_p, Map<?, ?> options_p) throws IOException {
+      return _delegate.createOutputStream(uri_p, options_p);
+    }
+    /**
+     * @see org.eclipse.emf.ecore.resource.URIConverter#delete(org.eclipse.emf.common.util.URI, java.util.Map)
+     */
+    public void delete(URI uri_p, Map<?, ?> options_p) throws IOException {
+      _delegate.delete(uri_p, options_p);
+    }
+    /**
+     * @see org.eclipse.emf.ecore.resource.URIConverter#exists(org.eclipse.emf.common.util.URI, java.util.Map)
+     */
+    public boolean exists(URI uri_p, Map<?, ?> options_p) {
+      return _delegate.exists(uri_p, options_p);
+    }
+    /**
+     * @see org.eclipse.emf.ecore.resource.URIConverter#getAttributes(org.eclipse.emf.common.util.URI, java.util.Map)
+     */
+    public Map<String, ?> getAttributes(URI uri_p, Map<?, ?> options_p) {
+      return _delegate.getAttributes(uri_p, options_p);
+    }
+    /**
+     * Return the enclosing cache
+     * @return a non-null object
+     */
+    public BinaryScopeCache getCache() {
+      return BinaryScopeCache.this;
+    }
+    /**
+     * @see org.eclipse.emf.ecore.resource.URIConverter#getContentHandlers()
+     */
+    public EList<ContentHandler> getContentHandlers() {
+      return _delegate.getContentHandlers();
+    }
+    /**
+     * Return the URI converter this converter delegates to
+     * @return a non-null object
+     */
+    public URIConverter getDelegate() {
+      return _delegate;
+    }
+    /**
+     * @see org.eclipse.emf.ecore.resource.URIConverter#getURIHandler(org.eclipse.emf.common.util.URI)
+     */
+    public URIHandler getURIHandler(URI uri_p) {
+      return _delegate.getURIHandler(uri_p);
+    }
+    /**
+     * @see org.eclipse.emf.ecore.resource.URIConverter#getURIHandlers()
+     */
+    public EList<URIHandler> getURIHandlers() {
+      return _delegate.getURIHandlers();
+    }
+    /**
+     * @see org.eclipse.emf.ecore.resource.URIConverter#getURIMap()
+     */
+    public Map<URI, URI> getURIMap() {
+      return _delegate.getURIMap();
+    }
+    /**
+     * @see org.eclipse.emf.ecore.resource.URIConverter#normalize(org.eclipse.emf.common.util.URI)
+     */
+    public URI normalize(URI uri_p) {
+      return _delegate.normalize(uri_p);
+    }
+    /**
+     * @see org.eclipse.emf.ecore.resource.URIConverter#setAttributes(org.eclipse.emf.common.util.URI, java.util.Map, java.util.Map)
+     */
+    public void setAttributes(URI uri_p, Map<String, ?> attributes_p, Map<?, ?> options_p)
+        throws IOException {
+      _delegate.setAttributes(uri_p, attributes_p, options_p);
+    }
+  }
+
+
+  /**
+   * An input stream on the persistent contents of a resource which, when used
+   * for loading an XML resource, loads it via the enclosing cache.
+   * Otherwise, it behaves as a regular input stream on the contents.
+   */
+  protected class CachingInputStream extends ByteArrayInputStream
+  implements URIConverter.Loadable {
+    /** The potentially null options for loading */
+    private final Map<?, ?> _options;
+    /**
+     * Constructor
+     * @param contents_p the non-null persistent contents of a resource
+     * @param options_p the potentially null options for loading
+     */
+    public CachingInputStream(byte[] contents_p, Map<?, ?> options_p) {
+      super(contents_p);
+      _options = options_p;
+    }
+    /**
+     * @see org.eclipse.emf.ecore.resource.URIConverter.Loadable#loadResource(org.eclipse.emf.ecore.resource.Resource)
+     */
+    public void loadResource(Resource resource_p) throws IOException {
+      if (resource_p instanceof XMLResourceImpl) {
+        load((XMLResourceImpl)resource_p, buf, count, _options);
+      } else {
+        // Not expected since only XML resources handle loadable streams
+        throw new IOException(resource_p.getURI().toString());
+      }
+    }
+  }
+
+}
@@ -0,0 +1,437 @@
+/*********************************************************************
+ * Copyright (c) 2010-2019 Thales Global Services S.A.S.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    Thales Global Services S.A.S. - initial API and implementation
+ **********************************************************************/
+package org.eclipse.emf.diffmerge.impl.scopes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.emf.common.util.ECollections;
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EAttribute;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EDataType;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EPackage;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.InternalEObject;
+import org.eclipse.emf.ecore.resource.ResourceSet;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.emf.ecore.util.FeatureMapUtil;
+import org.eclipse.emf.ecore.util.InternalEList;
+import org.eclipse.emf.ecore.xmi.XMLResource;
+
+
+/**
+ * A serializer of the contents of XML resources in a compact binary layout,
+ * for caching purposes.
+ * The layout is columnar at the level of elements: the classes of all the elements
+ * are stored first so that all the elements can be created upfront, then the values
+ * of the persistent features of every element follow, where elements of the same
+ * resource are designated by their index. Serialization and deserialization are
+ * therefore iterative and do not depend on the depth of the containment tree
+ * or on the structure of the cross-references.
+ * Features are designated by name so that a layout which does not conform to the
+ * current version of the metamodels is detected.
+ * Cross-resource references are stored as URIs relative to the resource.
+ * Extrinsic IDs, as well as the encoding and XML version of the resource, are preserved.
+ * Feature maps are not supported.
+ * @see BinaryScopeCache
+ * @author Olivier Constant
+ */
+public class CompactResourceSerializer {
+
+  /** The magic number at the beginning of the layout */
+  protected static final int MAGIC = 0x444D5343;
+
+  /** The code for null references */
+  protected static final int NULL_REFERENCE = -1;
+
+  /** The code for references to elements outside the resource */
+  protected static final int EXTERNAL_REFERENCE = -2;
+
+  /** The code for null strings */
+  private static final int NULL_STRING = -1;
+
+  /** The string encoding */
+  private static final String UTF_8 = "UTF-8"; //$NON-NLS-1$
+
+  /** The non-null map from classes to their persistent features */
+  private final Map<EClass, EStructuralFeature[]> _persistentFeatures;
+
+
+  /**
+   * Constructor
+   */
+  public CompactResourceSerializer() {
+    _persistentFeatures = new HashMap<EClass, EStructuralFeature[]>();
+  }
+
+  /**
+   * Return the persistent features of the given class
+   * @param class_p a non-null class
+   * @return a non-null, potentially empty array ordered by feature ID
+   * @throws IOException if the class has persistent features which are not supported
+   */
+  protected EStructuralFeature[] getPersistentFeatures(EClass class_p) throws IOException {
+    EStructuralFeature[] result = _persistentFeatures.get(class_p);
+    if (result == null) {
+      List<EStructuralFeature> features = new ArrayList<EStructuralFeature>();
+      for (EStructuralFeature feature : class_p.getEAllStructuralFeatures()) {
+        if (feature.isTransient() || feature.isDerived())
+          continue;
+        if (feature instanceof EReference && ((EReference)feature).isContainer())
+          continue;
+        if (FeatureMapUtil.isFeatureMap(feature))
+          throw new IOException(feature.getName());
+        features.add(feature);
+      }
+      result = features.toArray(new EStructuralFeature[features.size()]);
+      _persistentFeatures.put(class_p, result);
+    }
+    return result;
+  }
+
+  /**
+   * Return the class of the given name in the package of the given namespace URI
+   * @param resource_p a non-null resource being loaded
+   * @param nsURI_p a non-null namespace URI
+   * @param name_p a non-null class name
+   * @return a non-null class
+   * @throws IOException if the class could not be found
+   */
+  protected EClass getEClass(XMLResource resource_p, String nsURI_p, String name_p)
+      throws IOException {
+    ResourceSet resourceSet = resource_p.getResourceSet();
+    EPackage.Registry registry = resourceSet != null?
+        resourceSet.getPackageRegistry(): EPackage.Registry.INSTANCE;
+    EPackage ePackage = registry.getEPackage(nsURI_p);
+    Object result = ePackage == null? null: ePackage.getEClassifier(name_p);
+    if (!(result instanceof EClass))
+      throw new IOException(nsURI_p + '#' + name_p);
+    return (EClass)result;
+  }
+
+  /**
+   * Load the contents of the given empty resource from the given stream
+   * @param resource_p a non-null resource
+   * @param stream_p a non-null stream in the layout of this serializer
+   * @throws IOException if the contents could not be loaded
+   */
+  @SuppressWarnings("unchecked")
+  public void load(XMLResource resource_p, DataInputStream stream_p) throws IOException {
+    if (stream_p.readInt() != MAGIC)
+      throw new IOException(resource_p.getURI().toString());
+    resource_p.setEncoding(readString(stream_p));
+    resource_p.setXMLVersion(readString(stream_p));
+    URI base = resource_p.getURI();
+    // Classes and their persistent features
+    EClass[] classes = new EClass[stream_p.readInt()];
+    EStructuralFeature[][] classFeatures = new EStructuralFeature[classes.length][];
+    for (int i = 0; i < classes.length; i++) {
+      String nsURI = readString(stream_p);
+      classes[i] = getEClass(resource_p, nsURI, readString(stream_p));
+      classFeatures[i] = new EStructuralFeature[stream_p.readInt()];
+      for (int j = 0; j < classFeatures[i].length; j++) {
+        String name = readString(stream_p);
+        EStructuralFeature feature = classes[i].getEStructuralFeature(name);
+        if (feature == null)
+          throw new IOException(classes[i].getName() + '.' + name);
+        classFeatures[i][j] = feature;
+      }
+    }
+    // Elements
+    InternalEObject[] elements = new InternalEObject[stream_p.readInt()];
+    int[] elementClasses = new int[elements.length];
+    for (int i = 0; i < elements.length; i++) {
+      elementClasses[i] = stream_p.readInt();
+      EClass eClass = classes[elementClasses[i]];
+      elements[i] = (InternalEObject)eClass.getEPackage().getEFactoryInstance().create(eClass);
+    }
+    int nbRoots = stream_p.readInt();
+    List<EObject> roots = new ArrayList<EObject>(nbRoots);
+    for (int i = 0; i < nbRoots; i++) {
+      roots.add(elements[stream_p.readInt()]);
+    }
+    ((InternalEList<EObject>)resource_p.getContents()).addAllUnique(roots);
+    // Feature values
+    for (int e = 0; e < elements.length; e++) {
+      InternalEObject element = elements[e];
+      String id = readString(stream_p);
+      if (id != null)
+        resource_p.setID(element, id);
+      EStructuralFeature[] features = classFeatures[elementClasses[e]];
+      int nbSetFeatures = stream_p.readInt();
+      for (int i = 0; i < nbSetFeatures; i++) {
+        EStructuralFeature feature = features[stream_p.readInt()];
+        if (feature.isMany()) {
+          int nbValues = stream_p.readInt();
+          List<Object> values = new ArrayList<Object>(nbValues);
+          for (int j = 0; j < nbValues; j++) {
+            values.add(readValue(stream_p, feature, elements, classes, base));
+          }
+          if (values.isEmpty()) {
+            element.eSet(feature, ECollections.emptyEList());
+          } else if (isBidirectional(feature)) {
+            for (Object value : values) {
+              addInverse(element, (EReference)feature, (InternalEObject)value);
+            }
+          } else {
+            ((InternalEList<Object>)element.eGet(feature, false)).addAllUnique(values);
+          }
+        } else {
+          Object value = readValue(stream_p, feature, elements, classes, base);
+          if (value != null && isBidirectional(feature))
+            addInverse(element, (EReference)feature, (InternalEObject)value);
+          else
+            element.eSet(feature, value);
+        }
+      }
+    }
+  }
+
+  /**
+   * Add the given value to the given bidirectional reference of the given element
+   * without updating the opposite reference, since it is loaded independently
+   * @param element_p a non-null element
+   * @param reference_p a non-null bidirectional reference
+   * @param value_p a non-null value
+   */
+  protected void addInverse(InternalEObject element_p, EReference reference_p,
+      InternalEObject value_p) {
+    int featureID = element_p.eClass().getFeatureID(reference_p);
+    element_p.eInverseAdd(value_p, featureID, null, null);
+  }
+
+  /**
+   * Return whether the given feature is a non-containment reference whose opposite
+   * is also persistent
+   * @param feature_p a non-null feature
+   */
+  protected boolean isBidirectional(EStructuralFeature feature_p) {
+    if (!(feature_p instanceof EReference) || ((EReference)feature_p).isContainment())
+      return false;
+    EReference opposite = ((EReference)feature_p).getEOpposite();
+    return opposite != null && !opposite.isTransient() && !opposite.isDerived();
+  }
+
+  /**
+   * Read a string from the given stream
+   * @param stream_p a non-null stream
+   * @return a potentially null string
+   * @throws IOException if the stream could not be read
+   */
+  protected String readString(DataInputStream stream_p) throws IOException {
+    int length = stream_p.readInt();
+    if (length == NULL_STRING)
+      return null;
+    byte[] bytes = new byte[length];
+    stream_p.readFully(bytes);
+    return new String(bytes, UTF_8);
+  }
+
+  /**
+   * Read a value of the given feature from the given stream
+   * @param stream_p a non-null stream
+   * @param feature_p a non-null persistent feature
+   * @param elements_p the non-null elements of the resource
+   * @param classes_p the non-null classes of the layout
+   * @param base_p the non-null URI of the resource
+   * @return a potentially null value
+   * @throws IOException if the stream could not be read
+   */
+  protected Object readValue(DataInputStream stream_p, EStructuralFeature feature_p,
+      InternalEObject[] elements_p, EClass[] classes_p, URI base_p) throws IOException {
+    Object result;
+    if (feature_p instanceof EAttribute) {
+      String literal = readString(stream_p);
+      EDataType type = ((EAttribute)feature_p).getEAttributeType();
+      result = literal == null? null: EcoreUtil.createFromString(type, literal);
+    } else {
+      int code = stream_p.readInt();
+      if (code == NULL_REFERENCE) {
+        result = null;
+      } else if (code == EXTERNAL_REFERENCE) {
+        EClass eClass = classes_p[stream_p.readInt()];
+        InternalEObject proxy = (InternalEObject)
+            eClass.getEPackage().getEFactoryInstance().create(eClass);
+        URI uri = URI.createURI(readString(stream_p));
+        if (uri.isRelative() && base_p.isHierarchical() && !base_p.isRelative())
+          uri = uri.resolve(base_p);
+        proxy.eSetProxyURI(uri);
+        result = proxy;
+      } else {
+        result = elements_p[code];
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Save the contents of the given resource into the given stream
+   * @param resource_p a non-null resource
+   * @param stream_p a non-null stream
+   * @throws IOException if the contents could not be saved or are not supported
+   */
+  public void save(XMLResource resource_p, DataOutputStream stream_p) throws IOException {
+    // Index the elements and their classes
+    Map<EObject, Integer> indexes = new IdentityHashMap<EObject, Integer>();
+    List<EObject> elements = new ArrayList<EObject>();
+    Map<EClass, Integer> classIndexes = new HashMap<EClass, Integer>();
+    List<EClass> classes = new ArrayList<EClass>();
+    Iterator<EObject> it = EcoreUtil.getAllProperContents(resource_p, false);
+    while (it.hasNext()) {
+      EObject element = it.next();
+      indexes.put(element, Integer.valueOf(elements.size()));
+      elements.add(element);
+      getClassIndex(element.eClass(), classIndexes, classes);
+    }
+    // Serialize the feature values first since they may involve other classes
+    URI base = resource_p.getURI();
+    ByteArrayOutputStream valueBytes = new ByteArrayOutputStream();
+    DataOutputStream values = new DataOutputStream(valueBytes);
+    for (EObject element : elements) {
+      writeString(values, resource_p.getID(element));
+      EStructuralFeature[] features = getPersistentFeatures(element.eClass());
+      int nbSetFeatures = 0;
+      for (EStructuralFeature feature : features) {
+        if (element.eIsSet(feature))
+          nbSetFeatures++;
+      }
+      values.writeInt(nbSetFeatures);
+      for (int i = 0; i < features.length; i++) {
+        EStructuralFeature feature = features[i];
+        if (!element.eIsSet(feature))
+          continue;
+        values.writeInt(i);
+        Object value = element.eGet(feature, false);
+        if (feature.isMany()) {
+          List<?> list = (List<?>)value;
+          values.writeInt(list.size());
+          for (Object singleValue : list) {
+            writeValue(values, feature, singleValue, indexes, classIndexes, classes, base);
+          }
+        } else {
+          writeValue(values, feature, value, indexes, classIndexes, classes, base);
+        }
+      }
+    }
+    values.flush();
+    // Header, classes, elements and roots
+    stream_p.writeInt(MAGIC);
+    writeString(stream_p, resource_p.getEncoding());
+    writeString(stream_p, resource_p.getXMLVersion());
+    stream_p.writeInt(classes.size());
+    for (EClass eClass : classes) {
+      writeString(stream_p, eClass.getEPackage().getNsURI());
+      writeString(stream_p, eClass.getName());
+      EStructuralFeature[] features = getPersistentFeatures(eClass);
+      stream_p.writeInt(features.length);
+      for (EStructuralFeature feature : features) {
+        writeString(stream_p, feature.getName());
+      }
+    }
+    stream_p.writeInt(elements.size());
+    for (EObject element : elements) {
+      stream_p.writeInt(classIndexes.get(element.eClass()).intValue());
+    }
+    stream_p.writeInt(resource_p.getContents().size());
+    for (EObject root : resource_p.getContents()) {
+      stream_p.writeInt(indexes.get(root).intValue());
+    }
+    valueBytes.writeTo(stream_p);
+    stream_p.flush();
+  }
+
+  /**
+   * Return the index of the given class, registering it if needed
+   * @param class_p a non-null class
+   * @param classIndexes_p the non-null, modifiable map from classes to indexes
+   * @param classes_p the non-null, modifiable list of classes
+   * @return a positive int
+   */
+  protected int getClassIndex(EClass class_p, Map<EClass, Integer> classIndexes_p,
+      List<EClass> classes_p) {
+    Integer result = classIndexes_p.get(class_p);
+    if (result == null) {
+      result = Integer.valueOf(classes_p.size());
+      classIndexes_p.put(class_p, result);
+      classes_p.add(class_p);
+    }
+    return result.intValue();
+  }
+
+  /**
+   * Write the given string into the given stream
+   * @param stream_p a non-null stream
+   * @param string_p a potentially null string
+   * @throws IOException if the stream could not be written
+   */
+  protected void writeString(DataOutputStream stream_p, String string_p) throws IOException {
+    if (string_p == null) {
+      stream_p.writeInt(NULL_STRING);
+    } else {
+      byte[] bytes = string_p.getBytes(UTF_8);
+      stream_p.writeInt(bytes.length);
+      stream_p.write(bytes);
+    }
+  }
+
+  /**
+   * Write the given value of the given feature into the given stream
+   * @param stream_p a non-null stream
+   * @param feature_p a non-null persistent feature
+   * @param value_p a potentially null value
+   * @param indexes_p the non-null map from the elements of the resource to their indexes
+   * @param classIndexes_p the non-null, modifiable map from classes to indexes
+   * @param classes_p the non-null, modifiable list of classes
+   * @param base_p the non-null URI of the resource
+   * @throws IOException if the stream could not be written
+   */
+  protected void writeValue(DataOutputStream stream_p, EStructuralFeature feature_p,
+      Object value_p, Map<EObject, Integer> indexes_p, Map<EClass, Integer> classIndexes_p,
+      List<EClass> classes_p, URI base_p) throws IOException {
+    if (feature_p instanceof EAttribute) {
+      EDataType type = ((EAttribute)feature_p).getEAttributeType();
+      writeString(stream_p, value_p == null? null: EcoreUtil.convertToString(type, value_p));
+    } else if (value_p == null) {
+      stream_p.writeInt(NULL_REFERENCE);
+    } else {
+      EObject value = (EObject)value_p;
+      Integer index = indexes_p.get(value);
+      if (index != null) {
+        stream_p.writeInt(index.intValue());
+      } else {
+        stream_p.writeInt(EXTERNAL_REFERENCE);
+        stream_p.writeInt(getClassIndex(value.eClass(), classIndexes_p, classes_p));
+        URI uri = value.eIsProxy()? ((InternalEObject)value).eProxyURI():
+          EcoreUtil.getURI(value);
+        if (!uri.isRelative() && base_p.isHierarchical() && !base_p.isRelative()) {
+          // Relative URIs so that the layout does not depend on the location of the resource
+          URI relative = uri.deresolve(base_p, true, true, false);
+          if (relative.isRelative())
+            uri = relative;
+        }
+        writeString(stream_p, uri.toString());
+      }
+    }
+  }
+
+}
@@ -17,11 +17,17 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.eclipse.emf.common.util.TreeIterator;
 import org.eclipse.emf.common.util.URI;
@@ -34,9 +40,16 @@ import org.eclipse.emf.diffmerge.structures.common.FOrderedSet;
 import org.eclipse.emf.diffmerge.util.ModelImplUtil;
 import org.eclipse.emf.diffmerge.util.ModelsUtil;
 import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EPackage;
 import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.InternalEObject;
+import org.eclipse.emf.ecore.impl.EPackageRegistryImpl;
 import org.eclipse.emf.ecore.resource.Resource;
 import org.eclipse.emf.ecore.resource.ResourceSet;
+import org.eclipse.emf.ecore.resource.URIConverter;
+import org.eclipse.emf.ecore.resource.impl.ResourceSetImpl;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.emf.ecore.util.InternalEList;
 import org.eclipse.emf.edit.domain.AdapterFactoryEditingDomain;
 import org.eclipse.emf.edit.domain.EditingDomain;
 import org.eclipse.emf.edit.domain.IEditingDomainProvider;
@@ -62,6 +75,14 @@ import org.eclipse.emf.edit.domain.IEditingDomainProvider;
 public class FragmentedModelScope extends AbstractEditableModelScope
 implements IFragmentedModelScope.Editable, IEditingDomainProvider {
   
+  /** The load option for a BinaryScopeCache through which the resources of the scope
+   *  are loaded until the scope has been fully explored */
+  public static final String OPTION_SCOPE_CACHE = "DIFFMERGE_SCOPE_CACHE"; //$NON-NLS-1$
+  
+  /** The load option for a Boolean that specifies whether the fragments of the scope
+   *  must be preloaded in parallel after its root resources */
+  public static final String OPTION_PARALLEL_PRELOADING = "DIFFMERGE_PARALLEL_PRELOADING"; //$NON-NLS-1$
+  
   /** Whether the resources should be opened in read-only mode */
   private final boolean _isReadOnly;
   
@@ -118,6 +139,9 @@ implements IFragmentedModelScope.Editable, IEditingDomainProvider {
   /** The current state of the scope */
   protected ScopeState _state;
   
+  /** The scope cache that has been installed on the resource set by this scope, if any */
+  protected BinaryScopeCache _installedCache;
+  
   
   /**
    * Constructor
@@ -184,6 +208,7 @@ implements IFragmentedModelScope.Editable, IEditingDomainProvider {
    */
   protected FragmentedModelScope(ResourceSet resourceSet_p, boolean readOnly_p) {
     _state = ScopeState.INITIALIZED;
+    _installedCache = null;
     _loadingStream = null;
     _isReadOnly = readOnly_p;
     _resourceSet = resourceSet_p;
@@ -261,6 +286,7 @@ implements IFragmentedModelScope.Editable, IEditingDomainProvider {
    */
   protected void explorationFinished() {
     _state = ScopeState.FULLY_EXPLORED;
+    uninstallCache();
     // Completion of _loadedResources: additional resources may be involved because
     // of automatic proxy resolving. A consequence of this update of _loadedResources
     // is that the loaded resources of a scope S1 may wrongly include those of another
@@ -360,7 +386,10 @@ implements IFragmentedModelScope.Editable, IEditingDomainProvider {
   }
   
   /**
-   * Return load options for loading the given resource
+   * Return load options for loading the given resource.
+   * Overriding this method allows opting in for a binary cache of the resources
+   * via OPTION_SCOPE_CACHE, and for parallel preloading of the fragments via
+   * OPTION_PARALLEL_PRELOADING on the holding resource.
    * @param resource_p a non-null resource
    * @return a non-null, potentially empty, modifiable option map
    */
@@ -502,6 +531,8 @@ implements IFragmentedModelScope.Editable, IEditingDomainProvider {
         for (Resource rootResource : _rootResources) {
           result = result && loadResource(rootResource);
         }
+        if (result && isParallelPreloading())
+          preloadFragments();
       }
       _state = ScopeState.LOADED;
     }
@@ -532,10 +563,171 @@ implements IFragmentedModelScope.Editable, IEditingDomainProvider {
    */
   protected boolean loadResource(Resource resource_p) throws Exception {
     Map<?,?> options = getLoadOptions(resource_p);
+    Object cache = options.get(OPTION_SCOPE_CACHE);
+    if (cache instanceof BinaryScopeCache && ((BinaryScopeCache)cache).install(_resourceSet))
+      // Also covers the resources loaded on demand during exploration
+      _installedCache = (BinaryScopeCache)cache;
     resource_p.load(options);
     return true;
   }
   
+  /**
+   * Add to the given set the URIs of the resources that are directly reachable from the given
+   * loaded resource and which the exploration of the scope would load, i.e., the resources of
+   * the unresolved proxies among the contents of its elements and among their cross-references
+   * in the scope
+   * @param resource_p a non-null, loaded resource
+   * @param uris_p a non-null, modifiable set of URIs
+   */
+  protected void collectFragmentURIs(Resource resource_p, Set<URI> uris_p) {
+    Iterator<EObject> it = EcoreUtil.getAllProperContents(resource_p, false);
+    while (it.hasNext()) {
+      EObject element = it.next();
+      Iterator<EObject> contentsIt = ((InternalEList<EObject>)element.eContents()).basicIterator();
+      while (contentsIt.hasNext()) {
+        EObject child = contentsIt.next();
+        if (child.eIsProxy())
+          uris_p.add(((InternalEObject)child).eProxyURI().trimFragment());
+      }
+      for (EReference ref : getCrossReferencesInScope(element)) {
+        if (!ref.isContainment() && !ref.isContainer() && element.eIsSet(ref)) {
+          Object value = element.eGet(ref, false);
+          Collection<?> values = ref.isMany()? (Collection<?>)value:
+            Collections.singleton(value);
+          for (Object singleValue : values) {
+            if (singleValue instanceof EObject && ((EObject)singleValue).eIsProxy())
+              uris_p.add(((InternalEObject)singleValue).eProxyURI().trimFragment());
+          }
+        }
+      }
+    }
+  }
+  
+  /**
+   * Return the number of threads to use for preloading fragments in parallel
+   * @return a strictly positive int
+   */
+  protected int getNbPreloadingThreads() {
+    return Runtime.getRuntime().availableProcessors();
+  }
+  
+  /**
+   * Return whether the fragments of the scope must be preloaded in parallel
+   * @see FragmentedModelScope#OPTION_PARALLEL_PRELOADING
+   */
+  protected boolean isParallelPreloading() {
+    Resource holdingResource = getHoldingResource();
+    return holdingResource != null && Boolean.TRUE.equals(
+        getLoadOptions(holdingResource).get(OPTION_PARALLEL_PRELOADING));
+  }
+  
+  /**
+   * Create and return a resource of the given URI and load it in a resource set
+   * other than the one of the scope. This method is called concurrently.
+   * @param uri_p a non-null URI
+   * @param packageRegistry_p a non-null, thread-safe package registry
+   * @return a loaded resource, or null if the resource could not be created or loaded
+   */
+  protected Resource loadDetachedResource(URI uri_p, EPackage.Registry packageRegistry_p) {
+    Resource.Factory factory = _resourceSet.getResourceFactoryRegistry().getFactory(uri_p);
+    if (factory == null)
+      return null;
+    ResourceSet detachedResourceSet = new ResourceSetImpl();
+    detachedResourceSet.setPackageRegistry(packageRegistry_p);
+    detachedResourceSet.setURIConverter(_resourceSet.getURIConverter());
+    Map<Object, Object> options = new HashMap<Object, Object>(_resourceSet.getLoadOptions());
+    detachedResourceSet.getLoadOptions().putAll(options);
+    Resource result = factory.createResource(uri_p);
+    detachedResourceSet.getResources().add(result);
+    try {
+      result.load(options);
+    } catch (Exception e) {
+      // Loading will be attempted again during exploration with the usual error handling
+      result = null;
+    }
+    return result;
+  }
+  
+  /**
+   * Load the fragments of the scope, i.e., the resources which are reachable from its
+   * root resources by the rules of exploration, recursively. The resources of each
+   * level of reachability are parsed concurrently in separate resource sets,
+   * then moved into the resource set of the scope in the current thread.
+   * The exploration of the scope then finds them already loaded, so its results
+   * are the same as with loading on demand.
+   * Precondition: the root resources are loaded
+   * @throws Exception an exception indicating that the operation failed in an unexpected way
+   */
+  protected void preloadFragments() throws Exception {
+    URIConverter converter = _resourceSet.getURIConverter();
+    Set<URI> knownURIs = new HashSet<URI>();
+    for (Resource resource : _resourceSet.getResources()) {
+      knownURIs.add(converter.normalize(resource.getURI()));
+    }
+    // Package lookups may update registries, so they are serialized
+    final EPackage.Registry packageRegistry =
+        new EPackageRegistryImpl(_resourceSet.getPackageRegistry()) {
+      /** The serial version UID */
+      private static final long serialVersionUID = 1L;
+      /**
+       * @see org.eclipse.emf.ecore.impl.EPackageRegistryImpl#getEPackage(java.lang.String)
+       */
+      @Override
+      public synchronized EPackage getEPackage(String nsURI_p) {
+        return super.getEPackage(nsURI_p);
+      }
+    };
+    List<Resource> toScan = new ArrayList<Resource>();
+    for (Resource rootResource : _rootResources) {
+      if (rootResource.isLoaded())
+        toScan.add(rootResource);
+    }
+    ExecutorService executor = null;
+    try {
+      while (!toScan.isEmpty()) {
+        Set<URI> uris = new LinkedHashSet<URI>();
+        for (Resource resource : toScan) {
+          collectFragmentURIs(resource, uris);
+        }
+        List<Future<Resource>> futures = new ArrayList<Future<Resource>>(uris.size());
+        for (final URI uri : uris) {
+          if (knownURIs.add(converter.normalize(uri))) {
+            if (executor == null)
+              executor = Executors.newFixedThreadPool(getNbPreloadingThreads());
+            futures.add(executor.submit(new Callable<Resource>() {
+              /**
+               * @see java.util.concurrent.Callable#call()
+               */
+              public Resource call() throws Exception {
+                return loadDetachedResource(uri, packageRegistry);
+              }
+            }));
+          }
+        }
+        // Attachment in the current thread, in the order of discovery
+        toScan = new ArrayList<Resource>(futures.size());
+        for (Future<Resource> future : futures) {
+          Resource loaded;
+          try {
+            loaded = future.get();
+          } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception)
+              throw (Exception)cause;
+            throw (Error)cause;
+          }
+          if (loaded != null) {
+            _resourceSet.getResources().add(loaded);
+            toScan.add(loaded);
+          }
+        }
+      }
+    } finally {
+      if (executor != null)
+        executor.shutdownNow();
+    }
+  }
+  
   /**
    * Get notified that the given element has been found as a result of the exploration
    * of the scope, so covers(element_p) will be true immediately after the exploration
@@ -612,6 +804,7 @@ implements IFragmentedModelScope.Editable, IEditingDomainProvider {
    * @see org.eclipse.emf.diffmerge.api.scopes.IPersistentModelScope#unload()
    */
   public List<Resource> unload() {
+    uninstallCache();
     ModelsUtil.Unloader.getDefault().unloadAdapters(_loadedResources);
     for (Resource loadedResource : _loadedResources) {
       unloadResource(loadedResource);
@@ -624,6 +817,16 @@ implements IFragmentedModelScope.Editable, IEditingDomainProvider {
     return result;
   }
   
+  /**
+   * Uninstall the scope cache from the resource set if it has been installed by this scope
+   */
+  protected void uninstallCache() {
+    if (_installedCache != null) {
+      _installedCache.uninstall(_resourceSet);
+      _installedCache = null;
+    }
+  }
+  
   /**
    * Unload the given resource
    * @param resource_p a non-null resource
@@ -11,6 +11,9 @@
  **********************************************************************/
 package org.eclipse.emf.diffmerge.util;
 
+import org.eclipse.emf.common.util.BasicEList;
+import org.eclipse.emf.common.util.ECollections;
+import org.eclipse.emf.common.util.EList;
 import org.eclipse.emf.common.util.URI;
 import org.eclipse.emf.ecore.EObject;
 import org.eclipse.emf.ecore.EPackage;
@@ -27,6 +30,19 @@ import org.eclipse.emf.ecore.xmi.XMLResource;
  */
 public final class ModelImplUtil {
   
+  /** The estimated size in bytes of an object reference in a list */
+  public static final int ESTIMATED_REFERENCE_SIZE = 4;
+  
+  /** The estimated size in bytes of an empty EMF list */
+  public static final int ESTIMATED_LIST_SIZE = 40;
+  
+  /** The estimated size in bytes of an empty EMF map, including its delegate list */
+  public static final int ESTIMATED_MAP_SIZE = 96;
+  
+  /** The estimated size in bytes of a string, excluding its characters */
+  public static final int ESTIMATED_STRING_SIZE = 40;
+  
+  
   /**
    * Private constructor
    */
@@ -151,4 +167,33 @@ public final class ModelImplUtil {
     return result;
   }
   
+  /**
+   * Return whether the given list or map is the shared, unmodifiable empty instance
+   * which replaces discarded lists and maps
+   * @param list_p a potentially null list or map
+   * @see ECollections#emptyEList()
+   * @see ECollections#emptyEMap()
+   */
+  public static boolean isSharedEmpty(EList<?> list_p) {
+    return list_p == ECollections.EMPTY_ELIST || list_p == ECollections.EMPTY_EMAP;
+  }
+  
+  /**
+   * Reduce the capacity of the given list to its size, if possible
+   * @param list_p a non-null list
+   * @return the estimated number of bytes reclaimed
+   */
+  public static long trim(EList<?> list_p) {
+    long result = 0L;
+    if (list_p instanceof BasicEList<?>) {
+      BasicEList<?> list = (BasicEList<?>)list_p;
+      Object[] data = list.data();
+      if (data != null && data.length > list.size()) {
+        result = (long)(data.length - list.size()) * ESTIMATED_REFERENCE_SIZE;
+        list.shrink();
+      }
+    }
+    return result;
+  }
+  
 }
@@ -0,0 +1,259 @@
+/*********************************************************************
+ * Copyright (c) 2010-2019 Thales Global Services S.A.S.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    Thales Global Services S.A.S. - initial API and implementation
+ **********************************************************************/
+package org.eclipse.emf.diffmerge.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Performance metrics of expensive operations: cumulated durations of phases and
+ * counters, both identified by name and kept in the order they were first recorded.
+ * Instances are thread-safe, but they are meant to be updated at a coarse grain:
+ * fine-grained measures should be cumulated locally before being recorded.
+ * @see IExpensiveOperation
+ * @author Olivier Constant
+ */
+public class OperationMetrics {
+
+  /** The phase of loading the model scopes */
+  public static final String PHASE_LOADING = "loading"; //$NON-NLS-1$
+
+  /** The phase of listing the elements of the model scopes */
+  public static final String PHASE_EXPLORATION = "exploration"; //$NON-NLS-1$
+
+  /** The phase of computing the match IDs of elements */
+  public static final String PHASE_MATCH_IDS = "matchIDs"; //$NON-NLS-1$
+
+  /** The phase of building the mapping from match IDs */
+  public static final String PHASE_MAPPING = "mapping"; //$NON-NLS-1$
+
+  /** The phase of indexing the cross-references of the model scopes */
+  public static final String PHASE_CROSS_REFERENCING = "crossReferencing"; //$NON-NLS-1$
+
+  /** The phase of computing digests of the subtrees of the model scopes */
+  public static final String PHASE_SUBTREE_DIGESTS = "subtreeDigests"; //$NON-NLS-1$
+
+  /** The phase of detecting and creating differences, excluding dependencies */
+  public static final String PHASE_DIFFERENCES = "differences"; //$NON-NLS-1$
+
+  /** The phase of setting the dependencies and three-way properties of differences */
+  public static final String PHASE_DEPENDENCIES = "dependencies"; //$NON-NLS-1$
+
+  /** The phase of planning a merge */
+  public static final String PHASE_MERGE_PLANNING = "mergePlanning"; //$NON-NLS-1$
+
+  /** The phase of merging differences */
+  public static final String PHASE_MERGE = "merge"; //$NON-NLS-1$
+
+  /** The phase of completing the references of elements added by a merge */
+  public static final String PHASE_REFERENCE_COMPLETION = "referenceCompletion"; //$NON-NLS-1$
+
+  /** The number of elements explored in the model scopes */
+  public static final String COUNTER_ELEMENTS = "elements"; //$NON-NLS-1$
+
+  /** The number of matches */
+  public static final String COUNTER_MATCHES = "matches"; //$NON-NLS-1$
+
+  /** The number of partial matches */
+  public static final String COUNTER_PARTIAL_MATCHES = "partialMatches"; //$NON-NLS-1$
+
+  /** The number of element presences created */
+  public static final String COUNTER_ELEMENT_PRESENCES = "elementPresences"; //$NON-NLS-1$
+
+  /** The number of attribute value presences created, including order differences */
+  public static final String COUNTER_ATTRIBUTE_VALUE_PRESENCES = "attributeValuePresences"; //$NON-NLS-1$
+
+  /** The number of reference value presences created, including order differences */
+  public static final String COUNTER_REFERENCE_VALUE_PRESENCES = "referenceValuePresences"; //$NON-NLS-1$
+
+  /** The number of subtrees skipped by the diff phase because they are identical */
+  public static final String COUNTER_PRUNED_SUBTREES = "prunedSubtrees"; //$NON-NLS-1$
+
+  /** The number of look-ups of matches by element in the mapping */
+  public static final String COUNTER_MATCH_LOOKUPS = "matchLookups"; //$NON-NLS-1$
+
+  /** The number of look-ups of matches by element which found a match */
+  public static final String COUNTER_MATCH_LOOKUP_HITS = "matchLookupHits"; //$NON-NLS-1$
+
+  /** The number of differences merged */
+  public static final String COUNTER_MERGED_DIFFERENCES = "mergedDifferences"; //$NON-NLS-1$
+
+  /** The number of differences which could not be merged */
+  public static final String COUNTER_MERGE_CONFLICTS = "mergeConflicts"; //$NON-NLS-1$
+
+  /** The estimated number of bytes reclaimed by compacting a comparison */
+  public static final String COUNTER_RECLAIMED_BYTES = "reclaimedBytes"; //$NON-NLS-1$
+
+  /** The number of comparisons computed in a batch */
+  public static final String COUNTER_COMPARISONS = "comparisons"; //$NON-NLS-1$
+
+  /** The number of comparisons of a batch which failed */
+  public static final String COUNTER_FAILED_COMPARISONS = "failedComparisons"; //$NON-NLS-1$
+
+  /** The number of differences found by the comparisons of a batch */
+  public static final String COUNTER_DIFFERENCES = "totalDifferences"; //$NON-NLS-1$
+
+  /** The number of duplicate match IDs found by the comparisons of a batch */
+  public static final String COUNTER_DUPLICATE_MATCH_IDS = "duplicateMatchIDs"; //$NON-NLS-1$
+
+  /** The number of nanoseconds per millisecond */
+  private static final double NANOS_PER_MILLI = 1000000.0;
+
+  /** The non-null map from phases to cumulated durations in nanoseconds */
+  private final Map<String, Long> _phaseDurations;
+
+  /** The non-null map from counters to values */
+  private final Map<String, Long> _counters;
+
+
+  /**
+   * An object which provides the metrics of the operations it executes.
+   */
+  public interface Provider {
+    /**
+     * Return the metrics of the operations executed
+     * @return a non-null object
+     */
+    OperationMetrics getMetrics();
+  }
+
+
+  /**
+   * Constructor
+   */
+  public OperationMetrics() {
+    _phaseDurations = new LinkedHashMap<String, Long>();
+    _counters = new LinkedHashMap<String, Long>();
+  }
+
+  /**
+   * Add the given metrics to these metrics
+   * @param metrics_p non-null metrics which are not these metrics
+   */
+  public void addAll(OperationMetrics metrics_p) {
+    for (String phase : metrics_p.getPhases()) {
+      addPhaseDuration(phase, metrics_p.getPhaseDuration(phase));
+    }
+    for (String counter : metrics_p.getCounters()) {
+      addToCounter(counter, metrics_p.getCounter(counter));
+    }
+  }
+
+  /**
+   * Add the given duration to the given phase
+   * @param phase_p a non-null phase
+   * @param nanos_p a positive or zero duration in nanoseconds
+   */
+  public synchronized void addPhaseDuration(String phase_p, long nanos_p) {
+    Long former = _phaseDurations.get(phase_p);
+    _phaseDurations.put(phase_p,
+        Long.valueOf(former == null? nanos_p: former.longValue() + nanos_p));
+  }
+
+  /**
+   * Add the given amount to the given counter
+   * @param counter_p a non-null counter
+   * @param amount_p an amount
+   */
+  public synchronized void addToCounter(String counter_p, long amount_p) {
+    Long former = _counters.get(counter_p);
+    _counters.put(counter_p,
+        Long.valueOf(former == null? amount_p: former.longValue() + amount_p));
+  }
+
+  /**
+   * Reset these metrics
+   */
+  public synchronized void clear() {
+    _phaseDurations.clear();
+    _counters.clear();
+  }
+
+  /**
+   * Return the value of the given counter
+   * @param counter_p a non-null counter
+   * @return the value, or 0 if the counter has not been recorded
+   */
+  public synchronized long getCounter(String counter_p) {
+    Long result = _counters.get(counter_p);
+    return result == null? 0L: result.longValue();
+  }
+
+  /**
+   * Return the counters recorded
+   * @return a non-null, potentially empty, unmodifiable list
+   */
+  public synchronized List<String> getCounters() {
+    return Collections.unmodifiableList(new ArrayList<String>(_counters.keySet()));
+  }
+
+  /**
+   * Return the cumulated duration of the given phase
+   * @param phase_p a non-null phase
+   * @return a duration in nanoseconds, or 0 if the phase has not been recorded
+   */
+  public synchronized long getPhaseDuration(String phase_p) {
+    Long result = _phaseDurations.get(phase_p);
+    return result == null? 0L: result.longValue();
+  }
+
+  /**
+   * Return the phases recorded
+   * @return a non-null, potentially empty, unmodifiable list
+   */
+  public synchronized List<String> getPhases() {
+    return Collections.unmodifiableList(new ArrayList<String>(_phaseDurations.keySet()));
+  }
+
+  /**
+   * Return whether nothing has been recorded
+   */
+  public synchronized boolean isEmpty() {
+    return _phaseDurations.isEmpty() && _counters.isEmpty();
+  }
+
+  /**
+   * Increment the given counter by one
+   * @param counter_p a non-null counter
+   */
+  public void incrementCounter(String counter_p) {
+    addToCounter(counter_p, 1L);
+  }
+
+  /**
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  @SuppressWarnings("nls")
+  public synchronized String toString() {
+    StringBuilder builder = new StringBuilder();
+    for (Map.Entry<String, Long> entry : _phaseDurations.entrySet()) {
+      builder.append(entry.getKey());
+      builder.append(": ");
+      builder.append(String.format("%.1f",
+          Double.valueOf(entry.getValue().longValue() / NANOS_PER_MILLI)));
+      builder.append(" ms\n");
+    }
+    for (Map.Entry<String, Long> entry : _counters.entrySet()) {
+      builder.append(entry.getKey());
+      builder.append(": ");
+      builder.append(entry.getValue());
+      builder.append('\n');
+    }
+    return builder.toString();
+  }
+
+}
@@ -0,0 +1,124 @@
+/*********************************************************************
+ * Copyright (c) 2010-2019 Thales Global Services S.A.S.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    Thales Global Services S.A.S. - initial API and implementation
+ **********************************************************************/
+package org.eclipse.emf.diffmerge.tests.benchmarks;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.emf.diffmerge.api.IComparison;
+import org.eclipse.emf.diffmerge.api.scopes.IEditableModelScope;
+import org.eclipse.emf.diffmerge.diffdata.impl.EComparisonImpl;
+import org.eclipse.emf.diffmerge.impl.scopes.RootedModelScope;
+import org.eclipse.emf.diffmerge.tests.elements.Elements.Root;
+import org.eclipse.emf.diffmerge.tests.elements.util.ElementsModelGenerator;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * A common superclass for benchmarks over synthetic Elements models.
+ * It defines the shape of the models and the comparison mode as JMH parameters
+ * and provides freshly generated TARGET, REFERENCE and optional ANCESTOR models.
+ * The TARGET and REFERENCE models are variants of the ANCESTOR model.
+ * @author Olivier Constant
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public abstract class AbstractElementsBenchmark {
+
+  /** The seed for the ANCESTOR model */
+  protected static final long ANCESTOR_SEED = 1L;
+
+  /** The seed for the changes in the TARGET model */
+  protected static final long TARGET_SEED = 2L;
+
+  /** The seed for the changes in the REFERENCE model */
+  protected static final long REFERENCE_SEED = 3L;
+
+  /** The maximal number of elements in the generated models */
+  @Param({"1000", "10000", "100000"})
+  public int size;
+
+  /** The maximal depth of the containment tree */
+  @Param({"6"})
+  public int depth;
+
+  /** The number of children of non-leaf elements */
+  @Param({"8"})
+  public int fanOut;
+
+  /** The average number of cross-references per element */
+  @Param({"2.0"})
+  public double referenceDensity;
+
+  /** The probability for an element to be changed in the TARGET and REFERENCE models */
+  @Param({"0.01"})
+  public double changeRate;
+
+  /** Whether the comparison is three-way, otherwise two-way */
+  @Param({"false", "true"})
+  public boolean threeWay;
+
+  /** The ANCESTOR model, non-null after setup */
+  protected Root _ancestor;
+
+  /** The TARGET model, non-null after setup */
+  protected Root _target;
+
+  /** The REFERENCE model, non-null after setup */
+  protected Root _reference;
+
+
+  /**
+   * Generate the models according to the parameters
+   */
+  protected void generateModels() {
+    ElementsModelGenerator generator = new ElementsModelGenerator(
+        size, depth, fanOut, referenceDensity, changeRate);
+    _ancestor = generator.generate(ANCESTOR_SEED);
+    _target = generator.derive(_ancestor, TARGET_SEED);
+    _reference = generator.derive(_ancestor, REFERENCE_SEED);
+  }
+
+  /**
+   * Create and return a new, non-computed comparison on copies of the models
+   * @return a non-null comparison
+   */
+  protected IComparison.Editable newComparison() {
+    IEditableModelScope targetScope = newScope(EcoreUtil.copy(_target));
+    IEditableModelScope referenceScope = newScope(EcoreUtil.copy(_reference));
+    IEditableModelScope ancestorScope = threeWay? newScope(EcoreUtil.copy(_ancestor)): null;
+    return new EComparisonImpl(targetScope, referenceScope, ancestorScope);
+  }
+
+  /**
+   * Create and return a model scope on the given model
+   * @param model_p a non-null model
+   * @return a non-null scope
+   */
+  protected IEditableModelScope newScope(Root model_p) {
+    return new RootedModelScope(Collections.singletonList(model_p));
+  }
+
+}
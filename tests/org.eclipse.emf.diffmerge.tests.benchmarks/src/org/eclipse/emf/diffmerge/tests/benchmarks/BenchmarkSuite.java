@@ -0,0 +1,58 @@
+/*********************************************************************
+ * Copyright (c) 2010-2019 Thales Global Services S.A.S.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    Thales Global Services S.A.S. - initial API and implementation
+ **********************************************************************/
+package org.eclipse.emf.diffmerge.tests.benchmarks;
+import java.util.Arrays;
+
+import org.openjdk.jmh.Main;
+
+
+/**
+ * The entry point of the benchmark suite.
+ * It runs JMH with the given command-line options and, unless a result format
+ * is specified, writes the results in JSON to jmh-result.json so that they can
+ * be compared across releases.
+ * Example: java -jar benchmarks.jar ComputeBenchmark -p size=10000 -p threeWay=false
+ * @author Olivier Constant
+ */
+public final class BenchmarkSuite {
+
+  /** The JMH option for the result format */
+  private static final String RESULT_FORMAT_OPTION = "-rf"; //$NON-NLS-1$
+
+  /** The default result format */
+  private static final String DEFAULT_RESULT_FORMAT = "json"; //$NON-NLS-1$
+
+
+  /**
+   * Constructor
+   */
+  private BenchmarkSuite() {
+    // Forbids instantiation
+  }
+
+  /**
+   * Run the benchmarks
+   * @param args_p the non-null JMH command-line options
+   * @throws Exception if the benchmarks could not be run
+   */
+  public static void main(String[] args_p) throws Exception {
+    String[] args = args_p;
+    if (!Arrays.asList(args_p).contains(RESULT_FORMAT_OPTION)) {
+      args = new String[args_p.length + 2];
+      args[0] = RESULT_FORMAT_OPTION;
+      args[1] = DEFAULT_RESULT_FORMAT;
+      System.arraycopy(args_p, 0, args, 2, args_p.length);
+    }
+    Main.main(args);
+  }
+
+}
@@ -0,0 +1,67 @@
+/*********************************************************************
+ * Copyright (c) 2010-2019 Thales Global Services S.A.S.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    Thales Global Services S.A.S. - initial API and implementation
+ **********************************************************************/
+package org.eclipse.emf.diffmerge.tests.benchmarks;
+
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.emf.diffmerge.api.IComparison;
+import org.eclipse.emf.diffmerge.impl.policies.ConfigurableDiffPolicy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+
+/**
+ * A benchmark of the Match and Diff phases of comparisons.
+ * @author Olivier Constant
+ */
+public class ComputeBenchmark extends AbstractElementsBenchmark {
+
+  /** Whether matches with identical subtrees are skipped by comparing digests */
+  @Param({"false"})
+  public boolean subtreeDigests;
+
+  /** A comparison which is ready to be computed, non-null after setup */
+  protected IComparison.Editable _comparison;
+
+
+  /**
+   * Generate the models once per trial
+   */
+  @Setup(Level.Trial)
+  public void setUpTrial() {
+    generateModels();
+  }
+
+  /**
+   * Prepare a fresh comparison before every invocation
+   */
+  @Setup(Level.Invocation)
+  public void setUpInvocation() {
+    _comparison = newComparison();
+  }
+
+  /**
+   * Benchmark the Match and Diff phases
+   * @return the resulting status
+   */
+  @Benchmark
+  public IStatus compute() {
+    ConfigurableDiffPolicy diffPolicy = null;
+    if (subtreeDigests) {
+      diffPolicy = new ConfigurableDiffPolicy();
+      diffPolicy.setUseSubtreeDigests(true);
+    }
+    return _comparison.compute(null, diffPolicy, null, null);
+  }
+
+}
@@ -0,0 +1,136 @@
+/*********************************************************************
+ * Copyright (c) 2010-2019 Thales Global Services S.A.S.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    Thales Global Services S.A.S. - initial API and implementation
+ **********************************************************************/
+package org.eclipse.emf.diffmerge.tests.benchmarks;
+
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.emf.diffmerge.api.IDiffPolicy;
+import org.eclipse.emf.diffmerge.api.IMatchPolicy;
+import org.eclipse.emf.diffmerge.api.IMergePolicy;
+import org.eclipse.emf.diffmerge.api.Role;
+import org.eclipse.emf.diffmerge.api.scopes.IEditableModelScope;
+import org.eclipse.emf.diffmerge.diffdata.impl.EComparisonImpl;
+import org.eclipse.emf.diffmerge.impl.policies.ConfigurableMatchPolicy;
+import org.eclipse.emf.diffmerge.impl.policies.DefaultDiffPolicy;
+import org.eclipse.emf.diffmerge.impl.policies.DefaultMergePolicy;
+import org.eclipse.emf.diffmerge.tests.elements.Elements.Root;
+import org.eclipse.emf.diffmerge.tests.elements.util.ElementsModelGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+
+/**
+ * A benchmark of re-computations of a comparison after small changes in its
+ * TARGET model, with or without incremental re-comparison.
+ * Every invocation brings the comparison up to date after random changes in place
+ * at the given rate, by an update or by a full computation. If checking is enabled, the result is compared with a full computation
+ * after every invocation.
+ * @author Olivier Constant
+ */
+public class IncrementalComputeBenchmark extends AbstractElementsBenchmark {
+
+  /** The probability for an element to be changed before every re-computation */
+  @Param({"0.0001"})
+  public double editRate;
+
+  /** Whether re-computations are incremental */
+  @Param({"false", "true"})
+  public boolean incremental;
+
+  /** Whether the result of every incremental re-computation is checked */
+  @Param({"false"})
+  public boolean check;
+
+  /** The comparison being recomputed, non-null after setup */
+  protected EComparisonImpl _comparison;
+
+  /** The generator of changes, non-null after setup */
+  protected ElementsModelGenerator _editor;
+
+  /** The match policy which is reused across computations, non-null after setup */
+  protected IMatchPolicy _matchPolicy;
+
+  /** The diff policy which is reused across computations, non-null after setup */
+  protected IDiffPolicy _diffPolicy;
+
+  /** The merge policy which is reused across computations, non-null after setup */
+  protected IMergePolicy _mergePolicy;
+
+  /** The seed of the next changes */
+  protected long _editSeed;
+
+
+  /**
+   * Generate the models and compute the comparison once per trial
+   */
+  @Setup(Level.Trial)
+  public void setUpTrial() {
+    generateModels();
+    _comparison = (EComparisonImpl)newComparison();
+    _comparison.setIncremental(incremental);
+    _editor = new ElementsModelGenerator(size, depth, fanOut, referenceDensity, editRate);
+    _matchPolicy = new ConfigurableMatchPolicy();
+    _diffPolicy = new DefaultDiffPolicy();
+    _mergePolicy = new DefaultMergePolicy();
+    _editSeed = REFERENCE_SEED + 1;
+    _comparison.compute(_matchPolicy, _diffPolicy, _mergePolicy, null);
+  }
+
+  /**
+   * Change the TARGET model before every invocation
+   */
+  @Setup(Level.Invocation)
+  public void setUpInvocation() {
+    Root target = (Root)_comparison.getScope(Role.TARGET).getContents().get(0);
+    _editor.change(target, _editSeed++);
+    if (!incremental)
+      _comparison.clear();
+  }
+
+  /**
+   * Check the result of the last invocation if required
+   */
+  @TearDown(Level.Invocation)
+  public void tearDownInvocation() {
+    if (check && incremental) {
+      EComparisonImpl fresh = new EComparisonImpl(
+          (IEditableModelScope)_comparison.getScope(Role.TARGET),
+          (IEditableModelScope)_comparison.getScope(Role.REFERENCE),
+          (IEditableModelScope)_comparison.getScope(Role.ANCESTOR));
+      if (!_comparison.getIncrementalUpdater().checkConsistency(fresh, null))
+        throw new IllegalStateException(
+            "Incremental re-computation differs from full computation"); //$NON-NLS-1$
+    }
+  }
+
+  /**
+   * Release the comparison at the end of the trial
+   */
+  @TearDown(Level.Trial)
+  public void tearDownTrial() {
+    _comparison.setIncremental(false);
+  }
+
+  /**
+   * Benchmark the re-computation of the comparison
+   * @return the resulting status
+   */
+  @Benchmark
+  public IStatus recompute() {
+    if (incremental)
+      return _comparison.getIncrementalUpdater().update(null);
+    return _comparison.compute(_matchPolicy, _diffPolicy, _mergePolicy, null);
+  }
+
+}
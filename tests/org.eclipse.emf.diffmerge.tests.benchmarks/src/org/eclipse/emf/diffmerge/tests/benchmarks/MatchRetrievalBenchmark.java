@@ -0,0 +1,75 @@
+/*********************************************************************
+ * Copyright (c) 2010-2019 Thales Global Services S.A.S.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    Thales Global Services S.A.S. - initial API and implementation
+ **********************************************************************/
+package org.eclipse.emf.diffmerge.tests.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.emf.diffmerge.api.IComparison;
+import org.eclipse.emf.diffmerge.api.IMapping;
+import org.eclipse.emf.diffmerge.api.Role;
+import org.eclipse.emf.ecore.EObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * A benchmark of the retrieval of matches in a computed comparison.
+ * Every invocation retrieves the match of every element of the TARGET scope.
+ * @author Olivier Constant
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MatchRetrievalBenchmark extends AbstractElementsBenchmark {
+
+  /** A computed comparison, non-null after setup */
+  protected IComparison.Editable _comparison;
+
+  /** The elements of the TARGET scope of the comparison, non-null after setup */
+  protected List<EObject> _targetElements;
+
+
+  /**
+   * Generate the models and compute the comparison once per trial
+   */
+  @Setup(Level.Trial)
+  public void setUpTrial() {
+    generateModels();
+    _comparison = newComparison();
+    _comparison.compute(null, null, null, null);
+    _targetElements = new ArrayList<EObject>();
+    Iterator<EObject> it = _comparison.getScope(Role.TARGET).getAllContents();
+    while (it.hasNext()) {
+      _targetElements.add(it.next());
+    }
+  }
+
+  /**
+   * Benchmark the retrieval of matches
+   * @param blackhole_p a non-null JMH blackhole
+   */
+  @Benchmark
+  public void getMatchFor(Blackhole blackhole_p) {
+    IMapping mapping = _comparison.getMapping();
+    for (EObject element : _targetElements) {
+      blackhole_p.consume(mapping.getMatchFor(element, Role.TARGET));
+    }
+  }
+
+}
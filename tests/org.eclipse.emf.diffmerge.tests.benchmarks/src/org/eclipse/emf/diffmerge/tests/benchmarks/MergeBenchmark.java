@@ -0,0 +1,82 @@
+/*********************************************************************
+ * Copyright (c) 2010-2019 Thales Global Services S.A.S.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    Thales Global Services S.A.S. - initial API and implementation
+ **********************************************************************/
+package org.eclipse.emf.diffmerge.tests.benchmarks;
+
+import java.util.Collection;
+
+import org.eclipse.emf.diffmerge.api.IComparison;
+import org.eclipse.emf.diffmerge.api.IMergeSelector;
+import org.eclipse.emf.diffmerge.api.Role;
+import org.eclipse.emf.diffmerge.api.diff.IDifference;
+import org.eclipse.emf.diffmerge.impl.helpers.BatchMergeOperation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+
+/**
+ * A benchmark of the Merge phase of comparisons.
+ * Every invocation merges all the differences of a freshly computed comparison
+ * to the TARGET side.
+ * @author Olivier Constant
+ */
+public class MergeBenchmark extends AbstractElementsBenchmark {
+
+  /** Whether the merge is planned and applied by a batch merge operation */
+  @Param({"false", "true"})
+  public boolean batch;
+
+  /** A computed comparison whose differences are ready to be merged, non-null after setup */
+  protected IComparison.Editable _comparison;
+
+
+  /**
+   * Generate the models once per trial
+   */
+  @Setup(Level.Trial)
+  public void setUpTrial() {
+    generateModels();
+  }
+
+  /**
+   * Prepare a freshly computed comparison on unmodified models before every invocation
+   */
+  @Setup(Level.Invocation)
+  public void setUpInvocation() {
+    _comparison = newComparison();
+    _comparison.compute(null, null, null, null);
+  }
+
+  /**
+   * Benchmark the Merge phase
+   * @return the merged differences
+   */
+  @Benchmark
+  public Collection<IDifference> merge() {
+    if (batch) {
+      BatchMergeOperation operation = new BatchMergeOperation(_comparison,
+          new IMergeSelector() {
+            /**
+             * @see org.eclipse.emf.diffmerge.api.IMergeSelector#getMergeDirection(org.eclipse.emf.diffmerge.api.diff.IDifference)
+             */
+            public Role getMergeDirection(IDifference difference_p) {
+              return Role.TARGET;
+            }
+          }, true);
+      operation.run(null);
+      return operation.getOutput();
+    }
+    return _comparison.merge(Role.TARGET, true, null);
+  }
+
+}
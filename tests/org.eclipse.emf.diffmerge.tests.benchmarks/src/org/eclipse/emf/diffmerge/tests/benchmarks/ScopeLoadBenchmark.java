@@ -0,0 +1,221 @@
+/*********************************************************************
+ * Copyright (c) 2010-2019 Thales Global Services S.A.S.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    Thales Global Services S.A.S. - initial API and implementation
+ **********************************************************************/
+package org.eclipse.emf.diffmerge.tests.benchmarks;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.diffmerge.impl.scopes.BinaryScopeCache;
+import org.eclipse.emf.diffmerge.impl.scopes.FragmentedModelScope;
+import org.eclipse.emf.diffmerge.tests.elements.Elements.ElementsFactory;
+import org.eclipse.emf.diffmerge.tests.elements.Elements.ElementsPackage;
+import org.eclipse.emf.diffmerge.tests.elements.Elements.NamedElement;
+import org.eclipse.emf.diffmerge.tests.elements.Elements.Root;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.resource.ResourceSet;
+import org.eclipse.emf.ecore.resource.impl.ResourceSetImpl;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.emf.ecore.xmi.impl.XMIResourceFactoryImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+
+/**
+ * A benchmark of the loading of persistent model scopes.
+ * The generated models are saved once per trial as sets of XMI files that
+ * reference each other, then every invocation loads and fully explores the
+ * TARGET, REFERENCE and, in three-way mode, ANCESTOR scopes from their first file.
+ * Cross-references are in the scopes, so the other files are reached as fragments.
+ * Optionally, the scopes are loaded through a binary scope cache which is filled
+ * by the warmup iterations, and their fragments are preloaded in parallel.
+ * @author Olivier Constant
+ */
+public class ScopeLoadBenchmark extends AbstractElementsBenchmark {
+
+  /** The file extension of the saved models */
+  private static final String EXTENSION = "elements"; //$NON-NLS-1$
+
+  /** The number of files over which every model is split */
+  @Param({"1", "8"})
+  public int fragments;
+
+  /** Whether the scopes are loaded through a binary scope cache */
+  @Param({"false", "true"})
+  public boolean cache;
+
+  /** Whether the fragments of the scopes are preloaded in parallel */
+  @Param({"false", "true"})
+  public boolean preload;
+
+  /** The temporary directory of the saved models, non-null after setup */
+  protected File _directory;
+
+  /** The binary scope cache, non-null after setup if cache */
+  protected BinaryScopeCache _cache;
+
+  /** The URIs of the main files of the models to load, non-null after setup */
+  protected List<URI> _uris;
+
+
+  /**
+   * Generate and save the models once per trial
+   * @throws IOException if the models could not be saved
+   */
+  @Setup(Level.Trial)
+  public void setUpTrial() throws IOException {
+    generateModels();
+    _directory = File.createTempFile("diffmerge-benchmark", ""); //$NON-NLS-1$ //$NON-NLS-2$
+    _directory.delete();
+    _directory.mkdirs();
+    _uris = new ArrayList<URI>();
+    _uris.add(save(_target, "target")); //$NON-NLS-1$
+    _uris.add(save(_reference, "reference")); //$NON-NLS-1$
+    if (threeWay)
+      _uris.add(save(_ancestor, "ancestor")); //$NON-NLS-1$
+    if (cache)
+      _cache = new BinaryScopeCache(new File(_directory, "cache")); //$NON-NLS-1$
+  }
+
+  /**
+   * Delete the saved models
+   */
+  @TearDown(Level.Trial)
+  public void tearDownTrial() {
+    if (_cache != null) {
+      _cache.clear();
+      _cache.getDirectory().delete();
+    }
+    File[] files = _directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    _directory.delete();
+  }
+
+  /**
+   * Benchmark the loading of the scopes
+   * @return the number of elements loaded
+   * @throws Exception if a scope could not be loaded
+   */
+  @Benchmark
+  public int load() throws Exception {
+    int result = 0;
+    for (URI uri : _uris) {
+      FragmentedModelScope scope = newScope(uri);
+      scope.load();
+      Iterator<EObject> it = scope.getAllContents();
+      while (it.hasNext()) {
+        it.next();
+        result++;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Create and return a persistent scope on the given URI, with the cache if any
+   * and parallel preloading if required
+   * @param uri_p a non-null URI
+   * @return a non-null scope
+   */
+  protected FragmentedModelScope newScope(URI uri_p) {
+    return new FragmentedModelScope(uri_p, newResourceSet(), true) {
+      /**
+       * @see org.eclipse.emf.diffmerge.impl.scopes.FragmentedModelScope#getCrossReferencesInScope(org.eclipse.emf.ecore.EObject)
+       */
+      @Override
+      protected Collection<EReference> getCrossReferencesInScope(EObject element_p) {
+        Collection<EReference> result = super.getCrossReferencesInScope(element_p);
+        for (EReference ref : element_p.eClass().getEAllReferences()) {
+          if (!ref.isContainment() && !ref.isContainer())
+            result.add(ref);
+        }
+        return result;
+      }
+      /**
+       * @see org.eclipse.emf.diffmerge.impl.scopes.FragmentedModelScope#getLoadOptions(org.eclipse.emf.ecore.resource.Resource)
+       */
+      @Override
+      protected Map<Object, Object> getLoadOptions(Resource resource_p) {
+        Map<Object, Object> result = super.getLoadOptions(resource_p);
+        if (_cache != null)
+          result.put(OPTION_SCOPE_CACHE, _cache);
+        if (preload)
+          result.put(OPTION_PARALLEL_PRELOADING, Boolean.TRUE);
+        return result;
+      }
+    };
+  }
+
+  /**
+   * Create and return a resource set for loading or saving models
+   * @return a non-null resource set
+   */
+  protected ResourceSet newResourceSet() {
+    ResourceSet result = new ResourceSetImpl();
+    result.getPackageRegistry().put(ElementsPackage.eNS_URI, ElementsPackage.eINSTANCE);
+    result.getResourceFactoryRegistry().getExtensionToFactoryMap().put(
+        EXTENSION, new XMIResourceFactoryImpl());
+    return result;
+  }
+
+  /**
+   * Save a copy of the given model as a set of files in the temporary directory
+   * @param model_p a non-null model
+   * @param name_p a non-null name for the files
+   * @return the non-null URI of the main file
+   * @throws IOException if the model could not be saved
+   */
+  protected URI save(Root model_p, String name_p) throws IOException {
+    ResourceSet resourceSet = newResourceSet();
+    Root main = EcoreUtil.copy(model_p);
+    List<Root> roots = new ArrayList<Root>(fragments);
+    roots.add(main);
+    for (int i = 1; i < fragments; i++) {
+      Root fragmentRoot = ElementsFactory.eINSTANCE.createRoot();
+      fragmentRoot.setId(main.getId() + '_' + i);
+      roots.add(fragmentRoot);
+    }
+    // Distribute the top-level elements over the fragments
+    List<NamedElement> topLevel = new ArrayList<NamedElement>(main.getContent());
+    for (int i = 0; i < topLevel.size(); i++) {
+      roots.get(i % fragments).getContent().add(topLevel.get(i));
+    }
+    URI result = null;
+    for (int i = 0; i < roots.size(); i++) {
+      URI uri = URI.createFileURI(
+          new File(_directory, name_p + i + '.' + EXTENSION).getAbsolutePath());
+      Resource resource = resourceSet.createResource(uri);
+      resource.getContents().add(roots.get(i));
+      if (result == null)
+        result = uri;
+    }
+    for (Resource resource : resourceSet.getResources()) {
+      resource.save(Collections.emptyMap());
+    }
+    return result;
+  }
+
+}
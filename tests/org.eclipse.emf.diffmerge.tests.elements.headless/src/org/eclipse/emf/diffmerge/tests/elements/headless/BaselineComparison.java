@@ -0,0 +1,198 @@
+package org.eclipse.emf.diffmerge.tests.elements.headless;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.emf.diffmerge.api.IComparison;
+import org.eclipse.emf.diffmerge.api.IDiffPolicy;
+import org.eclipse.emf.diffmerge.api.IMatch;
+import org.eclipse.emf.diffmerge.api.IMergePolicy;
+import org.eclipse.emf.diffmerge.api.Role;
+import org.eclipse.emf.diffmerge.api.scopes.IEditableModelScope;
+import org.eclipse.emf.diffmerge.api.scopes.IFeaturedModelScope;
+import org.eclipse.emf.diffmerge.diffdata.impl.EComparisonImpl;
+import org.eclipse.emf.diffmerge.impl.helpers.DiffOperation;
+import org.eclipse.emf.diffmerge.structures.IEqualityTester;
+import org.eclipse.emf.diffmerge.structures.common.FArrayList;
+import org.eclipse.emf.diffmerge.util.IExpensiveOperation;
+import org.eclipse.emf.ecore.EAttribute;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EReference;
+
+
+/**
+ * A comparison whose differences on many-valued features are detected by the
+ * original algorithms of DiffOperation: values are aligned by linear scans of the
+ * remaining values, attribute values are compared pairwise via the diff policy,
+ * and ordering differences are detected when an aligned value is found before
+ * the last aligned one.
+ * It serves as a reference for checking the alignment of values through position
+ * indexes, equivalence keys and longest increasing subsequences.
+ */
+public class BaselineComparison extends EComparisonImpl {
+
+  /**
+   * Constructor
+   * @param targetScope_p the non-null model scope playing the TARGET comparison role
+   * @param referenceScope_p the non-null model scope playing the REFERENCE comparison role
+   * @param ancestorScope_p the optional model scope playing the ANCESTOR comparison role
+   */
+  public BaselineComparison(IEditableModelScope targetScope_p,
+      IEditableModelScope referenceScope_p, IEditableModelScope ancestorScope_p) {
+    super(targetScope_p, referenceScope_p, ancestorScope_p);
+  }
+
+  /**
+   * @see org.eclipse.emf.diffmerge.diffdata.impl.EComparisonImpl#getDiffOperation(org.eclipse.emf.diffmerge.api.IDiffPolicy, org.eclipse.emf.diffmerge.api.IMergePolicy)
+   */
+  @Override
+  protected IExpensiveOperation getDiffOperation(IDiffPolicy diffPolicy_p,
+      IMergePolicy mergePolicy_p) {
+    return new BaselineDiffOperation(this, diffPolicy_p, mergePolicy_p);
+  }
+
+
+  /**
+   * A diff operation which detects attribute and reference differences
+   * as in the original algorithms.
+   */
+  protected static class BaselineDiffOperation extends DiffOperation {
+
+    /**
+     * Constructor
+     * @param comparison_p a non-null comparison
+     * @param diffPolicy_p an optional diff policy
+     * @param mergePolicy_p an optional merge policy
+     */
+    public BaselineDiffOperation(IComparison.Editable comparison_p,
+        IDiffPolicy diffPolicy_p, IMergePolicy mergePolicy_p) {
+      super(comparison_p, diffPolicy_p, mergePolicy_p);
+    }
+
+    /**
+     * @see org.eclipse.emf.diffmerge.impl.helpers.DiffOperation#detectAttributeDifferences(org.eclipse.emf.diffmerge.api.IMatch, org.eclipse.emf.ecore.EAttribute, org.eclipse.emf.diffmerge.api.Role, org.eclipse.emf.diffmerge.api.Role, boolean)
+     */
+    @Override
+    protected boolean detectAttributeDifferences(IMatch match_p, EAttribute attribute_p,
+        Role role1_p, Role role2_p, boolean create_p) {
+      boolean result = false;
+      IFeaturedModelScope scope1 = getComparison().getScope(role1_p);
+      IFeaturedModelScope scope2 = getComparison().getScope(role2_p);
+      List<Object> values1 = scope1.get(match_p.get(role1_p), attribute_p);
+      List<Object> values2 = scope2.get(match_p.get(role2_p), attribute_p);
+      List<Object> remainingValues1 = new ArrayList<Object>(values1);
+      List<Object> remainingValues2 = new ArrayList<Object>(values2);
+      boolean checkOrder = attribute_p.isMany() && getDiffPolicy().considerOrdered(attribute_p);
+      int maxIndex = -1;
+      for (Object value1 : values1) {
+        ObjectAndIndex matchingValue2 =
+            findEqualAttributeValue(attribute_p, value1, remainingValues2);
+        if (matchingValue2.getObject() != null) {
+          if (checkOrder) {
+            if (matchingValue2.getIndex() < maxIndex) {
+              if (!create_p)
+                return true;
+              createAttributeOrderDifference(
+                  match_p, attribute_p, value1, matchingValue2.getObject(), role1_p, role2_p);
+              result = true;
+              checkOrder = false;
+            } else {
+              maxIndex = matchingValue2.getIndex();
+            }
+          }
+          remainingValues1.remove(value1);
+          remainingValues2.remove(matchingValue2.getObject());
+        }
+      }
+      for (Object remainingValue1 : remainingValues1) {
+        if (getDiffPolicy().coverValue(remainingValue1, attribute_p)) {
+          if (!create_p)
+            return true;
+          createAttributeValueDifference(match_p, attribute_p, remainingValue1, role1_p, false);
+          result = true;
+        }
+      }
+      for (Object remainingValue2 : remainingValues2) {
+        if (getDiffPolicy().coverValue(remainingValue2, attribute_p)) {
+          if (!create_p)
+            return true;
+          createAttributeValueDifference(match_p, attribute_p, remainingValue2, role2_p, false);
+          result = true;
+        }
+      }
+      return result;
+    }
+
+    /**
+     * @see org.eclipse.emf.diffmerge.impl.helpers.DiffOperation#detectReferenceDifferences(org.eclipse.emf.diffmerge.api.IMatch, org.eclipse.emf.ecore.EReference, org.eclipse.emf.diffmerge.api.Role, org.eclipse.emf.diffmerge.api.Role, boolean)
+     */
+    @Override
+    @SuppressWarnings("deprecation")
+    protected boolean detectReferenceDifferences(IMatch match_p, EReference reference_p,
+        Role role1_p, Role role2_p, boolean create_p) {
+      boolean result = false;
+      IDiffPolicy diffPolicy = getDiffPolicy();
+      IFeaturedModelScope scope1 = getComparison().getScope(role1_p);
+      IFeaturedModelScope scope2 = getComparison().getScope(role2_p);
+      List<EObject> values1 = scope1.get(match_p.get(role1_p), reference_p);
+      List<EObject> values2 = scope2.get(match_p.get(role2_p), reference_p);
+      List<EObject> remainingValues2 = new FArrayList<EObject>(
+          values2, IEqualityTester.BY_REFERENCE);
+      boolean checkOrder = reference_p.isMany() && diffPolicy.considerOrdered(reference_p);
+      int maxIndex = -1;
+      for (EObject value1 : values1) {
+        IMatch valueMatch1 = getMapping().getMatchFor(value1, role1_p);
+        boolean outsideScope1 = valueMatch1 == null;
+        boolean coverValue1 =
+            !outsideScope1 && diffPolicy.coverMatch(valueMatch1) ||
+            outsideScope1 && diffPolicy.coverOutOfScopeValue(value1, reference_p);
+        if (coverValue1) {
+          EObject matchValue2 = outsideScope1? value1: valueMatch1.get(role2_p);
+          boolean isIsolated = matchValue2 == null;
+          int index = -1;
+          if (!isIsolated) {
+            index = detectReferenceValueAmong(
+                reference_p, matchValue2, remainingValues2, outsideScope1);
+            isIsolated = index < 0;
+            if (checkOrder && !isIsolated) {
+              if (index < maxIndex) {
+                if (!create_p)
+                  return true;
+                createReferenceOrderDifference(match_p, reference_p, value1, valueMatch1);
+                result = true;
+                checkOrder = false;
+              } else {
+                maxIndex = index;
+              }
+            }
+          }
+          if (isIsolated) {
+            if (!create_p)
+              return true;
+            createReferenceValueDifference(
+                match_p, reference_p, value1, valueMatch1, role1_p, false);
+            result = true;
+          } else {
+            remainingValues2.remove(index);
+          }
+        }
+      }
+      for (EObject remainingValue2 : remainingValues2) {
+        IMatch valueMatch2 = getMapping().getMatchFor(remainingValue2, role2_p);
+        boolean outsideScope2 = valueMatch2 == null;
+        boolean coverValue2 =
+            !outsideScope2 && diffPolicy.coverMatch(valueMatch2) ||
+            outsideScope2 && diffPolicy.coverOutOfScopeValue(remainingValue2, reference_p);
+        if (coverValue2) {
+          if (!create_p)
+            return true;
+          createReferenceValueDifference(
+              match_p, reference_p, remainingValue2, valueMatch2, role2_p, false);
+          result = true;
+        }
+      }
+      return result;
+    }
+  }
+
+}
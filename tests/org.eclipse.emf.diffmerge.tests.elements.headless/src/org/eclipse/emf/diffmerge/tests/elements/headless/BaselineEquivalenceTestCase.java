@@ -0,0 +1,95 @@
+package org.eclipse.emf.diffmerge.tests.elements.headless;
+
+import org.eclipse.emf.diffmerge.api.IComparison;
+import org.eclipse.emf.diffmerge.api.IDiffPolicy;
+import org.eclipse.emf.diffmerge.api.diff.IDifference;
+import org.eclipse.emf.diffmerge.api.diff.IReferenceValuePresence;
+import org.eclipse.emf.diffmerge.api.scopes.IEditableModelScope;
+import org.eclipse.emf.diffmerge.diffdata.impl.EComparisonImpl;
+import org.eclipse.emf.diffmerge.impl.policies.DefaultMatchPolicy;
+import org.eclipse.emf.diffmerge.impl.policies.DefaultMergePolicy;
+import org.eclipse.emf.diffmerge.tests.elements.Elements.Root;
+
+
+/**
+ * A common superclass for headless tests that check that comparisons of generated
+ * models yield the same differences as with the original algorithms of DiffOperation.
+ * Values are added to the many-valued features of the generated models and reordered
+ * in the variants.
+ * Since the original algorithms may report a different value for an ordering difference
+ * on a reference, such differences are compared regardless of their value.
+ * @see BaselineComparison
+ */
+public abstract class BaselineEquivalenceTestCase extends ComparisonTestCase {
+
+  /** The seed of the values added to the generated ancestor models */
+  protected static final long ENRICH_SEED = 20L;
+
+  /** The probability for a many-valued feature of an element to be reordered */
+  protected static final double REORDER_RATE = 0.3;
+
+
+  /**
+   * Check that the comparisons of the generated models with the given diff policy
+   * have the same differences as with the original algorithms
+   * @param diffPolicy_p a non-null diff policy
+   * @param threeWay_p whether the comparisons must be three-way
+   * @param partial_p whether the scopes must not cover some referenced elements
+   */
+  protected void checkEquivalence(IDiffPolicy diffPolicy_p, boolean threeWay_p,
+      boolean partial_p) {
+    IComparison.Editable expected = new BaselineComparison(
+        newScope(_target, partial_p), newScope(_reference, partial_p),
+        threeWay_p? newScope(_ancestor, partial_p): null);
+    IComparison.Editable actual = new EComparisonImpl(
+        newScope(_target, partial_p), newScope(_reference, partial_p),
+        threeWay_p? newScope(_ancestor, partial_p): null);
+    for (IComparison.Editable comparison : new IComparison.Editable[] {expected, actual}) {
+      comparison.compute(new DefaultMatchPolicy(), diffPolicy_p,
+          new DefaultMergePolicy(), null);
+    }
+    assertFalse(actual.getRemainingDifferences().isEmpty());
+    assertEquivalent(expected, actual);
+  }
+
+  /**
+   * Ordering differences on references are described regardless of their value
+   * @see org.eclipse.emf.diffmerge.tests.elements.headless.ComparisonTestCase#describe(org.eclipse.emf.diffmerge.api.diff.IDifference)
+   */
+  @Override
+  protected String describe(IDifference difference_p) {
+    String result = super.describe(difference_p);
+    if (difference_p instanceof IReferenceValuePresence &&
+        ((IReferenceValuePresence)difference_p).isOrder())
+      result = result.replaceFirst(" = (\\([^)]*\\)|\\S+)", ""); //$NON-NLS-1$ //$NON-NLS-2$
+    return result;
+  }
+
+  /**
+   * Generate the models with the given parameters, add values to the many-valued
+   * features of the ancestor model, then derive and reorder the variants
+   * @param changeRate_p the probability, between 0 and 1, for an element to be changed in a variant
+   * @param maxAddedValues_p the positive maximal number of values to add per feature and element
+   */
+  protected void generateModels(double changeRate_p, int maxAddedValues_p) {
+    generateModels(changeRate_p);
+    enrich(_ancestor, ENRICH_SEED, maxAddedValues_p);
+    _target = getGenerator(changeRate_p).derive(_ancestor, TARGET_SEED);
+    _reference = getGenerator(changeRate_p).derive(_ancestor, REFERENCE_SEED);
+    enrich(_target, TARGET_SEED, 2);
+    enrich(_reference, REFERENCE_SEED, 2);
+    reorder(_target, TARGET_SEED, REORDER_RATE);
+    reorder(_reference, REFERENCE_SEED, REORDER_RATE);
+  }
+
+  /**
+   * Create and return a model scope on a copy of the given model
+   * @param model_p a potentially null model
+   * @param partial_p whether the scope must not cover some referenced elements
+   * @return a scope, or null if the model is null
+   */
+  protected IEditableModelScope newScope(Root model_p, boolean partial_p) {
+    return partial_p? newPartialScope(model_p): newScope(model_p);
+  }
+
+}
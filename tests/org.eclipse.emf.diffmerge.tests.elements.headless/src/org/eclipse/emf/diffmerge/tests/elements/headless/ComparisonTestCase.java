@@ -0,0 +1,273 @@
+package org.eclipse.emf.diffmerge.tests.elements.headless;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.eclipse.emf.common.util.EList;
+import org.eclipse.emf.diffmerge.api.IComparison;
+import org.eclipse.emf.diffmerge.api.IMatch;
+import org.eclipse.emf.diffmerge.api.Role;
+import org.eclipse.emf.diffmerge.api.diff.IAttributeValuePresence;
+import org.eclipse.emf.diffmerge.api.diff.IDifference;
+import org.eclipse.emf.diffmerge.api.diff.IElementPresence;
+import org.eclipse.emf.diffmerge.api.diff.IReferenceValuePresence;
+import org.eclipse.emf.diffmerge.api.diff.IValuePresence;
+import org.eclipse.emf.diffmerge.api.scopes.IEditableModelScope;
+import org.eclipse.emf.diffmerge.impl.scopes.RootedModelScope;
+import org.eclipse.emf.diffmerge.tests.elements.Elements.Element;
+import org.eclipse.emf.diffmerge.tests.elements.Elements.IdentifiedElement;
+import org.eclipse.emf.diffmerge.tests.elements.Elements.Root;
+import org.eclipse.emf.diffmerge.tests.elements.util.ElementsModelGenerator;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+
+
+/**
+ * A common superclass for headless tests on comparisons of generated models.
+ * Comparisons are checked through their signatures, i.e., sorted textual
+ * descriptions of their matches and differences which only depend on the IDs
+ * of the elements, so that comparisons on copies of the same models can be
+ * checked for equivalence.
+ */
+public abstract class ComparisonTestCase extends TestCase {
+
+  /** The number of elements of the generated models */
+  protected static final int MODEL_SIZE = 500;
+
+  /** The seed of the generated ancestor models */
+  protected static final long ANCESTOR_SEED = 1L;
+
+  /** The seed of the changes in the generated target models */
+  protected static final long TARGET_SEED = 2L;
+
+  /** The seed of the changes in the generated reference models */
+  protected static final long REFERENCE_SEED = 3L;
+
+  /** The generated ancestor model, or null if not generated */
+  protected Root _ancestor;
+
+  /** The generated target model, or null if not generated */
+  protected Root _target;
+
+  /** The generated reference model, or null if not generated */
+  protected Root _reference;
+
+
+  /**
+   * Check that the given comparisons have the same matches and differences
+   * @param expected_p a non-null comparison
+   * @param actual_p a non-null comparison
+   */
+  protected void assertEquivalent(IComparison expected_p, IComparison actual_p) {
+    assertEquals(getSignature(expected_p), getSignature(actual_p));
+    assertEquals(expected_p.getNbDifferences(), actual_p.getNbDifferences());
+    assertEquals(expected_p.getRemainingDifferences().size(),
+        actual_p.getRemainingDifferences().size());
+  }
+
+  /**
+   * Check that the models of the given comparison in the given role are equal
+   * to the corresponding models of the other given comparison
+   * @param expected_p a non-null comparison
+   * @param actual_p a non-null comparison
+   * @param role_p a non-null role
+   */
+  protected void assertEqualModels(IComparison expected_p, IComparison actual_p, Role role_p) {
+    List<EObject> expectedRoots = expected_p.getScope(role_p).getContents();
+    List<EObject> actualRoots = actual_p.getScope(role_p).getContents();
+    assertTrue(EcoreUtil.equals(expectedRoots, actualRoots));
+  }
+
+  /**
+   * Return a description of the given difference which only depends on element IDs
+   * @param difference_p a non-null difference
+   * @return a non-null string
+   */
+  protected String describe(IDifference difference_p) {
+    StringBuilder builder = new StringBuilder();
+    if (difference_p instanceof IElementPresence) {
+      IElementPresence presence = (IElementPresence)difference_p;
+      builder.append("Element ").append(presence.getPresenceRole()); //$NON-NLS-1$
+      builder.append(' ').append(describe(presence.getElementMatch()));
+      builder.append(" in ").append(describe(presence.getOwnerMatch())); //$NON-NLS-1$
+    } else if (difference_p instanceof IValuePresence) {
+      IValuePresence presence = (IValuePresence)difference_p;
+      builder.append(presence.isOrder()? "Order ": "Value "); //$NON-NLS-1$ //$NON-NLS-2$
+      builder.append(presence.getPresenceRole());
+      builder.append(' ').append(describe(presence.getElementMatch()));
+      builder.append('.').append(presence.getFeature().getName());
+      if (presence instanceof IReferenceValuePresence) {
+        IReferenceValuePresence referencePresence = (IReferenceValuePresence)presence;
+        builder.append(" = "); //$NON-NLS-1$
+        if (referencePresence.getValueMatch() != null)
+          builder.append(describe(referencePresence.getValueMatch()));
+        else
+          builder.append(getID(referencePresence.getValue()));
+      } else if (presence instanceof IAttributeValuePresence && !presence.isOrder()) {
+        builder.append(" = ").append(presence.getValue()); //$NON-NLS-1$
+      }
+    } else {
+      builder.append(difference_p.getClass().getSimpleName());
+    }
+    if (difference_p.isAlignedWithAncestor())
+      builder.append(" [aligned]"); //$NON-NLS-1$
+    if (difference_p.isConflicting())
+      builder.append(" [conflicting]"); //$NON-NLS-1$
+    return builder.toString();
+  }
+
+  /**
+   * Return a description of the given match which only depends on element IDs
+   * @param match_p a potentially null match
+   * @return a non-null string
+   */
+  protected String describe(IMatch match_p) {
+    if (match_p == null)
+      return "-"; //$NON-NLS-1$
+    StringBuilder builder = new StringBuilder("("); //$NON-NLS-1$
+    builder.append(getID(match_p.get(Role.TARGET))).append(", "); //$NON-NLS-1$
+    builder.append(getID(match_p.get(Role.REFERENCE))).append(", "); //$NON-NLS-1$
+    builder.append(getID(match_p.get(Role.ANCESTOR))).append(')');
+    return builder.toString();
+  }
+
+  /**
+   * Add values to the many-valued features of the elements of the given model
+   * @param model_p a non-null model created by the generator
+   * @param seed_p the seed for random choices
+   * @param maxValues_p the positive maximal number of values to add per feature and element
+   */
+  protected void enrich(Root model_p, long seed_p, int maxValues_p) {
+    Random random = new Random(seed_p);
+    List<Element> all = ElementsModelGenerator.getAllElements(model_p);
+    for (Element element : all) {
+      int nbValues = random.nextInt(maxValues_p + 1);
+      for (int i = 0; i < nbValues; i++) {
+        element.getValues().add(Integer.valueOf(random.nextInt(100)));
+        Element referenced = all.get(random.nextInt(all.size()));
+        if (!element.getManyRef().contains(referenced))
+          element.getManyRef().add(referenced);
+      }
+    }
+  }
+
+  /**
+   * Generate the models with the given parameters
+   * @param changeRate_p the probability, between 0 and 1, for an element to be changed in a variant
+   */
+  protected void generateModels(double changeRate_p) {
+    ElementsModelGenerator generator = getGenerator(changeRate_p);
+    _ancestor = generator.generate(ANCESTOR_SEED);
+    _target = generator.derive(_ancestor, TARGET_SEED);
+    _reference = generator.derive(_ancestor, REFERENCE_SEED);
+  }
+
+  /**
+   * Return a generator of models with the given change rate
+   * @param changeRate_p the probability, between 0 and 1, for an element to be changed in a variant
+   * @return a non-null generator
+   */
+  protected ElementsModelGenerator getGenerator(double changeRate_p) {
+    return new ElementsModelGenerator(MODEL_SIZE, 4, 5, 1.5, changeRate_p);
+  }
+
+  /**
+   * Return the ID of the given element
+   * @param element_p a potentially null element
+   * @return a non-null string
+   */
+  protected String getID(EObject element_p) {
+    String result;
+    if (element_p == null)
+      result = "-"; //$NON-NLS-1$
+    else if (element_p instanceof IdentifiedElement)
+      result = ((IdentifiedElement)element_p).getId();
+    else
+      result = String.valueOf(EcoreUtil.getURI(element_p));
+    return result;
+  }
+
+  /**
+   * Return the signature of the given comparison, i.e., the sorted descriptions
+   * of its matches and differences
+   * @param comparison_p a non-null comparison
+   * @return a non-null, modifiable list
+   */
+  protected List<String> getSignature(IComparison comparison_p) {
+    List<String> result = new ArrayList<String>();
+    for (IMatch match : comparison_p.getMapping().getContents()) {
+      result.add("Match " + describe(match)); //$NON-NLS-1$
+      for (IDifference difference : match.getAllDifferences()) {
+        result.add(describe(difference));
+      }
+    }
+    Collections.sort(result);
+    return result;
+  }
+
+  /**
+   * Create and return a model scope on a copy of the given model which
+   * does not cover the last child of the root, so that references to its
+   * contents are out of scope
+   * @param model_p a potentially null model
+   * @return a scope, or null if the model is null
+   */
+  protected IEditableModelScope newPartialScope(Root model_p) {
+    if (model_p == null)
+      return null;
+    Root copy = EcoreUtil.copy(model_p);
+    List<EObject> roots = new ArrayList<EObject>(copy.getContent());
+    if (roots.size() > 1)
+      roots.remove(roots.size() - 1);
+    return new RootedModelScope(roots);
+  }
+
+  /**
+   * Create and return a model scope on a copy of the given model
+   * @param model_p a potentially null model
+   * @return a scope, or null if the model is null
+   */
+  protected IEditableModelScope newScope(Root model_p) {
+    if (model_p == null)
+      return null;
+    return new RootedModelScope(Collections.<EObject>singletonList(EcoreUtil.copy(model_p)));
+  }
+
+  /**
+   * Move values within the many-valued features of the elements of the given model
+   * @param model_p a non-null model
+   * @param seed_p the seed for random choices
+   * @param rate_p the probability, between 0 and 1, for a feature of an element to be reordered
+   */
+  protected void reorder(Root model_p, long seed_p, double rate_p) {
+    Random random = new Random(seed_p);
+    for (Element element : ElementsModelGenerator.getAllElements(model_p)) {
+      for (EList<?> values : Arrays.<EList<?>>asList(
+          element.getValues(), element.getManyRef(), element.getManyContent())) {
+        if (values.size() > 1 && random.nextDouble() < rate_p) {
+          int nbMoves = 1 + random.nextInt(values.size());
+          for (int i = 0; i < nbMoves; i++) {
+            values.move(random.nextInt(values.size()), random.nextInt(values.size()));
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * @see junit.framework.TestCase#tearDown()
+   */
+  @Override
+  protected void tearDown() throws Exception {
+    _ancestor = null;
+    _target = null;
+    _reference = null;
+    super.tearDown();
+  }
+
+}
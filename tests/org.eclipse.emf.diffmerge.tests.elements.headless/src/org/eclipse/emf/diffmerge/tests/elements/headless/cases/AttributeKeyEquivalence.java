@@ -0,0 +1,94 @@
+package org.eclipse.emf.diffmerge.tests.elements.headless.cases;
+
+import java.util.Arrays;
+
+import org.eclipse.emf.diffmerge.api.IDiffPolicy;
+import org.eclipse.emf.diffmerge.impl.policies.DefaultDiffPolicy;
+import org.eclipse.emf.diffmerge.tests.elements.headless.BaselineEquivalenceTestCase;
+import org.eclipse.emf.ecore.EAttribute;
+
+
+/**
+ * Compare generated models whose many-valued attributes have been changed and
+ * reordered, with the alignment of attribute values through equivalence keys
+ * and with the original pairwise algorithm. Check that both detect the same
+ * differences on the same values, with diff policies that provide keys for all
+ * values, for some values only, or for no value.
+ * Headless check.
+ */
+public class AttributeKeyEquivalence extends BaselineEquivalenceTestCase {
+
+  /** The maximal number of values added per element, so that positions are hashed */
+  protected static final int MAX_ADDED_VALUES = 30;
+
+
+  /**
+   * A diff policy which considers integers equal modulo 10, so that several
+   * values of a many-valued attribute may be considered equal, and which provides
+   * keys for the integers below a given bound.
+   */
+  protected static class ModuloDiffPolicy extends DefaultDiffPolicy {
+    /** The bound below which integers have a key, where 0 means that keys are not used */
+    private final int _keyBound;
+    /**
+     * Constructor
+     * @param keyBound_p the bound below which integers have a key, or 0 for no keys
+     */
+    public ModuloDiffPolicy(int keyBound_p) {
+      _keyBound = keyBound_p;
+    }
+    /**
+     * @see org.eclipse.emf.diffmerge.impl.policies.DefaultDiffPolicy#considerEqual(java.lang.Object, java.lang.Object, org.eclipse.emf.ecore.EAttribute)
+     */
+    @Override
+    public boolean considerEqual(Object value1_p, Object value2_p, EAttribute attribute_p) {
+      if (value1_p instanceof Integer && value2_p instanceof Integer)
+        return modulo(value1_p) == modulo(value2_p);
+      return super.considerEqual(value1_p, value2_p, attribute_p);
+    }
+    /**
+     * @see org.eclipse.emf.diffmerge.impl.policies.DefaultDiffPolicy#getEquivalenceKey(java.lang.Object, org.eclipse.emf.ecore.EAttribute)
+     */
+    @Override
+    public Object getEquivalenceKey(Object value_p, EAttribute attribute_p) {
+      if (value_p instanceof Integer) {
+        Object result = null;
+        if (useEquivalenceKeys() && ((Integer)value_p).intValue() < _keyBound)
+          result = Integer.valueOf(modulo(value_p));
+        return result;
+      }
+      return super.getEquivalenceKey(value_p, attribute_p);
+    }
+    /**
+     * Return the class of the given integer modulo 10
+     * @param value_p a non-null integer
+     */
+    protected int modulo(Object value_p) {
+      return (((Integer)value_p).intValue() % 10 + 10) % 10;
+    }
+    /**
+     * @see org.eclipse.emf.diffmerge.impl.policies.DefaultDiffPolicy#useEquivalenceKeys()
+     */
+    @Override
+    protected boolean useEquivalenceKeys() {
+      return _keyBound > 0;
+    }
+  }
+
+
+  /**
+   * Main test method.
+   */
+  public void testAttributeKeyEquivalence() throws Exception {
+    for (double changeRate : new double[] {0.05, 0.3}) {
+      generateModels(changeRate, MAX_ADDED_VALUES);
+      for (IDiffPolicy diffPolicy : Arrays.<IDiffPolicy>asList(new DefaultDiffPolicy(),
+          new ModuloDiffPolicy(0), new ModuloDiffPolicy(50),
+          new ModuloDiffPolicy(Integer.MAX_VALUE))) {
+        checkEquivalence(diffPolicy, false, false);
+        checkEquivalence(diffPolicy, true, false);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,69 @@
+package org.eclipse.emf.diffmerge.tests.elements.headless.cases;
+
+import org.eclipse.emf.diffmerge.api.IComparison;
+import org.eclipse.emf.diffmerge.api.Role;
+import org.eclipse.emf.diffmerge.diffdata.impl.EComparisonImpl;
+import org.eclipse.emf.diffmerge.impl.compact.CompactComparison;
+import org.eclipse.emf.diffmerge.impl.policies.DefaultDiffPolicy;
+import org.eclipse.emf.diffmerge.impl.policies.DefaultMatchPolicy;
+import org.eclipse.emf.diffmerge.impl.policies.DefaultMergePolicy;
+import org.eclipse.emf.diffmerge.tests.elements.headless.ComparisonTestCase;
+
+
+/**
+ * Compare generated models with CompactComparison and with EComparisonImpl,
+ * in two-way and three-way modes, and check that matches, differences and
+ * merge results are the same.
+ * Headless check.
+ */
+public class CompactComparisonEquivalence extends ComparisonTestCase {
+
+  /**
+   * Compute and return a comparison of the generated models
+   * @param compact_p whether a CompactComparison must be used, or an EComparisonImpl
+   * @param threeWay_p whether the comparison must be three-way
+   * @return a non-null computed comparison
+   */
+  protected IComparison.Editable compute(boolean compact_p, boolean threeWay_p) {
+    IComparison.Editable result;
+    if (compact_p)
+      result = new CompactComparison(newScope(_target), newScope(_reference),
+          threeWay_p? newScope(_ancestor): null);
+    else
+      result = new EComparisonImpl(newScope(_target), newScope(_reference),
+          threeWay_p? newScope(_ancestor): null);
+    result.compute(new DefaultMatchPolicy(), new DefaultDiffPolicy(),
+        new DefaultMergePolicy(), null);
+    return result;
+  }
+
+  /**
+   * Check the equivalence of both implementations on the generated models
+   * @param threeWay_p whether the comparisons must be three-way
+   */
+  protected void checkEquivalence(boolean threeWay_p) {
+    IComparison.Editable expected = compute(false, threeWay_p);
+    IComparison.Editable actual = compute(true, threeWay_p);
+    assertTrue(actual.isConsistent());
+    assertFalse(actual.getRemainingDifferences().isEmpty());
+    assertEquivalent(expected, actual);
+    assertEquivalent(expected, ((CompactComparison)actual).toEComparison());
+    // Merge
+    expected.merge(Role.TARGET, true, null);
+    actual.merge(Role.TARGET, true, null);
+    assertEquivalent(expected, actual);
+    assertEqualModels(expected, actual, Role.TARGET);
+  }
+
+  /**
+   * Main test method.
+   */
+  public void testCompactComparisonEquivalence() throws Exception {
+    for (double changeRate : new double[] {0.05, 0.3}) {
+      generateModels(changeRate);
+      checkEquivalence(false);
+      checkEquivalence(true);
+    }
+  }
+
+}
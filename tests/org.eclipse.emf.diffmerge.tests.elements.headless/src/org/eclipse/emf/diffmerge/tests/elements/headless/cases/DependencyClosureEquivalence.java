@@ -0,0 +1,237 @@
+package org.eclipse.emf.diffmerge.tests.elements.headless.cases;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.emf.diffmerge.api.IComparison;
+import org.eclipse.emf.diffmerge.api.IMatch;
+import org.eclipse.emf.diffmerge.api.Role;
+import org.eclipse.emf.diffmerge.api.diff.IDifference;
+import org.eclipse.emf.diffmerge.api.diff.IMergeableDifference;
+import org.eclipse.emf.diffmerge.diffdata.impl.EComparisonImpl;
+import org.eclipse.emf.diffmerge.impl.compact.CompactComparison;
+import org.eclipse.emf.diffmerge.impl.helpers.DifferenceDependencyGraph;
+import org.eclipse.emf.diffmerge.impl.policies.DefaultDiffPolicy;
+import org.eclipse.emf.diffmerge.impl.policies.DefaultMatchPolicy;
+import org.eclipse.emf.diffmerge.impl.policies.DefaultMergePolicy;
+import org.eclipse.emf.diffmerge.structures.IEqualityTester;
+import org.eclipse.emf.diffmerge.structures.common.FHashSet;
+import org.eclipse.emf.diffmerge.structures.endo.AbstractEndorelation;
+import org.eclipse.emf.diffmerge.tests.elements.headless.ComparisonTestCase;
+
+
+/**
+ * Compute comparisons of generated models, with CompactComparison and with
+ * EComparisonImpl, in two-way and three-way modes, and check that the closures of
+ * inter-difference dependencies provided by the condensed dependency graphs are
+ * the same as the transitive closures of the original dependency relations.
+ * Closures must also be in topological order, and the graphs must remain valid
+ * after part of the differences have been merged.
+ * Headless check.
+ */
+public class DependencyClosureEquivalence extends ComparisonTestCase {
+
+  /**
+   * The original definition of inter-difference dependencies as a binary relation
+   * over differences, whose transitive closures serve as a reference.
+   */
+  protected static class DependencyRelation
+  extends AbstractEndorelation<IMergeableDifference> {
+    /** The non-null role for dependency computation */
+    private final Role _role;
+    /** Whether to use explicit or implicit inter-difference dependencies */
+    private final boolean _isExplicit;
+    /**
+     * Constructor
+     * @param role_p the role to which dependencies are relative (TARGET or REFERENCE)
+     * @param isExplicit_p whether to use explicit or implicit inter-difference dependencies
+     */
+    public DependencyRelation(Role role_p, boolean isExplicit_p) {
+      super(IEqualityTester.BY_REFERENCE);
+      _role = role_p;
+      _isExplicit = isExplicit_p;
+    }
+    /**
+     * @see org.eclipse.emf.diffmerge.structures.binary.IBinaryRelation#get(java.lang.Object)
+     */
+    public Collection<IMergeableDifference> get(IMergeableDifference element_p) {
+      Collection<IMergeableDifference> result;
+      if (_isExplicit) {
+        result = new FHashSet<IMergeableDifference>(
+            element_p.getDirectRequiresDependencies(_role), IEqualityTester.BY_REFERENCE);
+        for (IMergeableDifference implicit : element_p.getDirectImpliesDependencies(_role)) {
+          result.addAll(implicit.getDirectRequiresDependencies(_role));
+        }
+      } else {
+        result = element_p.getDirectImpliesDependencies(_role);
+      }
+      return result;
+    }
+  }
+
+
+  /**
+   * Check that the given closures have the same elements
+   * @param expected_p a non-null collection of differences
+   * @param actual_p a non-null collection of differences
+   */
+  protected void assertSameClosure(Collection<IMergeableDifference> expected_p,
+      Collection<IMergeableDifference> actual_p) {
+    Set<IMergeableDifference> expected = newIdentitySet(expected_p);
+    assertEquals(expected.size(), actual_p.size());
+    assertTrue(expected.containsAll(newIdentitySet(actual_p)));
+  }
+
+  /**
+   * Check that the given closure is in topological order, i.e., that every difference
+   * comes after its dependencies unless they depend on each other or it depends on itself
+   * @param closure_p a non-null closure
+   * @param relation_p a non-null dependency relation
+   * @param closures_p a non-null, modifiable cache of the closures of the relation
+   */
+  protected void assertTopological(List<IMergeableDifference> closure_p,
+      DependencyRelation relation_p,
+      Map<IMergeableDifference, Set<IMergeableDifference>> closures_p) {
+    Map<IMergeableDifference, Integer> positions =
+        new IdentityHashMap<IMergeableDifference, Integer>();
+    for (int i = 0; i < closure_p.size(); i++) {
+      positions.put(closure_p.get(i), Integer.valueOf(i));
+    }
+    for (int i = 0; i < closure_p.size(); i++) {
+      IMergeableDifference current = closure_p.get(i);
+      for (IMergeableDifference dependency : relation_p.get(current)) {
+        Integer position = positions.get(dependency);
+        if (position != null && dependency != current &&
+            !getClosure(dependency, relation_p, closures_p).contains(current))
+          assertTrue(position.intValue() < i);
+      }
+    }
+  }
+
+  /**
+   * Check that the closures of the dependency graphs of the given comparison
+   * are the same as those of the original dependency relations
+   * @param comparison_p a non-null, computed comparison which provides dependency graphs
+   * @param viaDifferences_p whether closures must also be checked through the differences
+   */
+  protected void checkClosures(IComparison comparison_p, boolean viaDifferences_p) {
+    List<IMergeableDifference> differences = getDifferences(comparison_p);
+    assertFalse(differences.isEmpty());
+    for (Role role : Arrays.asList(Role.TARGET, Role.REFERENCE)) {
+      for (boolean isExplicit : new boolean[] {true, false}) {
+        DependencyRelation relation = new DependencyRelation(role, isExplicit);
+        Map<IMergeableDifference, Set<IMergeableDifference>> closures =
+            new IdentityHashMap<IMergeableDifference, Set<IMergeableDifference>>();
+        DifferenceDependencyGraph graph = ((DifferenceDependencyGraph.Provider)comparison_p)
+            .getDependencyGraph(role, isExplicit);
+        for (IMergeableDifference difference : differences) {
+          List<IMergeableDifference> closure = graph.getClosure(difference);
+          assertSameClosure(getClosure(difference, relation, closures), closure);
+          assertTopological(closure, relation, closures);
+        }
+      }
+      if (viaDifferences_p) {
+        DependencyRelation explicitRelation = new DependencyRelation(role, true);
+        DependencyRelation implicitRelation = new DependencyRelation(role, false);
+        for (IMergeableDifference difference : differences) {
+          Collection<IMergeableDifference> required =
+              explicitRelation.getTransitiveClosure(difference);
+          assertSameClosure(required, difference.getRequiresDependencies(role));
+          List<IMergeableDifference> allRequired = new ArrayList<IMergeableDifference>();
+          allRequired.add(difference);
+          allRequired.addAll(required);
+          assertSameClosure(implicitRelation.getTransitiveClosure(allRequired),
+              difference.getImpliesDependencies(role));
+        }
+      }
+    }
+  }
+
+  /**
+   * Check the closures of dependencies on a comparison of the generated models,
+   * before and after merging part of the differences
+   * @param comparison_p a non-null comparison of the generated models
+   */
+  protected void checkClosures(IComparison.Editable comparison_p) {
+    comparison_p.compute(new DefaultMatchPolicy(), new DefaultDiffPolicy(),
+        new DefaultMergePolicy(), null);
+    checkClosures(comparison_p, true);
+    List<IDifference> toMerge = new ArrayList<IDifference>();
+    int i = 0;
+    for (IDifference difference : comparison_p.getRemainingDifferences()) {
+      if (i++ % 3 == 0)
+        toMerge.add(difference);
+    }
+    comparison_p.merge(toMerge, Role.TARGET, true, null);
+    checkClosures(comparison_p, false);
+  }
+
+  /**
+   * Return the transitive closure of the given difference according to the given relation
+   * @param difference_p a non-null difference
+   * @param relation_p a non-null dependency relation
+   * @param closures_p a non-null, modifiable cache of the closures of the relation
+   * @return a non-null set which does not contain the given difference
+   */
+  protected Set<IMergeableDifference> getClosure(IMergeableDifference difference_p,
+      DependencyRelation relation_p,
+      Map<IMergeableDifference, Set<IMergeableDifference>> closures_p) {
+    Set<IMergeableDifference> result = closures_p.get(difference_p);
+    if (result == null) {
+      result = newIdentitySet(relation_p.getTransitiveClosure(difference_p));
+      closures_p.put(difference_p, result);
+    }
+    return result;
+  }
+
+  /**
+   * Return the mergeable differences of the given comparison
+   * @param comparison_p a non-null comparison
+   * @return a non-null, modifiable list
+   */
+  protected List<IMergeableDifference> getDifferences(IComparison comparison_p) {
+    List<IMergeableDifference> result = new ArrayList<IMergeableDifference>();
+    for (IMatch match : comparison_p.getMapping().getContents()) {
+      for (IDifference difference : match.getAllDifferences()) {
+        if (difference instanceof IMergeableDifference)
+          result.add((IMergeableDifference)difference);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Return a new set of differences compared by reference with the given contents
+   * @param differences_p a non-null collection of differences
+   * @return a non-null, modifiable set
+   */
+  protected Set<IMergeableDifference> newIdentitySet(
+      Collection<IMergeableDifference> differences_p) {
+    Set<IMergeableDifference> result = Collections.newSetFromMap(
+        new IdentityHashMap<IMergeableDifference, Boolean>());
+    result.addAll(differences_p);
+    return result;
+  }
+
+  /**
+   * Main test method.
+   */
+  public void testDependencyClosureEquivalence() throws Exception {
+    for (double changeRate : new double[] {0.05, 0.3}) {
+      generateModels(changeRate);
+      for (boolean threeWay : new boolean[] {false, true}) {
+        checkClosures(new EComparisonImpl(newScope(_target), newScope(_reference),
+            threeWay? newScope(_ancestor): null));
+        checkClosures(new CompactComparison(newScope(_target), newScope(_reference),
+            threeWay? newScope(_ancestor): null));
+      }
+    }
+  }
+
+}
@@ -0,0 +1,111 @@
+package org.eclipse.emf.diffmerge.tests.elements.headless.cases;
+
+import java.util.Arrays;
+
+import org.eclipse.emf.diffmerge.api.IDiffPolicy;
+import org.eclipse.emf.diffmerge.api.IMatchPolicy;
+import org.eclipse.emf.diffmerge.api.IMergePolicy;
+import org.eclipse.emf.diffmerge.api.Role;
+import org.eclipse.emf.diffmerge.diffdata.impl.EComparisonImpl;
+import org.eclipse.emf.diffmerge.impl.helpers.IncrementalComparisonUpdater;
+import org.eclipse.emf.diffmerge.impl.policies.ConfigurableMatchPolicy;
+import org.eclipse.emf.diffmerge.impl.policies.ConfigurableMatchPolicy.MatchCriterionKind;
+import org.eclipse.emf.diffmerge.impl.policies.DefaultDiffPolicy;
+import org.eclipse.emf.diffmerge.impl.policies.DefaultMatchPolicy;
+import org.eclipse.emf.diffmerge.impl.policies.DefaultMergePolicy;
+import org.eclipse.emf.diffmerge.tests.elements.Elements.Root;
+import org.eclipse.emf.diffmerge.tests.elements.util.ElementsModelGenerator;
+import org.eclipse.emf.diffmerge.tests.elements.headless.ComparisonTestCase;
+
+
+/**
+ * Update comparisons of generated models after successive changes in place,
+ * in two-way and three-way modes, and check that the results are the same as
+ * full computations on copies of the models. Updates must be local if and only
+ * if match IDs can be reused.
+ * Headless check.
+ */
+public class IncrementalComparisonConsistency extends ComparisonTestCase {
+
+  /** The number of successive changes before re-computations */
+  protected static final int NB_EDITS = 5;
+
+  /** The probability for an element to be changed before every re-computation */
+  protected static final double EDIT_RATE = 0.02;
+
+  /** The seed of the first changes before re-computations */
+  protected static final long EDIT_SEED = 10L;
+
+  /** The match policy whose match IDs can be reused, non-null during the test */
+  protected ConfigurableMatchPolicy _reusing;
+
+
+  /**
+   * Check the incremental re-computations of a comparison of the generated models
+   * with the given match policy
+   * @param matchPolicy_p a non-null match policy
+   * @param threeWay_p whether the comparison must be three-way
+   */
+  protected void checkIncremental(IMatchPolicy matchPolicy_p, boolean threeWay_p) {
+    IDiffPolicy diffPolicy = new DefaultDiffPolicy();
+    IMergePolicy mergePolicy = new DefaultMergePolicy();
+    EComparisonImpl comparison = new EComparisonImpl(newScope(_target),
+        newScope(_reference), threeWay_p? newScope(_ancestor): null);
+    comparison.setIncremental(true);
+    comparison.compute(matchPolicy_p, diffPolicy, mergePolicy, null);
+    ElementsModelGenerator editor = getGenerator(EDIT_RATE);
+    long seed = EDIT_SEED;
+    for (int i = 0; i < NB_EDITS; i++) {
+      for (Role role : Arrays.asList(Role.TARGET, Role.REFERENCE)) {
+        editor.change(getRoot(comparison, role), seed++);
+      }
+      IncrementalComparisonUpdater updater = comparison.getIncrementalUpdater();
+      assertTrue(updater.update(null).isOK());
+      if (matchPolicy_p == _reusing) {
+        assertTrue(updater.isLastUpdateLocal());
+        assertTrue(updater.getNbDetectedMatches() < comparison.getMapping().size());
+      } else {
+        assertFalse(updater.isLastUpdateLocal());
+      }
+      assertTrue(comparison.isConsistent());
+      EComparisonImpl fresh = new EComparisonImpl(
+          newScope(getRoot(comparison, Role.TARGET)),
+          newScope(getRoot(comparison, Role.REFERENCE)),
+          threeWay_p? newScope(_ancestor): null);
+      fresh.compute(matchPolicy_p, diffPolicy, mergePolicy, null);
+      assertEquivalent(fresh, comparison);
+    }
+    comparison.setIncremental(false);
+  }
+
+  /**
+   * Return the root of the model of the given comparison in the given role
+   * @param comparison_p a non-null comparison of generated models
+   * @param role_p a non-null role
+   * @return a non-null root
+   */
+  protected Root getRoot(EComparisonImpl comparison_p, Role role_p) {
+    return (Root)comparison_p.getScope(role_p).getContents().get(0);
+  }
+
+  /**
+   * Main test method.
+   */
+  public void testIncrementalComparisonConsistency() throws Exception {
+    _reusing = new ConfigurableMatchPolicy();
+    assertTrue(_reusing.hasAncestorBasedMatchIDs());
+    ConfigurableMatchPolicy structural = new ConfigurableMatchPolicy();
+    structural.setUseCriterion(MatchCriterionKind.STRUCTURE, true);
+    assertFalse(structural.hasAncestorBasedMatchIDs());
+    assertFalse(new DefaultMatchPolicy() instanceof IMatchPolicy.Incremental);
+    for (double changeRate : new double[] {0.05, 0.3}) {
+      generateModels(changeRate);
+      for (IMatchPolicy matchPolicy : Arrays.<IMatchPolicy>asList(
+          _reusing, structural, new DefaultMatchPolicy())) {
+        checkIncremental(matchPolicy, false);
+        checkIncremental(matchPolicy, true);
+      }
+    }
+  }
+
+}
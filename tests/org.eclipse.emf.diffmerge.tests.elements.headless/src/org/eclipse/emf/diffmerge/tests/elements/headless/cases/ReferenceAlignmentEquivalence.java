@@ -0,0 +1,50 @@
+package org.eclipse.emf.diffmerge.tests.elements.headless.cases;
+
+import org.eclipse.emf.diffmerge.impl.policies.DefaultDiffPolicy;
+import org.eclipse.emf.diffmerge.tests.elements.headless.BaselineEquivalenceTestCase;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EReference;
+
+
+/**
+ * Compare generated models whose many-valued references have been changed and
+ * reordered, with the alignment of reference values through position indexes and
+ * the detection of ordering differences through longest increasing subsequences,
+ * and with the original algorithms. Check that both detect the same differences,
+ * including on out-of-scope values.
+ * Headless check.
+ */
+public class ReferenceAlignmentEquivalence extends BaselineEquivalenceTestCase {
+
+  /** The maximal number of values added per element */
+  protected static final int MAX_ADDED_VALUES = 6;
+
+
+  /**
+   * A diff policy which covers all out-of-scope values
+   */
+  protected static class OutOfScopeDiffPolicy extends DefaultDiffPolicy {
+    /**
+     * @see org.eclipse.emf.diffmerge.impl.policies.DefaultDiffPolicy#coverOutOfScopeValue(org.eclipse.emf.ecore.EObject, org.eclipse.emf.ecore.EReference)
+     */
+    @Override
+    public boolean coverOutOfScopeValue(EObject element_p, EReference reference_p) {
+      return !reference_p.isContainment() && !reference_p.isContainer();
+    }
+  }
+
+
+  /**
+   * Main test method.
+   */
+  public void testReferenceAlignmentEquivalence() throws Exception {
+    for (double changeRate : new double[] {0.05, 0.3}) {
+      generateModels(changeRate, MAX_ADDED_VALUES);
+      for (boolean partial : new boolean[] {false, true}) {
+        checkEquivalence(new OutOfScopeDiffPolicy(), false, partial);
+        checkEquivalence(new OutOfScopeDiffPolicy(), true, partial);
+      }
+    }
+  }
+
+}
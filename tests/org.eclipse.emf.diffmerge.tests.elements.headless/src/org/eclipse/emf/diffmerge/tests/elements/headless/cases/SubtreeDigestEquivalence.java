@@ -0,0 +1,83 @@
+package org.eclipse.emf.diffmerge.tests.elements.headless.cases;
+
+import org.eclipse.emf.diffmerge.api.IComparison;
+import org.eclipse.emf.diffmerge.api.scopes.IEditableModelScope;
+import org.eclipse.emf.diffmerge.diffdata.impl.EComparisonImpl;
+import org.eclipse.emf.diffmerge.impl.helpers.IncrementalComparisonUpdater;
+import org.eclipse.emf.diffmerge.impl.policies.ConfigurableDiffPolicy;
+import org.eclipse.emf.diffmerge.impl.policies.DefaultMatchPolicy;
+import org.eclipse.emf.diffmerge.impl.policies.DefaultMergePolicy;
+import org.eclipse.emf.diffmerge.tests.elements.headless.ComparisonTestCase;
+import org.eclipse.emf.diffmerge.util.OperationMetrics;
+
+
+/**
+ * Compare generated models with and without skipping the subtrees which are
+ * identical according to digests, in two-way and three-way modes, with complete
+ * and partial scopes and with or without ignoring orders. Check that the matches,
+ * differences and dependencies are the same, and that subtrees are actually skipped
+ * when few elements are changed.
+ * Headless check.
+ */
+public class SubtreeDigestEquivalence extends ComparisonTestCase {
+
+  /**
+   * Compute and return a comparison of the given scopes
+   * @param scopes_p a non-null array of the TARGET, REFERENCE and optional ANCESTOR scopes
+   * @param useDigests_p whether identical subtrees must be skipped
+   * @param ignoreOrders_p whether orders must be ignored
+   * @return a non-null computed comparison
+   */
+  protected EComparisonImpl compute(IEditableModelScope[] scopes_p, boolean useDigests_p,
+      boolean ignoreOrders_p) {
+    EComparisonImpl result = new EComparisonImpl(scopes_p[0], scopes_p[1], scopes_p[2]);
+    ConfigurableDiffPolicy diffPolicy = new ConfigurableDiffPolicy();
+    diffPolicy.setIgnoreOrders(ignoreOrders_p);
+    diffPolicy.setUseSubtreeDigests(useDigests_p);
+    assertEquals(useDigests_p, diffPolicy.isDigestible());
+    result.compute(new DefaultMatchPolicy(), diffPolicy, new DefaultMergePolicy(), null);
+    return result;
+  }
+
+  /**
+   * Check that skipping identical subtrees does not change the comparison
+   * of the generated models
+   * @param ignoreOrders_p whether orders must be ignored
+   * @param threeWay_p whether the comparisons must be three-way
+   * @param partial_p whether the scopes must not cover some referenced elements
+   * @param mustPrune_p whether some subtrees must be skipped
+   */
+  protected void checkEquivalence(boolean ignoreOrders_p, boolean threeWay_p,
+      boolean partial_p, boolean mustPrune_p) {
+    // Both comparisons are computed on the same scopes, which they do not modify
+    IEditableModelScope[] scopes = new IEditableModelScope[] {
+        partial_p? newPartialScope(_target): newScope(_target),
+        partial_p? newPartialScope(_reference): newScope(_reference),
+        !threeWay_p? null: partial_p? newPartialScope(_ancestor): newScope(_ancestor)};
+    IComparison expected = compute(scopes, false, ignoreOrders_p);
+    EComparisonImpl actual = compute(scopes, true, ignoreOrders_p);
+    assertTrue(actual.isConsistent());
+    assertFalse(actual.getRemainingDifferences().isEmpty());
+    assertEquivalent(expected, actual);
+    assertTrue(IncrementalComparisonUpdater.isEquivalent(expected, actual));
+    long nbPruned = actual.getMetrics().getCounter(OperationMetrics.COUNTER_PRUNED_SUBTREES);
+    if (mustPrune_p)
+      assertTrue(nbPruned > 0);
+  }
+
+  /**
+   * Main test method.
+   */
+  public void testSubtreeDigestEquivalence() throws Exception {
+    for (double changeRate : new double[] {0.01, 0.05, 0.3}) {
+      generateModels(changeRate);
+      for (boolean threeWay : new boolean[] {false, true}) {
+        for (boolean partial : new boolean[] {false, true}) {
+          checkEquivalence(false, threeWay, partial, changeRate < 0.1);
+          checkEquivalence(true, threeWay, partial, false);
+        }
+      }
+    }
+  }
+
+}
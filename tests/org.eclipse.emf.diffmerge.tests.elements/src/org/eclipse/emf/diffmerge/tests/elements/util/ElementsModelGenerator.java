@@ -0,0 +1,250 @@
+/*********************************************************************
+ * Copyright (c) 2010-2019 Thales Global Services S.A.S.
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *    Thales Global Services S.A.S. - initial API and implementation
+ **********************************************************************/
+package org.eclipse.emf.diffmerge.tests.elements.util;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import org.eclipse.emf.common.util.EList;
+import org.eclipse.emf.common.util.TreeIterator;
+import org.eclipse.emf.diffmerge.tests.elements.Elements.Element;
+import org.eclipse.emf.diffmerge.tests.elements.Elements.ElementsFactory;
+import org.eclipse.emf.diffmerge.tests.elements.Elements.Root;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+
+
+/**
+ * A generator of synthetic models that conform to the Elements metamodel.
+ * A generated model is a tree of Elements under a Root, of bounded size and depth and
+ * of given fan-out, with cross-references of given density. Variants of a model
+ * are obtained by copying it and applying random changes at a given rate.
+ * Generation is deterministic for a given seed.
+ * @author Olivier Constant
+ */
+public class ElementsModelGenerator {
+
+  /** The prefix of the IDs of the elements of the generated models */
+  private static final String ID_PREFIX = "E"; //$NON-NLS-1$
+
+  /** The maximal number of elements in a generated model */
+  private final int _size;
+
+  /** The maximal depth of the containment tree under the root */
+  private final int _depth;
+
+  /** The number of children of every non-leaf element */
+  private final int _fanOut;
+
+  /** The average number of cross-references per element */
+  private final double _referenceDensity;
+
+  /** The probability for every element to be changed in a variant */
+  private final double _changeRate;
+
+
+  /**
+   * Constructor
+   * @param size_p the positive maximal number of elements in a generated model
+   * @param depth_p the positive maximal depth of the containment tree
+   * @param fanOut_p the positive number of children of every non-leaf element
+   * @param referenceDensity_p the positive or zero average number of cross-references per element
+   * @param changeRate_p the probability, between 0 and 1, for an element to be changed in a variant
+   */
+  public ElementsModelGenerator(int size_p, int depth_p, int fanOut_p,
+      double referenceDensity_p, double changeRate_p) {
+    _size = size_p;
+    _depth = depth_p;
+    _fanOut = fanOut_p;
+    _referenceDensity = referenceDensity_p;
+    _changeRate = changeRate_p;
+  }
+
+  /**
+   * Apply random changes to the given element according to the change rate
+   * @param element_p a non-null element
+   * @param all_p the non-null list of all elements of the model
+   * @param random_p a non-null random generator
+   * @param tag_p a non-null string that makes the IDs of added elements unique
+   * @param toDelete_p a non-null, modifiable list of elements to delete
+   */
+  protected void change(Element element_p, List<Element> all_p, Random random_p,
+      String tag_p, List<EObject> toDelete_p) {
+    switch (random_p.nextInt(7)) {
+    case 0:
+      element_p.setValue(random_p.nextInt());
+      break;
+    case 1:
+      element_p.setName(element_p.getName() + '_' + tag_p);
+      break;
+    case 2:
+      element_p.getValues().add(Integer.valueOf(random_p.nextInt(100)));
+      break;
+    case 3:
+      EList<Element> refs = element_p.getManyRef();
+      if (refs.isEmpty())
+        refs.add(pick(all_p, random_p));
+      else
+        refs.remove(random_p.nextInt(refs.size()));
+      break;
+    case 4:
+      Element added = ElementsFactory.eINSTANCE.createElement();
+      String id = ID_PREFIX + tag_p + '_' + element_p.getId();
+      added.setId(id);
+      added.setName(id);
+      element_p.getManyContent().add(added);
+      break;
+    case 5:
+      if (element_p.eContainer() instanceof Element)
+        toDelete_p.add(element_p);
+      break;
+    default:
+      // Move
+      Element newContainer = pick(all_p, random_p);
+      if (newContainer != element_p && !EcoreUtil.isAncestor(element_p, newContainer))
+        newContainer.getManyContent().add(element_p);
+    }
+  }
+
+  /**
+   * Return a variant of the given model obtained by copying it and applying
+   * random changes according to the change rate
+   * @param model_p a non-null model created by this generator
+   * @param seed_p the seed for the random changes
+   * @return a non-null model
+   */
+  public Root derive(Root model_p, long seed_p) {
+    Root result = EcoreUtil.copy(model_p);
+    change(result, seed_p);
+    return result;
+  }
+
+  /**
+   * Apply random changes in place to the given model according to the change rate
+   * @param model_p a non-null model created by this generator
+   * @param seed_p the seed for the random changes, which must be different for
+   *          every call on the same model
+   */
+  public void change(Root model_p, long seed_p) {
+    Random random = new Random(seed_p);
+    String tag = Long.toString(seed_p, Character.MAX_RADIX);
+    List<Element> all = getAllElements(model_p);
+    List<EObject> toDelete = new ArrayList<EObject>();
+    for (Element element : all) {
+      if (random.nextDouble() < _changeRate)
+        change(element, all, random, tag, toDelete);
+    }
+    EcoreUtil.deleteAll(toDelete, true);
+  }
+
+  /**
+   * Create and return a new model
+   * @param seed_p the seed for random choices
+   * @return a non-null model
+   */
+  public Root generate(long seed_p) {
+    Random random = new Random(seed_p);
+    Root result = ElementsFactory.eINSTANCE.createRoot();
+    result.setId("Root"); //$NON-NLS-1$
+    List<Element> all = new ArrayList<Element>(_size);
+    // Containment tree, breadth-first
+    LinkedList<Element> toExpand = new LinkedList<Element>();
+    for (int i = 0; i < _fanOut && all.size() < _size; i++) {
+      Element child = newElement(all.size());
+      result.getContent().add(child);
+      all.add(child);
+      toExpand.add(child);
+    }
+    while (!toExpand.isEmpty() && all.size() < _size) {
+      Element current = toExpand.removeFirst();
+      boolean canExpandChildren = getDepth(current) < _depth;
+      for (int i = 0; i < _fanOut && all.size() < _size; i++) {
+        Element child = newElement(all.size());
+        child.setValue(random.nextInt(1000));
+        current.getManyContent().add(child);
+        all.add(child);
+        if (canExpandChildren)
+          toExpand.add(child);
+      }
+    }
+    // Cross-references
+    for (Element element : all) {
+      int nbRefs = (int)_referenceDensity;
+      if (random.nextDouble() < _referenceDensity - nbRefs)
+        nbRefs++;
+      for (int i = 0; i < nbRefs; i++) {
+        Element referenced = pick(all, random);
+        if (i == 0)
+          element.setSingleRef(referenced);
+        else if (!element.getManyRef().contains(referenced))
+          element.getManyRef().add(referenced);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Return all the elements in the given model
+   * @param model_p a non-null model
+   * @return a non-null, modifiable list
+   */
+  public static List<Element> getAllElements(Root model_p) {
+    List<Element> result = new ArrayList<Element>();
+    TreeIterator<EObject> it = model_p.eAllContents();
+    while (it.hasNext()) {
+      EObject current = it.next();
+      if (current instanceof Element)
+        result.add((Element)current);
+    }
+    return result;
+  }
+
+  /**
+   * Return the depth of the given element in its containment tree
+   * @param element_p a non-null element
+   * @return a positive int
+   */
+  private static int getDepth(EObject element_p) {
+    int result = 0;
+    EObject current = element_p;
+    while (current.eContainer() != null) {
+      current = current.eContainer();
+      result++;
+    }
+    return result;
+  }
+
+  /**
+   * Create and return a new element with the given index
+   * @param index_p a positive int which is unique within the model
+   * @return a non-null element
+   */
+  private static Element newElement(int index_p) {
+    Element result = ElementsFactory.eINSTANCE.createElement();
+    String id = ID_PREFIX + index_p;
+    result.setId(id);
+    result.setName(id);
+    return result;
+  }
+
+  /**
+   * Return a random element of the given non-empty list
+   * @param elements_p a non-null, non-empty list
+   * @param random_p a non-null random generator
+   */
+  private static Element pick(List<Element> elements_p, Random random_p) {
+    return elements_p.get(random_p.nextInt(elements_p.size()));
+  }
+
+}